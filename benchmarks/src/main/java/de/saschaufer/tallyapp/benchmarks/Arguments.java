@@ -0,0 +1,35 @@
+package de.saschaufer.tallyapp.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parses the command line arguments of the tools in this module, which are given as {@code --name=value}.
+ */
+public final class Arguments {
+
+    private Arguments() {
+    }
+
+    /**
+     * @param names The known names. An unknown name is an error, so that typos don't silently fall back to defaults.
+     */
+    public static Map<String, String> parse(final Set<String> names, final String... args) {
+
+        final Map<String, String> values = new HashMap<>();
+
+        for (final String arg : args) {
+
+            final int separator = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || separator < 0 || !names.contains(arg.substring(2, separator))) {
+                throw new IllegalArgumentException("Unknown argument '%s'. Known: --<name>=<value> with name in %s".formatted(arg, names));
+            }
+
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,98 @@
+package de.saschaufer.tallyapp.benchmarks;
+
+import de.saschaufer.tallyapp.benchmarks.data.Dataset;
+import de.saschaufer.tallyapp.benchmarks.data.DatasetGenerator;
+import de.saschaufer.tallyapp.benchmarks.data.DatasetProperties;
+import de.saschaufer.tallyapp.config.db.DbConfig;
+import de.saschaufer.tallyapp.config.db.DbProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * An H2 database with the schema of the app, filled by the {@link DatasetGenerator} with {@link #users} users and
+ * {@link #purchasesPerUser} purchases per user. It is filled once per trial, i.e. per fork and parameter combination.
+ */
+@State(Scope.Benchmark)
+public class Database {
+
+    /**
+     * In-memory or file-backed H2.
+     */
+    @Param({"mem", "file"})
+    private String storage;
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    /**
+     * 100 purchases per user make 10M purchases for 100k users.
+     */
+    @Param({"100"})
+    private int purchasesPerUser;
+
+    private Path directory;
+    private R2dbcEntityTemplate template;
+    private Persistence persistence;
+    private Dataset dataset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        final String url = switch (storage) {
+            case "mem" -> "r2dbc:h2:mem:///benchmark";
+            case "file" -> {
+                directory = Files.createTempDirectory("tallyapp-benchmark-");
+                yield "r2dbc:h2:file:///" + directory.resolve("benchmark");
+            }
+            default -> throw new IllegalArgumentException("Unknown storage: " + storage);
+        };
+
+        final ConnectionFactory connectionFactory = ConnectionFactories.get(url + "?options=CASE_INSENSITIVE_IDENTIFIERS=true;DB_CLOSE_DELAY=-1");
+        final DatasetProperties datasetProperties = DatasetProperties.defaults(url, users, (long) users * purchasesPerUser);
+
+        dataset = new DatasetGenerator(datasetProperties, connectionFactory, new PrintStream(OutputStream.nullOutputStream())).generate();
+
+        final DbConfig dbConfig = new DbConfig(new DbProperties(url, Duration.ofSeconds(1)));
+        template = dbConfig.r2dbcEntityTemplate(connectionFactory);
+        persistence = new Persistence(template, dbConfig.transactionManager(connectionFactory));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        template.getDatabaseClient().sql("shutdown").then().block();
+
+        if (directory != null) {
+            try (final Stream<Path> files = Files.walk(directory)) {
+                for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    public Persistence persistence() {
+        return persistence;
+    }
+
+    public long randomUserId() {
+        return dataset.userIds()[ThreadLocalRandom.current().nextInt(dataset.userIds().length)];
+    }
+
+    public long randomProductId() {
+        return dataset.productIds()[ThreadLocalRandom.current().nextInt(dataset.productIds().length)];
+    }
+}
@@ -0,0 +1,86 @@
+package de.saschaufer.tallyapp.benchmarks;
+
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.security.JwtProperties;
+import de.saschaufer.tallyapp.config.security.SecurityConfig;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
+import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.services.UserDetailsService;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the JWT handling: Issuing a token on login, and decoding and converting it into an authentication on every
+ * request. The encoder, decoder and converter are the beans from {@link SecurityConfig}. For the allocations per call,
+ * run with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String EMAIL = "admin@mail.com";
+
+    private final User user = new User(1L, EMAIL, "", User.Role.USER, "", Instant.EPOCH, true);
+
+    private UserDetailsService userDetailsService;
+    private NimbusReactiveJwtDecoder jwtDecoder;
+    private ReactiveJwtAuthenticationConverter jwtAuthenticationConverter;
+    private String token;
+    private Jwt jwt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        final JwtProperties jwtProperties = new JwtProperties("tallyapp", "tallyapp", Duration.ofHours(1), "SomeMoreThan30CharactersLongString", false);
+        final SecurityConfig securityConfig = new SecurityConfig(jwtProperties);
+
+        // Only what creating a token needs
+        final Tenants tenants = new Tenants(new TenancyProperties(false, TenancyProperties.Resolution.HOST, 64, List.of()),
+                new AdminProperties(List.of(EMAIL)), null);
+        userDetailsService = new UserDetailsService(null, jwtProperties, tenants, null,
+                securityConfig.jwtEncoder(new SimpleMeterRegistry()), null, null, null, null);
+        jwtDecoder = securityConfig.jwtDecoder();
+        jwtAuthenticationConverter = securityConfig.jwtAuthenticationConverter();
+
+        token = userDetailsService.createJwtToken(user, TenantContext.DEFAULT).jwt();
+        jwt = jwtDecoder.decode(token).block();
+    }
+
+    @Benchmark
+    public String createJwtToken() {
+        return userDetailsService.createJwtToken(user, TenantContext.DEFAULT).jwt();
+    }
+
+    @Benchmark
+    public Jwt decode() {
+        return jwtDecoder.decode(token).block();
+    }
+
+    @Benchmark
+    public AbstractAuthenticationToken convert() {
+        return jwtAuthenticationConverter.convert(jwt).block();
+    }
+
+    /**
+     * What every authenticated request does.
+     */
+    @Benchmark
+    public AbstractAuthenticationToken decodeAndConvert() {
+        return jwtDecoder.decode(token).flatMap(jwtAuthenticationConverter::convert).block();
+    }
+}
@@ -0,0 +1,70 @@
+package de.saschaufer.tallyapp.benchmarks;
+
+import de.saschaufer.tallyapp.money.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares computing the balances as {@link BigDecimal} and as {@link Money}. The amounts are read before, as the
+ * database driver returns them, so that only the arithmetic is measured. For the allocations per call, run with
+ * {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final int AMOUNTS_PER_USER = 10;
+
+    @Param({"1000", "10000"})
+    private int users;
+
+    private BigDecimal[] amounts;
+    private long[] cents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        final Random random = new Random(42);
+        final int rows = users * AMOUNTS_PER_USER;
+
+        amounts = new BigDecimal[rows];
+        cents = new long[rows];
+
+        for (int i = 0; i < rows; i++) {
+            cents[i] = 50 + random.nextInt(500);
+            amounts[i] = BigDecimal.valueOf(cents[i], 2);
+        }
+    }
+
+    /**
+     * The balance of each user from the sums of the payments and purchases, as for the account balance.
+     */
+    @Benchmark
+    public BigDecimal balancesBigDecimal() {
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i + 1 < amounts.length; i += 2) {
+            total = total.add(amounts[i].subtract(amounts[i + 1]));
+        }
+
+        return total;
+    }
+
+    @Benchmark
+    public Money balancesMoney() {
+
+        Money total = Money.ZERO;
+        for (int i = 0; i + 1 < cents.length; i += 2) {
+            total = total.plus(new Money(cents[i]).minus(new Money(cents[i + 1])));
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,48 @@
+package de.saschaufer.tallyapp.benchmarks;
+
+import de.saschaufer.tallyapp.controller.dto.GetPurchasesResponse;
+import de.saschaufer.tallyapp.money.Money;
+import de.saschaufer.tallyapp.persistence.dto.Product;
+import de.saschaufer.tallyapp.persistence.dto.ProductPrice;
+import org.openjdk.jmh.annotations.*;
+import reactor.util.function.Tuple2;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot {@link de.saschaufer.tallyapp.persistence.Persistence} methods against a seeded {@link Database}.
+ * The user-scoped methods pick a random user per call, so that no single row stays in the caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PersistenceBenchmark {
+
+    @Benchmark
+    public List<GetPurchasesResponse> selectPurchases(final Database database) {
+        return database.persistence().selectPurchases(database.randomUserId()).block();
+    }
+
+    @Benchmark
+    public Money selectPurchasesSum(final Database database) {
+        return database.persistence().selectPurchasesSum(database.randomUserId()).block();
+    }
+
+    @Benchmark
+    public Money selectPaymentsSum(final Database database) {
+        return database.persistence().selectPaymentsSum(database.randomUserId()).block();
+    }
+
+    @Benchmark
+    public List<Tuple2<Product, ProductPrice>> selectProducts(final Database database) {
+        return database.persistence().selectProducts().block();
+    }
+
+    @Benchmark
+    public void insertPurchase(final Database database) {
+        database.persistence().insertPurchase(database.randomUserId(), database.randomProductId()).block();
+    }
+}
@@ -0,0 +1,15 @@
+package de.saschaufer.tallyapp.benchmarks.data;
+
+/**
+ * What the {@link DatasetGenerator} wrote.
+ *
+ * @param userIds    The IDs of the users, the most active first.
+ * @param productIds The IDs of the products, the most popular first.
+ */
+public record Dataset(
+        long[] userIds,
+        long[] productIds,
+        long purchases,
+        long payments
+) {
+}
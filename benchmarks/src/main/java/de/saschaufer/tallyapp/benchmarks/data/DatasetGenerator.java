@@ -0,0 +1,258 @@
+package de.saschaufer.tallyapp.benchmarks.data;
+
+import de.saschaufer.tallyapp.config.db.DbConfig;
+import de.saschaufer.tallyapp.config.db.DbProperties;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+/**
+ * Generates a large dataset into an empty database with the schema of the app: Users with skewed activity, products
+ * with price histories, and years of purchases and payments.
+ * <p>
+ * Users and products are written first, one by one or in small batches. Purchases and payments are written in chunks
+ * of multi-row inserts over several connections in parallel. Every chunk has its own random, seeded by the seed and
+ * the number of the chunk, so that the dataset is the same, no matter in which order the chunks are written. Only the
+ * generated IDs may differ.
+ */
+public class DatasetGenerator {
+
+    private static final int STREAM_PRICES = 1;
+    private static final int STREAM_PURCHASES = 2;
+    private static final int STREAM_PAYMENTS = 3;
+
+    private final DatasetProperties datasetProperties;
+    private final ConnectionFactory connectionFactory;
+    private final DatabaseClient databaseClient;
+    private final PrintStream out;
+    private final long from;
+    private final long seconds;
+
+    public DatasetGenerator(final DatasetProperties datasetProperties, final ConnectionFactory connectionFactory, final PrintStream out) {
+        this.datasetProperties = datasetProperties;
+        this.connectionFactory = connectionFactory;
+        this.databaseClient = DatabaseClient.create(connectionFactory);
+        this.out = out;
+
+        final Instant until = datasetProperties.until().atStartOfDay(ZoneOffset.UTC).toInstant();
+        this.from = until.atOffset(ZoneOffset.UTC).minusYears(datasetProperties.years()).toEpochSecond();
+        this.seconds = until.getEpochSecond() - from;
+    }
+
+    public static void main(final String[] args) {
+
+        final DatasetProperties datasetProperties = DatasetProperties.parse(args);
+
+        final Dataset dataset = new DatasetGenerator(datasetProperties, ConnectionFactories.get(datasetProperties.url()), System.out).generate();
+
+        System.out.printf("Dataset in %s: %d users, %d products, %d purchases, %d payments.%n", datasetProperties.url(),
+                dataset.userIds().length, dataset.productIds().length, dataset.purchases(), dataset.payments());
+    }
+
+    public Dataset generate() {
+
+        // Same schema as the app
+        new DbConfig(new DbProperties(datasetProperties.url(), Duration.ofSeconds(1))).initializer(connectionFactory).afterPropertiesSet();
+
+        final Long existing = databaseClient.sql("select count(*) from users").map(row -> row.get(0, Long.class)).one().block();
+
+        if (existing == null || existing > 0) {
+            throw new IllegalStateException("The database is not empty. Users: " + existing);
+        }
+
+        final long[] userIds = timed("Users", this::insertUsers);
+        final Products products = timed("Products", this::insertProducts);
+        final long purchases = timed("Purchases", () -> insertPurchases(userIds, products.priceIds()));
+        final long payments = timed("Payments", () -> insertPayments(userIds));
+
+        return new Dataset(userIds, products.productIds(), purchases, payments);
+    }
+
+    private long[] insertUsers() {
+
+        // One hash for all, hashing takes longer than inserting
+        final String password = PasswordEncoderFactories.createDelegatingPasswordEncoder().encode(datasetProperties.password());
+        final Instant registrationOn = Instant.ofEpochSecond(from);
+
+        insert("insert into users (email, password, roles, registration_secret, registration_on, registration_complete)",
+                datasetProperties.users(), 0, (sql, row, random) -> sql
+                        .append("('user-").append(row + 1).append("@mail.com', '").append(password).append("', 'user', '', '")
+                        .append(registrationOn).append("', true)")
+        );
+
+        // In the order of the emails, i.e. user-1 first
+        final long[] userIds = new long[datasetProperties.users()];
+
+        databaseClient.sql("select id, email from users")
+                .map(row -> {
+                    final String email = row.get("email", String.class);
+                    final int user = Integer.parseInt(email.substring("user-".length(), email.indexOf('@')));
+                    userIds[user - 1] = ((Number) row.get("id")).longValue();
+                    return user;
+                })
+                .all().then().block();
+
+        return userIds;
+    }
+
+    /**
+     * @param priceIds The IDs of the prices per product, the oldest first.
+     */
+    private record Products(long[] productIds, long[][] priceIds) {
+    }
+
+    private Products insertProducts() {
+
+        final int prices = datasetProperties.prices();
+        final long[] productIds = new long[datasetProperties.products()];
+        final long[][] priceIds = new long[datasetProperties.products()][prices];
+
+        for (int product = 0; product < datasetProperties.products(); product++) {
+
+            final SplittableRandom random = random(STREAM_PRICES, product);
+            final long productId = insertReturningId(databaseClient.sql("insert into products (name) values (:name)")
+                    .bind("name", "product-" + (product + 1)));
+            productIds[product] = productId;
+
+            // A random walk from 1.00 to 5.00 in steps of up to 10 %
+            long cents = 100 + random.nextLong(401);
+
+            for (int price = 0; price < prices; price++) {
+
+                final DatabaseClient.GenericExecuteSpec spec = databaseClient
+                        .sql("insert into product_prices (product_id, price, valid_until) values (:product_id, :price, :valid_until)")
+                        .bind("product_id", productId)
+                        .bind("price", BigDecimal.valueOf(cents, 2));
+
+                priceIds[product][price] = insertReturningId(price == prices - 1
+                        ? spec.bindNull("valid_until", Instant.class)
+                        : spec.bind("valid_until", Instant.ofEpochSecond(from + seconds * (price + 1) / prices))
+                );
+
+                cents = Math.max(10, Math.round(cents * (0.9 + random.nextDouble(0.2))));
+            }
+        }
+
+        return new Products(productIds, priceIds);
+    }
+
+    private long insertPurchases(final long[] userIds, final long[][] priceIds) {
+
+        final int prices = datasetProperties.prices();
+
+        return insert("insert into purchases (user_id, product_price_id, timestamp)", datasetProperties.purchases(), STREAM_PURCHASES,
+                (sql, row, random) -> {
+                    final long userId = userIds[skewed(random, userIds.length)];
+                    final long[] productPriceIds = priceIds[skewed(random, priceIds.length)];
+                    final long timestamp = random.nextLong(seconds);
+
+                    // The price which was valid at the time
+                    final long productPriceId = productPriceIds[(int) Math.min(timestamp * prices / seconds, prices - 1)];
+
+                    sql.append('(').append(userId).append(", ").append(productPriceId).append(", '")
+                            .append(Instant.ofEpochSecond(from + timestamp)).append("')");
+                });
+    }
+
+    private long insertPayments(final long[] userIds) {
+
+        final long payments = Math.round(datasetProperties.purchases() * datasetProperties.paymentShare());
+
+        // Who buys more, pays more often: The same skew as the purchases
+        return insert("insert into payments (user_id, amount, timestamp)", payments, STREAM_PAYMENTS,
+                (sql, row, random) -> sql
+                        .append('(').append(userIds[skewed(random, userIds.length)]).append(", ")
+                        .append(5 * (1 + random.nextInt(10))).append(".00, '")
+                        .append(Instant.ofEpochSecond(from + random.nextLong(seconds))).append("')")
+        );
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(StringBuilder sql, long row, SplittableRandom random);
+    }
+
+    /**
+     * Writes the rows in chunks of {@link DatasetProperties#batchSize()} rows per statement. Each connection writes
+     * every n-th chunk.
+     *
+     * @return The number of rows written.
+     */
+    private long insert(final String insert, final long rows, final int stream, final RowWriter rowWriter) {
+
+        final int batchSize = datasetProperties.batchSize();
+        final int connections = datasetProperties.connections();
+        final long chunks = (rows + batchSize - 1) / batchSize;
+
+        return Flux.range(0, connections)
+                .flatMap(worker -> Mono.usingWhen(
+                        Mono.from(connectionFactory.create()),
+                        connection -> Flux.fromStream(LongStream.range(0, chunks).filter(chunk -> chunk % connections == worker).boxed())
+                                .concatMap(chunk -> {
+
+                                    final SplittableRandom random = random(stream, chunk);
+                                    final StringBuilder sql = new StringBuilder(insert).append(" values ");
+
+                                    for (long row = chunk * batchSize; row < Math.min((chunk + 1) * batchSize, rows); row++) {
+                                        if (row > chunk * batchSize) {
+                                            sql.append(", ");
+                                        }
+                                        rowWriter.write(sql, row, random);
+                                    }
+
+                                    return execute(connection, sql.toString());
+                                })
+                                .reduce(0L, Long::sum),
+                        Connection::close
+                ))
+                .reduce(0L, Long::sum)
+                .blockOptional()
+                .orElse(0L);
+    }
+
+    private static Mono<Long> execute(final Connection connection, final String sql) {
+        return Flux.from(connection.createStatement(sql).execute())
+                .flatMap(Result::getRowsUpdated)
+                .reduce(0L, Long::sum);
+    }
+
+    private static long insertReturningId(final DatabaseClient.GenericExecuteSpec spec) {
+        return spec.filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> ((Number) row.get("id")).longValue())
+                .one()
+                .blockOptional()
+                .orElseThrow();
+    }
+
+    /**
+     * @return An index below the bound, where low indexes are more likely the higher {@link DatasetProperties#skew()}.
+     */
+    private int skewed(final SplittableRandom random, final int bound) {
+        return (int) (bound * Math.pow(random.nextDouble(), datasetProperties.skew()));
+    }
+
+    private SplittableRandom random(final int stream, final long chunk) {
+        return new SplittableRandom(datasetProperties.seed() * 1_000_003L + stream * 1_000_000_007L + chunk);
+    }
+
+    private <T> T timed(final String name, final Supplier<T> step) {
+        final long start = System.nanoTime();
+        final T result = step.get();
+        out.printf("%s done in %d ms.%n", name, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return result;
+    }
+}
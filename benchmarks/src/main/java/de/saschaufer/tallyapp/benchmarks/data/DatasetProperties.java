@@ -0,0 +1,73 @@
+package de.saschaufer.tallyapp.benchmarks.data;
+
+import de.saschaufer.tallyapp.benchmarks.Arguments;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The arguments of the {@link DatasetGenerator}, given as {@code --name=value}. The same arguments generate the same
+ * dataset.
+ *
+ * @param url          The R2DBC URL of an empty database. The schema is created if missing.
+ * @param seed         The seed of all random choices.
+ * @param users        The number of users, {@code user-1@mail.com} to {@code user-<users>@mail.com}.
+ * @param password     The password of all users.
+ * @param products     The number of products.
+ * @param prices       The number of prices per product, evenly spread over the years.
+ * @param purchases    The number of purchases.
+ * @param paymentShare The number of payments per purchase.
+ * @param years        The years until {@link #until} over which the purchases and payments are spread.
+ * @param until        The end of the dataset. Fixed instead of today, so that the dataset doesn't change.
+ * @param skew         How unevenly the purchases are spread over users and products. 1 is even, the higher, the more
+ *                     purchases go to the first users and products.
+ * @param batchSize    The rows per insert statement.
+ * @param connections  The number of connections inserting in parallel.
+ */
+public record DatasetProperties(
+        String url,
+        long seed,
+        int users,
+        String password,
+        int products,
+        int prices,
+        long purchases,
+        double paymentShare,
+        int years,
+        LocalDate until,
+        double skew,
+        int batchSize,
+        int connections
+) {
+
+    private static final Set<String> NAMES = Set.of(
+            "url", "seed", "users", "password", "products", "prices", "purchases", "payment-share", "years", "until",
+            "skew", "batch-size", "connections"
+    );
+
+    public static DatasetProperties defaults(final String url, final int users, final long purchases) {
+        return new DatasetProperties(url, 42, users, "password", 30, 12, purchases, 0.1, 3, LocalDate.of(2026, 1, 1), 2, 1000, 4);
+    }
+
+    static DatasetProperties parse(final String... args) {
+
+        final Map<String, String> values = Arguments.parse(NAMES, args);
+
+        return new DatasetProperties(
+                values.getOrDefault("url", "r2dbc:h2:file:///./target/dataset/tally?options=CASE_INSENSITIVE_IDENTIFIERS=true;DB_CLOSE_DELAY=-1"),
+                Long.parseLong(values.getOrDefault("seed", "42")),
+                Integer.parseInt(values.getOrDefault("users", "10000")),
+                values.getOrDefault("password", "password"),
+                Integer.parseInt(values.getOrDefault("products", "30")),
+                Integer.parseInt(values.getOrDefault("prices", "12")),
+                Long.parseLong(values.getOrDefault("purchases", "1000000")),
+                Double.parseDouble(values.getOrDefault("payment-share", "0.1")),
+                Integer.parseInt(values.getOrDefault("years", "3")),
+                LocalDate.parse(values.getOrDefault("until", "2026-01-01")),
+                Double.parseDouble(values.getOrDefault("skew", "2")),
+                Integer.parseInt(values.getOrDefault("batch-size", "1000")),
+                Integer.parseInt(values.getOrDefault("connections", "4"))
+        );
+    }
+}
@@ -0,0 +1,85 @@
+package de.saschaufer.tallyapp.benchmarks.gate;
+
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One entry of a JMH result file ({@code -rf json}).
+ *
+ * @param name           The benchmark without package, e.g. {@code JwtBenchmark.decode}.
+ * @param params         The parameters, e.g. {@code storage=mem, users=1000}.
+ * @param higherIsBetter For throughput, the score is better when higher; for times, when lower.
+ * @param score          The primary metric.
+ * @param error          The error of the primary metric at 99.9 %, or 0 if unknown.
+ * @param allocation     The bytes allocated per operation, or {@code NaN} without {@code -prof gc}.
+ * @param jdkVersion     The version of the JDK the benchmark ran on, e.g. {@code 25.0.1}.
+ */
+record BenchmarkResult(
+        String name,
+        String params,
+        String unit,
+        boolean higherIsBetter,
+        double score,
+        double error,
+        double allocation,
+        String jdkVersion
+) {
+
+    static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    String key() {
+        return params.isEmpty() ? name : name + " (" + params + ")";
+    }
+
+    /**
+     * @return The feature release of the JDK, e.g. {@code 25}.
+     */
+    String jdkFeatureVersion() {
+        return jdkVersion.split("[.+-]", 2)[0];
+    }
+
+    static List<BenchmarkResult> read(final JsonMapper jsonMapper, final Path file) {
+
+        final List<BenchmarkResult> results = new ArrayList<>();
+
+        for (final JsonNode benchmark : jsonMapper.readTree(file.toFile())) {
+
+            final String fullName = benchmark.path("benchmark").asString();
+            final String name = fullName.substring(fullName.lastIndexOf('.', fullName.lastIndexOf('.') - 1) + 1);
+
+            final Map<String, String> params = new TreeMap<>();
+            benchmark.path("params").properties().forEach(param -> params.put(param.getKey(), param.getValue().asString()));
+
+            final JsonNode primary = benchmark.path("primaryMetric");
+            final JsonNode allocation = benchmark.path("secondaryMetrics").path(ALLOCATION);
+
+            final double error = number(primary.path("scoreError"));
+
+            results.add(new BenchmarkResult(
+                    name,
+                    String.join(", ", params.entrySet().stream().map(p -> p.getKey() + "=" + p.getValue()).toList()),
+                    primary.path("scoreUnit").asString(),
+                    benchmark.path("mode").asString().equals("thrpt"),
+                    number(primary.path("score")),
+                    Double.isNaN(error) ? 0 : error,
+                    allocation.isMissingNode() ? Double.NaN : number(allocation.path("score")),
+                    benchmark.path("jdkVersion").asString()
+            ));
+        }
+
+        return results;
+    }
+
+    /**
+     * JMH writes unknown values as the string {@code "NaN"}.
+     */
+    private static double number(final JsonNode node) {
+        return node.isNumber() ? node.doubleValue() : Double.parseDouble(node.asString("NaN"));
+    }
+}
@@ -0,0 +1,201 @@
+package de.saschaufer.tallyapp.benchmarks.gate;
+
+import de.saschaufer.tallyapp.benchmarks.Arguments;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares a JMH result file against a committed baseline and fails on significant regressions.
+ * <p>
+ * A benchmark is slower, if its score changed by more than the tolerance for {@code time} and either the confidence
+ * intervals of both runs don't overlap or the change is above {@code time-max}. The intervals keep noisy benchmarks
+ * from failing the gate on small changes, the relative limit catches large ones, which short runs hide in wide
+ * intervals. It allocates more, if
+ * the bytes per operation rose by more than the tolerances for {@code allocation} (relative) and
+ * {@code allocation-bytes} (absolute). The tolerances are read from a properties file, as {@code default.time} or per
+ * benchmark as {@code <Class>.<method>.time}.
+ * <p>
+ * Benchmarks missing in the baseline or the results are reported, but don't fail the gate. Without a baseline or with
+ * results of another JDK than the baseline's, nothing is compared and the gate fails; the baseline has to be recorded
+ * on the build machine first. With {@code --update=true}, the results become the new baseline.
+ */
+public class RegressionGate {
+
+    private static final Set<String> NAMES = Set.of("result", "baseline", "tolerances", "report", "update");
+
+    enum Status {OK, SLOWER, FASTER, MORE_ALLOCATION, NEW, MISSING}
+
+    record Comparison(String key, BenchmarkResult baseline, BenchmarkResult result, Status status) {
+    }
+
+    private final Properties tolerances;
+
+    RegressionGate(final Properties tolerances) {
+        this.tolerances = tolerances;
+    }
+
+    public static void main(final String[] args) throws IOException {
+
+        final Map<String, String> values = Arguments.parse(NAMES, args);
+
+        final Path result = Path.of(values.getOrDefault("result", "target/jmh-result.json"));
+        final Path baseline = Path.of(values.getOrDefault("baseline", "baseline.json"));
+        final Path report = Path.of(values.getOrDefault("report", "target/regression-report.md"));
+
+        final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+        if (Boolean.parseBoolean(values.getOrDefault("update", "false"))) {
+            updateBaseline(jsonMapper, result, baseline);
+            System.out.printf("Baseline %s updated from %s.%n", baseline, result);
+            return;
+        }
+
+        if (!Files.exists(baseline)) {
+            System.err.printf("There is no baseline %s yet. Record it on the build machine with -Dregression.update=true.%n", baseline);
+            System.exit(1);
+        }
+
+        final Properties tolerances = new Properties();
+        try (final Reader reader = Files.newBufferedReader(Path.of(values.getOrDefault("tolerances", "tolerances.properties")))) {
+            tolerances.load(reader);
+        }
+
+        final List<BenchmarkResult> baselineResults = BenchmarkResult.read(jsonMapper, baseline);
+        final List<BenchmarkResult> results = BenchmarkResult.read(jsonMapper, result);
+
+        final Set<String> baselineJdks = jdks(baselineResults);
+        final Set<String> resultJdks = jdks(results);
+
+        if (!baselineJdks.equals(resultJdks)) {
+            System.err.printf("Baseline %s was recorded on JDK %s, the results on JDK %s. Record the baseline again on the build machine with -Dregression.update=true.%n",
+                    baseline, String.join(", ", baselineJdks), String.join(", ", resultJdks));
+            System.exit(1);
+        }
+
+        final List<Comparison> comparisons = new RegressionGate(tolerances).compare(baselineResults, results);
+
+        final String markdown = report(comparisons);
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.writeString(report, markdown);
+        System.out.println(markdown);
+
+        final long regressions = comparisons.stream().filter(c -> c.status() == Status.SLOWER || c.status() == Status.MORE_ALLOCATION).count();
+
+        if (regressions > 0) {
+            System.err.printf("%d regression(s) against %s. See %s.%n", regressions, baseline, report);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the results as baseline, without the path of the JVM, which only holds on the machine that recorded them.
+     */
+    static void updateBaseline(final JsonMapper jsonMapper, final Path result, final Path baseline) {
+
+        final JsonNode results = jsonMapper.readTree(result.toFile());
+        for (final JsonNode benchmark : results) {
+            ((ObjectNode) benchmark).remove("jvm");
+        }
+
+        jsonMapper.writerWithDefaultPrettyPrinter().writeValue(baseline.toFile(), results);
+    }
+
+    List<Comparison> compare(final List<BenchmarkResult> baseline, final List<BenchmarkResult> results) {
+
+        final Map<String, BenchmarkResult> baselineByKey = baseline.stream().collect(Collectors.toMap(BenchmarkResult::key, Function.identity()));
+        final Map<String, BenchmarkResult> resultsByKey = results.stream().collect(Collectors.toMap(BenchmarkResult::key, Function.identity()));
+
+        final List<Comparison> comparisons = new ArrayList<>();
+
+        for (final BenchmarkResult result : results) {
+            final BenchmarkResult base = baselineByKey.get(result.key());
+            comparisons.add(new Comparison(result.key(), base, result, base == null ? Status.NEW : status(base, result)));
+        }
+
+        for (final BenchmarkResult base : baseline) {
+            if (!resultsByKey.containsKey(base.key())) {
+                comparisons.add(new Comparison(base.key(), base, null, Status.MISSING));
+            }
+        }
+
+        return comparisons;
+    }
+
+    private Status status(final BenchmarkResult baseline, final BenchmarkResult result) {
+
+        // Positive if worse, for both times and throughput
+        final double sign = result.higherIsBetter() ? -1 : 1;
+        final double change = sign * (result.score() - baseline.score()) / baseline.score();
+        final boolean significant = result.higherIsBetter()
+                ? result.score() + result.error() < baseline.score() - baseline.error()
+                : result.score() - result.error() > baseline.score() + baseline.error();
+
+        if (change > tolerance(result.name(), "time") && (significant || change > tolerance(result.name(), "time-max"))) {
+            return Status.SLOWER;
+        }
+
+        // Small objects come and go with the JIT's escape analysis, hence a minimum in bytes
+        final double moreBytes = result.allocation() - baseline.allocation();
+
+        if (moreBytes > baseline.allocation() * tolerance(result.name(), "allocation")
+                && moreBytes > tolerance(result.name(), "allocation-bytes")) {
+            return Status.MORE_ALLOCATION;
+        }
+
+        if (change < -tolerance(result.name(), "time")) {
+            return Status.FASTER;
+        }
+
+        return Status.OK;
+    }
+
+    private static Set<String> jdks(final List<BenchmarkResult> results) {
+        return results.stream().map(BenchmarkResult::jdkFeatureVersion).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    double tolerance(final String name, final String metric) {
+        return Double.parseDouble(tolerances.getProperty(name + "." + metric, tolerances.getProperty("default." + metric, "0")));
+    }
+
+    static String report(final List<Comparison> comparisons) {
+
+        final StringBuilder report = new StringBuilder()
+                .append("| Benchmark | Baseline | Result | Change | Allocation baseline | Allocation result | Status |\n")
+                .append("|---|---:|---:|---:|---:|---:|---|\n");
+
+        for (final Comparison c : comparisons) {
+            report.append("| ").append(c.key())
+                    .append(" | ").append(c.baseline() == null ? "" : score(c.baseline()))
+                    .append(" | ").append(c.result() == null ? "" : score(c.result()))
+                    .append(" | ").append(c.baseline() == null || c.result() == null ? "" : "%+.1f %%".formatted(100 * (c.result().score() - c.baseline().score()) / c.baseline().score()))
+                    .append(" | ").append(c.baseline() == null ? "" : bytes(c.baseline().allocation()))
+                    .append(" | ").append(c.result() == null ? "" : bytes(c.result().allocation()))
+                    .append(" | ").append(c.status())
+                    .append(" |\n");
+        }
+
+        return report.toString();
+    }
+
+    private static String score(final BenchmarkResult result) {
+        return "%.3f ± %.3f %s".formatted(result.score(), result.error(), result.unit());
+    }
+
+    private static String bytes(final double bytes) {
+        return Double.isNaN(bytes) ? "" : "%.0f B/op".formatted(bytes);
+    }
+}
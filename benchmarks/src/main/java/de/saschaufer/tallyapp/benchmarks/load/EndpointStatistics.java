@@ -0,0 +1,57 @@
+package de.saschaufer.tallyapp.benchmarks.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and errors of one endpoint. Latencies are recorded in microseconds, up to one minute with three
+ * significant digits. Failed requests are only counted, so that fast errors don't make the percentiles look good.
+ */
+class EndpointStatistics {
+
+    private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+    private final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorsByType = new ConcurrentHashMap<>();
+
+    void success(final long nanos) {
+        latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), latencies.getHighestTrackableValue()));
+    }
+
+    void error(final String type) {
+        errors.increment();
+        errorsByType.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+
+    long requests() {
+        return latencies.getTotalCount() + errors.sum();
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    double errorRate() {
+        final long requests = requests();
+        return requests == 0 ? 0 : (double) errors() / requests;
+    }
+
+    Map<String, LongAdder> errorsByType() {
+        return errorsByType;
+    }
+
+    /**
+     * @return The latency at the percentile (0-100) in milliseconds.
+     */
+    double percentile(final double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double max() {
+        return latencies.getMaxValue() / 1000.0;
+    }
+}
@@ -0,0 +1,215 @@
+package de.saschaufer.tallyapp.benchmarks.load;
+
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostCreatePaymentRequest;
+import de.saschaufer.tallyapp.controller.dto.PostCreatePurchaseRequest;
+import de.saschaufer.tallyapp.controller.dto.PostLoginResponse;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays the traffic of a bar against a running instance and reports the latencies per endpoint.
+ * <p>
+ * Guests log in, load the dashboard (products, purchases and account balance), buy a product, check their balance and
+ * sometimes book a payment. Admins log in and read the user list. Sessions arrive as in an open model: at the
+ * configured rate, whether or not the instance keeps up, like guests walking up to the bar. See {@link LoadProperties}
+ * for the arguments.
+ */
+public class LoadGenerator {
+
+    private static final Duration TICK = Duration.ofMillis(10);
+    private static final Duration PROGRESS = Duration.ofSeconds(10);
+    private static final BigDecimal PAYMENT = new BigDecimal("5.00");
+
+    private final LoadProperties loadProperties;
+    private final WebClient webClient;
+    private final Statistics statistics = new Statistics();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    LoadGenerator(final LoadProperties loadProperties, final WebClient webClient) {
+        this.loadProperties = loadProperties;
+        this.webClient = webClient;
+    }
+
+    public static void main(final String[] args) {
+
+        final LoadProperties loadProperties = LoadProperties.parse(args);
+
+        final ConnectionProvider connectionProvider = ConnectionProvider.builder("load-generator")
+                .maxConnections(loadProperties.connections())
+                .pendingAcquireMaxCount(-1)
+                .build();
+
+        final WebClient webClient = WebClient.builder()
+                .baseUrl(loadProperties.baseUrl().toString())
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider).responseTimeout(Duration.ofSeconds(30))))
+                .build();
+
+        try {
+            new LoadGenerator(loadProperties, webClient).run(System.out);
+        } finally {
+            connectionProvider.dispose();
+        }
+    }
+
+    Statistics run(final PrintStream out) {
+
+        out.printf("Load on %s: %.1f sessions/s after %d s ramp-up for %d s. Users: %d.%n",
+                loadProperties.baseUrl(), loadProperties.rate(), loadProperties.rampUp().toSeconds(), loadProperties.duration().toSeconds(), loadProperties.users());
+
+        final long start = System.nanoTime();
+
+        final Disposable progress = Flux.interval(PROGRESS, PROGRESS)
+                .subscribe(i -> out.printf("%d s. Active sessions: %d. Requests: %d. Errors: %d.%n",
+                        (i + 1) * PROGRESS.toSeconds(), activeSessions.get(), statistics.requests(), statistics.errors()));
+
+        try {
+            arrivals().flatMap(this::session, Integer.MAX_VALUE).blockLast();
+        } finally {
+            progress.dispose();
+        }
+
+        statistics.print(out, Duration.ofNanos(System.nanoTime() - start));
+
+        return statistics;
+    }
+
+    record Session(int user, boolean admin, boolean payment, double product) {
+    }
+
+    /**
+     * Starts as many sessions per {@link #TICK} as are due by then, with the rate rising linearly during the ramp-up.
+     * The choices of the sessions come from a seeded random, so that two runs with the same arguments send the same
+     * requests.
+     */
+    Flux<Session> arrivals() {
+
+        final SplittableRandom random = new SplittableRandom(loadProperties.seed());
+        final boolean withAdmin = !loadProperties.adminEmail().isBlank();
+        final long end = loadProperties.rampUp().plus(loadProperties.duration()).toNanos();
+        final long[] started = {0};
+
+        return Flux.interval(TICK)
+                .map(tick -> (tick + 1) * TICK.toNanos())
+                .takeWhile(elapsed -> elapsed <= end)
+                .concatMapIterable(elapsed -> {
+
+                    final long due = (long) due(elapsed);
+                    final List<Session> sessions = new ArrayList<>();
+
+                    for (; started[0] < due; started[0]++) {
+                        sessions.add(new Session(
+                                random.nextInt(loadProperties.users()) + 1,
+                                withAdmin && random.nextDouble() < loadProperties.adminShare(),
+                                random.nextDouble() < loadProperties.paymentShare(),
+                                random.nextDouble()
+                        ));
+                    }
+
+                    return sessions;
+                });
+    }
+
+    /**
+     * @return The number of sessions started by then, i.e. the integral of the rate.
+     */
+    double due(final long elapsedNanos) {
+
+        final double elapsed = elapsedNanos / 1e9;
+        final double rampUp = loadProperties.rampUp().toNanos() / 1e9;
+        final double rate = loadProperties.rate();
+
+        if (elapsed < rampUp) {
+            return rate * elapsed * elapsed / (2 * rampUp);
+        }
+
+        return rate * rampUp / 2 + rate * (elapsed - rampUp);
+    }
+
+    private Mono<Void> session(final Session session) {
+
+        final Mono<Void> flow = session.admin() ? admin() : guest(session);
+
+        // A failed request ends the session, it was counted already
+        return flow
+                .doOnSubscribe(s -> activeSessions.incrementAndGet())
+                .doFinally(s -> activeSessions.decrementAndGet())
+                .onErrorComplete();
+    }
+
+    private Mono<Void> guest(final Session session) {
+
+        final String email = loadProperties.userEmail().formatted(session.user());
+
+        return login(email, loadProperties.password()).flatMap(jwt -> Mono.zip(products(jwt), read("/purchases", jwt), read("/account-balance", jwt))
+                .flatMap(dashboard -> {
+                    final List<GetProductsResponse> products = dashboard.getT1();
+                    if (products.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    final Long productId = products.get((int) (session.product() * products.size())).id();
+                    return write("/purchases/create-purchase", jwt, new PostCreatePurchaseRequest(productId));
+                })
+                .then(read("/account-balance", jwt))
+                .then(session.payment() ? write("/payments/create-payment", jwt, new PostCreatePaymentRequest(PAYMENT)) : Mono.empty())
+        ).then();
+    }
+
+    private Mono<Void> admin() {
+        return login(loadProperties.adminEmail(), loadProperties.adminPassword())
+                .flatMap(jwt -> read("/users", jwt))
+                .then();
+    }
+
+    private Mono<String> login(final String email, final String password) {
+        return statistics.timed("POST /login", webClient.post().uri("/login")
+                .headers(headers -> headers.setBasicAuth(email, password))
+                .retrieve()
+                .bodyToMono(PostLoginResponse.class)
+                .map(PostLoginResponse::jwt)
+        );
+    }
+
+    private Mono<List<GetProductsResponse>> products(final String jwt) {
+        return statistics.timed("GET /products", webClient.get().uri("/products")
+                .headers(headers -> headers.setBearerAuth(jwt))
+                .retrieve()
+                .bodyToFlux(GetProductsResponse.class)
+                .collectList()
+        );
+    }
+
+    /**
+     * The body is read, but not parsed.
+     */
+    private Mono<ResponseEntity<Void>> read(final String path, final String jwt) {
+        return statistics.timed("GET " + path, webClient.get().uri(path)
+                .headers(headers -> headers.setBearerAuth(jwt))
+                .retrieve()
+                .toBodilessEntity()
+        );
+    }
+
+    private Mono<ResponseEntity<Void>> write(final String path, final String jwt, final Object body) {
+        return statistics.timed("POST " + path, webClient.post().uri(path)
+                .headers(headers -> headers.setBearerAuth(jwt))
+                .bodyValue(body)
+                .retrieve()
+                .toBodilessEntity()
+        );
+    }
+}
@@ -0,0 +1,70 @@
+package de.saschaufer.tallyapp.benchmarks.load;
+
+import de.saschaufer.tallyapp.benchmarks.Arguments;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The arguments of the {@link LoadGenerator}, given as {@code --name=value}. Durations are written as in the
+ * application properties, e.g. {@code 30s} or {@code 5m}.
+ *
+ * @param baseUrl       The running instance.
+ * @param rate          Sessions started per second after the ramp-up.
+ * @param rampUp        The time in which the rate rises linearly from zero.
+ * @param duration      The time at full rate.
+ * @param users         The size of the user pool. The users must exist and have the same password.
+ * @param userEmail     The email of the pool users, with {@code %d} for 1 to {@link #users}.
+ * @param password      The password of the pool users.
+ * @param adminEmail    An admin, whose sessions read the user list. Without, there are no admin sessions.
+ * @param adminPassword The password of the admin.
+ * @param adminShare    The share of admin sessions (0-1).
+ * @param paymentShare  The share of guest sessions that book a payment (0-1).
+ * @param connections   The maximum number of connections to the instance.
+ * @param seed          The seed for the choice of users and flows, so that runs are repeatable.
+ */
+record LoadProperties(
+        URI baseUrl,
+        double rate,
+        Duration rampUp,
+        Duration duration,
+        int users,
+        String userEmail,
+        String password,
+        String adminEmail,
+        String adminPassword,
+        double adminShare,
+        double paymentShare,
+        int connections,
+        long seed
+) {
+
+    private static final Set<String> NAMES = Set.of(
+            "base-url", "rate", "ramp-up", "duration", "users", "user-email", "password",
+            "admin-email", "admin-password", "admin-share", "payment-share", "connections", "seed"
+    );
+
+    static LoadProperties parse(final String... args) {
+
+        final Map<String, String> values = Arguments.parse(NAMES, args);
+
+        return new LoadProperties(
+                URI.create(values.getOrDefault("base-url", "http://localhost:8000")),
+                Double.parseDouble(values.getOrDefault("rate", "10")),
+                DurationStyle.detectAndParse(values.getOrDefault("ramp-up", "30s")),
+                DurationStyle.detectAndParse(values.getOrDefault("duration", "2m")),
+                Integer.parseInt(values.getOrDefault("users", "100")),
+                values.getOrDefault("user-email", "user-%d@mail.com"),
+                values.getOrDefault("password", "password"),
+                values.getOrDefault("admin-email", ""),
+                values.getOrDefault("admin-password", ""),
+                Double.parseDouble(values.getOrDefault("admin-share", "0.05")),
+                Double.parseDouble(values.getOrDefault("payment-share", "0.1")),
+                Integer.parseInt(values.getOrDefault("connections", "500")),
+                Long.parseLong(values.getOrDefault("seed", "42"))
+        );
+    }
+}
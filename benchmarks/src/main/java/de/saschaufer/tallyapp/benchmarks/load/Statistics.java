@@ -0,0 +1,66 @@
+package de.saschaufer.tallyapp.benchmarks.load;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Collects the {@link EndpointStatistics} per endpoint and prints them as a report.
+ */
+class Statistics {
+
+    private final Map<String, EndpointStatistics> endpoints = new ConcurrentSkipListMap<>();
+
+    /**
+     * Times the request, which starts on subscription. Errors are counted by HTTP status or exception and then
+     * dropped, so that a failed request ends the session but not the run.
+     */
+    <T> Mono<T> timed(final String endpoint, final Mono<T> request) {
+
+        final EndpointStatistics statistics = endpoints.computeIfAbsent(endpoint, e -> new EndpointStatistics());
+
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            return request
+                    .doOnSuccess(r -> statistics.success(System.nanoTime() - start))
+                    .doOnError(e -> statistics.error(errorType(e)));
+        });
+    }
+
+    long requests() {
+        return endpoints.values().stream().mapToLong(EndpointStatistics::requests).sum();
+    }
+
+    long errors() {
+        return endpoints.values().stream().mapToLong(EndpointStatistics::errors).sum();
+    }
+
+    void print(final PrintStream out, final Duration elapsed) {
+
+        out.printf("%n%-35s %10s %8s %8s %10s %10s %10s %10s %10s%n",
+                "Endpoint", "Requests", "Errors", "Error %", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        endpoints.forEach((endpoint, s) -> out.printf("%-35s %10d %8d %8.2f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                endpoint, s.requests(), s.errors(), s.errorRate() * 100,
+                s.percentile(50), s.percentile(90), s.percentile(99), s.percentile(99.9), s.max()
+        ));
+
+        out.printf("%nRequests: %d. Errors: %d. Throughput: %.1f requests/s.%n",
+                requests(), errors(), requests() / Math.max(elapsed.toMillis() / 1000.0, 0.001));
+
+        endpoints.forEach((endpoint, s) -> s.errorsByType().forEach((type, count) ->
+                out.printf("Error %s: %s (%d)%n", endpoint, type, count.sum())
+        ));
+    }
+
+    private static String errorType(final Throwable e) {
+        if (e instanceof WebClientResponseException w) {
+            return "HTTP " + w.getStatusCode().value();
+        }
+        return e.getClass().getSimpleName();
+    }
+}
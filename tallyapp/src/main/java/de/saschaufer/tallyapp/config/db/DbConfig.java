@@ -1,7 +1,12 @@
 package de.saschaufer.tallyapp.config.db;
 
+import de.saschaufer.tallyapp.diagnostics.QueryEvents;
+import de.saschaufer.tallyapp.metrics.QueryMetrics;
+import io.r2dbc.proxy.ProxyConnectionFactory;
 import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
 import jakarta.annotation.Nonnull;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
@@ -10,9 +15,12 @@ import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.CompositeDatabasePopulator;
 import org.springframework.r2dbc.connection.init.ConnectionFactoryInitializer;
 import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
 import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Configuration
 @RequiredArgsConstructor
@@ -22,13 +30,18 @@ public class DbConfig {
 
     @Bean
     @Nonnull
-    public ConnectionFactory connectionFactory() {
-        return ConnectionFactories.get(dbProperties.url());
+    public ConnectionFactory connectionFactory(final QueryMetrics queryMetrics, final QueryEvents queryEvents) {
+
+        // Times every statement
+        return ProxyConnectionFactory.builder(ConnectionFactories.get(dbProperties.url()))
+                .listener(queryMetrics)
+                .listener(queryEvents)
+                .build();
     }
 
     @Bean
-    public R2dbcEntityTemplate r2dbcEntityTemplate() {
-        return new R2dbcEntityTemplate(connectionFactory());
+    public R2dbcEntityTemplate r2dbcEntityTemplate(final ConnectionFactory connectionFactory) {
+        return new R2dbcEntityTemplate(connectionFactory);
     }
 
     @Bean
@@ -43,7 +56,7 @@ public class DbConfig {
                 
                 create table if not exists users (
                     id serial primary key,
-                    email varchar not null unique,
+                    email varchar not null,
                     password varchar not null,
                     roles varchar not null,
                     registration_secret varchar not null,
@@ -51,9 +64,12 @@ public class DbConfig {
                     registration_complete boolean not null
                 );
                 
+                create index if not exists idx_users_registration_on
+                    on users (registration_complete, registration_on);
+                
                 create table if not exists products (
                     id serial primary key,
-                    name varchar not null unique
+                    name varchar not null
                 );
                 
                 create table if not exists product_prices (
@@ -84,6 +100,171 @@ public class DbConfig {
                     constraint fk_payments_users
                         foreign key (user_id) references users(id)
                 );
+                
+                create index if not exists idx_purchases_timestamp
+                    on purchases (timestamp);
+
+                create index if not exists idx_payments_timestamp
+                    on payments (timestamp);
+
+                create table if not exists purchases_archive (
+                    id integer primary key,
+                    user_id integer not null,
+                    product_price_id integer not null,
+                    timestamp timestamp with time zone not null,
+                    constraint fk_purchases_archive_users
+                        foreign key (user_id) references users(id),
+                    constraint fk_purchases_archive_product_prices
+                        foreign key (product_price_id) references product_prices(id)
+                );
+
+                create index if not exists idx_purchases_archive_user_id
+                    on purchases_archive (user_id);
+
+                create table if not exists payments_archive (
+                    id integer primary key,
+                    user_id integer not null,
+                    amount decimal(12,2) not null,
+                    timestamp timestamp with time zone not null,
+                    constraint fk_payments_archive_users
+                        foreign key (user_id) references users(id)
+                );
+
+                create index if not exists idx_payments_archive_user_id
+                    on payments_archive (user_id);
+
+                create table if not exists monthly_rollups (
+                    id serial primary key,
+                    user_id integer not null,
+                    month_start date not null,
+                    purchases_count bigint not null,
+                    purchases_sum decimal(14,2) not null,
+                    payments_count bigint not null,
+                    payments_sum decimal(14,2) not null,
+                    constraint uq_monthly_rollups unique (user_id, month_start),
+                    constraint fk_monthly_rollups_users
+                        foreign key (user_id) references users(id)
+                );
+
+                create table if not exists balance_snapshots (
+                    user_id integer primary key,
+                    purchases_sum decimal(14,2) not null,
+                    payments_sum decimal(14,2) not null,
+                    archived_until timestamp with time zone not null,
+                    constraint fk_balance_snapshots_users
+                        foreign key (user_id) references users(id)
+                );
+
+                alter table users
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table products
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table product_prices
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table purchases
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table payments
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table purchases_archive
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table payments_archive
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table monthly_rollups
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table balance_snapshots
+                    add column if not exists tenant_id varchar not null default 'default';
+
+                alter table purchases
+                    add column if not exists idempotency_key varchar;
+
+                alter table payments
+                    add column if not exists idempotency_key varchar;
+
+                create unique index if not exists uq_purchases_idempotency_key
+                    on purchases (user_id, idempotency_key);
+
+                create unique index if not exists uq_payments_idempotency_key
+                    on payments (user_id, idempotency_key);
+
+                create unique index if not exists uq_users_tenant_email
+                    on users (tenant_id, email);
+
+                create unique index if not exists uq_products_tenant_name
+                    on products (tenant_id, name);
+
+                create index if not exists idx_users_tenant_registration_on
+                    on users (tenant_id, registration_on, email);
+
+                create index if not exists idx_purchases_user_id
+                    on purchases (user_id, product_price_id);
+
+                create index if not exists idx_payments_user_id
+                    on payments (user_id, amount);
+
+                create table if not exists daily_consumption (
+                    id serial primary key,
+                    tenant_id varchar not null default 'default',
+                    day_start date not null,
+                    product_id integer not null,
+                    user_id integer not null,
+                    purchases_count bigint not null,
+                    revenue decimal(14,2) not null,
+                    constraint uq_daily_consumption unique (day_start, product_id, user_id),
+                    constraint fk_daily_consumption_products
+                        foreign key (product_id) references products(id),
+                    constraint fk_daily_consumption_users
+                        foreign key (user_id) references users(id)
+                );
+
+                create index if not exists idx_daily_consumption_tenant_day_start
+                    on daily_consumption (tenant_id, day_start);
+
+                insert into daily_consumption (tenant_id, day_start, product_id, user_id, purchases_count, revenue)
+                select purchases.tenant_id, cast(purchases.timestamp at time zone 'UTC' as date), product_prices.product_id,
+                    purchases.user_id, count(*), sum(product_prices.price)
+                from (select tenant_id, user_id, product_price_id, timestamp from purchases
+                      union all
+                      select tenant_id, user_id, product_price_id, timestamp from purchases_archive) as purchases
+                    join product_prices on product_prices.id = purchases.product_price_id
+                where not exists (select 1 from daily_consumption)
+                group by purchases.tenant_id, cast(purchases.timestamp at time zone 'UTC' as date), product_prices.product_id,
+                    purchases.user_id;
+
+                create table if not exists email_outbox (
+                    id serial primary key,
+                    recipient varchar not null,
+                    subject varchar not null,
+                    body varchar not null,
+                    created_on timestamp with time zone not null,
+                    attempts integer not null,
+                    next_attempt_on timestamp with time zone not null,
+                    last_error varchar,
+                    dead_lettered boolean not null
+                );
+                
+                create index if not exists idx_email_outbox_next_attempt_on
+                    on email_outbox (dead_lettered, next_attempt_on);
+                
+                alter table email_outbox
+                    add column if not exists claim varchar;
+
+                update email_outbox
+                    set body = ''
+                    where dead_lettered = true and body <> '';
+
+                create table if not exists job_leases (
+                    name varchar primary key,
+                    locked_by varchar not null,
+                    locked_until timestamp with time zone not null
+                );
                 """
                 .getBytes()
         );
@@ -93,8 +274,55 @@ public class DbConfig {
 
         final ConnectionFactoryInitializer initializer = new ConnectionFactoryInitializer();
         initializer.setConnectionFactory(connectionFactory);
-        initializer.setDatabasePopulator(resource);
+        initializer.setDatabasePopulator(new CompositeDatabasePopulator(resource, DbConfig::dropGlobalUniqueConstraints, DbConfig::createLowerEmailIndex));
 
         return initializer;
     }
+
+    /**
+     * Drops the unique constraints on the email of the users and the name of the products, which databases created
+     * before the tenants have. They span all tenants, {@code uq_users_tenant_email} and {@code uq_products_tenant_name}
+     * replace them. The constraints got generated names, so they are looked up by their column.
+     */
+    static Mono<Void> dropGlobalUniqueConstraints(final Connection connection) {
+
+        final String query = """
+                select tc.table_name, tc.constraint_name
+                from information_schema.table_constraints tc
+                    join information_schema.key_column_usage kcu
+                        on kcu.constraint_schema = tc.constraint_schema and kcu.constraint_name = tc.constraint_name
+                where tc.constraint_type = 'UNIQUE'
+                    and tc.table_schema = current_schema
+                    and lower(tc.table_name) in ('users', 'products')
+                group by tc.table_name, tc.constraint_name
+                having count(*) = 1
+                    and max(lower(kcu.column_name)) = case when lower(tc.table_name) = 'users' then 'email' else 'name' end
+                """.toLowerCase();
+
+        return Flux.from(connection.createStatement(query).execute())
+                .flatMap(result -> result.map((row, rowMetadata) -> "alter table %s drop constraint \"%s\"".formatted(
+                        row.get("table_name", String.class), row.get("constraint_name", String.class))))
+                .collectList()
+                .flatMapMany(Flux::fromIterable)
+                .concatMap(statement -> Flux.from(connection.createStatement(statement).execute()).flatMap(Result::getRowsUpdated))
+                .then();
+    }
+
+    /**
+     * Creates the index for the case-insensitive prefix search of the users by their email. Only Postgres indexes
+     * expressions; the pattern operator class lets it serve {@code like} regardless of the collation.
+     */
+    static Mono<Void> createLowerEmailIndex(final Connection connection) {
+
+        if (!connection.getMetadata().getDatabaseProductName().contains("PostgreSQL")) {
+            return Mono.empty();
+        }
+
+        final String statement = """
+                create index if not exists idx_users_tenant_lower_email
+                    on users (tenant_id, lower(email) varchar_pattern_ops)
+                """.toLowerCase();
+
+        return Flux.from(connection.createStatement(statement).execute()).flatMap(Result::getRowsUpdated).then();
+    }
 }
@@ -1,13 +1,23 @@
 package de.saschaufer.tallyapp.config.db;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+
 @Validated
 @ConfigurationProperties("database")
 public record DbProperties(
         @NotBlank
-        String url
+        String url,
+
+        @NotNull
+        @DurationMin(millis = 1)
+        @DurationMax(minutes = 1)
+        Duration slowQueryThreshold
 ) {
 }
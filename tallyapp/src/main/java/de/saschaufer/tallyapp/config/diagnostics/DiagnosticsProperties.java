@@ -0,0 +1,23 @@
+package de.saschaufer.tallyapp.config.diagnostics;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("diagnostics")
+public record DiagnosticsProperties(
+        @NotNull
+        @DurationMin(seconds = 1)
+        @DurationMax(minutes = 30)
+        Duration maxRecordingDuration,
+
+        @NotBlank
+        String recordingSettings
+) {
+}
@@ -1,6 +1,9 @@
 package de.saschaufer.tallyapp.config.email;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import org.hibernate.validator.constraints.time.DurationMax;
@@ -24,6 +27,59 @@ public record EmailProperties(
         @NotNull
         @DurationMin(minutes = 10)
         @DurationMax(hours = 24)
-        Duration deleteUnregisteredUsersAfter
+        Duration deleteUnregisteredUsersAfter,
+
+        @Valid
+        @NotNull
+        Outbox outbox,
+
+        @Valid
+        @NotNull
+        Pool pool
 ) {
+
+    public record Outbox(
+
+            @NotNull
+            @DurationMin(seconds = 1)
+            @DurationMax(minutes = 10)
+            Duration pollInterval,
+
+            @NotNull
+            @Min(1)
+            Integer batchSize,
+
+            @NotNull
+            @Min(1)
+            Integer maxAttempts,
+
+            @NotNull
+            @DurationMin(seconds = 1)
+            @DurationMax(hours = 1)
+            Duration retryBackoff,
+
+            @NotNull
+            @DurationMin(seconds = 10)
+            @DurationMax(hours = 1)
+            Duration claimDuration
+    ) {
+    }
+
+    public record Pool(
+
+            @NotNull
+            @Min(1)
+            @Max(16)
+            Integer sessions,
+
+            @NotNull
+            @Min(1)
+            Integer maxMessagesPerSession,
+
+            @NotNull
+            @DurationMin(seconds = 1)
+            @DurationMax(minutes = 10)
+            Duration idleTimeout
+    ) {
+    }
 }
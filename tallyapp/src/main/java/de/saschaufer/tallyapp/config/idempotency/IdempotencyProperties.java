@@ -0,0 +1,25 @@
+package de.saschaufer.tallyapp.config.idempotency;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("idempotency")
+public record IdempotencyProperties(
+
+        @NotNull
+        @Min(1)
+        Integer maxKeys,
+
+        @NotNull
+        @DurationMin(minutes = 1)
+        @DurationMax(days = 7)
+        Duration ttl
+) {
+}
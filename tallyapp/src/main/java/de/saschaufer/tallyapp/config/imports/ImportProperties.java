@@ -0,0 +1,22 @@
+package de.saschaufer.tallyapp.config.imports;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties("imports")
+public record ImportProperties(
+
+        @NotNull
+        @Min(1)
+        @Max(10000)
+        Integer batchSize,
+
+        @NotNull
+        @Min(1)
+        Integer maxRows
+) {
+}
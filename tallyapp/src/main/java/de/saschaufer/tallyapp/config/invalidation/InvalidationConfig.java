@@ -0,0 +1,32 @@
+package de.saschaufer.tallyapp.config.invalidation;
+
+import de.saschaufer.tallyapp.config.db.DbProperties;
+import de.saschaufer.tallyapp.invalidation.InvalidationBus;
+import de.saschaufer.tallyapp.invalidation.LocalInvalidationBus;
+import de.saschaufer.tallyapp.invalidation.PostgresInvalidationBus;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class InvalidationConfig {
+
+    private final DbProperties dbProperties;
+    private final InvalidationProperties invalidationProperties;
+
+    /**
+     * With Postgres, several instances may share the database, so invalidations are sent over the database. Other
+     * databases (H2) are used by a single instance only.
+     */
+    @Bean
+    public InvalidationBus invalidationBus(final ConnectionFactory connectionFactory) {
+
+        if (dbProperties.url().contains(":postgresql:")) {
+            return new PostgresInvalidationBus(connectionFactory, invalidationProperties.coalesceWindow());
+        }
+
+        return new LocalInvalidationBus(invalidationProperties.coalesceWindow());
+    }
+}
@@ -0,0 +1,20 @@
+package de.saschaufer.tallyapp.config.invalidation;
+
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("invalidation")
+public record InvalidationProperties(
+
+        @NotNull
+        @DurationMin(millis = 10)
+        @DurationMax(seconds = 10)
+        Duration coalesceWindow
+) {
+}
@@ -0,0 +1,68 @@
+package de.saschaufer.tallyapp.config.jobs;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("jobs")
+public record JobProperties(
+
+        @NotNull
+        @DurationMin(minutes = 1)
+        @DurationMax(hours = 1)
+        Duration leaseDuration,
+
+        @Valid
+        @NotNull
+        DeleteUnregisteredUsers deleteUnregisteredUsers,
+
+        @Valid
+        @NotNull
+        Archive archive
+) {
+
+    public record DeleteUnregisteredUsers(
+
+            @NotNull
+            @DurationMin(minutes = 1)
+            @DurationMax(hours = 24)
+            Duration interval,
+
+            @NotNull
+            @Min(1)
+            Integer chunkSize,
+
+            @NotNull
+            @DurationMax(seconds = 10)
+            Duration chunkPause
+    ) {
+    }
+
+    public record Archive(
+
+            @NotNull
+            @DurationMin(hours = 1)
+            @DurationMax(days = 7)
+            Duration interval,
+
+            @NotNull
+            @DurationMin(days = 30)
+            Duration horizon,
+
+            @NotNull
+            @Min(1)
+            Integer chunkSize,
+
+            @NotNull
+            @DurationMax(seconds = 10)
+            Duration chunkPause
+    ) {
+    }
+}
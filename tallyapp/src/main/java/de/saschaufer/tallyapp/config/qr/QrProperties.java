@@ -0,0 +1,15 @@
+package de.saschaufer.tallyapp.config.qr;
+
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties("qr")
+public record QrProperties(
+
+        @NotNull
+        DataSize cacheSize
+) {
+}
@@ -3,8 +3,12 @@ package de.saschaufer.tallyapp.config.security;
 import com.nimbusds.jose.jwk.source.ImmutableSecret;
 import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.proc.SecurityContext;
+import de.saschaufer.tallyapp.metrics.TimedJwtEncoder;
+import de.saschaufer.tallyapp.metrics.TimedPasswordEncoder;
 import de.saschaufer.tallyapp.persistence.dto.User;
 import de.saschaufer.tallyapp.services.UserDetailsService;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -18,6 +22,7 @@ import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
 import org.springframework.security.oauth2.jwt.JwtEncoder;
 import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
 import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.server.resource.InvalidBearerTokenException;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverter;
 import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtGrantedAuthoritiesConverterAdapter;
@@ -25,10 +30,12 @@ import org.springframework.security.oauth2.server.resource.web.access.server.Bea
 import org.springframework.security.oauth2.server.resource.web.server.BearerTokenServerAuthenticationEntryPoint;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import reactor.core.publisher.Mono;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
@@ -48,12 +55,13 @@ public class SecurityConfig {
      * @return @{@link PasswordEncoder} to encode passwords with.
      */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return PasswordEncoderFactories.createDelegatingPasswordEncoder();
+    public PasswordEncoder passwordEncoder(final MeterRegistry meterRegistry) {
+        return new TimedPasswordEncoder(PasswordEncoderFactories.createDelegatingPasswordEncoder(), meterRegistry);
     }
 
     @Bean
-    public SecurityWebFilterChain securityWebFilterChain(final ServerHttpSecurity serverHttpSecurity) {
+    public SecurityWebFilterChain securityWebFilterChain(final ServerHttpSecurity serverHttpSecurity,
+                                                         final ReactiveJwtAuthenticationConverter jwtAuthenticationConverter) {
 
         return serverHttpSecurity
                 .authorizeExchange(authorize -> authorize
@@ -61,6 +69,12 @@ public class SecurityConfig {
                         // Static resources are available without authorization
                         .pathMatchers(HttpMethod.GET, "/", "*.js", "*.css", "*.ico", "media/*.woff2").permitAll()
 
+                        // Health probes for load balancers and orchestration
+                        .pathMatchers(HttpMethod.GET, "/actuator/health", "/actuator/health/**").permitAll()
+
+                        // Metrics for Prometheus
+                        .pathMatchers(HttpMethod.GET, "/actuator/prometheus").hasAnyAuthority(User.Role.ADMIN)
+
                         // All backend endpoints need authorization
                         .pathMatchers(HttpMethod.POST, "/login").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/register").hasAnyAuthority(User.Role.INVITATION)
@@ -72,6 +86,9 @@ public class SecurityConfig {
                         .pathMatchers(HttpMethod.POST, "/delete-user").hasAnyAuthority(User.Role.USER)
 
                         .pathMatchers(HttpMethod.GET, "/products").hasAnyAuthority(User.Role.USER)
+                        .pathMatchers(HttpMethod.GET, "/products/search").hasAnyAuthority(User.Role.USER)
+                        .pathMatchers(HttpMethod.GET, "/products/qr").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/products/*/qr").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/products/read-product").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/products/create-product").hasAnyAuthority(User.Role.ADMIN)
                         .pathMatchers(HttpMethod.POST, "/products/update-product").hasAnyAuthority(User.Role.ADMIN)
@@ -81,6 +98,7 @@ public class SecurityConfig {
                         .pathMatchers(HttpMethod.GET, "/purchases").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/purchases/create-purchase").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/purchases/delete-purchase").hasAnyAuthority(User.Role.USER)
+                        .pathMatchers(HttpMethod.POST, "/purchases/sync").hasAnyAuthority(User.Role.USER)
 
                         .pathMatchers(HttpMethod.GET, "/payments").hasAnyAuthority(User.Role.USER)
                         .pathMatchers(HttpMethod.POST, "/payments/create-payment").hasAnyAuthority(User.Role.USER)
@@ -88,13 +106,34 @@ public class SecurityConfig {
 
                         .pathMatchers(HttpMethod.GET, "/account-balance").hasAnyAuthority(User.Role.USER)
 
+                        .pathMatchers(HttpMethod.GET, "/statistics/products").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/statistics/users").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/statistics/revenue").hasAnyAuthority(User.Role.ADMIN)
+
+                        .pathMatchers(HttpMethod.GET, "/export/purchases").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/export/payments").hasAnyAuthority(User.Role.ADMIN)
+
+                        .pathMatchers(HttpMethod.POST, "/import/products").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.POST, "/import/users").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.POST, "/import/payments").hasAnyAuthority(User.Role.ADMIN)
+
+                        .pathMatchers(HttpMethod.POST, "/diagnostics/recording").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/diagnostics/thread-dump").hasAnyAuthority(User.Role.ADMIN)
+                        .pathMatchers(HttpMethod.GET, "/diagnostics/class-histogram").hasAnyAuthority(User.Role.ADMIN)
+
                         .anyExchange().authenticated()
                 )
                 .csrf(ServerHttpSecurity.CsrfSpec::disable)
                 .httpBasic(withDefaults())
                 .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
                 .logout(ServerHttpSecurity.LogoutSpec::disable)
-                .oauth2ResourceServer(oAuth2 -> oAuth2.jwt(withDefaults()))
+                .oauth2ResourceServer(oAuth2 -> oAuth2.jwt(jwt -> jwt.jwtAuthenticationConverter(token -> TenantContext.current()
+
+                        // A token is only valid for the tenant it was issued by, tokens from before the tenancy by the default tenant
+                        .filter(tenant -> tenant.equals(Objects.requireNonNullElse(token.getClaimAsString(TenantContext.KEY), TenantContext.DEFAULT)))
+                        .switchIfEmpty(Mono.error(new InvalidBearerTokenException("The token was issued by another tenant")))
+                        .flatMap(tenant -> jwtAuthenticationConverter.convert(token))
+                )))
                 .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
                 .exceptionHandling(exceptions -> exceptions
                         .authenticationEntryPoint(new BearerTokenServerAuthenticationEntryPoint())
@@ -104,7 +143,7 @@ public class SecurityConfig {
     }
 
     @Bean
-    protected NimbusReactiveJwtDecoder jwtDecoder() {
+    public NimbusReactiveJwtDecoder jwtDecoder() {
 
         final byte[] key = jwtProperties.key().getBytes(StandardCharsets.UTF_8);
         final String algorithm = Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA512.name();
@@ -114,14 +153,14 @@ public class SecurityConfig {
     }
 
     @Bean
-    protected JwtEncoder jwtEncoder() {
+    public JwtEncoder jwtEncoder(final MeterRegistry meterRegistry) {
 
         final byte[] key = jwtProperties.key().getBytes(StandardCharsets.UTF_8);
         final String algorithm = Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA512.name();
 
         final SecretKey secretKey = new SecretKeySpec(key, algorithm);
         final JWKSource<SecurityContext> jwkSource = new ImmutableSecret<>(secretKey);
-        return new NimbusJwtEncoder(jwkSource);
+        return new TimedJwtEncoder(new NimbusJwtEncoder(jwkSource), meterRegistry);
     }
 
     @Bean
@@ -0,0 +1,61 @@
+package de.saschaufer.tallyapp.config.tenancy;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.List;
+
+@Validated
+@ConfigurationProperties("tenancy")
+public record TenancyProperties(
+
+        @NotNull
+        Boolean enabled,
+
+        @NotNull
+        Resolution resolution,
+
+        @NotNull
+        @Min(1)
+        Integer maxConcurrentRequests,
+
+        @Valid
+        List<Tenant> tenants
+) {
+
+    public TenancyProperties {
+        tenants = tenants == null ? List.of() : tenants;
+    }
+
+    public enum Resolution {
+        HOST, PATH
+    }
+
+    public record Tenant(
+
+            @NotBlank
+            @Pattern(regexp = "[a-z0-9-]+")
+            String id,
+
+            List<@NotBlank String> hosts,
+
+            List<@NotBlank @Email String> adminEmails,
+
+            String registrationUrl,
+
+            @Min(1)
+            Integer maxConcurrentRequests
+    ) {
+
+        public Tenant {
+            hosts = hosts == null ? List.of() : hosts;
+            adminEmails = adminEmails == null ? List.of() : adminEmails;
+        }
+    }
+}
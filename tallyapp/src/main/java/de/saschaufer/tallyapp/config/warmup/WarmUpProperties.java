@@ -0,0 +1,34 @@
+package de.saschaufer.tallyapp.config.warmup;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.time.DurationMax;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+@Validated
+@ConfigurationProperties("warm-up")
+public record WarmUpProperties(
+
+        @NotNull
+        Boolean enabled,
+
+        @NotNull
+        @DurationMin(seconds = 1)
+        @DurationMax(minutes = 5)
+        Duration timeBudget,
+
+        @NotNull
+        @Min(0)
+        Integer iterations,
+
+        @NotNull
+        @Min(1)
+        @Max(64)
+        Integer connections
+) {
+}
@@ -3,26 +3,38 @@ package de.saschaufer.tallyapp.controller;
 import de.saschaufer.tallyapp.controller.dto.*;
 import de.saschaufer.tallyapp.persistence.dto.User;
 import de.saschaufer.tallyapp.services.*;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.data.util.Pair;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.server.UnsupportedMediaTypeStatusException;
 import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiFunction;
 
 import static de.saschaufer.tallyapp.controller.MDCFilter.KEY_MDC;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
@@ -33,12 +45,35 @@ import static org.springframework.web.reactive.function.server.ServerResponse.st
 @RequiredArgsConstructor
 public class Handler {
 
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    // Statistics of the last 30 days and the top 10 products, unless requested otherwise
+    private static final int DEFAULT_STATISTICS_DAYS = 30;
+    private static final int DEFAULT_STATISTICS_LIMIT = 10;
+    private static final int MAX_STATISTICS_LIMIT = 100;
+
+    private static final int MAX_USERS_LIMIT = 500;
+
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    private static final int MAX_SEARCH_LIMIT = 50;
+
+    // Pixels per module of the QR codes and labels per row of the sheet, unless requested otherwise
+    private static final int DEFAULT_QR_SCALE = 8;
+    private static final int MAX_QR_SCALE = 32;
+    private static final int DEFAULT_LABEL_COLUMNS = 4;
+    private static final int MAX_LABEL_COLUMNS = 10;
+
     private final UserDetailsService userDetailsService;
     private final FrontendPropertiesService frontendPropertiesService;
     private final ProductService productService;
     private final PurchaseService purchaseService;
-    private final EmailService emailService;
     private final PaymentService paymentService;
+    private final StatisticsService statisticsService;
+    private final ExportService exportService;
+    private final ImportService importService;
+    private final QrService qrService;
+    private final DiagnosticsService diagnosticsService;
 
     public Mono<ServerResponse> postLogin(final ServerRequest request) {
 
@@ -51,7 +86,7 @@ public class Handler {
                 .map(a -> (User) a.getPrincipal())
                 .flatMap(userDetailsService::checkRegistered)
                 .doOnNext(u -> log.atInfo().setMessage("User '{}' logged in.").addArgument(u.getEmail()).log())
-                .map(userDetailsService::createJwtToken)
+                .flatMap(u -> TenantContext.current().map(tenant -> userDetailsService.createJwtToken(u, tenant)))
                 .map(frontendPropertiesService::addFrontendProperties)
 
                 // Build response
@@ -72,10 +107,6 @@ public class Handler {
                 .switchIfEmpty(badRequest("Body required"))
                 .flatMap(RequestBodyValidator::validate)
                 .flatMap(user -> userDetailsService.createUser(user.email(), user.password(), List.of(User.Role.USER)))
-                .flatMap(user -> Mono.fromCallable(() -> {
-                    emailService.sendRegistrationEmail(user.getEmail(), user.getRegistrationSecret());
-                    return user;
-                }).subscribeOn(Schedulers.boundedElastic()))
 
                 // Build response
                 .flatMap(user -> ok().build())
@@ -114,12 +145,6 @@ public class Handler {
                 .flatMap(r -> r.bodyToMono(String.class))
                 .switchIfEmpty(badRequest("Body required"))
                 .flatMap(userDetailsService::resetPassword)
-                .flatMap(t -> Mono.fromCallable(() -> {
-                    final String email = t.getT1();
-                    final String password = t.getT2();
-                    emailService.sendResetPasswordEmail(email, password);
-                    return t;
-                }).subscribeOn(Schedulers.boundedElastic()))
 
                 // Build response
                 .then(Mono.defer(() -> ok().build()))
@@ -191,10 +216,19 @@ public class Handler {
                 .doOnNext(r -> log.atInfo().setMessage("Read all users.").log())
 
                 // Get users
-                .flatMap(r -> userDetailsService.findAllUsers())
-
-                // Build response
-                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+                .flatMap(this::usersRequest)
+                .flatMap(userDetailsService::findUsers)
+
+                // Build response, with a link to the next page if there is one
+                .flatMap(page -> ok().contentType(MediaType.APPLICATION_JSON)
+                        .headers(headers -> {
+                            if (page.next() != null) {
+                                headers.add(HttpHeaders.LINK, "<%s>; rel=\"next\"".formatted(
+                                        request.uriBuilder().replaceQueryParam("after", page.next().encode()).build()));
+                            }
+                        })
+                        .bodyValue(page.users())
+                )
 
                 // Build error response
                 .doOnError(e -> log.atError().setMessage("Error reading all users.").setCause(e).log())
@@ -247,6 +281,41 @@ public class Handler {
                 .onErrorResume(this::buildErrorResponse);
     }
 
+    public Mono<ServerResponse> getSearchProducts(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Search products.").log())
+
+                // Search products
+                .flatMap(r -> {
+                    final String query = request.queryParam("q").map(String::strip).orElse("");
+
+                    if (query.isEmpty()) {
+                        return badRequest("Query parameter 'q' is required");
+                    }
+
+                    final int limit;
+                    try {
+                        limit = request.queryParam("limit").map(Integer::parseInt).orElse(DEFAULT_SEARCH_LIMIT);
+                    } catch (final NumberFormatException e) {
+                        return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_SEARCH_LIMIT));
+                    }
+
+                    if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+                        return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_SEARCH_LIMIT));
+                    }
+
+                    return productService.searchProducts(query, limit);
+                })
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error searching products.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
     public Mono<ServerResponse> postReadProduct(final ServerRequest request) {
 
         return setMdc(request)
@@ -266,6 +335,69 @@ public class Handler {
                 .onErrorResume(this::buildErrorResponse);
     }
 
+    public Mono<ServerResponse> getProductQrCode(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Render QR code of product.").log())
+
+                // Render QR code
+                .flatMap(r -> {
+                    final long productId;
+                    try {
+                        productId = Long.parseLong(request.pathVariable("id"));
+                    } catch (final NumberFormatException e) {
+                        return badRequest("Product ID must be a number");
+                    }
+
+                    return qrFormat(request).flatMap(format -> qrScale(request)
+                            .flatMap(scale -> qrService.renderProductCode(productId, format, scale))
+                            .map(image -> Pair.of(format, image))
+                    );
+                })
+
+                // Build response, clients revalidate with the ETag and get '304 Not Modified' while the code is the same
+                .flatMap(image -> request.checkNotModified(image.getSecond().eTag())
+                        .switchIfEmpty(Mono.defer(() -> ok()
+                                .contentType(image.getFirst() == QrService.Format.PNG ? MediaType.IMAGE_PNG : MediaType.parseMediaType("image/svg+xml"))
+                                .eTag(image.getSecond().eTag())
+                                .cacheControl(CacheControl.noCache().cachePrivate())
+                                .bodyValue(image.getSecond().bytes())
+                        ))
+                )
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error rendering QR code of product.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getProductLabels(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Render product labels.").log())
+
+                // Render labels
+                .flatMap(r -> {
+                    final int columns;
+                    try {
+                        columns = request.queryParam("columns").map(Integer::parseInt).orElse(DEFAULT_LABEL_COLUMNS);
+                    } catch (final NumberFormatException e) {
+                        return badRequest("Query parameter 'columns' must be 1 to %d".formatted(MAX_LABEL_COLUMNS));
+                    }
+
+                    if (columns < 1 || columns > MAX_LABEL_COLUMNS) {
+                        return badRequest("Query parameter 'columns' must be 1 to %d".formatted(MAX_LABEL_COLUMNS));
+                    }
+
+                    return ok()
+                            .contentType(MediaType.parseMediaType("text/html;charset=UTF-8"))
+                            .body(BodyInserters.fromDataBuffers(qrService.renderProductLabels(columns)));
+                })
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error rendering product labels.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
     public Mono<ServerResponse> getReadProducts(final ServerRequest request) {
 
         return setMdc(request)
@@ -362,7 +494,9 @@ public class Handler {
 
         // Create purchase
         return user.zipWith(purchase, Pair::of)
-                .flatMap(pair -> purchaseService.createPurchase(pair.getFirst().getId(), pair.getSecond().productId()))
+                .zipWith(idempotencyKey(request))
+                .flatMap(tuple -> purchaseService.createPurchase(tuple.getT1().getFirst().getId(), tuple.getT1().getSecond().productId(),
+                        tuple.getT2().orElse(null)))
 
                 // Build response
                 .then(Mono.defer(() -> ok().build()))
@@ -372,6 +506,40 @@ public class Handler {
                 .onErrorResume(this::buildErrorResponse);
     }
 
+    public Mono<ServerResponse> postSyncPurchases(final ServerRequest request) {
+
+        // Get user
+        final Mono<User> user = setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Sync purchases.").log())
+
+                .flatMap(ServerRequest::principal)
+                .map(Authentication.class::cast)
+                .map(auth -> switch (auth.getPrincipal()) {
+                    case UserDetails u -> u.getUsername();
+                    case Jwt j -> j.getSubject();
+                    default ->
+                            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown authentication method");
+                })
+                .flatMap(userDetailsService::findByUsername)
+                .map(u -> (User) u);
+
+        // Get body
+        final Mono<PostSyncPurchasesRequest> purchases = request.bodyToMono(PostSyncPurchasesRequest.class)
+                .switchIfEmpty(badRequest("Body required"))
+                .flatMap(RequestBodyValidator::validate);
+
+        // Sync purchases
+        return user.zipWith(purchases, Pair::of)
+                .flatMap(pair -> purchaseService.syncPurchases(pair.getFirst().getId(), pair.getSecond().purchases()))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error syncing purchases.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
     public Mono<ServerResponse> getReadPurchases(final ServerRequest request) {
 
         // Get user
@@ -389,8 +557,10 @@ public class Handler {
                 .flatMap(userDetailsService::findByUsername)
                 .map(u -> (User) u);
 
-        // Read purchases
-        return user.flatMap(u -> purchaseService.readPurchases(u.getId()))
+        // Read purchases, the archived ones only on request
+        final boolean archive = request.queryParam("archive").map(Boolean::parseBoolean).orElse(false);
+
+        return user.flatMap(u -> purchaseService.readPurchases(u.getId(), archive))
 
                 // Build response
                 .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
@@ -441,7 +611,9 @@ public class Handler {
                 .flatMap(RequestBodyValidator::validate);
 
         // Create payment
-        return user.zipWith(payment).flatMap(pair -> paymentService.createPayment(pair.getT1().getId(), pair.getT2().amount()))
+        return user.zipWith(payment).zipWith(idempotencyKey(request))
+                .flatMap(tuple -> paymentService.createPayment(tuple.getT1().getT1().getId(), tuple.getT1().getT2().amount(),
+                        tuple.getT2().orElse(null)))
 
                 // Build response
                 .then(Mono.defer(() -> ok().build()))
@@ -468,8 +640,10 @@ public class Handler {
                 .flatMap(userDetailsService::findByUsername)
                 .map(u -> (User) u);
 
-        // Read payments
-        return user.flatMap(u -> paymentService.readPayments(u.getId()))
+        // Read payments, the archived ones only on request
+        final boolean archive = request.queryParam("archive").map(Boolean::parseBoolean).orElse(false);
+
+        return user.flatMap(u -> paymentService.readPayments(u.getId(), archive))
 
                 // Build response
                 .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
@@ -526,6 +700,188 @@ public class Handler {
                 .onErrorResume(this::buildErrorResponse);
     }
 
+    public Mono<ServerResponse> getReadProductStatistics(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Read product statistics.").log())
+
+                // Get statistics
+                .flatMap(r -> statisticsRange(r).zipWith(statisticsLimit(r)))
+                .flatMap(tuple -> statisticsService.readProductStatistics(tuple.getT1().getFirst(), tuple.getT1().getSecond(), tuple.getT2()))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error reading product statistics.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getReadUserStatistics(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Read user statistics.").log())
+
+                // Get statistics
+                .flatMap(this::statisticsRange)
+                .flatMap(range -> statisticsService.readUserStatistics(range.getFirst(), range.getSecond()))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error reading user statistics.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getReadRevenueStatistics(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Read revenue statistics.").log())
+
+                // Get statistics
+                .flatMap(this::statisticsRange)
+                .flatMap(range -> statisticsService.readRevenueStatistics(range.getFirst(), range.getSecond()))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error reading revenue statistics.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getExportPurchases(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Export purchases.").log())
+
+                // Export purchases
+                .flatMap(this::exportFormat)
+                .flatMap(format -> export(request, "purchases", format, exportService::exportPurchases))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error exporting purchases.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getExportPayments(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Export payments.").log())
+
+                // Export payments
+                .flatMap(this::exportFormat)
+                .flatMap(format -> export(request, "payments", format, exportService::exportPayments))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error exporting payments.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> postImportProducts(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Import products.").log())
+
+                // Import products
+                .flatMap(r -> importService.importProducts(r.bodyToFlux(DataBuffer.class)))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error importing products.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> postImportUsers(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Import users.").log())
+
+                // Import users
+                .flatMap(r -> importService.importUsers(r.bodyToFlux(DataBuffer.class)))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error importing users.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> postImportPayments(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Import payments.").log())
+
+                // Import payments
+                .flatMap(r -> importService.importPayments(r.bodyToFlux(DataBuffer.class)))
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error importing payments.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> postCreateRecording(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Create recording.").log())
+
+                // Record
+                .flatMap(r -> r.bodyToMono(PostCreateRecordingRequest.class))
+                .switchIfEmpty(badRequest("Body required"))
+                .flatMap(RequestBodyValidator::validate)
+                .flatMap(body -> diagnosticsService.record(Duration.ofSeconds(body.durationSeconds())))
+
+                // Build response
+                .flatMap(file -> ok()
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("recording.jfr").build().toString())
+                        .body(BodyInserters.fromDataBuffers(diagnosticsService.read(file)))
+                )
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error creating recording.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getThreadDump(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Read thread dump.").log())
+
+                // Get thread dump
+                .flatMap(r -> diagnosticsService.threadDump())
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.TEXT_PLAIN).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error reading thread dump.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
+    public Mono<ServerResponse> getClassHistogram(final ServerRequest request) {
+
+        return setMdc(request)
+                .doOnNext(r -> log.atInfo().setMessage("Read class histogram.").log())
+
+                // Get class histogram
+                .flatMap(r -> diagnosticsService.classHistogram())
+
+                // Build response
+                .flatMap(response -> ok().contentType(MediaType.TEXT_PLAIN).bodyValue(response))
+
+                // Build error response
+                .doOnError(e -> log.atError().setMessage("Error reading class histogram.").setCause(e).log())
+                .onErrorResume(this::buildErrorResponse);
+    }
+
     private Mono<ServerRequest> setMdc(final ServerRequest request) {
         return Mono.deferContextual(ctx -> {
             MDC.setContextMap(ctx.get(KEY_MDC));
@@ -533,6 +889,177 @@ public class Handler {
         });
     }
 
+    /**
+     * @return The key a client sets to retry a request without creating the purchase or payment twice.
+     */
+    private Mono<Optional<String>> idempotencyKey(final ServerRequest request) {
+
+        final Optional<String> key = request.headers().header(IDEMPOTENCY_KEY).stream().findFirst();
+
+        if (key.isPresent() && (key.get().isBlank() || key.get().length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return badRequest("Header '%s' must have 1 to %d characters".formatted(IDEMPOTENCY_KEY, MAX_IDEMPOTENCY_KEY_LENGTH));
+        }
+
+        return Mono.just(key);
+    }
+
+    /**
+     * @return The filters 'email' (prefix), 'registered' and 'balance', the order 'sort' and 'order' and the page
+     * 'limit' and 'after' (cursor) from the query parameters, by default sorted by email ascending.
+     */
+    private Mono<GetUsersRequest> usersRequest(final ServerRequest request) {
+
+        final String email = request.queryParam("email").map(String::strip).filter(e -> !e.isEmpty()).orElse(null);
+
+        final Boolean registrationComplete;
+        switch (request.queryParam("registered").orElse("")) {
+            case "" -> registrationComplete = null;
+            case "true" -> registrationComplete = true;
+            case "false" -> registrationComplete = false;
+            default -> {
+                return badRequest("Query parameter 'registered' must be 'true' or 'false'");
+            }
+        }
+
+        final GetUsersRequest.Balance balance;
+        switch (request.queryParam("balance").orElse("")) {
+            case "" -> balance = null;
+            case "negative" -> balance = GetUsersRequest.Balance.NEGATIVE;
+            case "zero" -> balance = GetUsersRequest.Balance.ZERO;
+            case "positive" -> balance = GetUsersRequest.Balance.POSITIVE;
+            default -> {
+                return badRequest("Query parameter 'balance' must be 'negative', 'zero' or 'positive'");
+            }
+        }
+
+        final GetUsersRequest.Sort sort;
+        switch (request.queryParam("sort").orElse("email")) {
+            case "email" -> sort = GetUsersRequest.Sort.EMAIL;
+            case "balance" -> sort = GetUsersRequest.Sort.BALANCE;
+            case "registration" -> sort = GetUsersRequest.Sort.REGISTRATION;
+            default -> {
+                return badRequest("Query parameter 'sort' must be 'email', 'balance' or 'registration'");
+            }
+        }
+
+        final boolean descending;
+        switch (request.queryParam("order").orElse("asc")) {
+            case "asc" -> descending = false;
+            case "desc" -> descending = true;
+            default -> {
+                return badRequest("Query parameter 'order' must be 'asc' or 'desc'");
+            }
+        }
+
+        final Integer limit;
+        try {
+            limit = request.queryParam("limit").map(Integer::parseInt).orElse(null);
+        } catch (final NumberFormatException e) {
+            return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_USERS_LIMIT));
+        }
+        if (limit != null && (limit < 1 || limit > MAX_USERS_LIMIT)) {
+            return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_USERS_LIMIT));
+        }
+
+        final GetUsersRequest.After after;
+        try {
+            after = request.queryParam("after").map(a -> GetUsersRequest.After.decode(sort, a)).orElse(null);
+        } catch (final IllegalArgumentException e) {
+            return badRequest("Query parameter 'after' is not a cursor of this sort");
+        }
+
+        return Mono.just(new GetUsersRequest(email, registrationComplete, balance, sort, descending, after, limit));
+    }
+
+    /**
+     * @return The days from the query parameter 'from' to 'to' (inclusive, UTC), by default the last 30 days.
+     */
+    private Mono<Pair<LocalDate, LocalDate>> statisticsRange(final ServerRequest request) {
+
+        final LocalDate to;
+        final LocalDate from;
+
+        try {
+            to = request.queryParam("to").map(LocalDate::parse).orElse(LocalDate.now(ZoneOffset.UTC));
+            from = request.queryParam("from").map(LocalDate::parse).orElse(to.minusDays(DEFAULT_STATISTICS_DAYS - 1));
+        } catch (final DateTimeParseException e) {
+            return badRequest("Query parameters 'from' and 'to' must be dates like '2024-05-01'");
+        }
+
+        if (from.isAfter(to)) {
+            return badRequest("Query parameter 'from' must not be after 'to'");
+        }
+
+        return Mono.just(Pair.of(from, to));
+    }
+
+    private Mono<Integer> statisticsLimit(final ServerRequest request) {
+
+        final int limit;
+
+        try {
+            limit = request.queryParam("limit").map(Integer::parseInt).orElse(DEFAULT_STATISTICS_LIMIT);
+        } catch (final NumberFormatException e) {
+            return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_STATISTICS_LIMIT));
+        }
+
+        if (limit < 1 || limit > MAX_STATISTICS_LIMIT) {
+            return badRequest("Query parameter 'limit' must be 1 to %d".formatted(MAX_STATISTICS_LIMIT));
+        }
+
+        return Mono.just(limit);
+    }
+
+    private Mono<QrService.Format> qrFormat(final ServerRequest request) {
+        return switch (request.queryParam("format").orElse("png")) {
+            case "png" -> Mono.just(QrService.Format.PNG);
+            case "svg" -> Mono.just(QrService.Format.SVG);
+            default -> badRequest("Query parameter 'format' must be 'png' or 'svg'");
+        };
+    }
+
+    private Mono<Integer> qrScale(final ServerRequest request) {
+
+        final int scale;
+        try {
+            scale = request.queryParam("scale").map(Integer::parseInt).orElse(DEFAULT_QR_SCALE);
+        } catch (final NumberFormatException e) {
+            return badRequest("Query parameter 'scale' must be 1 to %d".formatted(MAX_QR_SCALE));
+        }
+
+        if (scale < 1 || scale > MAX_QR_SCALE) {
+            return badRequest("Query parameter 'scale' must be 1 to %d".formatted(MAX_QR_SCALE));
+        }
+
+        return Mono.just(scale);
+    }
+
+    private Mono<ExportService.Format> exportFormat(final ServerRequest request) {
+        return switch (request.queryParam("format").orElse("csv")) {
+            case "csv" -> Mono.just(ExportService.Format.CSV);
+            case "ndjson" -> Mono.just(ExportService.Format.NDJSON);
+            default -> badRequest("Query parameter 'format' must be 'csv' or 'ndjson'");
+        };
+    }
+
+    /**
+     * Streams the export as a file, compressed with gzip if the query parameter 'gzip' is true.
+     */
+    private Mono<ServerResponse> export(final ServerRequest request, final String name, final ExportService.Format format,
+                                        final BiFunction<ExportService.Format, Boolean, Flux<DataBuffer>> export) {
+
+        final boolean gzip = request.queryParam("gzip").map(Boolean::parseBoolean).orElse(false);
+
+        final String filename = name + (format == ExportService.Format.CSV ? ".csv" : ".ndjson") + (gzip ? ".gz" : "");
+        final MediaType contentType = gzip ? MediaType.parseMediaType("application/gzip") :
+                format == ExportService.Format.CSV ? MediaType.parseMediaType("text/csv;charset=UTF-8") : MediaType.APPLICATION_NDJSON;
+
+        return ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(BodyInserters.fromDataBuffers(export.apply(format, gzip)));
+    }
+
     private <T> Mono<T> badRequest(final String message) {
         return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, message));
     }
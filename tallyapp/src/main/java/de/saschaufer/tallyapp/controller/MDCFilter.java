@@ -10,9 +10,11 @@ import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
 import reactor.util.context.Context;
+import reactor.util.context.ContextView;
 
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Map;
 
 @Component
 @Order(Ordered.HIGHEST_PRECEDENCE)
@@ -39,4 +41,17 @@ public class MDCFilter implements WebFilter {
         return chain.filter(exchange)
                 .contextWrite(Context.of(KEY_MDC, MDC.getCopyOfContextMap()));
     }
+
+    /**
+     * @return The ID of the request from the subscriber context, or null outside a request.
+     */
+    public static String requestId(final ContextView context) {
+
+        if (!context.hasKey(KEY_MDC)) {
+            return null;
+        }
+
+        final Map<String, String> mdc = context.get(KEY_MDC);
+        return mdc == null ? null : mdc.get("requestId");
+    }
 }
@@ -9,6 +9,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
 
+import java.util.Optional;
 import java.util.Set;
 
 @NoArgsConstructor(access = AccessLevel.NONE)
@@ -18,13 +19,18 @@ public class RequestBodyValidator {
     private static final jakarta.validation.Validator validator = factory.getValidator();
 
     public static <T> Mono<T> validate(final T object) {
+        return violation(object)
+                .<Mono<T>>map(message -> Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, message)))
+                .orElseGet(() -> Mono.just(object));
+    }
 
-        final Set<ConstraintViolation<Object>> violations = validator.validate(object);
+    /**
+     * @return The message of the first violation, if any.
+     */
+    public static Optional<String> violation(final Object object) {
 
-        if (violations.isEmpty()) {
-            return Mono.just(object);
-        }
+        final Set<ConstraintViolation<Object>> violations = validator.validate(object);
 
-        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, violations.iterator().next().getMessage()));
+        return violations.stream().findFirst().map(ConstraintViolation::getMessage);
     }
 }
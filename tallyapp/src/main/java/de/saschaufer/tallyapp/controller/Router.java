@@ -1,5 +1,7 @@
 package de.saschaufer.tallyapp.controller;
 
+import de.saschaufer.tallyapp.diagnostics.RequestEvents;
+import de.saschaufer.tallyapp.metrics.RouteMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -12,7 +14,7 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 public class Router {
 
     @Bean
-    public RouterFunction<ServerResponse> route(final Handler handler) {
+    public RouterFunction<ServerResponse> route(final Handler handler, final RouteMetrics routeMetrics, final RequestEvents requestEvents) {
         return RouterFunctions
                 .route()
                 .POST("/login", handler::postLogin)
@@ -25,6 +27,9 @@ public class Router {
                 .POST("/delete-user", handler::postDeleteUser)
 
                 .GET("/products", handler::getReadProducts)
+                .GET("/products/search", handler::getSearchProducts)
+                .GET("/products/qr", handler::getProductLabels)
+                .GET("/products/{id}/qr", handler::getProductQrCode)
                 .POST("/products/read-product", handler::postReadProduct)
                 .POST("/products/create-product", handler::postCreateProduct)
                 .POST("/products/update-product", handler::postUpdateProduct)
@@ -34,6 +39,7 @@ public class Router {
                 .GET("/purchases", handler::getReadPurchases)
                 .POST("/purchases/create-purchase", handler::postCreatePurchase)
                 .POST("/purchases/delete-purchase", handler::postDeletePurchase)
+                .POST("/purchases/sync", handler::postSyncPurchases)
 
                 .GET("/payments", handler::getReadPayments)
                 .POST("/payments/create-payment", handler::postCreatePayment)
@@ -41,6 +47,24 @@ public class Router {
 
                 .GET("/account-balance", handler::getReadAccountBalance)
 
+                .GET("/statistics/products", handler::getReadProductStatistics)
+                .GET("/statistics/users", handler::getReadUserStatistics)
+                .GET("/statistics/revenue", handler::getReadRevenueStatistics)
+
+                .GET("/export/purchases", handler::getExportPurchases)
+                .GET("/export/payments", handler::getExportPayments)
+
+                .POST("/import/products", handler::postImportProducts)
+                .POST("/import/users", handler::postImportUsers)
+                .POST("/import/payments", handler::postImportPayments)
+
+                .POST("/diagnostics/recording", handler::postCreateRecording)
+                .GET("/diagnostics/thread-dump", handler::getThreadDump)
+                .GET("/diagnostics/class-histogram", handler::getClassHistogram)
+
+                .filter(routeMetrics)
+                .filter(requestEvents)
+
                 .build();
     }
 }
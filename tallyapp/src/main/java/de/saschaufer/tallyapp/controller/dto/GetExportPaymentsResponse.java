@@ -0,0 +1,12 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+public record GetExportPaymentsResponse(
+        Long paymentId,
+        Instant paymentTimestamp,
+        String email,
+        BigDecimal amount
+) {
+}
@@ -0,0 +1,13 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+public record GetExportPurchasesResponse(
+        Long purchaseId,
+        Instant purchaseTimestamp,
+        String email,
+        String productName,
+        BigDecimal productPrice
+) {
+}
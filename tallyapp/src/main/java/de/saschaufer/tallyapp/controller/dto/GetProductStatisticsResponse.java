@@ -0,0 +1,11 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+
+public record GetProductStatisticsResponse(
+        Long productId,
+        String productName,
+        Long purchasesCount,
+        BigDecimal revenue
+) {
+}
@@ -0,0 +1,11 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+public record GetRevenueStatisticsResponse(
+        LocalDate day,
+        Long purchasesCount,
+        BigDecimal revenue
+) {
+}
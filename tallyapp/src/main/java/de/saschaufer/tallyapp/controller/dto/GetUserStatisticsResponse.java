@@ -0,0 +1,11 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+
+public record GetUserStatisticsResponse(
+        String email,
+        String productName,
+        Long purchasesCount,
+        BigDecimal revenue
+) {
+}
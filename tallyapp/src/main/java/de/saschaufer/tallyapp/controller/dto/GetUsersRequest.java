@@ -0,0 +1,82 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Filters, order and page of the user list. Filters that are null match all users.
+ *
+ * @param email Prefix of the email, case-insensitive.
+ * @param after The last user of the previous page, null for the first page.
+ * @param limit Users per page, null for all users.
+ */
+public record GetUsersRequest(
+        String email,
+        Boolean registrationComplete,
+        Balance balance,
+        Sort sort,
+        boolean descending,
+        After after,
+        Integer limit
+) {
+
+    public enum Balance {
+        NEGATIVE,
+        ZERO,
+        POSITIVE
+    }
+
+    public enum Sort {
+        EMAIL,
+        BALANCE,
+        REGISTRATION
+    }
+
+    /**
+     * Position in the list for the keyset pagination: the sort value and the email of a user. The email is unique, so
+     * it breaks ties in the sort value.
+     */
+    public record After(Object value, String email) {
+
+        public static After of(final Sort sort, final GetUsersResponse user) {
+            return new After(switch (sort) {
+                case EMAIL -> null;
+                case BALANCE -> user.accountBalance();
+                case REGISTRATION -> user.registrationOn();
+            }, user.email());
+        }
+
+        public String encode() {
+            final String position = (value == null ? "" : value.toString()) + "\n" + email;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @throws IllegalArgumentException If the cursor was not encoded by {@link #encode()} for this sort.
+         */
+        public static After decode(final Sort sort, final String cursor) {
+
+            final String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            final int separator = position.indexOf('\n');
+
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursor without email");
+            }
+
+            final String value = position.substring(0, separator);
+
+            try {
+                return new After(switch (sort) {
+                    case EMAIL -> null;
+                    case BALANCE -> new BigDecimal(value);
+                    case REGISTRATION -> Instant.parse(value);
+                }, position.substring(separator + 1));
+            } catch (final DateTimeParseException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public record PostCreateRecordingRequest(
+
+        @NotNull(message = "Recording duration is required")
+        @Min(value = 1, message = "Recording duration must be at least 1 second")
+        Integer durationSeconds
+) {
+}
@@ -0,0 +1,18 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import java.math.BigDecimal;
+
+public record PostImportPaymentRequest(
+
+        @NotBlank(message = "Email is required")
+        @Email(message = "Must be a valid email address")
+        String email,
+
+        @NotNull(message = "Payment amount is required")
+        BigDecimal amount
+) {
+}
@@ -0,0 +1,16 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import java.util.List;
+
+public record PostImportResponse(
+        Long rows,
+        Long imported,
+        List<Error> errors
+) {
+
+    public record Error(
+            Long line,
+            String message
+    ) {
+    }
+}
@@ -0,0 +1,12 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+
+public record PostImportUserRequest(
+
+        @NotBlank(message = "Email is required")
+        @Email(message = "Must be a valid email address")
+        String email
+) {
+}
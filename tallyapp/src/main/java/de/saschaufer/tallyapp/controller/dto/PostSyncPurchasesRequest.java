@@ -0,0 +1,33 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.time.Instant;
+import java.util.List;
+
+public record PostSyncPurchasesRequest(
+
+        @Valid
+        @NotNull(message = "Purchases are required")
+        @Size(min = 1, max = 500, message = "1 to 500 purchases are allowed")
+        List<Purchase> purchases
+) {
+
+    public record Purchase(
+
+            // Set by the client, the same as the header 'Idempotency-Key' of a single purchase
+            @NotBlank(message = "Client ID is required")
+            @Size(max = 255, message = "Client ID must have 1 to 255 characters")
+            String clientId,
+
+            @NotNull(message = "Product ID is required")
+            Long productId,
+
+            @NotNull(message = "Timestamp is required")
+            Instant timestamp
+    ) {
+    }
+}
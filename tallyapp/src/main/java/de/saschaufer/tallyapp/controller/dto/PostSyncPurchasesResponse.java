@@ -0,0 +1,14 @@
+package de.saschaufer.tallyapp.controller.dto;
+
+public record PostSyncPurchasesResponse(
+        String clientId,
+        Status status,
+        String message
+) {
+
+    public enum Status {
+        CREATED,
+        DUPLICATE,
+        REJECTED
+    }
+}
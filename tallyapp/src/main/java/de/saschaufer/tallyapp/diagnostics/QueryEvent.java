@@ -0,0 +1,26 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("de.saschaufer.tallyapp.Query")
+@Label("Query")
+@Category("Tally App")
+@Description("An SQL statement sent to the database")
+class QueryEvent extends Event {
+
+    @Label("Request ID")
+    String requestId;
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,47 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import de.saschaufer.tallyapp.controller.MDCFilter;
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+import org.springframework.stereotype.Component;
+import reactor.util.context.ContextView;
+
+import java.util.stream.Collectors;
+
+/**
+ * Emits a {@link QueryEvent} to the JDK Flight Recorder for each SQL statement, so that recordings can be matched with
+ * the logs by the request ID. Costs next to nothing when no recording is running.
+ */
+@Component
+public class QueryEvents implements ProxyExecutionListener {
+
+    @Override
+    public void beforeQuery(final QueryExecutionInfo execInfo) {
+
+        final QueryEvent event = new QueryEvent();
+
+        if (event.isEnabled()) {
+            event.begin();
+            execInfo.getValueStore().put(QueryEvent.class, event);
+        }
+    }
+
+    @Override
+    public void afterQuery(final QueryExecutionInfo execInfo) {
+
+        final QueryEvent event = execInfo.getValueStore().get(QueryEvent.class, QueryEvent.class);
+
+        if (event == null) {
+            return;
+        }
+
+        final ContextView context = execInfo.getValueStore().get(ContextView.class, ContextView.class);
+
+        event.requestId = context == null ? null : MDCFilter.requestId(context);
+        event.sql = execInfo.getQueries().stream().map(QueryInfo::getQuery).collect(Collectors.joining("; "));
+        event.rows = execInfo.getCurrentResultCount();
+        event.success = execInfo.isSuccess();
+        event.commit();
+    }
+}
@@ -0,0 +1,26 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("de.saschaufer.tallyapp.Request")
+@Label("Request")
+@Category("Tally App")
+@Description("A request handled by the Handler")
+class RequestEvent extends Event {
+
+    @Label("Request ID")
+    String requestId;
+
+    @Label("Method")
+    String method;
+
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+}
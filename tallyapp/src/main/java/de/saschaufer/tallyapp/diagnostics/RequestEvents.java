@@ -0,0 +1,41 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import de.saschaufer.tallyapp.controller.MDCFilter;
+import org.jspecify.annotations.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * Emits a {@link RequestEvent} to the JDK Flight Recorder for each request, so that recordings can be matched with the
+ * logs by the request ID. Costs next to nothing when no recording is running.
+ */
+@Component
+public class RequestEvents implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+
+    @NonNull
+    @Override
+    public Mono<ServerResponse> filter(final ServerRequest request, final HandlerFunction<ServerResponse> next) {
+
+        return Mono.deferContextual(context -> {
+
+            final RequestEvent event = new RequestEvent();
+
+            if (!event.isEnabled()) {
+                return next.handle(request);
+            }
+
+            event.requestId = MDCFilter.requestId(context);
+            event.method = request.method().name();
+            event.path = request.path();
+            event.begin();
+
+            return next.handle(request)
+                    .doOnSuccess(response -> event.status = response == null ? 0 : response.statusCode().value())
+                    .doFinally(signal -> event.commit());
+        });
+    }
+}
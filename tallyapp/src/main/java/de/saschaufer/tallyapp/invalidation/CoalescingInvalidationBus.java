@@ -0,0 +1,81 @@
+package de.saschaufer.tallyapp.invalidation;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the invalidations published within the coalesce window and sends each distinct one once. An invalidation
+ * of a whole cache replaces the invalidations of single keys of that cache.
+ */
+@Slf4j
+public abstract class CoalescingInvalidationBus implements InvalidationBus {
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final Sinks.Many<Invalidation> published = Sinks.many().unicast().onBackpressureBuffer();
+    private final Sinks.Many<Invalidation> received = Sinks.many().multicast().directBestEffort();
+    private final Disposable sending;
+
+    protected CoalescingInvalidationBus(final Duration coalesceWindow) {
+        sending = published.asFlux()
+                .bufferTimeout(MAX_BATCH_SIZE, coalesceWindow)
+                .map(CoalescingInvalidationBus::coalesce)
+                .filter(invalidations -> !invalidations.isEmpty())
+                .concatMap(invalidations -> send(invalidations)
+                        .doOnError(error -> log.atError().setMessage("Error sending invalidations.").setCause(error).log())
+                        .onErrorResume(error -> Mono.empty())
+                )
+                .subscribe();
+    }
+
+    @Override
+    public void publish(final Invalidation invalidation) {
+        published.emitNext(invalidation, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    @Override
+    public Flux<Invalidation> invalidations() {
+        return received.asFlux();
+    }
+
+    @PreDestroy
+    public void close() {
+        sending.dispose();
+    }
+
+    /**
+     * Sends the invalidations to all instances, which pass them to {@link #receive(Invalidation)}.
+     */
+    protected abstract Mono<Void> send(Set<Invalidation> invalidations);
+
+    protected void receive(final Invalidation invalidation) {
+        received.emitNext(invalidation, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    static Set<Invalidation> coalesce(final Iterable<Invalidation> invalidations) {
+
+        final Set<String> allInvalidated = new LinkedHashSet<>();
+        for (final Invalidation invalidation : invalidations) {
+            if (invalidation.isAll()) {
+                allInvalidated.add(invalidation.cache());
+            }
+        }
+
+        final Set<Invalidation> coalesced = new LinkedHashSet<>();
+        for (final Invalidation invalidation : invalidations) {
+            if (invalidation.isAll() || !allInvalidated.contains(invalidation.cache())) {
+                coalesced.add(invalidation);
+            }
+        }
+
+        return coalesced;
+    }
+}
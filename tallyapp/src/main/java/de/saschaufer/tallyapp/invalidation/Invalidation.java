@@ -0,0 +1,32 @@
+package de.saschaufer.tallyapp.invalidation;
+
+/**
+ * Tells that cached data is stale. Without key, all entries of the cache are stale.
+ */
+public record Invalidation(String cache, String key) {
+
+    public static final String PRODUCTS = "products";
+
+    private static final char SEPARATOR = ':';
+
+    public static Invalidation all(final String cache) {
+        return new Invalidation(cache, null);
+    }
+
+    public static Invalidation of(final String cache, final Object key) {
+        return new Invalidation(cache, String.valueOf(key));
+    }
+
+    public boolean isAll() {
+        return key == null;
+    }
+
+    public String encode() {
+        return key == null ? cache : cache + SEPARATOR + key;
+    }
+
+    public static Invalidation decode(final String value) {
+        final int separator = value.indexOf(SEPARATOR);
+        return separator < 0 ? all(value) : new Invalidation(value.substring(0, separator), value.substring(separator + 1));
+    }
+}
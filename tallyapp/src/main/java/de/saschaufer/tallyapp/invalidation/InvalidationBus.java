@@ -0,0 +1,21 @@
+package de.saschaufer.tallyapp.invalidation;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Distributes invalidations of in-memory data to all instances of the app, so that no instance keeps stale data
+ * after another one changed it.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Publishes the invalidation to all instances, including this one. Invalidations published in quick succession
+     * are coalesced, duplicates are delivered once. Publish after the change is committed.
+     */
+    void publish(Invalidation invalidation);
+
+    /**
+     * @return The invalidations published by all instances.
+     */
+    Flux<Invalidation> invalidations();
+}
@@ -0,0 +1,21 @@
+package de.saschaufer.tallyapp.invalidation;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Delivers the invalidations within this instance only. For a single instance and for tests.
+ */
+public class LocalInvalidationBus extends CoalescingInvalidationBus {
+
+    public LocalInvalidationBus(final Duration coalesceWindow) {
+        super(coalesceWindow);
+    }
+
+    @Override
+    protected Mono<Void> send(final Set<Invalidation> invalidations) {
+        return Mono.fromRunnable(() -> invalidations.forEach(this::receive));
+    }
+}
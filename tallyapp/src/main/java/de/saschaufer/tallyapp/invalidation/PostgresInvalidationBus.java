@@ -0,0 +1,120 @@
+package de.saschaufer.tallyapp.invalidation;
+
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Delivers the invalidations to all instances sharing the Postgres database via {@code LISTEN/NOTIFY}. Each instance
+ * keeps one connection listening, which is reopened if it breaks.
+ */
+@Slf4j
+public class PostgresInvalidationBus extends CoalescingInvalidationBus {
+
+    static final String CHANNEL = "tallyapp_invalidations";
+
+    // Postgres limits the payload of a notification to 8000 bytes
+    private static final int MAX_PAYLOAD_LENGTH = 7000;
+
+    private final ConnectionFactory connectionFactory;
+    private final Disposable listening;
+
+    public PostgresInvalidationBus(final ConnectionFactory connectionFactory, final Duration coalesceWindow) {
+        super(coalesceWindow);
+        this.connectionFactory = connectionFactory;
+        this.listening = listen()
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofMinutes(1))
+                        .doBeforeRetry(signal -> log.atWarn().setMessage("Error listening for invalidations. Reconnecting.").setCause(signal.failure()).log())
+                )
+                .subscribe(this::receive);
+    }
+
+    @Override
+    public void close() {
+        listening.dispose();
+        super.close();
+    }
+
+    @Override
+    protected Mono<Void> send(final Set<Invalidation> invalidations) {
+
+        return Mono.usingWhen(
+                connectionFactory.create(),
+                connection -> Flux.fromIterable(payloads(invalidations))
+                        .concatMap(payload -> Flux.from(connection.createStatement("select pg_notify($1, $2)")
+                                        .bind("$1", CHANNEL)
+                                        .bind("$2", payload)
+                                        .execute())
+                                .flatMap(result -> result.map((row, rowMetadata) -> 1))
+                        )
+                        .then(),
+                Connection::close
+        );
+    }
+
+    private Flux<Invalidation> listen() {
+
+        return Flux.usingWhen(
+                connectionFactory.create(),
+                connection -> {
+                    final PostgresqlConnection postgresqlConnection = unwrap(connection);
+                    return postgresqlConnection.createStatement("listen " + CHANNEL)
+                            .execute()
+                            .flatMap(result -> result.getRowsUpdated())
+                            .thenMany(postgresqlConnection.getNotifications())
+                            .mapNotNull(Notification::getParameter)
+                            .flatMapIterable(payload -> Arrays.stream(payload.split("\n")).map(Invalidation::decode).toList());
+                },
+                Connection::close
+        );
+    }
+
+    private static List<String> payloads(final Set<Invalidation> invalidations) {
+
+        final List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder();
+
+        for (final Invalidation invalidation : invalidations) {
+            final String encoded = invalidation.encode();
+            if (!payload.isEmpty() && payload.length() + encoded.length() + 1 > MAX_PAYLOAD_LENGTH) {
+                payloads.add(payload.toString());
+                payload = new StringBuilder();
+            }
+            if (!payload.isEmpty()) {
+                payload.append('\n');
+            }
+            payload.append(encoded);
+        }
+
+        payloads.add(payload.toString());
+        return payloads;
+    }
+
+    private static PostgresqlConnection unwrap(final Connection connection) {
+
+        Object unwrapped = connection;
+        while (!(unwrapped instanceof PostgresqlConnection) && unwrapped instanceof Wrapped<?> wrapped) {
+            unwrapped = wrapped.unwrap();
+        }
+
+        if (unwrapped instanceof PostgresqlConnection postgresqlConnection) {
+            return postgresqlConnection;
+        }
+
+        throw new IllegalStateException("Not a Postgres connection: " + connection.getClass().getName());
+    }
+}
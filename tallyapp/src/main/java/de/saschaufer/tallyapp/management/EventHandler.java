@@ -1,5 +1,9 @@
 package de.saschaufer.tallyapp.management;
 
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.services.ArchiveService;
+import de.saschaufer.tallyapp.services.EmailService;
 import de.saschaufer.tallyapp.services.UserDetailsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -7,6 +11,7 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 
@@ -17,20 +22,40 @@ public class EventHandler {
 
     private final UserAgent userAgent;
     private final UserDetailsService userDetailsService;
+    private final EmailService emailService;
+    private final EmailProperties emailProperties;
+    private final JobRunner jobRunner;
+    private final JobProperties jobProperties;
+    private final ArchiveService archiveService;
 
     @EventListener(classes = ApplicationReadyEvent.class)
     void handleApplicationReadyEvent(final ApplicationReadyEvent event) {
 
         log.atInfo().setMessage("Ready. I am {}.").addArgument(userAgent.getFullName()).log();
 
-        userDetailsService.createInvitationCodeIfNoneExists();
+        Flux.interval(Duration.ofMillis(0), jobProperties.deleteUnregisteredUsers().interval())
+                .onBackpressureDrop()
+                .flatMap(ignore -> jobRunner.run("delete-unregistered-users", userDetailsService::deleteUnregisteredUsers)
+                        .doOnError(error -> log.atError().setMessage("Error deleting unregistered users.").setCause(error).log())
+                        .onErrorResume(error -> Mono.empty()), 1
+                )
+                .subscribe();
+
+        Flux.interval(Duration.ofMillis(0), jobProperties.archive().interval())
+                .onBackpressureDrop()
+                .flatMap(ignore -> jobRunner.run("archive", archiveService::archive)
+                        .doOnError(error -> log.atError().setMessage("Error archiving purchases and payments.").setCause(error).log())
+                        .onErrorResume(error -> Mono.empty()), 1
+                )
+                .subscribe();
 
-        Flux.interval(Duration.ofMillis(0), Duration.ofMinutes(5))
+        Flux.interval(Duration.ofMillis(0), emailProperties.outbox().pollInterval())
                 .onBackpressureDrop()
-                .flatMap(ignore -> userDetailsService.deleteUnregisteredUsers(), 1)
-                .subscribe(
-                        count -> log.atInfo().setMessage("Deleted unregistered users: {}.").addArgument(count).log(),
-                        error -> log.atInfo().setMessage("Error deleting unregistered users.").setCause(error).log()
-                );
+                .flatMap(ignore -> emailService.sendOutboxEmails()
+                        .doOnError(error -> log.atError().setMessage("Error sending emails from outbox.").setCause(error).log())
+                        .onErrorReturn(0), 1
+                )
+                .filter(count -> count > 0)
+                .subscribe(count -> log.atInfo().setMessage("Sent emails: {}.").addArgument(count).log());
     }
 }
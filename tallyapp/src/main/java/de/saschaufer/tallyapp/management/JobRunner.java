@@ -0,0 +1,67 @@
+package de.saschaufer.tallyapp.management;
+
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Runs background jobs on only one instance at a time. Before a run, the instance acquires a lease for the job in the
+ * database, which it releases after the run. If the instance dies, the lease expires after
+ * {@link JobProperties#leaseDuration()}.
+ * <p>
+ * Runs may take longer than the lease, so the lease is renewed three times per lease duration while the job runs. If a
+ * renewal fails because another instance took over in between, e.g. after a long pause of this one, the job is
+ * cancelled.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JobRunner {
+
+    private final Persistence persistence;
+    private final JobProperties jobProperties;
+    private final UserAgent userAgent;
+
+    /**
+     * @return The number of rows the job processed, or empty if another instance holds the lease.
+     */
+    public Mono<Long> run(final String name, final Supplier<Mono<Long>> job) {
+
+        final String owner = userAgent.getFullName();
+
+        return Mono.usingWhen(
+                Mono.defer(() -> {
+                    final Instant now = Instant.now();
+                    return persistence.acquireJobLease(name, owner, now, now.plus(jobProperties.leaseDuration()));
+                }).filter(Boolean::booleanValue),
+                acquired -> Mono.firstWithSignal(job.get(), leaseLost(name, owner))
+                        .elapsed()
+                        .doOnNext(result -> log.atInfo().setMessage("Job '{}' done. Rows: {}. Duration: {} ms.")
+                                .addArgument(name).addArgument(result.getT2()).addArgument(result.getT1()).log()
+                        )
+                        .map(result -> result.getT2()),
+                acquired -> persistence.releaseJobLease(name, owner, Instant.now())
+        );
+    }
+
+    /**
+     * Renews the lease until it is lost, then signals an error. Never completes otherwise.
+     */
+    private Mono<Long> leaseLost(final String name, final String owner) {
+        return Flux.interval(jobProperties.leaseDuration().dividedBy(3))
+                .concatMap(tick -> {
+                    final Instant now = Instant.now();
+                    return persistence.acquireJobLease(name, owner, now, now.plus(jobProperties.leaseDuration()));
+                })
+                .filter(renewed -> !renewed)
+                .next()
+                .flatMap(renewed -> Mono.error(new IllegalStateException("Lease of job '%s' lost.".formatted(name))));
+    }
+}
@@ -0,0 +1,164 @@
+package de.saschaufer.tallyapp.management;
+
+import de.saschaufer.tallyapp.config.warmup.WarmUpProperties;
+import de.saschaufer.tallyapp.controller.dto.GetAccountBalanceResponse;
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.controller.dto.GetUsersResponse;
+import de.saschaufer.tallyapp.controller.dto.PostCreatePurchaseRequest;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.services.ProductService;
+import de.saschaufer.tallyapp.services.UserDetailsService;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ValidationDepth;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Warms up the app before it reports ready: Opens database connections and runs the hot queries, the JSON
+ * serialization and the JWT handling, so that the first requests after a deploy don't hit a cold JIT and empty
+ * caches. Runs as {@link ApplicationRunner}, i.e. before the {@code ApplicationReadyEvent}, after which Spring
+ * reports the app as accepting traffic. The warm-up stops after {@link WarmUpProperties#timeBudget()}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WarmUp implements ApplicationRunner, HealthIndicator {
+
+    private static final User WARM_UP_USER = new User(null, "warm-up", "", User.Role.USER, "", Instant.EPOCH, true);
+
+    private final WarmUpProperties warmUpProperties;
+    private final UserDetailsService userDetailsService;
+    private final ProductService productService;
+    private final Tenants tenants;
+    private final Persistence persistence;
+    private final ConnectionFactory connectionFactory;
+    private final JsonMapper jsonMapper;
+    private final ReactiveJwtDecoder jwtDecoder;
+
+    private volatile Health health = Health.outOfService().withDetail("state", "pending").build();
+
+    @Override
+    public Health health() {
+        return health;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) {
+
+        // Before the app is ready, so that no request finds the invitation code missing. Without, the tenant can't be
+        // used, so an error stops the app.
+        Flux.fromIterable(tenants.ids())
+                .concatMap(tenant -> userDetailsService.createInvitationCodeIfNoneExists()
+                        .contextWrite(TenantContext.of(tenant))
+                )
+                .blockLast();
+
+        if (!warmUpProperties.enabled()) {
+            health = Health.up().withDetail("state", "disabled").build();
+            return;
+        }
+
+        log.atInfo().setMessage("Warming up.").log();
+        health = Health.outOfService().withDetail("state", "running").build();
+
+        final long start = System.nanoTime();
+        final Instant deadline = Instant.now().plus(warmUpProperties.timeBudget());
+        int iterations = 0;
+        String state = "done";
+
+        try {
+            openConnections().timeout(remaining(deadline)).block();
+
+            while (iterations < warmUpProperties.iterations() && Instant.now().isBefore(deadline)) {
+                runOnce().timeout(remaining(deadline)).block();
+                iterations++;
+            }
+
+            if (iterations < warmUpProperties.iterations()) {
+                state = "time budget exceeded";
+            }
+        } catch (final RuntimeException e) {
+            // A failed warm-up only makes the first requests slower, it must not stop the app
+            if (Exceptions.unwrap(e) instanceof TimeoutException) {
+                state = "time budget exceeded";
+            } else {
+                state = "failed";
+                log.atWarn().setMessage("Error warming up.").setCause(e).log();
+            }
+        }
+
+        final long durationMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        log.atInfo().setMessage("Warm-up {}. Iterations: {}. Duration: {} ms.")
+                .addArgument(state).addArgument(iterations).addArgument(durationMs).log();
+
+        health = Health.up()
+                .withDetail("state", state)
+                .withDetail("iterations", iterations)
+                .withDetail("durationMs", durationMs)
+                .build();
+    }
+
+    private Mono<Void> openConnections() {
+        return Flux.range(0, warmUpProperties.connections())
+                .flatMap(i -> Mono.usingWhen(
+                        connectionFactory.create(),
+                        connection -> Mono.from(connection.validate(ValidationDepth.REMOTE)),
+                        Connection::close
+                ))
+                .then();
+    }
+
+    /**
+     * Runs one after the other, as the requests do, instead of opening a connection for each at once.
+     */
+    private Mono<Void> runOnce() {
+        return Flux.concat(
+                        persistence.existsUser("invitation-code"),
+                        persistence.selectUsers(),
+                        persistence.selectPurchases(0L),
+                        persistence.selectPurchasesSum(0L),
+                        persistence.selectPayments(0L),
+                        persistence.selectPaymentsSum(0L),
+                        persistence.selectOutboxEmails(Instant.EPOCH, 1),
+                        productService.readProducts().doOnNext(this::serialize),
+                        Mono.fromCallable(() -> userDetailsService.createJwtToken(WARM_UP_USER, TenantContext.DEFAULT).jwt()).flatMap(jwtDecoder::decode)
+                )
+                .then();
+    }
+
+    private void serialize(final List<GetProductsResponse> products) {
+
+        final BigDecimal amount = new BigDecimal("1.23");
+
+        jsonMapper.writeValueAsString(products);
+        jsonMapper.writeValueAsString(new GetAccountBalanceResponse(amount, amount, BigDecimal.ZERO));
+        jsonMapper.writeValueAsString(new GetUsersResponse("warm-up", Instant.EPOCH, true, List.of(User.Role.USER), amount));
+        jsonMapper.readValue("{\"productId\":1}", PostCreatePurchaseRequest.class);
+    }
+
+    private static Duration remaining(final Instant deadline) {
+        final Duration remaining = Duration.between(Instant.now(), deadline);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+}
@@ -0,0 +1,79 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.persistence.Persistence;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.jspecify.annotations.NonNull;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Wraps the {@link Persistence} in a proxy, which records the latency and counts the errors of each of its methods. The
+ * latency is measured from the subscription on, since the statements are only sent to the database then.
+ */
+@Component
+@RequiredArgsConstructor
+public class PersistenceMetrics implements BeanPostProcessor {
+
+    public static final String CALLS = "tally.persistence.calls";
+    public static final String ERRORS = "tally.persistence.errors";
+
+    // Lazy, since bean post processors are created before the other beans
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    @Override
+    public Object postProcessAfterInitialization(@NonNull final Object bean, @NonNull final String beanName) {
+
+        if (!(bean instanceof Persistence)) {
+            return bean;
+        }
+
+        final ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice((MethodInterceptor) this::invoke);
+        return proxyFactory.getProxy();
+    }
+
+    Object invoke(final MethodInvocation invocation) throws Throwable {
+
+        final String method = invocation.getMethod().getName();
+        final Object result = invocation.proceed();
+
+        if (result instanceof Mono<?> mono) {
+            return mono.transformDeferred(m -> {
+                final Timer.Sample sample = Timer.start(meterRegistry.getObject());
+                return m.doOnSuccess(v -> record(sample, method, null)).doOnError(e -> record(sample, method, e));
+            });
+        }
+
+        if (result instanceof Flux<?> flux) {
+            return flux.transformDeferred(f -> {
+                final Timer.Sample sample = Timer.start(meterRegistry.getObject());
+                return f.doOnComplete(() -> record(sample, method, null)).doOnError(e -> record(sample, method, e));
+            });
+        }
+
+        return result;
+    }
+
+    private void record(final Timer.Sample sample, final String method, final Throwable error) {
+
+        final MeterRegistry registry = meterRegistry.getObject();
+
+        sample.stop(Timer.builder(CALLS)
+                .tags("method", method, "outcome", error == null ? "success" : "error")
+                .register(registry)
+        );
+
+        if (error != null) {
+            registry.counter(ERRORS, "method", method, "exception", error.getClass().getSimpleName()).increment();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.config.db.DbProperties;
+import de.saschaufer.tallyapp.controller.MDCFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Times every SQL statement sent over the connection factory. The latency is recorded per query shape, i.e. the SQL
+ * without literals, bind markers and lengths of lists. Statements slower than
+ * {@link DbProperties#slowQueryThreshold()} are logged together with the ID of the request they belong to.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryMetrics implements ProxyExecutionListener {
+
+    public static final String QUERIES = "tally.db.queries";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern BIND_MARKER = Pattern.compile("\\$\\d+|(?<!:):[a-zA-Z_]\\w*|\\?");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+    private final DbProperties dbProperties;
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    public void afterQuery(final QueryExecutionInfo execInfo) {
+
+        final Duration duration = execInfo.getExecuteDuration();
+        final String sql = execInfo.getQueries().stream().map(QueryInfo::getQuery).collect(Collectors.joining("; "));
+
+        Timer.builder(QUERIES)
+                .tags("query", shape(sql), "outcome", execInfo.isSuccess() ? "success" : "error")
+                .register(meterRegistry)
+                .record(duration);
+
+        if (duration.compareTo(dbProperties.slowQueryThreshold()) >= 0) {
+            log.atWarn().setMessage("Slow query. Duration: {} ms. Bind parameters: {}. Rows: {}. Request: {}. SQL: {}")
+                    .addArgument(duration.toMillis())
+                    .addArgument(() -> bindParameters(execInfo))
+                    .addArgument(execInfo.getCurrentResultCount())
+                    .addArgument(() -> requestId(execInfo))
+                    .addArgument(WHITESPACE.matcher(sql).replaceAll(" ").trim())
+                    .log();
+        }
+    }
+
+    /**
+     * @return The SQL without literals, bind markers and list lengths, so that all executions of a statement fall into
+     * one time series.
+     */
+    static String shape(final String sql) {
+        String shape = WHITESPACE.matcher(sql).replaceAll(" ").trim();
+        shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+        shape = BIND_MARKER.matcher(shape).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = LIST.matcher(shape).replaceAll("(?)");
+        return shape.toLowerCase();
+    }
+
+    private static int bindParameters(final QueryExecutionInfo execInfo) {
+        return execInfo.getQueries().stream()
+                .flatMap(query -> query.getBindingsList().stream())
+                .mapToInt(bindings -> bindings.getIndexBindings().size() + bindings.getNamedBindings().size())
+                .sum();
+    }
+
+    /**
+     * The statements run on the threads of the database driver, so the request ID is taken from the subscriber
+     * context, which {@link MDCFilter} writes it to.
+     */
+    static String requestId(final QueryExecutionInfo execInfo) {
+        final ContextView context = execInfo.getValueStore().get(ContextView.class, ContextView.class);
+        return context == null ? null : MDCFilter.requestId(context);
+    }
+}
@@ -0,0 +1,68 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+
+/**
+ * Records the latency, the status code and the number of requests in flight for each route and tenant. The latency is recorded
+ * without percentiles, unless they are configured under {@code management.metrics.distribution}.
+ */
+@Component
+@RequiredArgsConstructor
+public class RouteMetrics implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+
+    public static final String REQUESTS = "tally.route.requests";
+    public static final String REQUESTS_ACTIVE = "tally.route.requests.active";
+
+    private final MeterRegistry meterRegistry;
+
+    @NonNull
+    @Override
+    public Mono<ServerResponse> filter(final ServerRequest request, final HandlerFunction<ServerResponse> next) {
+
+        final String method = request.method().name();
+
+        // The pattern instead of the path, so that the number of time series is bounded
+        final String route = request.attribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE)
+                .map(pattern -> ((PathPattern) pattern).getPatternString())
+                .orElse("UNKNOWN");
+
+        final String tenant = request.attribute(TenantContext.KEY).map(String::valueOf).orElse(TenantContext.DEFAULT);
+
+        return Mono.defer(() -> {
+
+            final LongTaskTimer.Sample active = LongTaskTimer.builder(REQUESTS_ACTIVE)
+                    .tags("method", method, "route", route, "tenant", tenant)
+                    .register(meterRegistry)
+                    .start();
+
+            final Timer.Sample sample = Timer.start(meterRegistry);
+
+            return next.handle(request)
+                    .doOnSuccess(response -> record(sample, method, route, tenant, response == null ? "UNKNOWN" : String.valueOf(response.statusCode().value())))
+                    .doOnError(e -> record(sample, method, route, tenant, e instanceof ResponseStatusException r ? String.valueOf(r.getStatusCode().value()) : "500"))
+                    .doOnCancel(() -> record(sample, method, route, tenant, "CANCELLED"))
+                    .doFinally(signal -> active.stop());
+        });
+    }
+
+    private void record(final Timer.Sample sample, final String method, final String route, final String tenant, final String status) {
+        sample.stop(Timer.builder(REQUESTS)
+                .tags("method", method, "route", route, "tenant", tenant, "status", status)
+                .register(meterRegistry)
+        );
+    }
+}
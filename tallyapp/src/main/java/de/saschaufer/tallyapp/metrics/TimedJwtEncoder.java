@@ -0,0 +1,29 @@
+package de.saschaufer.tallyapp.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtEncodingException;
+
+/**
+ * Records how long encoding JWTs takes.
+ */
+public class TimedJwtEncoder implements JwtEncoder {
+
+    public static final String ENCODING = "tally.jwt.encoding";
+
+    private final JwtEncoder delegate;
+    private final Timer timer;
+
+    public TimedJwtEncoder(final JwtEncoder delegate, final MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.timer = meterRegistry.timer(ENCODING);
+    }
+
+    @Override
+    public Jwt encode(final JwtEncoderParameters parameters) throws JwtEncodingException {
+        return timer.record(() -> delegate.encode(parameters));
+    }
+}
@@ -0,0 +1,39 @@
+package de.saschaufer.tallyapp.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Records how long encoding and matching passwords take. Both are deliberately slow, and hence the first suspects for
+ * slow logins and registrations.
+ */
+public class TimedPasswordEncoder implements PasswordEncoder {
+
+    public static final String HASHING = "tally.password.hashing";
+
+    private final PasswordEncoder delegate;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+
+    public TimedPasswordEncoder(final PasswordEncoder delegate, final MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.encodeTimer = meterRegistry.timer(HASHING, "operation", "encode");
+        this.matchesTimer = meterRegistry.timer(HASHING, "operation", "matches");
+    }
+
+    @Override
+    public String encode(final CharSequence rawPassword) {
+        return encodeTimer.record(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(final CharSequence rawPassword, final String encodedPassword) {
+        return Boolean.TRUE.equals(matchesTimer.record(() -> delegate.matches(rawPassword, encodedPassword)));
+    }
+
+    @Override
+    public boolean upgradeEncoding(final String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+}
@@ -0,0 +1,52 @@
+package de.saschaufer.tallyapp.money;
+
+import java.math.BigDecimal;
+
+/**
+ * An amount of money in cents, for adding up balances without a new {@link BigDecimal} per step. The database keeps
+ * amounts with two decimals, so the conversion is exact. {@link BigDecimal} remains at the JSON of the responses.
+ */
+public record Money(long cents) implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private static final int SCALE = 2;
+
+    /**
+     * @throws ArithmeticException If the amount has more than two decimals or doesn't fit.
+     */
+    public static Money of(final BigDecimal amount) {
+        return new Money(amount.movePointRight(SCALE).longValueExact());
+    }
+
+    /**
+     * @throws ArithmeticException If the sum overflows.
+     */
+    public Money plus(final Money other) {
+        return new Money(Math.addExact(cents, other.cents));
+    }
+
+    /**
+     * @throws ArithmeticException If the difference overflows.
+     */
+    public Money minus(final Money other) {
+        return new Money(Math.subtractExact(cents, other.cents));
+    }
+
+    /**
+     * @return The amount with two decimals, e.g. 1.50 for 150 cents.
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    @Override
+    public int compareTo(final Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
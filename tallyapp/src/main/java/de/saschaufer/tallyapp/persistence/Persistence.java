@@ -1,25 +1,44 @@
 package de.saschaufer.tallyapp.persistence;
 
-import de.saschaufer.tallyapp.controller.dto.GetPaymentsResponse;
-import de.saschaufer.tallyapp.controller.dto.GetPurchasesResponse;
+import de.saschaufer.tallyapp.controller.dto.*;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.dto.*;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
 import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.ReactiveTransactionManager;
 import org.springframework.transaction.reactive.TransactionalOperator;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static de.saschaufer.tallyapp.persistence.TenantEntityCallback.TENANT_ID;
 import static org.springframework.data.relational.core.query.Criteria.where;
 import static org.springframework.data.relational.core.query.Query.query;
 import static org.springframework.data.relational.core.query.Update.update;
@@ -28,6 +47,9 @@ import static org.springframework.data.relational.core.query.Update.update;
 @RequiredArgsConstructor
 public class Persistence {
 
+    // Keeps the bind parameters of a statement well below the limit of Postgres (65535)
+    private static final int ROWS_PER_INSERT = 1000;
+
     private final R2dbcEntityTemplate template;
     private final ReactiveTransactionManager transactionManager;
 
@@ -35,13 +57,25 @@ public class Persistence {
         return Mono.just(user).flatMap(template::insert);
     }
 
+    public Mono<User> insertUser(final User user, final OutboxEmail email) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        return trans.transactional(Mono.just(user)
+                .flatMap(template::insert)
+                .flatMap(u -> template.insert(email).thenReturn(u))
+        );
+    }
+
     public Mono<User> selectUser(final String email) {
-        return template.selectOne(query(where("email").is(email)), User.class)
+        return TenantContext.current()
+                .flatMap(tenant -> template.selectOne(query(where(TENANT_ID).is(tenant).and("email").is(email)), User.class))
                 .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.GONE, "User does not exist")));
     }
 
     public Mono<List<User>> selectUsers() {
-        return template.select(User.class)
+        return TenantContext.current().flatMap(tenant -> template.select(User.class)
+                .matching(query(where(TENANT_ID).is(tenant)))
                 .all()
                 .map(user -> new User(
                         user.getId(),
@@ -52,38 +86,154 @@ public class Persistence {
                         user.getRegistrationOn(),
                         user.getRegistrationComplete()
                 ))
-                .collectList();
+                .collectList()
+        );
+    }
+
+    /**
+     * The users of the tenant with their account balances, filtered, sorted and paged in the database. The balance is
+     * summed per user over the indexes on the user ID, so that a page in the order of the emails or registrations
+     * only sums the users on it.
+     *
+     * @return Up to {@link GetUsersRequest#limit()} + 1 users, so that the caller knows whether there is a next page.
+     */
+    public Mono<List<Tuple2<User, Money>>> selectUsers(final GetUsersRequest request) {
+
+        final String column = switch (request.sort()) {
+            case EMAIL -> "email";
+            case BALANCE -> "balance";
+            case REGISTRATION -> "registration_on";
+        };
+        final String direction = request.descending() ? "desc" : "asc";
+        final String comparison = request.descending() ? "<" : ">";
+
+        final List<String> conditions = new ArrayList<>();
+
+        if (request.email() != null) {
+            conditions.add("lower(email) like :email escape '\\'");
+        }
+
+        if (request.registrationComplete() != null) {
+            conditions.add("registration_complete = :registration_complete");
+        }
+
+        if (request.balance() != null) {
+            conditions.add(switch (request.balance()) {
+                case NEGATIVE -> "balance < 0";
+                case ZERO -> "balance = 0";
+                case POSITIVE -> "balance > 0";
+            });
+        }
+
+        if (request.after() != null) {
+            conditions.add(request.sort() == GetUsersRequest.Sort.EMAIL ? "email %s :after_email".formatted(comparison) :
+                    "(%1$s %2$s :after_value or (%1$s = :after_value and email %2$s :after_email))".formatted(column, comparison));
+        }
+
+        final String query = """
+                select id, email, roles, registration_on, registration_complete, cast(balance * 100 as bigint) as balance_cents
+                from (
+                    select users.id, users.email, users.roles, users.registration_on, users.registration_complete,
+                        coalesce((select sum(payments.amount) from payments where payments.user_id = users.id), 0)
+                        - coalesce((select sum(product_prices.price) from purchases
+                                    left join product_prices on product_prices.id = purchases.product_price_id
+                                    where purchases.user_id = users.id), 0)
+                        + coalesce((select balance_snapshots.payments_sum - balance_snapshots.purchases_sum from balance_snapshots
+                                    where balance_snapshots.user_id = users.id), 0) as balance
+                    from users
+                    where users.tenant_id = :tenant_id and users.email <> 'invitation-code'
+                ) as users
+                %s
+                order by %s %s, email %s
+                %s
+                """.formatted(
+                conditions.isEmpty() ? "" : "where " + String.join(" and ", conditions),
+                column, direction, direction,
+                request.limit() == null ? "" : "limit :limit"
+        ).toLowerCase();
+
+        return TenantContext.current().flatMap(tenant -> {
+
+            DatabaseClient.GenericExecuteSpec spec = template.getDatabaseClient().sql(query).bind("tenant_id", tenant);
+
+            if (request.email() != null) {
+                spec = spec.bind("email", request.email().toLowerCase().replaceAll("[\\\\%_]", "\\\\$0") + "%");
+            }
+
+            if (request.registrationComplete() != null) {
+                spec = spec.bind("registration_complete", request.registrationComplete());
+            }
+
+            if (request.after() != null) {
+                spec = spec.bind("after_email", request.after().email());
+
+                if (request.sort() != GetUsersRequest.Sort.EMAIL) {
+                    spec = spec.bind("after_value", request.after().value());
+                }
+            }
+
+            if (request.limit() != null) {
+                spec = spec.bind("limit", request.limit() + 1);
+            }
+
+            return spec
+                    .map((row, rowMetadata) -> Tuples.of(
+                            new User(
+                                    Objects.requireNonNull(row.get("id", Integer.class)).longValue(),
+                                    row.get("email", String.class),
+                                    null,
+                                    row.get("roles", String.class),
+                                    null,
+                                    row.get("registration_on", Instant.class),
+                                    row.get("registration_complete", Boolean.class)
+                            ),
+                            new Money(Objects.requireNonNull(row.get("balance_cents", Long.class)))
+                    ))
+                    .all().collectList();
+        });
     }
 
     public Mono<Boolean> existsUser(final String email) {
-        return template.exists(query(where("email").is(email)), User.class);
+        return TenantContext.current().flatMap(tenant -> template.exists(query(where(TENANT_ID).is(tenant).and("email").is(email)), User.class));
     }
 
     public Mono<Void> deleteUser(final Long userId) {
 
         final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
 
-        return trans.transactional(Mono.just(userId)
+        return TenantContext.current().flatMap(tenant -> trans.transactional(Mono.just(userId)
                         .flatMap(i -> template.delete(query(where("user_id").is(userId)), Purchase.class))
                         .flatMap(i -> template.delete(query(where("user_id").is(userId)), Payment.class))
-                        .flatMap(i -> template.delete(query(where("id").is(userId)), User.class))
+                        .flatMap(i -> deleteArchived("purchases_archive", userId))
+                        .flatMap(i -> deleteArchived("payments_archive", userId))
+                        .flatMap(i -> template.delete(query(where("user_id").is(userId)), MonthlyRollup.class))
+                        .flatMap(i -> template.delete(query(where("user_id").is(userId)), DailyConsumption.class))
+                        .flatMap(i -> template.delete(query(where("user_id").is(userId)), BalanceSnapshot.class))
+                        .flatMap(i -> template.delete(query(where("id").is(userId).and(TENANT_ID).is(tenant)), User.class))
                         .flatMap(deleteCount -> switch (deleteCount.intValue()) {
                             case 0 -> Mono.error(new RuntimeException("User not deleted"));
                             case 1 -> Mono.empty();
                             default -> Mono.error(new RuntimeException("Too many users deleted"));
                         })
-                )
+                ))
                 .flatMap(p -> Mono.empty());
     }
 
+    private Mono<Long> deleteArchived(final String table, final Long userId) {
+        return template.getDatabaseClient().sql("delete from %s where user_id = :user_id".formatted(table))
+                .bind("user_id", userId)
+                .fetch().rowsUpdated();
+    }
+
     public Mono<Void> updateUserRegistrationComplete(final String email) {
 
-        return template
+        return TenantContext.current().flatMap(tenant -> template
 
                 // Update user
                 .update(User.class)
-                .matching(query(where("email").is(email)))
+                .matching(query(where(TENANT_ID).is(tenant).and("email").is(email)))
                 .apply(update("registration_complete", true))
+        )
 
                 // If no user was updated, return an error
                 .flatMap(updateCount -> switch (updateCount.intValue()) {
@@ -95,12 +245,13 @@ public class Persistence {
 
     public Mono<Void> updateUserPassword(final Long id, final String newPassword) {
 
-        return template
+        return TenantContext.current().flatMap(tenant -> template
 
                 // Update user
                 .update(User.class)
-                .matching(query(where("id").is(id)))
+                .matching(query(where("id").is(id).and(TENANT_ID).is(tenant)))
                 .apply(update("password", newPassword))
+        )
 
                 // If no user was updated, return an error
                 .flatMap(updateCount -> switch (updateCount.intValue()) {
@@ -110,12 +261,131 @@ public class Persistence {
                 });
     }
 
-    public Mono<Long> deleteUnregisteredUsers(final Instant registrationBefore) {
+    public Mono<Void> updateUserPassword(final Long id, final String newPassword, final OutboxEmail email) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        return trans.transactional(updateUserPassword(id, newPassword)
+                        .then(Mono.defer(() -> template.insert(email)))
+                )
+                .flatMap(p -> Mono.empty());
+    }
+
+    /**
+     * Deletes up to {@code limit} unregistered users, oldest registrations first. The registration is checked again
+     * on delete, in case a user completed it in between.
+     */
+    public Mono<Long> deleteUnregisteredUsers(final Instant registrationBefore, final int limit) {
+
+        return template.select(query(where("registration_complete").isFalse()
+                                .and("registration_on").lessThan(registrationBefore))
+                                .sort(Sort.by("registration_on"))
+                                .limit(limit),
+                        User.class)
+                .map(User::getId)
+                .collectList()
+                .flatMap(ids -> {
+                    if (ids.isEmpty()) {
+                        return Mono.just(0L);
+                    }
+
+                    return template
+                            .delete(User.class)
+                            .matching(query(where("id").in(ids)
+                                    .and("registration_complete").isFalse()))
+                            .all();
+                });
+    }
+
+    /**
+     * Acquires the lease for the job, if it is free, expired or already held by the owner.
+     *
+     * @return Whether the lease was acquired.
+     */
+    public Mono<Boolean> acquireJobLease(final String name, final String owner, final Instant now, final Instant lockedUntil) {
+
+        return template
+                .update(JobLease.class)
+                .matching(query(where("name").is(name)
+                        .and(where("locked_until").lessThan(now).or("locked_by").is(owner))))
+                .apply(update("locked_by", owner).set("locked_until", lockedUntil))
+                .flatMap(count -> {
+                    if (count > 0) {
+                        return Mono.just(true);
+                    }
+
+                    // Either no lease exists yet or another owner holds it
+                    return template.insert(new JobLease(name, owner, lockedUntil))
+                            .thenReturn(true)
+                            .onErrorResume(DataIntegrityViolationException.class, e -> Mono.just(false));
+                });
+    }
+
+    public Mono<Void> releaseJobLease(final String name, final String owner, final Instant now) {
 
         return template
-                .delete(User.class)
-                .matching(query(where("registration_complete").isFalse()
-                        .and("registration_on").lessThan(registrationBefore)))
+                .update(JobLease.class)
+                .matching(query(where("name").is(name).and("locked_by").is(owner)))
+                .apply(update("locked_until", now))
+                .then();
+    }
+
+    public Mono<List<OutboxEmail>> selectOutboxEmails(final Instant nextAttemptBefore, final int limit) {
+        return template.select(query(where("dead_lettered").isFalse()
+                                .and("next_attempt_on").lessThanOrEquals(nextAttemptBefore))
+                                .sort(Sort.by("next_attempt_on"))
+                                .limit(limit),
+                        OutboxEmail.class)
+                .collectList();
+    }
+
+    /**
+     * Claims the due emails, so that no other instance sends them as well. The claim moves the next attempt to
+     * {@code claimedUntil}, so the emails of an instance that dies while sending them are sent again then.
+     * <p>
+     * Instances selecting the same emails race on the update, which only changes emails that are still due. The
+     * database locks each row for the update and checks the condition again, so each email goes to one instance only.
+     *
+     * @return The claimed emails, in the order they are due.
+     */
+    public Mono<List<OutboxEmail>> claimOutboxEmails(final Instant now, final Instant claimedUntil, final int limit) {
+
+        final String claim = UUID.randomUUID().toString();
+
+        return selectOutboxEmails(now, limit)
+                .filter(emails -> !emails.isEmpty())
+                .flatMap(emails -> template
+                        .update(OutboxEmail.class)
+                        .matching(query(where("id").in(emails.stream().map(OutboxEmail::getId).toList())
+                                .and("dead_lettered").isFalse()
+                                .and("next_attempt_on").lessThanOrEquals(now)))
+                        .apply(update("claim", claim).set("next_attempt_on", claimedUntil))
+                        .flatMap(count -> count == 0 ? Mono.just(List.<Long>of()) : template
+                                .select(query(where("claim").is(claim)), OutboxEmail.class)
+                                .map(OutboxEmail::getId)
+                                .collectList()
+                        )
+                        .map(claimed -> emails.stream().filter(email -> claimed.contains(email.getId())).toList())
+                        .doOnNext(claimed -> claimed.forEach(email -> email.setNextAttemptOn(claimedUntil)))
+                )
+                .defaultIfEmpty(List.of());
+    }
+
+    public Mono<Void> updateOutboxEmails(final List<OutboxEmail> emails) {
+        return Flux.fromIterable(emails)
+                .concatMap(template::update)
+                .then();
+    }
+
+    public Mono<Long> deleteOutboxEmails(final List<Long> ids) {
+
+        if (ids.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        return template
+                .delete(OutboxEmail.class)
+                .matching(query(where("id").in(ids)))
                 .all();
     }
 
@@ -138,7 +408,8 @@ public class Persistence {
     }
 
     public Mono<Product> selectProduct(final String name) {
-        return template.selectOne(query(where("name").is(name)), Product.class)
+        return TenantContext.current()
+                .flatMap(tenant -> template.selectOne(query(where(TENANT_ID).is(tenant).and("name").is(name)), Product.class))
                 .switchIfEmpty(Mono.error(new RuntimeException("Product not found")));
     }
 
@@ -148,18 +419,21 @@ public class Persistence {
                 select products.id, products.name, product_prices.price from products
                 right join product_prices on products.id = product_prices.product_id
                 where products.id = :product_id
+                and products.tenant_id = :tenant_id
                 and product_prices.valid_until is null
                 order by products.name
                 """.toLowerCase();
 
-        return template.getDatabaseClient().sql(query)
-                .bind("product_id", productId)
-                .map((row, rowMetadata) -> {
-                    final Long id = Objects.requireNonNull(row.get("id", Integer.class)).longValue();
-                    final String name = row.get("name", String.class);
-                    final BigDecimal price = row.get("price", BigDecimal.class);
-                    return Tuples.of(new Product(id, name), new ProductPrice(null, id, price, null));
-                }).one()
+        return TenantContext.current().flatMap(tenant -> template.getDatabaseClient().sql(query)
+                        .bind("product_id", productId)
+                        .bind("tenant_id", tenant)
+                        .map((row, rowMetadata) -> {
+                            final Long id = Objects.requireNonNull(row.get("id", Integer.class)).longValue();
+                            final String name = row.get("name", String.class);
+                            final BigDecimal price = row.get("price", BigDecimal.class);
+                            return Tuples.of(new Product(id, name), new ProductPrice(null, id, price, null));
+                        }).one()
+                )
                 .switchIfEmpty(Mono.error(new RuntimeException("Product not found")));
     }
 
@@ -169,27 +443,32 @@ public class Persistence {
                 select products.id, products.name, product_prices.price from products
                 right join product_prices on products.id = product_prices.product_id
                 where product_prices.valid_until is null
+                and product_prices.tenant_id = :tenant_id
                 order by products.name
                 """.toLowerCase();
 
-        return template.getDatabaseClient().sql(query).map((row, rowMetadata) -> {
-            final Long id = Objects.requireNonNull(row.get("id", Integer.class)).longValue();
-            final String name = row.get("name", String.class);
-            final BigDecimal price = row.get("price", BigDecimal.class);
-            return Tuples.of(new Product(id, name), new ProductPrice(null, id, price, null));
-        }).all().collectList();
+        return TenantContext.current().flatMap(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .map((row, rowMetadata) -> {
+                    final Long id = Objects.requireNonNull(row.get("id", Integer.class)).longValue();
+                    final String name = row.get("name", String.class);
+                    final BigDecimal price = row.get("price", BigDecimal.class);
+                    return Tuples.of(new Product(id, name), new ProductPrice(null, id, price, null));
+                }).all().collectList()
+        );
     }
 
     public Mono<Boolean> existsProduct(final String name) {
-        return template.exists(query(where("name").is(name)), Product.class);
+        return TenantContext.current().flatMap(tenant -> template.exists(query(where(TENANT_ID).is(tenant).and("name").is(name)), Product.class));
     }
 
     public Mono<Void> updateProduct(final Long id, final String newName) {
 
-        return template
-                .update(Product.class)
-                .matching(query(where("id").is(id)))
-                .apply(update("name", newName))
+        return TenantContext.current().flatMap(tenant -> template
+                        .update(Product.class)
+                        .matching(query(where("id").is(id).and(TENANT_ID).is(tenant)))
+                        .apply(update("name", newName))
+                )
 
                 .flatMap(updateCount -> switch (updateCount.intValue()) {
                     case 0 -> Mono.error(new RuntimeException("Product not updated"));
@@ -200,10 +479,11 @@ public class Persistence {
 
     public Mono<Void> deleteProduct(final Long id) {
 
-        return template
-                .update(ProductPrice.class)
-                .matching(query(where("product_id").is(id).and(where("valid_until").isNull())))
-                .apply(update("valid_until", Instant.now()))
+        return TenantContext.current().flatMap(tenant -> template
+                        .update(ProductPrice.class)
+                        .matching(query(where("product_id").is(id).and(TENANT_ID).is(tenant).and(where("valid_until").isNull())))
+                        .apply(update("valid_until", Instant.now()))
+                )
                 .flatMap(updateCount -> switch (updateCount.intValue()) {
                     case 0 -> Mono.error(new RuntimeException("Product not deleted"));
                     case 1 -> Mono.empty();
@@ -216,43 +496,163 @@ public class Persistence {
     }
 
     public Mono<Boolean> existsProductPrice(final Long productId) {
-        return template.exists(query(where("product_id").is(productId).and(where("valid_until").isNull())), ProductPrice.class);
+        return TenantContext.current().flatMap(tenant -> template.exists(query(where("product_id").is(productId).and(TENANT_ID).is(tenant)
+                .and(where("valid_until").isNull())), ProductPrice.class));
     }
 
     public Mono<Void> updateProductPrice(final Long productId, final BigDecimal productPrice) {
 
         final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
 
-        return trans.transactional(template
-                        .update(ProductPrice.class)
-                        .matching(query(where("product_id").is(productId).and(where("valid_until").isNull())))
-                        .apply(update("valid_until", Instant.now()))
+        return TenantContext.current().flatMap(tenant -> trans.transactional(template
+                        // A product of another tenant must not get a price of this one, a missing one is left to the foreign key
+                        .exists(query(where("id").is(productId).and(TENANT_ID).not(tenant)), Product.class)
+                        .filter(foreign -> !foreign)
+                        .switchIfEmpty(Mono.error(new RuntimeException("Product not found")))
+                        .flatMap(foreign -> template
+                                .update(ProductPrice.class)
+                                .matching(query(where("product_id").is(productId).and(where("valid_until").isNull())))
+                                .apply(update("valid_until", Instant.now()))
+                        )
                         .flatMap(count -> Mono.just(new ProductPrice(null, productId, productPrice, null)))
                         .flatMap(template::insert)
-                )
+                ))
                 .flatMap(p -> Mono.empty());
     }
 
     public Mono<Void> insertPurchase(final Long userId, final Long productId) {
+        return insertPurchase(userId, productId, null).then();
+    }
 
-        return template.selectOne(query(where("product_id").is(productId)
-                        .and(where("valid_until").isNull())), ProductPrice.class)
+    /**
+     * @param idempotencyKey Optional. No second purchase with the same key is inserted for the user.
+     * @return Whether the purchase was inserted, false if the user already has one with the key.
+     */
+    public Mono<Boolean> insertPurchase(final Long userId, final Long productId, final String idempotencyKey) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        return TenantContext.current()
+                .flatMap(tenant -> template.selectOne(query(where("product_id").is(productId).and(TENANT_ID).is(tenant)
+                        .and(where("valid_until").isNull())), ProductPrice.class))
                 .switchIfEmpty(Mono.error(new Exception("Product price not found")))
-                .map(price -> new Purchase(null, userId, price.getId(), Instant.now()))
-                .flatMap(template::insert)
-                .flatMap(p -> Mono.empty());
+                .flatMap(price -> trans.transactional(template
+                        .insert(new Purchase(null, userId, price.getId(), Instant.now(), idempotencyKey))
+                        .flatMap(p -> addToDailyConsumption(userId, productId, dayStart(p.getTimestamp()), 1, price.getPrice()))
+                        .thenReturn(true)
+                ))
+
+                // No lookup before the insert, the unique index tells about a retry
+                .onErrorResume(e -> isDuplicateIdempotencyKey(e, "purchases"), e -> Mono.just(false));
+    }
+
+    /**
+     * Inserts the purchases a client recorded offline in one transaction. Each is priced at the price valid at its
+     * timestamp, a purchase whose client ID the user already has is skipped.
+     * <p>
+     * If the same purchases are sent twice at once, both requests may find the client IDs new. The one that commits
+     * second fails on the unique index and is run once more, now finding the purchases of the first as duplicates.
+     *
+     * @return The result of each purchase, in the order given.
+     */
+    public Mono<List<PostSyncPurchasesResponse>> insertPurchases(final Long userId, final List<PostSyncPurchasesRequest.Purchase> purchases) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        final List<String> clientIds = purchases.stream().map(PostSyncPurchasesRequest.Purchase::clientId).distinct().toList();
+        final List<Long> productIds = purchases.stream().map(PostSyncPurchasesRequest.Purchase::productId).distinct().toList();
+
+        // Duplicates are looked up beforehand, a failed insert would abort the whole transaction. Again on a retry.
+        final Mono<Set<String>> existing = Mono.defer(() -> template.select(Purchase.class)
+                .matching(query(where("user_id").is(userId).and(where("idempotency_key").in(clientIds))))
+                .all()
+                .map(Purchase::getIdempotencyKey)
+                .collect(Collectors.toCollection(HashSet::new)));
+
+        // All prices of the products, the current one last
+        final Mono<Map<Long, List<ProductPrice>>> prices = TenantContext.current()
+                .flatMapMany(tenant -> template.select(ProductPrice.class)
+                        .matching(query(where("product_id").in(productIds).and(TENANT_ID).is(tenant)))
+                        .all())
+                .sort(Comparator.comparing(ProductPrice::getValidUntil, Comparator.nullsLast(Comparator.naturalOrder())))
+                .collect(Collectors.groupingBy(ProductPrice::getProductId));
+
+        return trans.transactional(Mono.zip(existing, prices)
+                .flatMap(tuple -> {
+
+                    final Set<String> seen = tuple.getT1();
+                    final Instant now = Instant.now();
+                    final List<Tuple2<Purchase, ProductPrice>> created = new ArrayList<>();
+
+                    return Flux.fromIterable(purchases)
+                            .concatMap(purchase -> {
+
+                                if (seen.contains(purchase.clientId())) {
+                                    return Mono.just(result(purchase, PostSyncPurchasesResponse.Status.DUPLICATE, null));
+                                }
+
+                                if (purchase.timestamp().isAfter(now)) {
+                                    return Mono.just(result(purchase, PostSyncPurchasesResponse.Status.REJECTED, "Timestamp in the future"));
+                                }
+
+                                // The first price that was still valid at the time of the purchase
+                                final ProductPrice price = tuple.getT2().getOrDefault(purchase.productId(), List.of()).stream()
+                                        .filter(p -> p.getValidUntil() == null || p.getValidUntil().isAfter(purchase.timestamp()))
+                                        .findFirst()
+                                        .orElse(null);
+
+                                if (price == null) {
+                                    return Mono.just(result(purchase, PostSyncPurchasesResponse.Status.REJECTED, "Product price not found"));
+                                }
+
+                                seen.add(purchase.clientId());
+
+                                return template.insert(new Purchase(null, userId, price.getId(), purchase.timestamp(), purchase.clientId()))
+                                        .doOnNext(p -> created.add(Tuples.of(p, price)))
+                                        .thenReturn(result(purchase, PostSyncPurchasesResponse.Status.CREATED, null));
+                            })
+                            .collectList()
+
+                            // One update of the rollup per day and product
+                            .flatMap(results -> Flux.fromIterable(created.stream()
+                                            .collect(Collectors.groupingBy(c -> Tuples.of(dayStart(c.getT1().getTimestamp()), c.getT2().getProductId()),
+                                                    LinkedHashMap::new, Collectors.toList()))
+                                            .entrySet())
+                                    .concatMap(day -> addToDailyConsumption(userId, day.getKey().getT2(), day.getKey().getT1(), day.getValue().size(),
+                                            day.getValue().stream().map(c -> c.getT2().getPrice()).reduce(BigDecimal.ZERO, BigDecimal::add)))
+                                    .then(Mono.just(results))
+                            );
+                })
+        ).retryWhen(Retry.max(1).filter(e -> isDuplicateIdempotencyKey(e, "purchases")));
+    }
+
+    private static PostSyncPurchasesResponse result(final PostSyncPurchasesRequest.Purchase purchase, final PostSyncPurchasesResponse.Status status,
+                                                    final String message) {
+        return new PostSyncPurchasesResponse(purchase.clientId(), status, message);
     }
 
     public Mono<List<GetPurchasesResponse>> selectPurchases(final Long userId) {
+        return selectPurchases(userId, false);
+    }
+
+    /**
+     * @param archive Whether to include the archived purchases.
+     */
+    public Mono<List<GetPurchasesResponse>> selectPurchases(final Long userId, final boolean archive) {
+
+        final String purchases = archive ? """
+                (select id, user_id, product_price_id, timestamp from purchases
+                 union all
+                 select id, user_id, product_price_id, timestamp from purchases_archive) as purchases""" : "purchases";
 
         final String query = """
                 select purchases.id, purchases.timestamp, product_prices.price, products.name
-                from purchases
+                from %s
                     left join product_prices on product_prices.id = purchases.product_price_id
                     left join products on products.id = product_prices.product_id
                 where purchases.user_id = :user_id
                 order by products.name
-                """.toLowerCase();
+                """.formatted(purchases).toLowerCase();
 
         return template.getDatabaseClient().sql(query)
                 .bind("user_id", userId)
@@ -266,116 +666,712 @@ public class Persistence {
                 }).all().collectList();
     }
 
-    public Mono<BigDecimal> selectPurchasesSum(final Long userId) {
+    /**
+     * Sum of the recent purchases and the archived ones from the balance snapshot.
+     */
+    public Mono<Money> selectPurchasesSum(final Long userId) {
 
         final String query = """
-                select sum(product_prices.price) as sum
-                from purchases
-                    left join product_prices on product_prices.id = purchases.product_price_id
-                    left join products on products.id = product_prices.product_id
-                where purchases.user_id = :user_id
+                select cast(coalesce(sum(amount), 0) * 100 as bigint) as cents
+                from (
+                    select product_prices.price as amount
+                    from purchases
+                        left join product_prices on product_prices.id = purchases.product_price_id
+                    where purchases.user_id = :user_id
+                    union all
+                    select purchases_sum as amount
+                    from balance_snapshots
+                    where user_id = :user_id
+                ) as amounts
                 """.toLowerCase();
 
         return template.getDatabaseClient().sql(query)
                 .bind("user_id", userId)
-                .map((row, rowMetadata) -> {
-                            final BigDecimal sum = row.get("sum", BigDecimal.class);
-                            return sum == null ? BigDecimal.ZERO : sum;
-                        }
-                )
+                .map((row, rowMetadata) -> new Money(Objects.requireNonNull(row.get("cents", Long.class))))
                 .one();
     }
 
-    public Mono<Map<Long, BigDecimal>> selectPurchasesSumAllUsers() {
+    public Mono<Void> deletePurchase(final Long purchaseId) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        return TenantContext.current().flatMap(tenant -> trans.transactional(template
+                        .selectOne(query(where("id").is(purchaseId).and(TENANT_ID).is(tenant)), Purchase.class)
+                        .switchIfEmpty(Mono.error(new RuntimeException("Purchase not deleted")))
+                        .flatMap(purchase -> template
+                                .delete(Purchase.class)
+                                .matching(query(where("id").is(purchaseId).and(TENANT_ID).is(tenant)))
+                                .all()
+
+                                .flatMap(deleteCount -> switch (deleteCount.intValue()) {
+                                    case 0 -> Mono.error(new RuntimeException("Purchase not deleted"));
+                                    case 1 -> template.selectOne(query(where("id").is(purchase.getProductPriceId())), ProductPrice.class);
+                                    default -> Mono.error(new RuntimeException("Too many purchases deleted"));
+                                })
+                                .flatMap(price -> addToDailyConsumption(purchase.getUserId(), price.getProductId(),
+                                        dayStart(purchase.getTimestamp()), -1, price.getPrice().negate()))
+                        )
+                ));
+    }
+
+    /**
+     * @return Whether the payment was inserted, false if the user already has one with its idempotency key.
+     */
+    public Mono<Boolean> insertPayment(final Payment payment) {
+        return Mono.just(payment)
+                .flatMap(template::insert)
+                .map(p -> true)
+                .onErrorResume(e -> isDuplicateIdempotencyKey(e, "payments"), e -> Mono.just(false));
+    }
+
+    public Mono<List<GetPaymentsResponse>> selectPayments(final Long userId) {
+        return selectPayments(userId, false);
+    }
+
+    /**
+     * @param archive Whether to include the archived payments.
+     */
+    public Mono<List<GetPaymentsResponse>> selectPayments(final Long userId, final boolean archive) {
+
+        if (!archive) {
+            return template.select(query(where("user_id").is(userId)), Payment.class)
+                    .map(payment -> new GetPaymentsResponse(payment.getId(), payment.getAmount(), payment.getTimestamp()))
+                    .collectList();
+        }
 
         final String query = """
-                select user_id, sum(product_prices.price) as sum
-                from purchases
-                    left join product_prices on product_prices.id = purchases.product_price_id
-                    left join products on products.id = product_prices.product_id
-                group by user_id;
+                select id, amount, timestamp from payments where user_id = :user_id
+                union all
+                select id, amount, timestamp from payments_archive where user_id = :user_id
                 """.toLowerCase();
 
         return template.getDatabaseClient().sql(query)
+                .bind("user_id", userId)
                 .map((row, rowMetadata) -> {
-                            final Long userId = Objects.requireNonNull(row.get("user_id", Integer.class)).longValue();
-                            final BigDecimal sum = row.get("sum", BigDecimal.class);
-                            return Tuples.of(userId, sum == null ? BigDecimal.ZERO : sum);
-                        }
-                )
-                .all().collectMap(Tuple2::getT1, Tuple2::getT2);
+                    final Long id = Objects.requireNonNull(row.get("id", Integer.class)).longValue();
+                    final BigDecimal amount = row.get("amount", BigDecimal.class);
+                    final Instant timestamp = row.get("timestamp", Instant.class);
+
+                    return new GetPaymentsResponse(id, amount, timestamp);
+                }).all().collectList();
     }
 
-    public Mono<Void> deletePurchase(final Long purchaseId) {
+    /**
+     * Sum of the recent payments and the archived ones from the balance snapshot.
+     */
+    public Mono<Money> selectPaymentsSum(final Long userId) {
 
-        return template
-                .delete(Purchase.class)
-                .matching(query(where("id").is(purchaseId)))
-                .all()
+        final String query = """
+                select cast(coalesce(sum(amount), 0) * 100 as bigint) as cents
+                from (
+                    select amount from payments where user_id = :user_id
+                    union all
+                    select payments_sum as amount from balance_snapshots where user_id = :user_id
+                ) as amounts
+                """.toLowerCase();
+
+        return template.getDatabaseClient().sql(query)
+                .bind("user_id", userId)
+                .map((row, rowMetadata) -> new Money(Objects.requireNonNull(row.get("cents", Long.class))))
+                .one();
+    }
+
+    public Mono<Void> deletePayment(final Long paymentId) {
+        return TenantContext.current().flatMap(tenant -> template
+                        .delete(Payment.class)
+                        .matching(query(where("id").is(paymentId).and(TENANT_ID).is(tenant)))
+                        .all()
+                )
 
                 .flatMap(deleteCount -> switch (deleteCount.intValue()) {
-                    case 0 -> Mono.error(new RuntimeException("Purchase not deleted"));
+                    case 0 -> Mono.error(new RuntimeException("Payment not deleted"));
                     case 1 -> Mono.empty();
-                    default -> Mono.error(new RuntimeException("Too many purchases deleted"));
+                    default -> Mono.error(new RuntimeException("Too many payments deleted"));
                 });
     }
 
-    public Mono<Void> insertPayment(final Payment payment) {
-        return Mono.just(payment).flatMap(template::insert).flatMap(p -> Mono.empty());
-    }
+    /**
+     * Moves up to {@code limit} purchases older than {@code before} into the archive, oldest first, and adds them to
+     * the monthly rollups and balance snapshots of their users. All in one transaction, so that the sums never count a
+     * purchase twice or not at all.
+     *
+     * @return The number of archived purchases.
+     */
+    public Mono<Long> archivePurchases(final Instant before, final int limit) {
 
-    public Mono<List<GetPaymentsResponse>> selectPayments(final Long userId) {
-        return template.select(query(where("user_id").is(userId)), Payment.class)
-                .map(payment -> new GetPaymentsResponse(payment.getId(), payment.getAmount(), payment.getTimestamp()))
-                .collectList();
+        final String query = """
+                select purchases.id, purchases.tenant_id, purchases.user_id, purchases.timestamp, product_prices.price as amount
+                from purchases
+                    left join product_prices on product_prices.id = purchases.product_price_id
+                where purchases.timestamp < :before
+                order by purchases.timestamp
+                limit :limit
+                """.toLowerCase();
+
+        return archive("purchases", "id, tenant_id, user_id, product_price_id, timestamp", query, before, limit);
     }
 
-    public Mono<BigDecimal> selectPaymentsSum(final Long userId) {
+    /**
+     * Moves up to {@code limit} payments older than {@code before} into the archive, oldest first, and adds them to
+     * the monthly rollups and balance snapshots of their users.
+     *
+     * @return The number of archived payments.
+     */
+    public Mono<Long> archivePayments(final Instant before, final int limit) {
 
         final String query = """
-                select sum(amount) as sum
+                select id, tenant_id, user_id, timestamp, amount
                 from payments
-                where user_id = :user_id
+                where timestamp < :before
+                order by timestamp
+                limit :limit
                 """.toLowerCase();
 
-        return template.getDatabaseClient().sql(query)
-                .bind("user_id", userId)
-                .map((row, rowMetadata) -> {
-                            final BigDecimal sum = row.get("sum", BigDecimal.class);
-                            return sum == null ? BigDecimal.ZERO : sum;
-                        }
+        return archive("payments", "id, tenant_id, user_id, amount, timestamp", query, before, limit);
+    }
+
+    private Mono<Long> archive(final String table, final String columns, final String query, final Instant before, final int limit) {
+
+        final DatabaseClient db = template.getDatabaseClient();
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        return trans.transactional(db.sql(query)
+                .bind("before", before)
+                .bind("limit", limit)
+                .map((row, rowMetadata) -> new ArchivedRow(
+                        Objects.requireNonNull(row.get("id", Integer.class)).longValue(),
+                        Objects.requireNonNull(row.get("tenant_id", String.class)),
+                        Objects.requireNonNull(row.get("user_id", Integer.class)).longValue(),
+                        Objects.requireNonNull(row.get("timestamp", Instant.class)),
+                        Objects.requireNonNull(row.get("amount", BigDecimal.class))
+                ))
+                .all().collectList()
+                .flatMap(rows -> {
+                    if (rows.isEmpty()) {
+                        return Mono.just(0L);
+                    }
+
+                    final List<Long> ids = rows.stream().map(ArchivedRow::id).toList();
+
+                    return db.sql("insert into %1$s_archive (%2$s) select %2$s from %1$s where id in (:ids)".formatted(table, columns))
+                            .bind("ids", ids)
+                            .fetch().rowsUpdated()
+                            .then(db.sql("delete from %s where id in (:ids)".formatted(table))
+                                    .bind("ids", ids)
+                                    .fetch().rowsUpdated()
+                            )
+
+                            // Deleted by a user in between; the next run tries again
+                            .flatMap(deleteCount -> deleteCount == rows.size() ? Mono.empty() :
+                                    Mono.error(new RuntimeException("%s changed while archiving".formatted(table)))
+                            )
+                            .then(addToMonthlyRollups(table, rows))
+                            .then(addToBalanceSnapshots(table, rows, before))
+                            .thenReturn((long) rows.size());
+                })
+        );
+    }
+
+    private Mono<Void> addToMonthlyRollups(final String table, final List<ArchivedRow> rows) {
+
+        final String query = """
+                update monthly_rollups
+                set %1$s_count = %1$s_count + :count, %1$s_sum = %1$s_sum + :sum
+                where user_id = :user_id and month_start = :month_start
+                """.formatted(table).toLowerCase();
+
+        final Map<Tuple2<Long, LocalDate>, List<ArchivedRow>> months = rows.stream()
+                .collect(Collectors.groupingBy(row -> Tuples.of(row.userId(), row.monthStart()), LinkedHashMap::new, Collectors.toList()));
+
+        return Flux.fromIterable(months.entrySet())
+                .concatMap(month -> {
+                    final Long userId = month.getKey().getT1();
+                    final LocalDate monthStart = month.getKey().getT2();
+                    final String tenant = month.getValue().getFirst().tenantId();
+
+                    return template.exists(query(where("user_id").is(userId).and("month_start").is(monthStart)), MonthlyRollup.class)
+                            .flatMap(exists -> exists ? Mono.empty() :
+                                    template.insert(new MonthlyRollup(null, userId, monthStart, 0L, BigDecimal.ZERO, 0L, BigDecimal.ZERO))
+                                            .contextWrite(TenantContext.of(tenant))
+                            )
+                            .then(Mono.defer(() -> template.getDatabaseClient().sql(query)
+                                    .bind("count", (long) month.getValue().size())
+                                    .bind("sum", ArchivedRow.sum(month.getValue()))
+                                    .bind("user_id", userId)
+                                    .bind("month_start", monthStart)
+                                    .fetch().rowsUpdated()
+                            ));
+                })
+                .then();
+    }
+
+    private Mono<Void> addToBalanceSnapshots(final String table, final List<ArchivedRow> rows, final Instant archivedUntil) {
+
+        final String query = """
+                update balance_snapshots
+                set %1$s_sum = %1$s_sum + :sum, archived_until = :archived_until
+                where user_id = :user_id
+                """.formatted(table).toLowerCase();
+
+        final Map<Long, List<ArchivedRow>> users = rows.stream()
+                .collect(Collectors.groupingBy(ArchivedRow::userId, LinkedHashMap::new, Collectors.toList()));
+
+        return Flux.fromIterable(users.entrySet())
+                .concatMap(user -> template.exists(query(where("user_id").is(user.getKey())), BalanceSnapshot.class)
+                        .flatMap(exists -> exists ? Mono.empty() :
+                                template.insert(new BalanceSnapshot(user.getKey(), BigDecimal.ZERO, BigDecimal.ZERO, archivedUntil))
+                                        .contextWrite(TenantContext.of(user.getValue().getFirst().tenantId()))
+                        )
+                        .then(Mono.defer(() -> template.getDatabaseClient().sql(query)
+                                .bind("sum", ArchivedRow.sum(user.getValue()))
+                                .bind("archived_until", archivedUntil)
+                                .bind("user_id", user.getKey())
+                                .fetch().rowsUpdated()
+                        ))
                 )
-                .one();
+                .then();
+    }
+
+    /**
+     * Inserts a batch of imported products with their prices in one transaction. Products whose name is taken are
+     * left out.
+     *
+     * @return The errors by the index of the product in the batch.
+     */
+    public Mono<Map<Integer, String>> insertProducts(final List<PostCreateProductRequest> products) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        final List<String> names = products.stream().map(PostCreateProductRequest::name).distinct().toList();
+
+        return TenantContext.current().flatMap(tenant -> trans.transactional(template.select(Product.class)
+                .matching(query(where("name").in(names).and(TENANT_ID).is(tenant)))
+                .all()
+                .map(Product::getName)
+                .collect(Collectors.toCollection(HashSet::new))
+                .flatMap(taken -> {
+
+                    final Map<Integer, String> errors = new HashMap<>();
+                    final List<PostCreateProductRequest> inserted = new ArrayList<>();
+
+                    for (int i = 0; i < products.size(); i++) {
+                        if (taken.add(products.get(i).name())) {
+                            inserted.add(products.get(i));
+                        } else {
+                            errors.put(i, "Product already exists");
+                        }
+                    }
+
+                    if (inserted.isEmpty()) {
+                        return Mono.just(errors);
+                    }
+
+                    return insertRows(
+                            "products",
+                            List.of(new Column(TENANT_ID, String.class), new Column("name", String.class)),
+                            inserted.stream().map(p -> new Object[]{tenant, p.name()}).toList()
+                    )
+                            .then(template.select(Product.class)
+                                    .matching(query(where("name").in(inserted.stream().map(PostCreateProductRequest::name).toList()).and(TENANT_ID).is(tenant)))
+                                    .all()
+                                    .collectMap(Product::getName, Product::getId)
+                            )
+                            .flatMap(ids -> insertRows(
+                                    "product_prices",
+                                    List.of(new Column(TENANT_ID, String.class), new Column("product_id", Long.class), new Column("price", BigDecimal.class)),
+                                    inserted.stream().map(p -> new Object[]{tenant, ids.get(p.name()), p.price()}).toList()
+                            ))
+                            .thenReturn(errors);
+                })
+        ));
+    }
+
+    /**
+     * Inserts a batch of imported users with their emails in one transaction. Users whose email is taken are left out.
+     *
+     * @return The errors by the index of the user in the batch.
+     */
+    public Mono<Map<Integer, String>> insertUsers(final List<Tuple2<User, OutboxEmail>> users) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        final List<String> emails = users.stream().map(u -> u.getT1().getEmail()).distinct().toList();
+
+        return TenantContext.current().flatMap(tenant -> trans.transactional(template.select(User.class)
+                .matching(query(where("email").in(emails).and(TENANT_ID).is(tenant)))
+                .all()
+                .map(User::getEmail)
+                .collect(Collectors.toCollection(HashSet::new))
+                .flatMap(taken -> {
+
+                    final Map<Integer, String> errors = new HashMap<>();
+                    final List<Tuple2<User, OutboxEmail>> inserted = new ArrayList<>();
+
+                    for (int i = 0; i < users.size(); i++) {
+                        if (taken.add(users.get(i).getT1().getEmail())) {
+                            inserted.add(users.get(i));
+                        } else {
+                            errors.put(i, "Email is taken");
+                        }
+                    }
+
+                    return insertRows(
+                            "users",
+                            List.of(
+                                    new Column(TENANT_ID, String.class),
+                                    new Column("email", String.class),
+                                    new Column("password", String.class),
+                                    new Column("roles", String.class),
+                                    new Column("registration_secret", String.class),
+                                    new Column("registration_on", Instant.class),
+                                    new Column("registration_complete", Boolean.class)
+                            ),
+                            inserted.stream().map(Tuple2::getT1).map(u -> new Object[]{
+                                    tenant, u.getEmail(), u.getPassword(), u.getRoles(), u.getRegistrationSecret(),
+                                    u.getRegistrationOn(), u.getRegistrationComplete()
+                            }).toList()
+                    )
+                            .then(insertRows(
+                                    "email_outbox",
+                                    List.of(
+                                            new Column("recipient", String.class),
+                                            new Column("subject", String.class),
+                                            new Column("body", String.class),
+                                            new Column("created_on", Instant.class),
+                                            new Column("attempts", Integer.class),
+                                            new Column("next_attempt_on", Instant.class),
+                                            new Column("dead_lettered", Boolean.class)
+                                    ),
+                                    inserted.stream().map(Tuple2::getT2).map(e -> new Object[]{
+                                            e.getRecipient(), e.getSubject(), e.getBody(), e.getCreatedOn(),
+                                            e.getAttempts(), e.getNextAttemptOn(), e.getDeadLettered()
+                                    }).toList()
+                            ))
+                            .thenReturn(errors);
+                })
+        ));
+    }
+
+    /**
+     * Inserts a batch of imported payments in one transaction. Payments of unknown users are left out.
+     *
+     * @return The errors by the index of the payment in the batch.
+     */
+    public Mono<Map<Integer, String>> insertPayments(final List<PostImportPaymentRequest> payments) {
+
+        final TransactionalOperator trans = TransactionalOperator.create(transactionManager);
+
+        final List<String> emails = payments.stream().map(PostImportPaymentRequest::email).distinct().toList();
+        final Instant now = Instant.now();
+
+        return TenantContext.current().flatMap(tenant -> trans.transactional(template.select(User.class)
+                .matching(query(where("email").in(emails).and(TENANT_ID).is(tenant)))
+                .all()
+                .collectMap(User::getEmail, User::getId)
+                .flatMap(userIds -> {
+
+                    final Map<Integer, String> errors = new HashMap<>();
+                    final List<Object[]> rows = new ArrayList<>();
+
+                    for (int i = 0; i < payments.size(); i++) {
+
+                        final PostImportPaymentRequest payment = payments.get(i);
+                        final Long userId = userIds.get(payment.email());
+
+                        if (userId == null) {
+                            errors.put(i, "User not found");
+                        } else {
+                            rows.add(new Object[]{tenant, userId, payment.amount(), now});
+                        }
+                    }
+
+                    return insertRows(
+                            "payments",
+                            List.of(
+                                    new Column(TENANT_ID, String.class),
+                                    new Column("user_id", Long.class),
+                                    new Column("amount", BigDecimal.class),
+                                    new Column("timestamp", Instant.class)
+                            ),
+                            rows
+                    ).thenReturn(errors);
+                })
+        ));
+    }
+
+    /**
+     * Inserts the rows with one multi-row statement per {@value #ROWS_PER_INSERT} rows instead of one round trip per
+     * row. The values of a row are in the order of the columns; a null value is bound as a null of the column's type.
+     */
+    private Mono<Void> insertRows(final String table, final List<Column> columns, final List<Object[]> rows) {
+
+        final String names = columns.stream().map(Column::name).collect(Collectors.joining(", "));
+
+        return Flux.fromIterable(rows)
+                .buffer(ROWS_PER_INSERT)
+                .concatMap(chunk -> {
+
+                    final String values = IntStream.range(0, chunk.size())
+                            .mapToObj(r -> IntStream.range(0, columns.size())
+                                    .mapToObj(c -> ":v%d_%d".formatted(r, c))
+                                    .collect(Collectors.joining(", ", "(", ")"))
+                            )
+                            .collect(Collectors.joining(", "));
+
+                    DatabaseClient.GenericExecuteSpec spec = template.getDatabaseClient()
+                            .sql("insert into %s (%s) values %s".formatted(table, names, values));
+
+                    for (int r = 0; r < chunk.size(); r++) {
+                        for (int c = 0; c < columns.size(); c++) {
+
+                            final String name = "v%d_%d".formatted(r, c);
+                            final Object value = chunk.get(r)[c];
+
+                            spec = value == null ? spec.bindNull(name, columns.get(c).type()) : spec.bind(name, value);
+                        }
+                    }
+
+                    return spec.fetch().rowsUpdated();
+                })
+                .then();
     }
 
-    public Mono<Map<Long, BigDecimal>> selectPaymentsSumAllUsers() {
+    /**
+     * All purchases of the tenant, archived ones included, oldest first. The rows are streamed as they are requested.
+     */
+    public Flux<GetExportPurchasesResponse> streamPurchases() {
 
         final String query = """
-                select user_id, sum(amount) as sum
-                from payments
-                group by user_id;
+                select purchases.id, purchases.timestamp, users.email, products.name, product_prices.price
+                from (select id, tenant_id, user_id, product_price_id, timestamp from purchases
+                      union all
+                      select id, tenant_id, user_id, product_price_id, timestamp from purchases_archive) as purchases
+                    left join users on users.id = purchases.user_id
+                    left join product_prices on product_prices.id = purchases.product_price_id
+                    left join products on products.id = product_prices.product_id
+                where purchases.tenant_id = :tenant_id
+                order by purchases.timestamp, purchases.id
+                """.toLowerCase();
+
+        return TenantContext.current().flatMapMany(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .map((row, rowMetadata) -> new GetExportPurchasesResponse(
+                        Objects.requireNonNull(row.get("id", Integer.class)).longValue(),
+                        row.get("timestamp", Instant.class),
+                        row.get("email", String.class),
+                        row.get("name", String.class),
+                        row.get("price", BigDecimal.class)
+                ))
+                .all());
+    }
+
+    /**
+     * All payments of the tenant, archived ones included, oldest first. The rows are streamed as they are requested.
+     */
+    public Flux<GetExportPaymentsResponse> streamPayments() {
+
+        final String query = """
+                select payments.id, payments.timestamp, users.email, payments.amount
+                from (select id, tenant_id, user_id, amount, timestamp from payments
+                      union all
+                      select id, tenant_id, user_id, amount, timestamp from payments_archive) as payments
+                    left join users on users.id = payments.user_id
+                where payments.tenant_id = :tenant_id
+                order by payments.timestamp, payments.id
+                """.toLowerCase();
+
+        return TenantContext.current().flatMapMany(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .map((row, rowMetadata) -> new GetExportPaymentsResponse(
+                        Objects.requireNonNull(row.get("id", Integer.class)).longValue(),
+                        row.get("timestamp", Instant.class),
+                        row.get("email", String.class),
+                        row.get("amount", BigDecimal.class)
+                ))
+                .all());
+    }
+
+    /**
+     * Number and revenue of the purchases per product from {@code from} to {@code to} (inclusive), the most
+     * purchased first.
+     */
+    public Mono<List<GetProductStatisticsResponse>> selectProductStatistics(final LocalDate from, final LocalDate to, final int limit) {
+
+        final String query = """
+                select daily_consumption.product_id, products.name,
+                    cast(sum(daily_consumption.purchases_count) as bigint) as purchases_count, sum(daily_consumption.revenue) as revenue
+                from daily_consumption
+                    left join products on products.id = daily_consumption.product_id
+                where daily_consumption.tenant_id = :tenant_id and daily_consumption.day_start between :from and :to
+                group by daily_consumption.product_id, products.name
+                having sum(daily_consumption.purchases_count) > 0
+                order by purchases_count desc, revenue desc
+                limit :limit
+                """.toLowerCase();
+
+        return TenantContext.current().flatMap(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .bind("from", from)
+                .bind("to", to)
+                .bind("limit", limit)
+                .map((row, rowMetadata) -> new GetProductStatisticsResponse(
+                        Objects.requireNonNull(row.get("product_id", Integer.class)).longValue(),
+                        row.get("name", String.class),
+                        row.get("purchases_count", Long.class),
+                        row.get("revenue", BigDecimal.class)
+                ))
+                .all().collectList());
+    }
+
+    /**
+     * Number and revenue of the purchases per user and product from {@code from} to {@code to} (inclusive).
+     */
+    public Mono<List<GetUserStatisticsResponse>> selectUserStatistics(final LocalDate from, final LocalDate to) {
+
+        final String query = """
+                select users.email, products.name,
+                    cast(sum(daily_consumption.purchases_count) as bigint) as purchases_count, sum(daily_consumption.revenue) as revenue
+                from daily_consumption
+                    left join users on users.id = daily_consumption.user_id
+                    left join products on products.id = daily_consumption.product_id
+                where daily_consumption.tenant_id = :tenant_id and daily_consumption.day_start between :from and :to
+                group by users.email, products.name
+                having sum(daily_consumption.purchases_count) > 0
+                order by users.email, purchases_count desc
+                """.toLowerCase();
+
+        return TenantContext.current().flatMap(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .bind("from", from)
+                .bind("to", to)
+                .map((row, rowMetadata) -> new GetUserStatisticsResponse(
+                        row.get("email", String.class),
+                        row.get("name", String.class),
+                        row.get("purchases_count", Long.class),
+                        row.get("revenue", BigDecimal.class)
+                ))
+                .all().collectList());
+    }
+
+    /**
+     * Number and revenue of the purchases per day from {@code from} to {@code to} (inclusive), days without
+     * purchases are left out.
+     */
+    public Mono<List<GetRevenueStatisticsResponse>> selectRevenueStatistics(final LocalDate from, final LocalDate to) {
+
+        final String query = """
+                select day_start, cast(sum(purchases_count) as bigint) as purchases_count, sum(revenue) as revenue
+                from daily_consumption
+                where tenant_id = :tenant_id and day_start between :from and :to
+                group by day_start
+                having sum(purchases_count) > 0
+                order by day_start
+                """.toLowerCase();
+
+        return TenantContext.current().flatMap(tenant -> template.getDatabaseClient().sql(query)
+                .bind("tenant_id", tenant)
+                .bind("from", from)
+                .bind("to", to)
+                .map((row, rowMetadata) -> new GetRevenueStatisticsResponse(
+                        row.get("day_start", LocalDate.class),
+                        row.get("purchases_count", Long.class),
+                        row.get("revenue", BigDecimal.class)
+                ))
+                .all().collectList());
+    }
+
+    /**
+     * Adds purchases to the consumption of a user, or removes them with a negative count and revenue.
+     */
+    private Mono<Void> addToDailyConsumption(final Long userId, final Long productId, final LocalDate dayStart, final long count,
+                                             final BigDecimal revenue) {
+
+        // There's nothing to remove from a day that has none
+        if (count < 0) {
+            return updateDailyConsumption(userId, productId, dayStart, count, revenue).then();
+        }
+
+        // Concurrent first purchases of a day would both insert the day, so it's inserted or added to in one statement
+        if (isPostgres()) {
+
+            final String query = """
+                    insert into daily_consumption (tenant_id, day_start, product_id, user_id, purchases_count, revenue)
+                    values (:tenant_id, :day_start, :product_id, :user_id, :count, :revenue)
+                    on conflict (day_start, product_id, user_id) do update
+                    set purchases_count = daily_consumption.purchases_count + excluded.purchases_count,
+                        revenue = daily_consumption.revenue + excluded.revenue
+                    """.toLowerCase();
+
+            return TenantContext.current()
+                    .flatMap(tenant -> template.getDatabaseClient().sql(query)
+                            .bind("tenant_id", tenant)
+                            .bind("day_start", dayStart)
+                            .bind("product_id", productId)
+                            .bind("user_id", userId)
+                            .bind("count", count)
+                            .bind("revenue", revenue)
+                            .fetch().rowsUpdated()
+                    )
+                    .then();
+        }
+
+        // H2 has no such statement, but keeps the transaction usable after a failed one, so the loser adds to the day
+        return updateDailyConsumption(userId, productId, dayStart, count, revenue)
+                .flatMap(updateCount -> updateCount > 0 ? Mono.empty() : template
+                        .insert(new DailyConsumption(null, dayStart, productId, userId, count, revenue))
+                        .then()
+                        .onErrorResume(e -> isDuplicateKey(e, "uq_daily_consumption"),
+                                e -> updateDailyConsumption(userId, productId, dayStart, count, revenue).then())
+                );
+    }
+
+    private Mono<Long> updateDailyConsumption(final Long userId, final Long productId, final LocalDate dayStart, final long count,
+                                              final BigDecimal revenue) {
+
+        final String query = """
+                update daily_consumption
+                set purchases_count = purchases_count + :count, revenue = revenue + :revenue
+                where day_start = :day_start and product_id = :product_id and user_id = :user_id
                 """.toLowerCase();
 
         return template.getDatabaseClient().sql(query)
-                .map((row, rowMetadata) -> {
-                            final Long userId = Objects.requireNonNull(row.get("user_id", Integer.class)).longValue();
-                            final BigDecimal sum = row.get("sum", BigDecimal.class);
-                            return Tuples.of(userId, sum == null ? BigDecimal.ZERO : sum);
-                        }
-                )
-                .all().collectMap(Tuple2::getT1, Tuple2::getT2);
+                .bind("count", count)
+                .bind("revenue", revenue)
+                .bind("day_start", dayStart)
+                .bind("product_id", productId)
+                .bind("user_id", userId)
+                .fetch().rowsUpdated();
     }
 
-    public Mono<Void> deletePayment(final Long paymentId) {
-        return template
-                .delete(Payment.class)
-                .matching(query(where("id").is(paymentId)))
-                .all()
+    private boolean isPostgres() {
+        return template.getDatabaseClient().getConnectionFactory().getMetadata().getName().equals("PostgreSQL");
+    }
 
-                .flatMap(deleteCount -> switch (deleteCount.intValue()) {
-                    case 0 -> Mono.error(new RuntimeException("Payment not deleted"));
-                    case 1 -> Mono.empty();
-                    default -> Mono.error(new RuntimeException("Too many payments deleted"));
-                });
+    private static LocalDate dayStart(final Instant timestamp) {
+        return timestamp.atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    private static boolean isDuplicateIdempotencyKey(final Throwable e, final String table) {
+        return isDuplicateKey(e, "uq_%s_idempotency_key".formatted(table));
+    }
+
+    private static boolean isDuplicateKey(final Throwable e, final String index) {
+        return e instanceof DuplicateKeyException
+                && e.getMessage() != null
+                && e.getMessage().toLowerCase().contains(index);
+    }
+
+    private record Column(String name, Class<?> type) {
+    }
+
+    private record ArchivedRow(Long id, String tenantId, Long userId, Instant timestamp, BigDecimal amount) {
+
+        LocalDate monthStart() {
+            return timestamp.atZone(ZoneOffset.UTC).toLocalDate().withDayOfMonth(1);
+        }
+
+        static BigDecimal sum(final List<ArchivedRow> rows) {
+            return rows.stream().map(ArchivedRow::amount).reduce(BigDecimal.ZERO, BigDecimal::add);
+        }
     }
 }
@@ -0,0 +1,41 @@
+package de.saschaufer.tallyapp.persistence;
+
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import org.jspecify.annotations.NonNull;
+import org.reactivestreams.Publisher;
+import org.springframework.data.r2dbc.mapping.OutboundRow;
+import org.springframework.data.r2dbc.mapping.event.BeforeSaveCallback;
+import org.springframework.data.relational.core.sql.SqlIdentifier;
+import org.springframework.r2dbc.core.Parameter;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+/**
+ * Writes the tenant of the request into every row of a tenant's table, so that the DTOs don't need to carry it.
+ */
+@Component
+public class TenantEntityCallback implements BeforeSaveCallback<Object> {
+
+    static final String TENANT_ID = "tenant_id";
+
+    private static final Set<String> TABLES = Set.of(
+            "users", "products", "product_prices", "purchases", "payments", "monthly_rollups", "balance_snapshots",
+            "daily_consumption"
+    );
+
+    @NonNull
+    @Override
+    public Publisher<Object> onBeforeSave(@NonNull final Object entity, @NonNull final OutboundRow row, @NonNull final SqlIdentifier table) {
+
+        if (!TABLES.contains(table.getReference())) {
+            return Mono.just(entity);
+        }
+
+        return TenantContext.current().map(tenant -> {
+            row.append(TENANT_ID, Parameter.from(tenant));
+            return entity;
+        });
+    }
+}
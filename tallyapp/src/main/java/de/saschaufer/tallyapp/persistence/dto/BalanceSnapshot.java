@@ -0,0 +1,27 @@
+package de.saschaufer.tallyapp.persistence.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Sums of the archived purchases and payments of a user, i.e. the balance at {@link #archivedUntil}, on which the
+ * recent purchases and payments are added.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "balance_snapshots")
+public class BalanceSnapshot {
+
+    @Id
+    private Long userId;
+    private BigDecimal purchasesSum;
+    private BigDecimal paymentsSum;
+    private Instant archivedUntil;
+}
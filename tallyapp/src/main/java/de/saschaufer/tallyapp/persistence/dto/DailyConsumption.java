@@ -0,0 +1,28 @@
+package de.saschaufer.tallyapp.persistence.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Number and sum of the purchases of a product by a user on a day (UTC), archived ones included.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "daily_consumption")
+public class DailyConsumption {
+
+    @Id
+    private Long id;
+    private LocalDate dayStart;
+    private Long productId;
+    private Long userId;
+    private Long purchasesCount;
+    private BigDecimal revenue;
+}
@@ -0,0 +1,21 @@
+package de.saschaufer.tallyapp.persistence.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "job_leases")
+public class JobLease {
+
+    @Id
+    private String name;
+    private String lockedBy;
+    private Instant lockedUntil;
+}
@@ -0,0 +1,29 @@
+package de.saschaufer.tallyapp.persistence.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Number and sum of the archived purchases and payments of a user in a month (UTC).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "monthly_rollups")
+public class MonthlyRollup {
+
+    @Id
+    private Long id;
+    private Long userId;
+    private LocalDate monthStart;
+    private Long purchasesCount;
+    private BigDecimal purchasesSum;
+    private Long paymentsCount;
+    private BigDecimal paymentsSum;
+}
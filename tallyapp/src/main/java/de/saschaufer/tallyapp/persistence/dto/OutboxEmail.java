@@ -0,0 +1,27 @@
+package de.saschaufer.tallyapp.persistence.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "email_outbox")
+public class OutboxEmail {
+
+    @Id
+    private Long id;
+    private String recipient;
+    private String subject;
+    private String body;
+    private Instant createdOn;
+    private Integer attempts;
+    private Instant nextAttemptOn;
+    private String lastError;
+    private Boolean deadLettered;
+}
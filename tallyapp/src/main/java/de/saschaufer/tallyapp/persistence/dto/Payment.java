@@ -20,4 +20,7 @@ public class Payment {
     private Long userId;
     private BigDecimal amount;
     private Instant timestamp;
+
+    // Set by the client, so that a retried request doesn't create it twice
+    private String idempotencyKey;
 }
@@ -19,4 +19,7 @@ public class Purchase {
     private Long userId;
     private Long productPriceId;
     private Instant timestamp;
+
+    // Set by the client, so that a retried request doesn't create it twice
+    private String idempotencyKey;
 }
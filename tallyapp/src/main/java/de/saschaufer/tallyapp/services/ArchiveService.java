@@ -0,0 +1,48 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.function.BiFunction;
+
+/**
+ * Moves purchases and payments older than {@link JobProperties.Archive#horizon()} into the archive. Their sums are
+ * kept in monthly rollups and a balance snapshot per user, so the balances stay the same, but are computed from the
+ * recent rows only.
+ */
+@Service
+@RequiredArgsConstructor
+public class ArchiveService {
+
+    private final Persistence persistence;
+    private final JobProperties jobProperties;
+
+    /**
+     * @return The number of archived purchases and payments.
+     */
+    public Mono<Long> archive() {
+
+        final Instant before = Instant.now().minus(jobProperties.archive().horizon());
+
+        return Flux.concat(
+                        archive(persistence::archivePurchases, before),
+                        archive(persistence::archivePayments, before)
+                )
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> archive(final BiFunction<Instant, Integer, Mono<Long>> archiveChunk, final Instant before) {
+
+        final JobProperties.Archive job = jobProperties.archive();
+        final Mono<Long> chunk = Mono.defer(() -> archiveChunk.apply(before, job.chunkSize()));
+
+        return chunk
+                .expand(count -> count < job.chunkSize() ? Mono.empty() : chunk.delaySubscription(job.chunkPause()))
+                .reduce(0L, Long::sum);
+    }
+}
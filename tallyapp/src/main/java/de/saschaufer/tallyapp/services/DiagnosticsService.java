@@ -0,0 +1,128 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.diagnostics.DiagnosticsProperties;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Diagnoses the running app without attaching tools to it: Records it with the JDK Flight Recorder and takes thread
+ * dumps and class histograms, as {@code jcmd} does.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DiagnosticsService {
+
+    private final DiagnosticsProperties diagnosticsProperties;
+    private final AtomicBoolean recording = new AtomicBoolean(false);
+
+    /**
+     * Records the app for the given duration with the settings {@link DiagnosticsProperties#recordingSettings()}. Only
+     * one recording runs at a time.
+     *
+     * @return The file with the finished recording. Read it with {@link #read(Path)}, which deletes it afterward.
+     */
+    public Mono<Path> record(final Duration duration) {
+
+        if (duration.compareTo(diagnosticsProperties.maxRecordingDuration()) > 0) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Recording duration must not exceed %d seconds".formatted(diagnosticsProperties.maxRecordingDuration().toSeconds())
+            ));
+        }
+
+        return Mono.defer(() -> {
+
+            if (!recording.compareAndSet(false, true)) {
+                return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "A recording is already running"));
+            }
+
+            return Mono.usingWhen(
+                            Mono.fromCallable(this::startRecording).subscribeOn(Schedulers.boundedElastic()),
+                            r -> Mono.delay(duration).then(Mono.fromCallable(() -> stopRecording(r)).subscribeOn(Schedulers.boundedElastic())),
+                            r -> Mono.fromRunnable(r::close)
+                    )
+                    .doFinally(signal -> recording.set(false));
+        });
+    }
+
+    public Flux<DataBuffer> read(final Path file) {
+        // Eager cleanup: The file is gone before the response completes
+        return Flux.using(() -> file, f -> DataBufferUtils.read(f, DefaultDataBufferFactory.sharedInstance, 8192), DiagnosticsService::delete);
+    }
+
+    public Mono<String> threadDump() {
+        return Mono.fromCallable(() -> diagnosticCommand("threadPrint", "-l"))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Counts all objects on the heap, including unreachable ones, since counting only the live objects would require a
+     * full garbage collection.
+     */
+    public Mono<String> classHistogram() {
+        return Mono.fromCallable(() -> diagnosticCommand("gcClassHistogram", "-all"))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Recording startRecording() throws IOException, ParseException {
+
+        final Recording r = new Recording(Configuration.getConfiguration(diagnosticsProperties.recordingSettings()));
+        r.setName("tallyapp-diagnostics");
+        r.setToDisk(true);
+        r.start();
+
+        log.atInfo().setMessage("Recording started.").log();
+
+        return r;
+    }
+
+    private Path stopRecording(final Recording r) throws IOException {
+
+        r.stop();
+
+        final Path file = Files.createTempFile("tallyapp-", ".jfr");
+        r.dump(file);
+
+        log.atInfo().setMessage("Recording stopped. Size: {} bytes.").addArgument(Files.size(file)).log();
+
+        return file;
+    }
+
+    private static void delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException e) {
+            log.atWarn().setMessage("Error deleting recording '{}'.").addArgument(file).setCause(e).log();
+        }
+    }
+
+    private static String diagnosticCommand(final String operation, final String... args) throws JMException {
+        return (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                operation,
+                new Object[]{args},
+                new String[]{String[].class.getName()}
+        );
+    }
+}
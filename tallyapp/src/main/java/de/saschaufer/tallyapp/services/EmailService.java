@@ -1,17 +1,21 @@
 package de.saschaufer.tallyapp.services;
 
 import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.OutboxEmail;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.HttpStatus;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
-import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 
 @Slf4j
 @Service
@@ -19,72 +23,135 @@ import java.util.Base64;
 public class EmailService {
 
     private final EmailProperties emailProperties;
-    private final JavaMailSender emailSender;
-
-    public void sendRegistrationEmail(final String email, final String secret) {
-
-        log.atInfo().setMessage("Send registration email to '{}'.").addArgument(email).log();
-
-        try {
-
-            final StringBuilder url = new StringBuilder();
-            url.append(emailProperties.registrationUrl());
-            url.append("/#/register/confirm");
-            url.append("?e=").append(URLEncoder.encode(Base64.getEncoder().encodeToString(email.getBytes()), StandardCharsets.UTF_8));
-            url.append("&s=").append(URLEncoder.encode(Base64.getEncoder().encodeToString(secret.getBytes()), StandardCharsets.UTF_8));
-
-            sendEmail(emailProperties.from(), email, "Tally App registration", """
-                    Hello,
-                    
-                    click on the link to complete the registration on the Tally App:
-                    
-                    %s
-                    
-                    If you don't registered to the app, ignore this email. Since the registration is not completed then, your email address will be deleted from the Tally App system.
-                    
-                    Kind regards,
-                    Tally App
-                    """.formatted(url));
-        } catch (final Exception e) {
-            log.atError().setMessage("Error sending registration email.").setCause(e).log();
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error sending registration email");
-        }
+    private final MailTransportPool mailTransportPool;
+    private final Persistence persistence;
+
+    /**
+     * @param registrationUrl The URL of the app of the tenant the user registers to.
+     */
+    public OutboxEmail createRegistrationEmail(final String email, final String secret, final String registrationUrl) {
+
+        final StringBuilder url = new StringBuilder();
+        url.append(registrationUrl);
+        url.append("/#/register/confirm");
+        url.append("?e=").append(URLEncoder.encode(Base64.getEncoder().encodeToString(email.getBytes()), StandardCharsets.UTF_8));
+        url.append("&s=").append(URLEncoder.encode(Base64.getEncoder().encodeToString(secret.getBytes()), StandardCharsets.UTF_8));
+
+        return createEmail(email, "Tally App registration", """
+                Hello,
+
+                click on the link to complete the registration on the Tally App:
+
+                %s
+
+                If you don't registered to the app, ignore this email. Since the registration is not completed then, your email address will be deleted from the Tally App system.
 
-        log.atInfo().setMessage("Registration email sent.").log();
+                Kind regards,
+                Tally App
+                """.formatted(url));
     }
 
-    public void sendResetPasswordEmail(final String email, final String password) {
-
-        log.atInfo().setMessage("Send reset password email to '{}'.").addArgument(email).log();
-
-        try {
-
-            sendEmail(emailProperties.from(), email, "Tally App reset password", """
-                    Hello,
-                    
-                    the password for the Tally App has been changed. Log in with the new password and change it.
-                    
-                    New password: %s
-                    
-                    Kind regards,
-                    Tally App
-                    """.formatted(password));
-        } catch (final Exception e) {
-            log.atError().setMessage("Error sending reset password email.").setCause(e).log();
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error sending reset password email");
-        }
+    public OutboxEmail createResetPasswordEmail(final String email, final String password) {
+
+        return createEmail(email, "Tally App reset password", """
+                Hello,
+
+                the password for the Tally App has been changed. Log in with the new password and change it.
+
+                New password: %s
 
-        log.atInfo().setMessage("Reset password email sent.").log();
+                Kind regards,
+                Tally App
+                """.formatted(password));
     }
 
-    private void sendEmail(final String from, final String to, final String subject, final String text) {
+    public OutboxEmail createImportedUserEmail(final String email, final String password) {
+
+        return createEmail(email, "Tally App account", """
+                Hello,
+
+                an account for the Tally App has been created for you. Log in with this email address and the password below and change it.
+
+                Password: %s
 
+                Kind regards,
+                Tally App
+                """.formatted(password));
+    }
+
+    /**
+     * Claims the next batch of due emails from the outbox and sends it over the pooled SMTP connections. Sent emails
+     * are removed from the outbox, so that no passwords are kept longer than necessary. Failed emails are retried with
+     * exponential backoff until {@link EmailProperties.Outbox#maxAttempts()} is reached, after which they are
+     * dead-lettered without their body.
+     *
+     * @return The number of emails sent.
+     */
+    public Mono<Integer> sendOutboxEmails() {
+
+        final Instant now = Instant.now();
+
+        return persistence.claimOutboxEmails(now, now.plus(emailProperties.outbox().claimDuration()), emailProperties.outbox().batchSize())
+                .filter(emails -> !emails.isEmpty())
+                .flatMap(emails -> mailTransportPool.send(emails.stream().map(this::createMessage).toList())
+                        .flatMap(failures -> {
+
+                            final List<Long> sent = new ArrayList<>();
+                            final List<OutboxEmail> failed = new ArrayList<>();
+
+                            for (int i = 0; i < emails.size(); i++) {
+                                if (failures.containsKey(i)) {
+                                    failed.add(scheduleRetry(emails.get(i), failures.get(i)));
+                                } else {
+                                    sent.add(emails.get(i).getId());
+                                }
+                            }
+
+                            return persistence.deleteOutboxEmails(sent)
+                                    .then(persistence.updateOutboxEmails(failed))
+                                    .thenReturn(sent.size());
+                        })
+                )
+                .defaultIfEmpty(0);
+    }
+
+    private OutboxEmail createEmail(final String to, final String subject, final String text) {
+        final Instant now = Instant.now();
+        return new OutboxEmail(null, to, subject, text, now, 0, now, null, false);
+    }
+
+    private SimpleMailMessage createMessage(final OutboxEmail email) {
         final SimpleMailMessage message = new SimpleMailMessage();
-        message.setFrom(from);
-        message.setTo(to);
-        message.setSubject(subject);
-        message.setText(text);
+        message.setFrom(emailProperties.from());
+        message.setTo(email.getRecipient());
+        message.setSubject(email.getSubject());
+        message.setText(email.getBody());
+        return message;
+    }
+
+    private OutboxEmail scheduleRetry(final OutboxEmail email, final Exception error) {
+
+        final int attempts = email.getAttempts() + 1;
+        final Duration backoff = emailProperties.outbox().retryBackoff().multipliedBy(1L << Math.min(attempts - 1, 16));
+
+        email.setAttempts(attempts);
+        email.setLastError(error.getMessage());
+        email.setNextAttemptOn(Instant.now().plus(backoff));
+
+        if (attempts >= emailProperties.outbox().maxAttempts()) {
+            email.setDeadLettered(true);
+
+            // The body may contain a password, the recipient, subject and error are enough to follow up
+            email.setBody("");
+            log.atError().setMessage("Email '{}' to '{}' dead-lettered after {} attempts.")
+                    .addArgument(email.getSubject()).addArgument(email.getRecipient()).addArgument(attempts)
+                    .setCause(error).log();
+        } else {
+            log.atWarn().setMessage("Error sending email '{}' to '{}'. Retrying in {}.")
+                    .addArgument(email.getSubject()).addArgument(email.getRecipient()).addArgument(backoff)
+                    .setCause(error).log();
+        }
 
-        emailSender.send(message);
+        return email;
     }
 }
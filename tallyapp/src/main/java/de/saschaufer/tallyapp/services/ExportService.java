@@ -0,0 +1,127 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.controller.dto.GetExportPaymentsResponse;
+import de.saschaufer.tallyapp.controller.dto.GetExportPurchasesResponse;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports all purchases and payments for the accounting. The rows are streamed from the database into the response
+ * in chunks, as fast as the client reads them, so that the memory doesn't grow with the number of rows.
+ */
+@Service
+@RequiredArgsConstructor
+public class ExportService {
+
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    // Rows per chunk written to the response
+    static final int CHUNK_ROWS = 256;
+
+    private final Persistence persistence;
+    private final JsonMapper jsonMapper;
+
+    public Flux<DataBuffer> exportPurchases(final Format format, final boolean gzip) {
+        return export(persistence.streamPurchases(), List.of("purchase_id", "timestamp", "email", "product", "price"),
+                p -> Arrays.asList(p.purchaseId(), p.purchaseTimestamp(), p.email(), p.productName(), p.productPrice()), format, gzip);
+    }
+
+    public Flux<DataBuffer> exportPayments(final Format format, final boolean gzip) {
+        return export(persistence.streamPayments(), List.of("payment_id", "timestamp", "email", "amount"),
+                p -> Arrays.asList(p.paymentId(), p.paymentTimestamp(), p.email(), p.amount()), format, gzip);
+    }
+
+    <T> Flux<DataBuffer> export(final Flux<T> rows, final List<String> header, final Function<T, List<?>> fields,
+                                final Format format, final boolean gzip) {
+
+        final Flux<String> lines = switch (format) {
+            case CSV -> Flux.just(csvLine(header)).concatWith(rows.map(row -> csvLine(fields.apply(row))));
+            case NDJSON -> rows.map(row -> jsonMapper.writeValueAsString(row) + "\n");
+        };
+
+        final Flux<byte[]> chunks = lines
+                .buffer(CHUNK_ROWS)
+                .map(chunk -> String.join("", chunk).getBytes(StandardCharsets.UTF_8));
+
+        return (gzip ? gzip(chunks) : chunks)
+                .filter(bytes -> bytes.length > 0)
+                .map(DefaultDataBufferFactory.sharedInstance::wrap);
+    }
+
+    /**
+     * Fields with a separator, a quote or a line break are quoted (RFC 4180), empty fields are left empty.
+     */
+    static String csvLine(final List<?> fields) {
+        return fields.stream()
+                .map(field -> Objects.toString(field, ""))
+                .map(field -> field.contains(",") || field.contains("\"") || field.contains("\n") || field.contains("\r") ?
+                        "\"" + field.replace("\"", "\"\"") + "\"" : field)
+                .collect(Collectors.joining(",", "", "\r\n"));
+    }
+
+    /**
+     * Compresses the chunks one after another into a single gzip stream.
+     */
+    private static Flux<byte[]> gzip(final Flux<byte[]> chunks) {
+        return Flux.using(Gzip::new, gzip -> chunks.map(gzip::write).concatWith(Mono.fromCallable(gzip::finish)), Gzip::close);
+    }
+
+    private static final class Gzip {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final GZIPOutputStream gzip;
+
+        private Gzip() throws IOException {
+            gzip = new GZIPOutputStream(out);
+        }
+
+        // What the deflater has compressed so far, it keeps the rest for the next chunk
+        private byte[] write(final byte[] bytes) {
+            try {
+                gzip.write(bytes);
+                return drain();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte[] finish() throws IOException {
+            gzip.finish();
+            return drain();
+        }
+
+        private byte[] drain() {
+            final byte[] bytes = out.toByteArray();
+            out.reset();
+            return bytes;
+        }
+
+        private void close() {
+            try {
+                gzip.close();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.idempotency.IdempotencyProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The idempotency keys of the recently created purchases and payments, so that a retried request is answered without
+ * touching the database. Holds at most {@link IdempotencyProperties#maxKeys()} keys, each for
+ * {@link IdempotencyProperties#ttl()}. Keys evicted early or lost on a restart are still caught by the unique index
+ * on the rows.
+ */
+@Component
+public class IdempotencyKeys {
+
+    private final IdempotencyProperties idempotencyProperties;
+
+    // In insertion order, so that the oldest key is the first to expire and the first to be evicted
+    private final Map<String, Instant> expiries;
+
+    public IdempotencyKeys(final IdempotencyProperties idempotencyProperties) {
+        this.idempotencyProperties = idempotencyProperties;
+        this.expiries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Instant> eldest) {
+                return size() > idempotencyProperties.maxKeys();
+            }
+        };
+    }
+
+    public synchronized boolean contains(final String key) {
+        evictExpired();
+        return expiries.containsKey(key);
+    }
+
+    public synchronized void add(final String key) {
+        evictExpired();
+        expiries.remove(key);
+        expiries.put(key, Instant.now().plus(idempotencyProperties.ttl()));
+    }
+
+    public synchronized int size() {
+        evictExpired();
+        return expiries.size();
+    }
+
+    private void evictExpired() {
+        final Instant now = Instant.now();
+        final Iterator<Instant> iterator = expiries.values().iterator();
+        while (iterator.hasNext() && !iterator.next().isAfter(now)) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return The key of a purchase or payment, unique across the users.
+     */
+    public static String key(final String operation, final Long userId, final String idempotencyKey) {
+        return operation + ":" + userId + ":" + idempotencyKey;
+    }
+}
@@ -0,0 +1,188 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.imports.ImportProperties;
+import de.saschaufer.tallyapp.controller.RequestBodyValidator;
+import de.saschaufer.tallyapp.controller.dto.PostCreateProductRequest;
+import de.saschaufer.tallyapp.controller.dto.PostImportPaymentRequest;
+import de.saschaufer.tallyapp.controller.dto.PostImportResponse;
+import de.saschaufer.tallyapp.controller.dto.PostImportUserRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Imports products, users and payments from CSV files with a header line. The file is read line by line and the
+ * valid rows are written in batches, each in a transaction, so that a large file neither fills the memory nor takes a
+ * transaction per row. Invalid rows are reported with their line and left out.
+ */
+@Service
+@RequiredArgsConstructor
+public class ImportService {
+
+    private final ImportProperties importProperties;
+    private final ProductService productService;
+    private final UserDetailsService userDetailsService;
+    private final PaymentService paymentService;
+
+    public Mono<PostImportResponse> importProducts(final Flux<DataBuffer> csv) {
+        return importRows(csv, List.of("name", "price"),
+                fields -> new PostCreateProductRequest(fields.get(0), decimal(fields.get(1), "Product price")),
+                productService::createProducts);
+    }
+
+    public Mono<PostImportResponse> importUsers(final Flux<DataBuffer> csv) {
+        return importRows(csv, List.of("email"),
+                fields -> new PostImportUserRequest(fields.get(0)),
+                users -> userDetailsService.createImportedUsers(users.stream().map(PostImportUserRequest::email).toList()));
+    }
+
+    public Mono<PostImportResponse> importPayments(final Flux<DataBuffer> csv) {
+        return importRows(csv, List.of("email", "amount"),
+                fields -> new PostImportPaymentRequest(fields.get(0), decimal(fields.get(1), "Payment amount")),
+                paymentService::createPayments);
+    }
+
+    /**
+     * @param parse Maps the fields of a row to its request, which is validated like a request body.
+     * @param write Writes a batch of valid rows and returns the errors by the index of the row in the batch.
+     */
+    private <T> Mono<PostImportResponse> importRows(final Flux<DataBuffer> csv, final List<String> header,
+                                                    final Function<List<String>, T> parse,
+                                                    final Function<List<T>, Mono<Map<Integer, String>>> write) {
+
+        final int maxRows = importProperties.maxRows();
+
+        return StringDecoder.allMimeTypes().decode(csv, ResolvableType.forClass(String.class), null, Map.of())
+                .index((i, line) -> Tuples.of(i + 1, line))
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Body required")))
+
+                // The first line names the fields
+                .switchOnFirst((first, lines) -> {
+                    if (first.hasValue() && !csvFields(first.get().getT2().replace("\uFEFF", "")).stream().map(String::toLowerCase).toList().equals(header)) {
+                        return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Header must be '%s'".formatted(String.join(",", header))));
+                    }
+                    return lines.skip(1);
+                })
+
+                .filter(line -> !line.getT2().isBlank())
+                .take(maxRows + 1L)
+                .index((i, line) -> i < maxRows ? row(line.getT1(), line.getT2(), header.size(), parse) :
+                        new Row<T>(line.getT1(), null, "Only the first %d rows are imported".formatted(maxRows)))
+
+                // The invalid rows are reported, the valid ones written
+                .buffer(importProperties.batchSize())
+                .concatMap(batch -> {
+                    final List<Row<T>> valid = batch.stream().filter(row -> row.error() == null).toList();
+
+                    final Mono<Map<Integer, String>> errors = valid.isEmpty() ? Mono.just(Map.of()) :
+                            write.apply(valid.stream().map(Row::value).toList());
+
+                    return errors.map(e -> {
+                        final List<Row<T>> rows = new ArrayList<>(batch.size());
+                        int index = 0;
+
+                        for (final Row<T> row : batch) {
+                            if (row.error() != null) {
+                                rows.add(row);
+                            } else {
+                                final String error = e.get(index++);
+                                rows.add(error == null ? row : new Row<>(row.line(), null, error));
+                            }
+                        }
+
+                        return rows;
+                    }).flatMapIterable(rows -> rows);
+                })
+
+                .reduceWith(() -> new PostImportResponse(0L, 0L, new ArrayList<>()), (response, row) -> {
+                    if (row.error() != null) {
+                        response.errors().add(new PostImportResponse.Error(row.line(), row.error()));
+                    }
+                    return new PostImportResponse(response.rows() + 1, response.imported() + (row.error() == null ? 1 : 0), response.errors());
+                });
+    }
+
+    private static <T> Row<T> row(final long line, final String text, final int size, final Function<List<String>, T> parse) {
+
+        final List<String> fields = csvFields(text);
+
+        if (fields.size() != size) {
+            return new Row<>(line, null, "Expected %d fields, found %d".formatted(size, fields.size()));
+        }
+
+        try {
+            final T value = parse.apply(fields);
+            return new Row<>(line, value, RequestBodyValidator.violation(value).orElse(null));
+        } catch (final IllegalArgumentException e) {
+            return new Row<>(line, null, e.getMessage());
+        }
+    }
+
+    private static BigDecimal decimal(final String field, final String name) {
+
+        if (field.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new BigDecimal(field);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("%s must be a number".formatted(name));
+        }
+    }
+
+    /**
+     * Splits a line into its fields. Fields may be quoted (RFC 4180), line breaks within them are not supported.
+     */
+    static List<String> csvFields(final String line) {
+
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().strip());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString().strip());
+
+        return fields;
+    }
+
+    /**
+     * @param error Why the row is not imported, null if it is.
+     */
+    private record Row<T>(long line, T value, String error) {
+    }
+}
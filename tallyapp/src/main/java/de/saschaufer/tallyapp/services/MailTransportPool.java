@@ -0,0 +1,197 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps a fixed number of SMTP connections open and reuses them across batches, so that sending many emails does not
+ * cost one handshake per email. A connection is reopened after {@link EmailProperties.Pool#maxMessagesPerSession()}
+ * emails or when it was idle for longer than {@link EmailProperties.Pool#idleTimeout()}.
+ */
+@Slf4j
+@Component
+public class MailTransportPool {
+
+    public static final String SENDING = "tally.email.sending";
+
+    private final EmailProperties.Pool poolProperties;
+    private final JavaMailSenderImpl emailSender;
+    private final BlockingQueue<Session> sessions;
+    private final Timer sentTimer;
+    private final Timer failedTimer;
+
+    public MailTransportPool(final EmailProperties emailProperties, final JavaMailSenderImpl emailSender, final MeterRegistry meterRegistry) {
+        this.poolProperties = emailProperties.pool();
+        this.emailSender = emailSender;
+        this.sentTimer = meterRegistry.timer(SENDING, "outcome", "success");
+        this.failedTimer = meterRegistry.timer(SENDING, "outcome", "failure");
+        this.sessions = new ArrayBlockingQueue<>(poolProperties.sessions());
+
+        for (int i = 0; i < poolProperties.sessions(); i++) {
+            sessions.add(new Session());
+        }
+    }
+
+    /**
+     * Sends the messages over the pooled connections. The messages are split evenly over the connections, which send
+     * their part in parallel.
+     *
+     * @return The indexes of the messages that could not be sent, mapped to their errors.
+     */
+    public Mono<Map<Integer, Exception>> send(final List<SimpleMailMessage> messages) {
+
+        if (messages.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+
+        final int parts = Math.min(poolProperties.sessions(), messages.size());
+        final int partSize = (messages.size() + parts - 1) / parts;
+
+        return Flux.range(0, parts)
+                .flatMap(part -> Mono.fromCallable(() -> send(messages, part * partSize, Math.min((part + 1) * partSize, messages.size())))
+                        .subscribeOn(Schedulers.boundedElastic()), parts
+                )
+                .collect(HashMap<Integer, Exception>::new, Map::putAll)
+                .map(Map::copyOf);
+    }
+
+    @PreDestroy
+    void close() {
+        sessions.forEach(Session::close);
+    }
+
+    private Map<Integer, Exception> send(final List<SimpleMailMessage> messages, final int from, final int to) throws InterruptedException {
+
+        final Map<Integer, Exception> failures = new HashMap<>();
+        final Session session = sessions.take();
+
+        try {
+            for (int i = from; i < to; i++) {
+
+                // Includes (re)connecting, which is part of the cost of an email
+                final Timer.Sample sample = Timer.start();
+
+                try {
+                    session.connect();
+                } catch (final MessagingException e) {
+                    sample.stop(failedTimer);
+
+                    // Without connection, the remaining messages of this part fail as well, without being attempted
+                    for (int j = i; j < to; j++) {
+                        failures.put(j, e);
+                    }
+                    break;
+                }
+
+                try {
+                    session.send(createMimeMessage(messages.get(i)));
+                    sample.stop(sentTimer);
+                } catch (final Exception e) {
+                    failures.put(i, e);
+                    sample.stop(failedTimer);
+                }
+            }
+        } finally {
+            sessions.add(session);
+        }
+
+        return failures;
+    }
+
+    private MimeMessage createMimeMessage(final SimpleMailMessage message) throws MessagingException {
+        final MimeMessage mimeMessage = emailSender.createMimeMessage();
+        message.copyTo(new MimeMailMessage(mimeMessage));
+        mimeMessage.setSentDate(new Date());
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
+
+    private final class Session {
+
+        private Transport transport;
+        private int messagesSent;
+        private Instant lastUsedOn;
+
+        /**
+         * Opens the connection if there is none usable.
+         */
+        private void connect() throws MessagingException {
+
+            if (transport != null) {
+                if (messagesSent < poolProperties.maxMessagesPerSession()
+                        && lastUsedOn.plus(poolProperties.idleTimeout()).isAfter(Instant.now())
+                        && transport.isConnected()) {
+                    return;
+                }
+                close();
+            }
+
+            // Like JavaMailSenderImpl#connectTransport
+            String username = emailSender.getUsername();
+            String password = emailSender.getPassword();
+            if ("".equals(username)) {
+                username = null;
+                if ("".equals(password)) {
+                    password = null;
+                }
+            }
+
+            String protocol = emailSender.getProtocol();
+            if (protocol == null) {
+                protocol = emailSender.getSession().getProperty("mail.transport.protocol");
+                if (protocol == null) {
+                    protocol = JavaMailSenderImpl.DEFAULT_PROTOCOL;
+                }
+            }
+
+            final Transport newTransport = emailSender.getSession().getTransport(protocol);
+            newTransport.connect(emailSender.getHost(), emailSender.getPort(), username, password);
+
+            transport = newTransport;
+            messagesSent = 0;
+            lastUsedOn = Instant.now();
+        }
+
+        private void send(final MimeMessage message) throws MessagingException {
+            lastUsedOn = Instant.now();
+            messagesSent++;
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+
+        private void close() {
+
+            if (transport == null) {
+                return;
+            }
+
+            try {
+                transport.close();
+            } catch (final MessagingException e) {
+                log.atDebug().setMessage("Error closing SMTP connection.").setCause(e).log();
+            }
+
+            transport = null;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package de.saschaufer.tallyapp.services;
 
 import de.saschaufer.tallyapp.controller.dto.GetAccountBalanceResponse;
 import de.saschaufer.tallyapp.controller.dto.GetPaymentsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostImportPaymentRequest;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.Persistence;
 import de.saschaufer.tallyapp.persistence.dto.Payment;
 import lombok.RequiredArgsConstructor;
@@ -12,19 +14,53 @@ import reactor.util.function.Tuples;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 public class PaymentService {
 
     private final Persistence persistence;
+    private final IdempotencyKeys idempotencyKeys;
 
-    public Mono<Void> createPayment(final Long userId, final BigDecimal amount) {
-        return persistence.insertPayment(new Payment(null, userId, amount, Instant.now()));
+    /**
+     * @param idempotencyKey Optional. A retried request with the same key doesn't create another payment.
+     */
+    public Mono<Void> createPayment(final Long userId, final BigDecimal amount, final String idempotencyKey) {
+
+        final String key = IdempotencyKeys.key("payment", userId, idempotencyKey);
+
+        return Mono.defer(() -> {
+
+            // A retry of a recent request is answered without touching the database
+            if (idempotencyKey != null && idempotencyKeys.contains(key)) {
+                return Mono.empty();
+            }
+
+            return persistence.insertPayment(new Payment(null, userId, amount, Instant.now(), idempotencyKey))
+                    .doOnNext(inserted -> {
+                        if (idempotencyKey != null) {
+                            idempotencyKeys.add(key);
+                        }
+                    })
+                    .then();
+        });
+    }
+
+    /**
+     * Creates a batch of imported payments, those of unknown users are left out.
+     *
+     * @return The errors by the index of the payment in the batch.
+     */
+    public Mono<Map<Integer, String>> createPayments(final List<PostImportPaymentRequest> payments) {
+        return persistence.insertPayments(payments);
     }
 
-    public Mono<List<GetPaymentsResponse>> readPayments(final Long userId) {
-        return persistence.selectPayments(userId);
+    /**
+     * @param archive Whether to include the archived payments.
+     */
+    public Mono<List<GetPaymentsResponse>> readPayments(final Long userId, final boolean archive) {
+        return persistence.selectPayments(userId, archive);
     }
 
     public Mono<Void> deletePayment(final Long paymentId) {
@@ -39,11 +75,11 @@ public class PaymentService {
                 )
                 .map(tuple -> {
 
-                    final BigDecimal payments = tuple.getT1();
-                    final BigDecimal purchases = tuple.getT2();
-                    final BigDecimal sum = payments.subtract(purchases);
+                    final Money payments = tuple.getT1();
+                    final Money purchases = tuple.getT2();
+                    final Money sum = payments.minus(purchases);
 
-                    return new GetAccountBalanceResponse(payments, purchases, sum);
+                    return new GetAccountBalanceResponse(payments.toBigDecimal(), purchases.toBigDecimal(), sum.toBigDecimal());
                 });
     }
 }
@@ -0,0 +1,195 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index over the words of the product names of a tenant, for the search as you type. Names and queries are
+ * compared without case and diacritics, so that 'cafe' finds 'Café'. A product matches if every word of the query is
+ * the start of a word of its name.
+ * <p>
+ * The index is immutable. A changed catalog gets a new index, which takes over the words of the unchanged products
+ * from the previous one.
+ */
+public final class ProductSearchIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Comparator<Entry> RANKING = Comparator.<Entry>comparingInt(entry -> entry.name().length())
+            .thenComparing(Entry::name)
+            .thenComparing(entry -> entry.product().id());
+
+    // The catalog the index was built from
+    private final List<GetProductsResponse> products;
+    private final Map<Long, Entry> entries;
+
+    // All words of all names in order, with the entry of each, so that the words starting with a prefix are a range
+    private final String[] words;
+    private final Entry[] wordEntries;
+
+    private final long estimatedBytes;
+
+    private ProductSearchIndex(final List<GetProductsResponse> products, final Map<Long, Entry> entries) {
+
+        this.products = products;
+        this.entries = entries;
+
+        final List<Map.Entry<String, Entry>> sorted = new ArrayList<>();
+        entries.values().forEach(entry -> Arrays.stream(entry.words()).forEach(word -> sorted.add(Map.entry(word, entry))));
+        sorted.sort(Map.Entry.comparingByKey());
+
+        this.words = sorted.stream().map(Map.Entry::getKey).toArray(String[]::new);
+        this.wordEntries = sorted.stream().map(Map.Entry::getValue).toArray(Entry[]::new);
+
+        long bytes = 2 * array(words.length);
+        for (final Entry entry : entries.values()) {
+            bytes += 32 + string(entry.name()) + array(entry.words().length);
+            for (final String word : entry.words()) {
+                bytes += string(word);
+            }
+        }
+        this.estimatedBytes = bytes;
+    }
+
+    public static ProductSearchIndex of(final List<GetProductsResponse> products) {
+        return of(null, products);
+    }
+
+    /**
+     * @param previous The index of the catalog before the change, whose entries are reused for the products with the
+     *                 same name. May be null.
+     */
+    public static ProductSearchIndex of(final ProductSearchIndex previous, final List<GetProductsResponse> products) {
+
+        final Map<Long, Entry> entries = HashMap.newHashMap(products.size());
+
+        for (final GetProductsResponse product : products) {
+
+            final Entry old = previous == null ? null : previous.entries.get(product.id());
+
+            if (old != null && old.product().name().equals(product.name())) {
+                entries.put(product.id(), new Entry(product, old.name(), old.words()));
+            } else {
+                final String[] words = words(normalize(product.name()));
+                entries.put(product.id(), new Entry(product, String.join(" ", words), words));
+            }
+        }
+
+        return new ProductSearchIndex(products, entries);
+    }
+
+    /**
+     * @return Up to {@code limit} products, exact matches first, then names starting with the query, then by the
+     * length of the name.
+     */
+    public List<GetProductsResponse> search(final String query, final int limit) {
+
+        final String normalized = normalize(query);
+        final String[] prefixes = words(normalized);
+
+        if (prefixes.length == 0) {
+            return List.of();
+        }
+
+        Set<Entry> matches = null;
+
+        for (final String prefix : prefixes) {
+
+            final Set<Entry> found = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = firstWordFrom(prefix); i < words.length && words[i].startsWith(prefix); i++) {
+                if (matches == null || matches.contains(wordEntries[i])) {
+                    found.add(wordEntries[i]);
+                }
+            }
+
+            if (found.isEmpty()) {
+                return List.of();
+            }
+
+            matches = found;
+        }
+
+        final String phrase = String.join(" ", prefixes);
+
+        return matches.stream()
+                .sorted(Comparator.<Entry>comparingInt(entry -> rank(entry, phrase)).thenComparing(RANKING))
+                .limit(limit)
+                .map(Entry::product)
+                .toList();
+    }
+
+    /**
+     * @return Whether the index was built from this catalog.
+     */
+    public boolean isOf(final List<GetProductsResponse> products) {
+        return this.products == products;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The approximate heap the index takes, besides the products themselves.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    // The first word not before the prefix. Words occur more than once, so Arrays.binarySearch won't do.
+    private int firstWordFrom(final String prefix) {
+
+        int low = 0;
+        int high = words.length;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (words[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static int rank(final Entry entry, final String phrase) {
+
+        if (entry.name().equals(phrase)) {
+            return 0;
+        }
+
+        return entry.name().startsWith(phrase) ? 1 : 2;
+    }
+
+    static String normalize(final String text) {
+        return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT)
+                .replace("ß", "ss");
+    }
+
+    private static String[] words(final String normalized) {
+        return SEPARATORS.splitAsStream(normalized).filter(word -> !word.isEmpty()).toArray(String[]::new);
+    }
+
+    // Sizes with compressed references, a string with its byte array in Latin-1
+    private static long string(final String s) {
+        return 24 + 16 + s.length();
+    }
+
+    private static long array(final int length) {
+        return 16 + 4L * length;
+    }
+
+    /**
+     * @param name  The words of the normalized name, separated by a space.
+     * @param words The words of the normalized name.
+     */
+    private record Entry(GetProductsResponse product, String name, String[] words) {
+    }
+}
@@ -1,21 +1,58 @@
 package de.saschaufer.tallyapp.services;
 
 import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostCreateProductRequest;
+import de.saschaufer.tallyapp.invalidation.Invalidation;
+import de.saschaufer.tallyapp.invalidation.InvalidationBus;
 import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @RequiredArgsConstructor
 public class ProductService {
 
+    public static final String SEARCH_INDEX_BYTES = "tally.products.search.index.bytes";
+
     private final Persistence persistence;
+    private final InvalidationBus invalidationBus;
+    private final MeterRegistry meterRegistry;
+
+    // The products are read on every page load but rarely changed, so they are kept in memory per tenant until invalidated
+    private final Map<String, AtomicLong> productsVersions = new ConcurrentHashMap<>();
+    private final Map<String, Mono<List<GetProductsResponse>>> products = new ConcurrentHashMap<>();
+
+    // The search index per tenant, brought up to date with the cached products on the first search after a change
+    private final Map<String, ProductSearchIndex> searchIndexes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> searchIndexBytes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void subscribeToInvalidations() {
+        invalidationBus.invalidations()
+                .filter(invalidation -> invalidation.cache().equals(Invalidation.PRODUCTS))
+                .subscribe(invalidation -> {
+                    if (invalidation.isAll()) {
+                        productsVersions.values().forEach(AtomicLong::incrementAndGet);
+                    } else {
+                        productsVersion(invalidation.key()).incrementAndGet();
+                    }
+                });
+    }
 
     public Mono<Void> createProduct(final String name, final BigDecimal price) {
 
@@ -37,7 +74,18 @@ public class ProductService {
 
                                         return Mono.error(new ResponseStatusException(HttpStatus.UNPROCESSABLE_CONTENT, "Product already exists"));
                                     }));
-                });
+                })
+                .then(productsChanged());
+    }
+
+    /**
+     * Creates a batch of imported products, those whose name is taken are left out.
+     *
+     * @return The errors by the index of the product in the batch.
+     */
+    public Mono<Map<Integer, String>> createProducts(final List<PostCreateProductRequest> products) {
+        return persistence.insertProducts(products)
+                .flatMap(errors -> errors.size() < products.size() ? productsChanged().thenReturn(errors) : Mono.just(errors));
     }
 
     public Mono<GetProductsResponse> readProduct(final Long productId) {
@@ -53,6 +101,59 @@ public class ProductService {
     }
 
     public Mono<List<GetProductsResponse>> readProducts() {
+        return TenantContext.current().flatMap(tenant -> products.computeIfAbsent(tenant, this::cachedProducts));
+    }
+
+    private Mono<List<GetProductsResponse>> cachedProducts(final String tenant) {
+
+        final AtomicLong productsVersion = productsVersion(tenant);
+
+        return Mono.defer(() -> {
+                    final long version = productsVersion.get();
+                    return selectProducts().map(products -> Tuples.of(version, products));
+                })
+                .contextWrite(TenantContext.of(tenant))
+                .cacheInvalidateIf(cached -> cached.getT1() != productsVersion.get())
+                .map(Tuple2::getT2);
+    }
+
+    /**
+     * @return Up to {@code limit} products whose name matches the query, best matches first.
+     * @see ProductSearchIndex#search(String, int)
+     */
+    public Mono<List<GetProductsResponse>> searchProducts(final String query, final int limit) {
+        return TenantContext.current().flatMap(tenant -> readProducts()
+                .map(catalog -> searchIndex(tenant, catalog).search(query, limit))
+        );
+    }
+
+    private ProductSearchIndex searchIndex(final String tenant, final List<GetProductsResponse> catalog) {
+
+        final ProductSearchIndex index = searchIndexes.get(tenant);
+
+        if (index != null && index.isOf(catalog)) {
+            return index;
+        }
+
+        return searchIndexes.compute(tenant, (t, previous) -> {
+
+            if (previous != null && previous.isOf(catalog)) {
+                return previous;
+            }
+
+            final ProductSearchIndex updated = ProductSearchIndex.of(previous, catalog);
+            searchIndexBytes.computeIfAbsent(t, k -> meterRegistry.gauge(SEARCH_INDEX_BYTES, Tags.of("tenant", k), new AtomicLong()))
+                    .set(updated.estimatedBytes());
+
+            return updated;
+        });
+    }
+
+    private AtomicLong productsVersion(final String tenant) {
+        return productsVersions.computeIfAbsent(tenant, t -> new AtomicLong());
+    }
+
+    private Mono<List<GetProductsResponse>> selectProducts() {
         return persistence.selectProducts()
                 .map(products -> products.stream()
                         .map(tuple -> {
@@ -69,14 +170,24 @@ public class ProductService {
     }
 
     public Mono<Void> updateProduct(final Long id, final String newName) {
-        return persistence.updateProduct(id, newName);
+        return persistence.updateProduct(id, newName).then(productsChanged());
     }
 
     public Mono<Void> deleteProduct(final Long id) {
-        return persistence.deleteProduct(id);
+        return persistence.deleteProduct(id).then(productsChanged());
     }
 
     public Mono<Void> updateProductPrice(final Long productId, final BigDecimal price) {
-        return persistence.updateProductPrice(productId, price);
+        return persistence.updateProductPrice(productId, price).then(productsChanged());
+    }
+
+    private Mono<Void> productsChanged() {
+        return TenantContext.current()
+                .doOnNext(tenant -> {
+                    // Invalidated right away here, the other instances follow after the coalesce window
+                    productsVersion(tenant).incrementAndGet();
+                    invalidationBus.publish(Invalidation.of(Invalidation.PRODUCTS, tenant));
+                })
+                .then();
     }
 }
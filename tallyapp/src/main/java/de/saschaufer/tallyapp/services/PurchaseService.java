@@ -1,6 +1,8 @@
 package de.saschaufer.tallyapp.services;
 
 import de.saschaufer.tallyapp.controller.dto.GetPurchasesResponse;
+import de.saschaufer.tallyapp.controller.dto.PostSyncPurchasesRequest;
+import de.saschaufer.tallyapp.controller.dto.PostSyncPurchasesResponse;
 import de.saschaufer.tallyapp.persistence.Persistence;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
@@ -13,13 +15,50 @@ import java.util.List;
 public class PurchaseService {
 
     private final Persistence persistence;
+    private final IdempotencyKeys idempotencyKeys;
 
-    public Mono<Void> createPurchase(final Long userId, final Long productId) {
-        return persistence.insertPurchase(userId, productId);
+    /**
+     * @param idempotencyKey Optional. A retried request with the same key doesn't create another purchase.
+     */
+    public Mono<Void> createPurchase(final Long userId, final Long productId, final String idempotencyKey) {
+
+        final String key = IdempotencyKeys.key("purchase", userId, idempotencyKey);
+
+        return Mono.defer(() -> {
+
+            // A retry of a recent request is answered without touching the database
+            if (idempotencyKey != null && idempotencyKeys.contains(key)) {
+                return Mono.empty();
+            }
+
+            return persistence.insertPurchase(userId, productId, idempotencyKey)
+                    .doOnNext(inserted -> {
+                        if (idempotencyKey != null) {
+                            idempotencyKeys.add(key);
+                        }
+                    })
+                    .then();
+        });
+    }
+
+    /**
+     * Books the purchases a client recorded offline. The client IDs are idempotency keys, a flush can be retried.
+     */
+    public Mono<List<PostSyncPurchasesResponse>> syncPurchases(final Long userId, final List<PostSyncPurchasesRequest.Purchase> purchases) {
+        return persistence.insertPurchases(userId, purchases)
+                .doOnNext(results -> {
+                    // A single retry of a synchronized purchase is answered from memory
+                    results.stream()
+                            .filter(r -> r.status() != PostSyncPurchasesResponse.Status.REJECTED)
+                            .forEach(r -> idempotencyKeys.add(IdempotencyKeys.key("purchase", userId, r.clientId())));
+                });
     }
 
-    public Mono<List<GetPurchasesResponse>> readPurchases(final Long userId) {
-        return persistence.selectPurchases(userId);
+    /**
+     * @param archive Whether to include the archived purchases.
+     */
+    public Mono<List<GetPurchasesResponse>> readPurchases(final Long userId, final boolean archive) {
+        return persistence.selectPurchases(userId, archive);
     }
 
     public Mono<Void> deletePurchase(final Long purchaseId) {
@@ -0,0 +1,235 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.qr.QrProperties;
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.nayuki.qrcodegen.QrCode;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.HtmlUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders the QR codes of the products, which lead to {@code {url}/#/qr/{productId}}, as PNG or SVG. The rendered
+ * images are kept in memory up to {@link QrProperties#cacheSize()}, the least recently used are evicted first.
+ * <p>
+ * A code only depends on its URL, so the images are cached by the URL, the product ID being part of it, and stay
+ * valid when a product is renamed or repriced.
+ */
+@Service
+public class QrService {
+
+    public enum Format {
+        PNG,
+        SVG
+    }
+
+    /**
+     * @param eTag A strong ETag, the hash of the bytes.
+     */
+    public record Image(byte[] bytes, String eTag) {
+    }
+
+    private record Key(String url, Format format, int scale) {
+    }
+
+    // Light modules around the code, so that scanners find its edges
+    static final int QUIET_ZONE = 4;
+
+    // Modules are rendered at this scale on the labels, the browser scales them when printing
+    static final int LABEL_SCALE = 4;
+
+    private final ProductService productService;
+    private final Tenants tenants;
+    private final long maxCacheBytes;
+
+    // In access order, so that the least recently used image is the first to be evicted
+    private final Map<Key, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public QrService(final ProductService productService, final Tenants tenants, final QrProperties qrProperties) {
+        this.productService = productService;
+        this.tenants = tenants;
+        this.maxCacheBytes = qrProperties.cacheSize().toBytes();
+    }
+
+    /**
+     * @param scale Pixels per module.
+     */
+    public Mono<Image> renderProductCode(final Long productId, final Format format, final int scale) {
+        return TenantContext.current()
+                .flatMap(tenant -> productService.readProducts()
+                        .flatMap(products -> products.stream()
+                                .filter(product -> product.id().equals(productId))
+                                .findFirst()
+                                .map(product -> Mono.just(image(new Key(url(tenant, product), format, scale))))
+                                .orElseGet(() -> Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found")))
+                        )
+                );
+    }
+
+    /**
+     * Streams an HTML page with the labels of all products, the code and the name of each, to be printed from the
+     * browser. The codes are rendered as the page is read.
+     *
+     * @param columns Labels per row.
+     */
+    public Flux<DataBuffer> renderProductLabels(final int columns) {
+        return TenantContext.current()
+                .flatMapMany(tenant -> productService.readProducts()
+                        .flatMapMany(products -> Flux.just(labelsHeader(columns))
+                                .concatWith(Flux.fromIterable(products).map(product -> label(tenant, product)))
+                                .concatWith(Mono.fromSupplier(() -> "</main>\n</body>\n</html>\n"))
+                        )
+                )
+                .map(html -> DefaultDataBufferFactory.sharedInstance.wrap(html.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String labelsHeader(final int columns) {
+        return """
+                <!DOCTYPE html>
+                <html lang="en">
+                <head>
+                <meta charset="utf-8">
+                <title>Labels</title>
+                <style>
+                main { display: grid; grid-template-columns: repeat(%d, 1fr); gap: 5mm; }
+                figure { margin: 0; text-align: center; break-inside: avoid; }
+                svg { width: 100%%; height: auto; }
+                </style>
+                </head>
+                <body>
+                <main>
+                """.formatted(columns);
+    }
+
+    private String label(final String tenant, final GetProductsResponse product) {
+        final Image image = image(new Key(url(tenant, product), Format.SVG, LABEL_SCALE));
+        return "<figure>%s<figcaption>%s</figcaption></figure>\n"
+                .formatted(new String(image.bytes(), StandardCharsets.UTF_8), HtmlUtils.htmlEscape(product.name()));
+    }
+
+    private String url(final String tenant, final GetProductsResponse product) {
+        return tenants.registrationUrl(tenant) + "/#/qr/" + product.id();
+    }
+
+    private Image image(final Key key) {
+
+        synchronized (images) {
+            final Image cached = images.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Rendered outside the lock, at worst twice for the same key
+        final QrCode code = QrCode.encodeText(key.url(), QrCode.Ecc.MEDIUM);
+        final byte[] bytes = switch (key.format()) {
+            case PNG -> png(code, key.scale());
+            case SVG -> svg(code, key.scale());
+        };
+        final Image image = new Image(bytes, eTag(bytes));
+
+        synchronized (images) {
+
+            final Image previous = images.put(key, image);
+            cachedBytes += bytes.length - (previous == null ? 0 : previous.bytes().length);
+
+            final Iterator<Image> iterator = images.values().iterator();
+            while (cachedBytes > maxCacheBytes && iterator.hasNext()) {
+                cachedBytes -= iterator.next().bytes().length;
+                iterator.remove();
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * @return The bytes of the images in the cache.
+     */
+    long cachedBytes() {
+        synchronized (images) {
+            return cachedBytes;
+        }
+    }
+
+    static byte[] png(final QrCode code, final int scale) {
+
+        final int size = (code.size + 2 * QUIET_ZONE) * scale;
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_BINARY);
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int moduleX = x / scale - QUIET_ZONE;
+                final int moduleY = y / scale - QUIET_ZONE;
+                final boolean dark = moduleX >= 0 && moduleX < code.size && moduleY >= 0 && moduleY < code.size
+                        && code.getModule(moduleX, moduleY);
+                image.setRGB(x, y, dark ? 0x000000 : 0xFFFFFF);
+            }
+        }
+
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The dark modules as one path, the runs in each row as one rectangle. Without XML declaration, so that it can be
+     * put into HTML as well.
+     */
+    static byte[] svg(final QrCode code, final int scale) {
+
+        final int modules = code.size + 2 * QUIET_ZONE;
+        final StringBuilder svg = new StringBuilder()
+                .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\" shape-rendering=\"crispEdges\">"
+                        .formatted(modules * scale, modules * scale, modules, modules))
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>")
+                .append("<path fill=\"#000\" d=\"");
+
+        for (int y = 0; y < code.size; y++) {
+            for (int x = 0; x < code.size; x++) {
+                if (code.getModule(x, y)) {
+                    final int start = x;
+                    while (x + 1 < code.size && code.getModule(x + 1, y)) {
+                        x++;
+                    }
+                    svg.append("M%d %dh%dv1h-%dz".formatted(start + QUIET_ZONE, y + QUIET_ZONE, x - start + 1, x - start + 1));
+                }
+            }
+        }
+
+        return svg.append("\"/></svg>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String eTag(final byte[] bytes) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
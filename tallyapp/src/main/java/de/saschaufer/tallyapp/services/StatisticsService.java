@@ -0,0 +1,34 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.controller.dto.GetProductStatisticsResponse;
+import de.saschaufer.tallyapp.controller.dto.GetRevenueStatisticsResponse;
+import de.saschaufer.tallyapp.controller.dto.GetUserStatisticsResponse;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Statistics for the admins, all read from the daily consumption rollup instead of the purchases.
+ */
+@Service
+@RequiredArgsConstructor
+public class StatisticsService {
+
+    private final Persistence persistence;
+
+    public Mono<List<GetProductStatisticsResponse>> readProductStatistics(final LocalDate from, final LocalDate to, final int limit) {
+        return persistence.selectProductStatistics(from, to, limit);
+    }
+
+    public Mono<List<GetUserStatisticsResponse>> readUserStatistics(final LocalDate from, final LocalDate to) {
+        return persistence.selectUserStatistics(from, to);
+    }
+
+    public Mono<List<GetRevenueStatisticsResponse>> readRevenueStatistics(final LocalDate from, final LocalDate to) {
+        return persistence.selectRevenueStatistics(from, to);
+    }
+}
@@ -1,15 +1,21 @@
 package de.saschaufer.tallyapp.services;
 
-import de.saschaufer.tallyapp.config.admin.AdminProperties;
 import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
 import de.saschaufer.tallyapp.config.security.JwtProperties;
+import de.saschaufer.tallyapp.controller.dto.GetUsersRequest;
 import de.saschaufer.tallyapp.controller.dto.GetUsersResponse;
 import de.saschaufer.tallyapp.controller.dto.PostLoginResponse;
 import de.saschaufer.tallyapp.management.UserAgent;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.OutboxEmail;
 import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.GrantedAuthority;
@@ -24,11 +30,12 @@ import org.springframework.security.oauth2.jwt.JwtEncoder;
 import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
-import java.math.BigDecimal;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.*;
@@ -44,11 +51,13 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
 
     private final Persistence persistence;
     private final JwtProperties jwtProperties;
-    private final AdminProperties adminProperties;
+    private final Tenants tenants;
     private final EmailProperties emailProperties;
     private final JwtEncoder jwtEncoder;
     private final UserAgent userAgent;
     private final PasswordEncoder passwordEncoder;
+    private final EmailService emailService;
+    private final JobProperties jobProperties;
 
     @Override
     public Mono<UserDetails> findByUsername(final String email) {
@@ -59,64 +68,50 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
                 .map(user -> user);
     }
 
-    public Mono<List<GetUsersResponse>> findAllUsers() {
+    /**
+     * A page of the users of the tenant, filtered and sorted as requested.
+     *
+     * @return The users and, if there are more, the position the next page starts after.
+     */
+    public Mono<UsersPage> findUsers(final GetUsersRequest request) {
 
-        return persistence.selectUsers()
-                .map(users -> users.stream()
-                        .filter(user -> !user.getUsername().equals("invitation-code"))
-                        .toList()
-                )
-                .flatMap(users -> persistence.selectPaymentsSumAllUsers()
-                        .map(payments -> Tuples.of(users, payments))
-                )
-                .flatMap(tuple -> persistence.selectPurchasesSumAllUsers()
-                        .map(purchases -> Tuples.of(tuple.getT1(), tuple.getT2(), purchases))
-                )
-                .map(tuple -> {
+        return TenantContext.current().flatMap(tenant -> persistence.selectUsers(request)
+                .map(rows -> {
 
-                    final List<User> users = tuple.getT1();
-                    final Map<Long, BigDecimal> payments = tuple.getT2();
-                    final Map<Long, BigDecimal> purchases = tuple.getT3();
+                    final List<GetUsersResponse> users = new ArrayList<>();
 
-                    final List<GetUsersResponse> responses = new ArrayList<>();
-
-                    for (final User user : users) {
+                    for (final Tuple2<User, Money> row : rows) {
 
+                        final User user = row.getT1();
                         final List<String> roles = new ArrayList<>();
 
                         if (user.getRoles() != null) {
                             roles.addAll(Arrays.asList(user.getRoles().split(",")));
                         }
 
-                        if (adminProperties.emails().contains(user.getEmail())) {
+                        if (tenants.adminEmails(tenant).contains(user.getEmail())) {
                             roles.add(User.Role.ADMIN);
                         }
 
-                        final BigDecimal paymentsTotal = payments.get(user.getId());
-                        final BigDecimal purchasesTotal = purchases.get(user.getId());
-                        final BigDecimal accountBalance = calcTotal(paymentsTotal, purchasesTotal);
-
-                        final GetUsersResponse res = new GetUsersResponse(
+                        users.add(new GetUsersResponse(
                                 user.getEmail(),
                                 user.getRegistrationOn(),
                                 user.getRegistrationComplete(),
                                 roles,
-                                accountBalance
-                        );
-
-                        responses.add(res);
+                                row.getT2().toBigDecimal()
+                        ));
                     }
 
-                    return responses;
-                });
-    }
-
-    private BigDecimal calcTotal(final BigDecimal paymentsTotal, final BigDecimal purchasesTotal) {
+                    // One user more than requested is selected to know whether there is a next page
+                    if (request.limit() == null || users.size() <= request.limit()) {
+                        return new UsersPage(users, null);
+                    }
 
-        final BigDecimal payments = paymentsTotal == null ? BigDecimal.ZERO : paymentsTotal;
-        final BigDecimal purchases = purchasesTotal == null ? BigDecimal.ZERO : purchasesTotal;
+                    final List<GetUsersResponse> page = users.subList(0, request.limit());
 
-        return payments.subtract(purchases);
+                    return new UsersPage(page, GetUsersRequest.After.of(request.sort(), page.getLast()));
+                })
+        );
     }
 
     public Mono<Void> deleteUser(final Long userId) {
@@ -152,22 +147,20 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
                 }));
     }
 
-    public Mono<Tuple2<String, String>> resetPassword(final String email) {
+    public Mono<Void> resetPassword(final String email) {
 
         log.atInfo().setMessage("Resetting password for user '{}'.").addArgument(email).log();
 
         return persistence.selectUser(email)
                 .flatMap(this::checkRegistered)
-                .map(u -> {
-                    final StringBuilder sb = new StringBuilder();
-                    for (int i = 0; i < 6; i++) {
-                        sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
-                    }
-                    return Tuples.of(u, sb.toString());
+                .flatMap(u -> {
+                    final String password = randomPassword();
+                    final OutboxEmail resetPasswordEmail = emailService.createResetPasswordEmail(u.getEmail(), password);
+
+                    // The password and the email are stored together, so that no password is changed without notice
+                    return persistence.updateUserPassword(u.getId(), passwordEncoder.encode(password), resetPasswordEmail);
                 })
-                .flatMap(t -> changePassword(t.getT1(), t.getT2())
-                        .then(Mono.just(Tuples.of(t.getT1().getEmail(), t.getT2())))
-                );
+                .doOnSuccess(v -> log.atInfo().setMessage("Password reset.").log());
     }
 
     public Mono<UserDetails> changePassword(final User user, final String newPassword) {
@@ -177,11 +170,14 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
         return updatePassword(user, encodedPassword);
     }
 
-    public PostLoginResponse createJwtToken(final User user) {
+    /**
+     * @param tenant The tenant the user logged in to. The token is only accepted by this tenant.
+     */
+    public PostLoginResponse createJwtToken(final User user, final String tenant) {
 
         final List<String> authorities = new ArrayList<>(user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
 
-        if (adminProperties.emails().contains(user.getEmail())) {
+        if (tenants.adminEmails(tenant).contains(user.getEmail())) {
             authorities.add(User.Role.ADMIN);
         }
 
@@ -197,6 +193,7 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
                 .expiresAt(issuedAt.plus(jwtProperties.expirationTime()))
                 .subject(email)
                 .claim("authorities", authorities)
+                .claim(TenantContext.KEY, tenant)
                 .build();
 
         final JwsHeader header = JwsHeader.with(() -> JwsAlgorithms.HS256).build();
@@ -221,12 +218,44 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
                     if (found.equals(Boolean.TRUE)) {
                         return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Email is taken"));
                     }
+                    return TenantContext.current();
+                })
+                .flatMap(tenant -> {
 
-                    return Mono.just(user)
-                            .flatMap(persistence::insertUser);
+                    // The user and the registration email are stored together, so that no user waits for an email never sent
+                    final OutboxEmail registrationEmail = emailService.createRegistrationEmail(email, user.getRegistrationSecret(),
+                            tenants.registrationUrl(tenant));
+
+                    return persistence.insertUser(user, registrationEmail);
                 });
     }
 
+    /**
+     * Creates a batch of imported users, registered with a random password that is sent to them. Users whose email is
+     * taken are left out. The passwords are hashed in parallel, since hashing is slow on purpose.
+     *
+     * @return The errors by the index of the user in the batch.
+     */
+    public Mono<Map<Integer, String>> createImportedUsers(final List<String> emails) {
+
+        return Flux.fromIterable(emails)
+                .flatMapSequential(email -> Mono.fromCallable(() -> {
+                    final String password = randomPassword();
+
+                    final User user = new User();
+                    user.setEmail(email);
+                    user.setPassword(passwordEncoder.encode(password));
+                    user.setRoles(User.Role.USER);
+                    user.setRegistrationSecret(String.valueOf(random.nextInt(97942 - 16234 + 1) + 16234)); // Number between 16234 and 97942.
+                    user.setRegistrationOn(Instant.now());
+                    user.setRegistrationComplete(true);
+
+                    return Tuples.of(user, emailService.createImportedUserEmail(email, password));
+                }).subscribeOn(Schedulers.parallel()))
+                .collectList()
+                .flatMap(persistence::insertUsers);
+    }
+
     public Mono<User> checkRegistrationSecret(final String email, final String givenRegistrationSecret) {
 
         return findByUsername(email)
@@ -248,14 +277,25 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
                 .doOnError(err -> log.atInfo().setMessage("Error confirming user registration.").setCause(err).log());
     }
 
+    /**
+     * Deletes the unregistered users in chunks with pauses in between, so that no statement locks the table for long.
+     *
+     * @return The number of deleted users.
+     */
     public Mono<Long> deleteUnregisteredUsers() {
+
         final Instant deleteRegisteredBefore = Instant.now().minus(emailProperties.deleteUnregisteredUsersAfter());
-        return persistence.deleteUnregisteredUsers(deleteRegisteredBefore);
+        final JobProperties.DeleteUnregisteredUsers job = jobProperties.deleteUnregisteredUsers();
+        final Mono<Long> deleteChunk = Mono.defer(() -> persistence.deleteUnregisteredUsers(deleteRegisteredBefore, job.chunkSize()));
+
+        return deleteChunk
+                .expand(count -> count < job.chunkSize() ? Mono.empty() : deleteChunk.delaySubscription(job.chunkPause()))
+                .reduce(0L, Long::sum);
     }
 
-    public void createInvitationCodeIfNoneExists() {
+    public Mono<Void> createInvitationCodeIfNoneExists() {
 
-        persistence.existsUser("invitation-code")
+        return persistence.existsUser("invitation-code")
                 .flatMap(found -> {
                     if (found.equals(Boolean.TRUE)) {
                         return Mono.empty();
@@ -273,11 +313,30 @@ public class UserDetailsService implements ReactiveUserDetailsService, ReactiveU
 
                     return Mono.just(user)
                             .flatMap(persistence::insertUser)
-                            .map(u -> password);
+                            .map(u -> password)
+
+                            // Another instance starting at the same time created it
+                            .onErrorResume(e -> e instanceof DuplicateKeyException && e.getMessage() != null
+                                    && e.getMessage().toLowerCase().contains("uq_users_tenant_email"), e -> Mono.empty());
                 })
-                .subscribe(
-                        password -> log.atInfo().setMessage("Invitation code created: {}").addArgument(password).log(),
-                        error -> log.atInfo().setMessage("Error creating invitation code if not exists.").setCause(error).log()
-                );
+                .doOnNext(password -> log.atInfo().setMessage("Invitation code created: {}").addArgument(password).log())
+                .doOnError(error -> log.atInfo().setMessage("Error creating invitation code if not exists.").setCause(error).log())
+                .then();
+    }
+
+    private static String randomPassword() {
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @param next The position the next page starts after, null on the last page.
+     */
+    public record UsersPage(List<GetUsersResponse> users, GetUsersRequest.After next) {
     }
 }
@@ -0,0 +1,27 @@
+package de.saschaufer.tallyapp.tenancy;
+
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.function.Function;
+
+/**
+ * The tenant of a request is carried in the subscriber context, so that the persistence and the caches don't need it
+ * passed through every method. Outside a request, e.g. in jobs, it is {@link #DEFAULT}.
+ */
+public final class TenantContext {
+
+    public static final String KEY = "tenant";
+    public static final String DEFAULT = "default";
+
+    private TenantContext() {
+    }
+
+    public static Mono<String> current() {
+        return Mono.deferContextual(context -> Mono.just(context.getOrDefault(KEY, DEFAULT)));
+    }
+
+    public static Function<Context, Context> of(final String tenant) {
+        return context -> context.put(KEY, tenant);
+    }
+}
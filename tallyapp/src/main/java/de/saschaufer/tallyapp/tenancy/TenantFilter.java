@@ -0,0 +1,107 @@
+package de.saschaufer.tallyapp.tenancy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.NonNull;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the tenant of a request from the host name or the first segment of the path and puts it in the subscriber
+ * context and the exchange attributes. With resolution by path, the segment becomes the context path, so that the
+ * routes and security rules stay the same. Requests of an unknown tenant go to the default tenant if one is configured,
+ * otherwise they are answered with 404.
+ * <p>
+ * Each tenant may only have a number of requests in flight, further ones are answered with 429, so that one busy
+ * tenant can't take all threads and connections from the others.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@RequiredArgsConstructor
+public class TenantFilter implements WebFilter {
+
+    public static final String REQUESTS_ACTIVE = "tally.tenant.requests.active";
+    public static final String REQUESTS_REJECTED = "tally.tenant.requests.rejected";
+
+    private final Tenants tenants;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, AtomicInteger> activeRequests = new ConcurrentHashMap<>();
+
+    @NonNull
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+
+        if (!tenants.isEnabled()) {
+            exchange.getAttributes().put(TenantContext.KEY, TenantContext.DEFAULT);
+            return chain.filter(exchange);
+        }
+
+        final List<PathContainer.Element> elements = exchange.getRequest().getPath().pathWithinApplication().elements();
+
+        // Health probes and metrics are of the instance, not of a tenant
+        if (elements.size() > 1 && elements.get(1).value().equals("actuator")) {
+            return chain.filter(exchange);
+        }
+
+        String tenant = null;
+        ServerWebExchange tenantExchange = exchange;
+
+        switch (tenants.resolution()) {
+            case HOST -> tenant = tenants.byHost(exchange.getRequest().getURI().getHost());
+            case PATH -> {
+                final String segment = elements.size() > 1 ? elements.get(1).value() : "";
+                if (tenants.exists(segment)) {
+                    tenant = segment;
+                    tenantExchange = exchange.mutate().request(request -> request.contextPath("/" + segment)).build();
+                }
+            }
+        }
+
+        if (tenant == null && tenants.exists(TenantContext.DEFAULT)) {
+            tenant = TenantContext.DEFAULT;
+        }
+
+        if (tenant == null) {
+            exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
+            return exchange.getResponse().setComplete();
+        }
+
+        final AtomicInteger active = activeRequests.computeIfAbsent(tenant, this::registerActiveRequests);
+
+        if (active.incrementAndGet() > tenants.maxConcurrentRequests(tenant)) {
+            active.decrementAndGet();
+            Counter.builder(REQUESTS_REJECTED).tag("tenant", tenant).register(meterRegistry).increment();
+
+            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+            return exchange.getResponse().setComplete();
+        }
+
+        tenantExchange.getAttributes().put(TenantContext.KEY, tenant);
+        final ServerWebExchange finalExchange = tenantExchange;
+
+        return Mono.defer(() -> chain.filter(finalExchange))
+                .contextWrite(TenantContext.of(tenant))
+                .doFinally(signal -> active.decrementAndGet());
+    }
+
+    private AtomicInteger registerActiveRequests(final String tenant) {
+        return meterRegistry.gauge(REQUESTS_ACTIVE, Tags.of("tenant", tenant), new AtomicInteger());
+    }
+}
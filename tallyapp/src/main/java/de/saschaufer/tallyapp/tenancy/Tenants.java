@@ -0,0 +1,108 @@
+package de.saschaufer.tallyapp.tenancy;
+
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The configured tenants. With tenancy disabled, there is only the tenant {@link TenantContext#DEFAULT}, configured by
+ * {@link AdminProperties} and {@link EmailProperties}. The default tenant holds the data from before the tenancy and
+ * gets the admins of {@link AdminProperties} in addition to its own.
+ */
+@Component
+public class Tenants {
+
+    private final TenancyProperties tenancyProperties;
+    private final AdminProperties adminProperties;
+    private final EmailProperties emailProperties;
+
+    private final Map<String, TenancyProperties.Tenant> tenantsById = new LinkedHashMap<>();
+    private final Map<String, String> tenantsByHost = new LinkedHashMap<>();
+
+    public Tenants(final TenancyProperties tenancyProperties, final AdminProperties adminProperties, final EmailProperties emailProperties) {
+        this.tenancyProperties = tenancyProperties;
+        this.adminProperties = adminProperties;
+        this.emailProperties = emailProperties;
+
+        if (tenancyProperties.enabled()) {
+            for (final TenancyProperties.Tenant tenant : tenancyProperties.tenants()) {
+                tenantsById.put(tenant.id(), tenant);
+                tenant.hosts().forEach(host -> tenantsByHost.put(host.toLowerCase(), tenant.id()));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return tenancyProperties.enabled();
+    }
+
+    public TenancyProperties.Resolution resolution() {
+        return tenancyProperties.resolution();
+    }
+
+    public List<String> ids() {
+        return isEnabled() ? List.copyOf(tenantsById.keySet()) : List.of(TenantContext.DEFAULT);
+    }
+
+    public boolean exists(final String tenant) {
+        return isEnabled() ? tenantsById.containsKey(tenant) : TenantContext.DEFAULT.equals(tenant);
+    }
+
+    /**
+     * @return The tenant of the host, or null if none is configured for it.
+     */
+    public String byHost(final String host) {
+        return host == null ? null : tenantsByHost.get(host.toLowerCase());
+    }
+
+    public List<String> adminEmails(final String tenant) {
+
+        final List<String> emails = new ArrayList<>();
+
+        if (TenantContext.DEFAULT.equals(tenant) && adminProperties.emails() != null) {
+            emails.addAll(adminProperties.emails());
+        }
+
+        if (tenantsById.containsKey(tenant)) {
+            emails.addAll(tenantsById.get(tenant).adminEmails());
+        }
+
+        return emails;
+    }
+
+    /**
+     * @return The URL the registration link points to. Without one configured for the tenant, the one of
+     * {@link EmailProperties}, with the tenant as path if the tenants are resolved by path.
+     */
+    public String registrationUrl(final String tenant) {
+
+        final TenancyProperties.Tenant properties = tenantsById.get(tenant);
+
+        if (properties != null && properties.registrationUrl() != null) {
+            return properties.registrationUrl();
+        }
+
+        if (isEnabled() && resolution() == TenancyProperties.Resolution.PATH) {
+            return emailProperties.registrationUrl() + "/" + tenant;
+        }
+
+        return emailProperties.registrationUrl();
+    }
+
+    public int maxConcurrentRequests(final String tenant) {
+
+        final TenancyProperties.Tenant properties = tenantsById.get(tenant);
+
+        if (properties != null && properties.maxConcurrentRequests() != null) {
+            return properties.maxConcurrentRequests();
+        }
+
+        return tenancyProperties.maxConcurrentRequests();
+    }
+}
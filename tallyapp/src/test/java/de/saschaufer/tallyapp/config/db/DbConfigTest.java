@@ -0,0 +1,61 @@
+package de.saschaufer.tallyapp.config.db;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionMetadata;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.*;
+
+class DbConfigTest {
+
+    private Connection connection;
+    private ConnectionMetadata metadata;
+    private Statement statement;
+
+    @BeforeEach
+    void beforeEach() {
+        connection = mock(Connection.class);
+        metadata = mock(ConnectionMetadata.class);
+        statement = mock(Statement.class);
+        final Result result = mock(Result.class);
+
+        doReturn(metadata).when(connection).getMetadata();
+        doReturn(statement).when(connection).createStatement(anyString());
+        doReturn(Flux.just(result)).when(statement).execute();
+        doReturn(Mono.just(0L)).when(result).getRowsUpdated();
+    }
+
+    @Test
+    void createLowerEmailIndex_positive_Postgres() {
+
+        doReturn("PostgreSQL").when(metadata).getDatabaseProductName();
+
+        DbConfig.createLowerEmailIndex(connection)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(connection, times(1)).createStatement(contains("on users (tenant_id, lower(email) varchar_pattern_ops)"));
+        verify(statement, times(1)).execute();
+    }
+
+    @Test
+    void createLowerEmailIndex_positive_OtherDatabase() {
+
+        doReturn("H2").when(metadata).getDatabaseProductName();
+
+        DbConfig.createLowerEmailIndex(connection)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        // No expression indexes
+        verify(connection, times(0)).createStatement(anyString());
+    }
+}
@@ -1,9 +1,18 @@
 package de.saschaufer.tallyapp.config.security;
 
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
 import de.saschaufer.tallyapp.controller.Handler;
 import de.saschaufer.tallyapp.controller.Router;
+import de.saschaufer.tallyapp.diagnostics.RequestEvents;
+import de.saschaufer.tallyapp.metrics.RouteMetrics;
 import de.saschaufer.tallyapp.persistence.dto.User;
 import de.saschaufer.tallyapp.services.*;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.TenantFilter;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webflux.test.autoconfigure.WebFluxTest;
@@ -25,13 +34,15 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 import static de.saschaufer.tallyapp.persistence.dto.User.Role.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 
 @WebFluxTest(controllers = Router.class)
-@Import({SecurityConfig.class, SecurityConfigSetup.TestJwtProperties.class, UserDetailsService.class, Handler.class})
+@Import({SecurityConfig.class, SecurityConfigSetup.TestJwtProperties.class, SecurityConfigSetup.TestMeterRegistry.class, SecurityConfigSetup.TestTenants.class,
+        UserDetailsService.class, Handler.class, RouteMetrics.class, RequestEvents.class, TenantFilter.class})
 public abstract class SecurityConfigSetup {
 
     static class TestJwtProperties {
@@ -42,6 +53,22 @@ public abstract class SecurityConfigSetup {
         }
     }
 
+    static class TestMeterRegistry {
+
+        @Bean
+        private MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    static class TestTenants {
+
+        @Bean
+        private Tenants tenants() {
+            return new Tenants(new TenancyProperties(false, TenancyProperties.Resolution.HOST, 64, List.of()), new AdminProperties(List.of()), null);
+        }
+    }
+
     private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
     protected final String PASSWORD = "password";
     protected final String ENCODED_PASSWORD = "{bcrypt}" + encoder.encode(PASSWORD);
@@ -65,10 +92,22 @@ public abstract class SecurityConfigSetup {
     protected PurchaseService purchaseService;
 
     @MockitoBean
-    protected EmailService emailService;
+    protected PaymentService paymentService;
 
     @MockitoBean
-    protected PaymentService paymentService;
+    protected StatisticsService statisticsService;
+
+    @MockitoBean
+    protected ExportService exportService;
+
+    @MockitoBean
+    protected ImportService importService;
+
+    @MockitoBean
+    protected QrService qrService;
+
+    @MockitoBean
+    protected DiagnosticsService diagnosticsService;
 
     protected WebTestClient webClient;
 
@@ -117,11 +156,20 @@ public abstract class SecurityConfigSetup {
     }
 
     protected String testJwt(final String user, final Instant issuedAt, final List<String> roles) {
+        return testJwt(user, issuedAt, roles, Map.of());
+    }
+
+    protected String testJwt(final String user, final String tenant) {
+        return testJwt(user, Instant.now(), List.of(user), Map.of(TenantContext.KEY, tenant));
+    }
+
+    private String testJwt(final String user, final Instant issuedAt, final List<String> roles, final Map<String, Object> otherClaims) {
         final JwtClaimsSet claims = JwtClaimsSet.builder()
                 .issuedAt(issuedAt)
                 .expiresAt(issuedAt.plusSeconds(1L))
                 .subject(user)
                 .claim("authorities", roles)
+                .claims(c -> c.putAll(otherClaims))
                 .build();
 
         final JwsHeader header = JwsHeader.with(() -> JwsAlgorithms.HS256).build();
@@ -2,6 +2,7 @@ package de.saschaufer.tallyapp.config.security;
 
 import de.saschaufer.tallyapp.controller.Handler;
 import de.saschaufer.tallyapp.controller.dto.PostLoginResponse;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
@@ -78,6 +79,42 @@ class SecurityConfigTest extends SecurityConfigSetup {
                 });
     }
 
+    @Test
+    void getHealth_positive_NoAuthorizationRequired() {
+
+        // The actuator endpoints are not part of the test context, so the request passes security and finds nothing
+        webClient.get().uri("/actuator/health/readiness")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void getPrometheus_positive_Admin() {
+
+        // The actuator endpoints are not part of the test context, so the request passes security and finds nothing
+        webClient.get().uri("/actuator/prometheus")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void getPrometheus_negative_User() {
+
+        webClient.get().uri("/actuator/prometheus")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden();
+    }
+
+    @Test
+    void getPrometheus_negative_NoAuthorization() {
+
+        webClient.get().uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
     @Test
     void postLogin_positive_Password() {
 
@@ -130,6 +167,31 @@ class SecurityConfigTest extends SecurityConfigSetup {
         verify(handler, times(1)).postLogin(any(ServerRequest.class));
     }
 
+    @Test
+    void postLogin_positive_JwtOfTenant() {
+
+        doReturn(ok().bodyValue(new PostLoginResponse("jwt", true, null))).when(handler).postLogin(any(ServerRequest.class));
+
+        webClient.post().uri("/login")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER, TenantContext.DEFAULT))
+                .exchange()
+                .expectStatus().isOk();
+
+        verify(handler, times(1)).postLogin(any(ServerRequest.class));
+    }
+
+    @Test
+    void postLogin_negative_JwtOfOtherTenant() {
+
+        webClient.post().uri("/login")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER, "bar-1"))
+                .exchange()
+                .expectStatus().isUnauthorized()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postLogin(any(ServerRequest.class));
+    }
+
     @Test
     void postLogin_negative_JwtExpired() {
 
@@ -468,6 +530,84 @@ class SecurityConfigTest extends SecurityConfigSetup {
         verify(handler, times(1)).getReadProducts(any(ServerRequest.class));
     }
 
+    @Test
+    void getSearchProducts_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getSearchProducts(any(ServerRequest.class));
+
+        webClient.get().uri("/products/search?q=col")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getSearchProducts(any(ServerRequest.class));
+    }
+
+    @Test
+    void getSearchProducts_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/products/search?q=col")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(NONE))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getSearchProducts(any(ServerRequest.class));
+    }
+
+    @Test
+    void getProductQrCode_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getProductQrCode(any(ServerRequest.class));
+
+        webClient.get().uri("/products/1/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getProductQrCode(any(ServerRequest.class));
+    }
+
+    @Test
+    void getProductQrCode_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/products/1/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(NONE))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getProductQrCode(any(ServerRequest.class));
+    }
+
+    @Test
+    void getProductLabels_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getProductLabels(any(ServerRequest.class));
+
+        webClient.get().uri("/products/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getProductLabels(any(ServerRequest.class));
+    }
+
+    @Test
+    void getProductLabels_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/products/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getProductLabels(any(ServerRequest.class));
+    }
+
     @Test
     void getReadProducts_negative_JwtUserWrongRole() {
 
@@ -740,6 +880,32 @@ class SecurityConfigTest extends SecurityConfigSetup {
         verify(handler, times(0)).postCreatePurchase(any(ServerRequest.class));
     }
 
+    @Test
+    void postSyncPurchases_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).postSyncPurchases(any(ServerRequest.class));
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).postSyncPurchases(any(ServerRequest.class));
+    }
+
+    @Test
+    void postSyncPurchases_negative_JwtUserWrongRole() {
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(NONE))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postSyncPurchases(any(ServerRequest.class));
+    }
+
     @Test
     void getReadPurchases_positive_Password() {
 
@@ -1051,4 +1217,290 @@ class SecurityConfigTest extends SecurityConfigSetup {
 
         verify(handler, times(0)).getReadAccountBalance(any(ServerRequest.class));
     }
+
+    @Test
+    void getReadProductStatistics_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getReadProductStatistics(any(ServerRequest.class));
+
+        webClient.get().uri("/statistics/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getReadProductStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getReadProductStatistics_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/statistics/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getReadProductStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getReadUserStatistics_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getReadUserStatistics(any(ServerRequest.class));
+
+        webClient.get().uri("/statistics/users")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getReadUserStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getReadUserStatistics_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/statistics/users")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getReadUserStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getReadRevenueStatistics_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getReadRevenueStatistics(any(ServerRequest.class));
+
+        webClient.get().uri("/statistics/revenue")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getReadRevenueStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getReadRevenueStatistics_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/statistics/revenue")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getReadRevenueStatistics(any(ServerRequest.class));
+    }
+
+    @Test
+    void getExportPurchases_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getExportPurchases(any(ServerRequest.class));
+
+        webClient.get().uri("/export/purchases")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getExportPurchases(any(ServerRequest.class));
+    }
+
+    @Test
+    void getExportPurchases_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/export/purchases")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getExportPurchases(any(ServerRequest.class));
+    }
+
+    @Test
+    void getExportPayments_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getExportPayments(any(ServerRequest.class));
+
+        webClient.get().uri("/export/payments")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getExportPayments(any(ServerRequest.class));
+    }
+
+    @Test
+    void getExportPayments_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/export/payments")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getExportPayments(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportProducts_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).postImportProducts(any(ServerRequest.class));
+
+        webClient.post().uri("/import/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).postImportProducts(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportProducts_negative_JwtUserWrongRole() {
+
+        webClient.post().uri("/import/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postImportProducts(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportUsers_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).postImportUsers(any(ServerRequest.class));
+
+        webClient.post().uri("/import/users")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).postImportUsers(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportUsers_negative_JwtUserWrongRole() {
+
+        webClient.post().uri("/import/users")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postImportUsers(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportPayments_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).postImportPayments(any(ServerRequest.class));
+
+        webClient.post().uri("/import/payments")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).postImportPayments(any(ServerRequest.class));
+    }
+
+    @Test
+    void postImportPayments_negative_JwtUserWrongRole() {
+
+        webClient.post().uri("/import/payments")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postImportPayments(any(ServerRequest.class));
+    }
+
+    @Test
+    void postCreateRecording_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).postCreateRecording(any(ServerRequest.class));
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).postCreateRecording(any(ServerRequest.class));
+    }
+
+    @Test
+    void postCreateRecording_negative_JwtUserWrongRole() {
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).postCreateRecording(any(ServerRequest.class));
+    }
+
+    @Test
+    void getThreadDump_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getThreadDump(any(ServerRequest.class));
+
+        webClient.get().uri("/diagnostics/thread-dump")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getThreadDump(any(ServerRequest.class));
+    }
+
+    @Test
+    void getThreadDump_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/diagnostics/thread-dump")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getThreadDump(any(ServerRequest.class));
+    }
+
+    @Test
+    void getClassHistogram_positive_Jwt() {
+
+        doReturn(ok().build()).when(handler).getClassHistogram(any(ServerRequest.class));
+
+        webClient.get().uri("/diagnostics/class-histogram")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(handler, times(1)).getClassHistogram(any(ServerRequest.class));
+    }
+
+    @Test
+    void getClassHistogram_negative_JwtUserWrongRole() {
+
+        webClient.get().uri("/diagnostics/class-histogram")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isForbidden()
+                .expectBody().isEmpty();
+
+        verify(handler, times(0)).getClassHistogram(any(ServerRequest.class));
+    }
 }
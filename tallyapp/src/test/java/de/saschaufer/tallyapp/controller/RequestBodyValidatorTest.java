@@ -10,6 +10,7 @@ import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.util.Optional;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -31,6 +32,13 @@ class RequestBodyValidatorTest {
                 .verifyComplete();
     }
 
+    @Test
+    void violation_positive() {
+
+        assertThat(RequestBodyValidator.violation(new PostRegisterNewUserRequest("user@mail.com", "password")), is(Optional.empty()));
+        assertThat(RequestBodyValidator.violation(new PostRegisterNewUserRequest(null, "password")), is(Optional.of("Email is required")));
+    }
+
     @ParameterizedTest
     @MethodSource
     void validatePostRegisterNewUser_negative(final PostRegisterNewUserRequest request, final HttpStatus expectedStatus, final String expectedErrorMessage) {
@@ -3,24 +3,47 @@ package de.saschaufer.tallyapp.controller;
 import de.saschaufer.tallyapp.config.security.SecurityConfigSetup;
 import de.saschaufer.tallyapp.controller.dto.*;
 import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.services.ExportService;
+import de.saschaufer.tallyapp.services.QrService;
+import de.saschaufer.tallyapp.services.UserDetailsService;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.function.Tuples;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static de.saschaufer.tallyapp.persistence.dto.User.Role.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class RouterTest extends SecurityConfigSetup {
@@ -29,7 +52,7 @@ class RouterTest extends SecurityConfigSetup {
     void postLogin_positive() {
 
         doReturn(getUserByUsername(USER)).when(userDetailsService).checkRegistered(any(User.class));
-        doReturn(new PostLoginResponse("jwt", true, null)).when(userDetailsService).createJwtToken(any(User.class));
+        doReturn(new PostLoginResponse("jwt", true, null)).when(userDetailsService).createJwtToken(any(User.class), anyString());
         doReturn(new PostLoginResponse("jwt", true, new PostLoginResponse.Properties("€"))).when(frontendPropertiesService).addFrontendProperties(any(PostLoginResponse.class));
 
         webClient.post().uri("/login")
@@ -41,7 +64,7 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(USER);
         verify(userDetailsService, times(1)).checkRegistered(any(User.class));
-        verify(userDetailsService, times(1)).createJwtToken(any(User.class));
+        verify(userDetailsService, times(1)).createJwtToken(any(User.class), anyString());
         verify(frontendPropertiesService, times(1)).addFrontendProperties(any(PostLoginResponse.class));
 
         final ArgumentCaptor<User> argumentCaptor1 = ArgumentCaptor.forClass(User.class);
@@ -55,7 +78,7 @@ class RouterTest extends SecurityConfigSetup {
         assertThat(user1.getRoles(), is(USER));
 
         final ArgumentCaptor<User> argumentCaptor2 = ArgumentCaptor.forClass(User.class);
-        verify(userDetailsService).createJwtToken(argumentCaptor2.capture());
+        verify(userDetailsService).createJwtToken(argumentCaptor2.capture(), eq(TenantContext.DEFAULT));
 
         final User user2 = argumentCaptor2.getValue();
 
@@ -93,7 +116,7 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(USER);
         verify(userDetailsService, times(1)).checkRegistered(any(User.class));
-        verify(userDetailsService, times(0)).createJwtToken(any(User.class));
+        verify(userDetailsService, times(0)).createJwtToken(any(User.class), anyString());
         verify(frontendPropertiesService, times(0)).addFrontendProperties(any(PostLoginResponse.class));
     }
 
@@ -104,7 +127,6 @@ class RouterTest extends SecurityConfigSetup {
             setEmail("test@mail.com");
             setRegistrationSecret("12345");
         }})).when(userDetailsService).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        doNothing().when(emailService).sendRegistrationEmail(any(String.class), any(String.class));
 
         webClient.post().uri("/register")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(INVITATION, true))
@@ -115,7 +137,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(INVITATION);
         verify(userDetailsService, times(1)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(1)).sendRegistrationEmail("test@mail.com", "12345");
 
         final ArgumentCaptor<String> argumentCaptorUsername = ArgumentCaptor.forClass(String.class);
         final ArgumentCaptor<String> argumentCaptorPassword = ArgumentCaptor.forClass(String.class);
@@ -142,7 +163,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(any(String.class));
         verify(userDetailsService, times(0)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(0)).sendRegistrationEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -160,7 +180,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(any(String.class));
         verify(userDetailsService, times(0)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(0)).sendRegistrationEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -176,7 +195,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(any(String.class));
         verify(userDetailsService, times(0)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(0)).sendRegistrationEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -193,7 +211,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(any(String.class));
         verify(userDetailsService, times(1)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(0)).sendRegistrationEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -210,28 +227,6 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(userDetailsService, times(1)).findByUsername(any(String.class));
         verify(userDetailsService, times(1)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(0)).sendRegistrationEmail(any(String.class), any(String.class));
-    }
-
-    @Test
-    void postRegisterNewUser_negative_SendRegistrationEmailException() {
-
-        doReturn(Mono.just(new User() {{
-            setEmail("test@mail.com");
-            setRegistrationSecret("12345");
-        }})).when(userDetailsService).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        doThrow(new RuntimeException("Bad")).when(emailService).sendRegistrationEmail(any(String.class), any(String.class));
-
-        webClient.post().uri("/register")
-                .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(INVITATION, true))
-                .body(Mono.just(new PostRegisterNewUserRequest("test-user@mail.com", "test-password")), PostRegisterNewUserRequest.class)
-                .exchange()
-                .expectStatus().is5xxServerError()
-                .expectBody().isEmpty();
-
-        verify(userDetailsService, times(1)).findByUsername(any(String.class));
-        verify(userDetailsService, times(1)).createUser(any(String.class), any(String.class), ArgumentMatchers.<String>anyList());
-        verify(emailService, times(1)).sendRegistrationEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -344,8 +339,7 @@ class RouterTest extends SecurityConfigSetup {
     @Test
     void postResetPassword_positive() {
 
-        doReturn(Mono.just(Tuples.of("test-user@mail.com", "12345"))).when(userDetailsService).resetPassword(any(String.class));
-        doNothing().when(emailService).sendResetPasswordEmail(any(String.class), any(String.class));
+        doReturn(Mono.empty()).when(userDetailsService).resetPassword(any(String.class));
 
         webClient.post().uri("/reset-password")
                 .body(Mono.just("test-user@mail.com"), String.class)
@@ -354,7 +348,6 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody().isEmpty();
 
         verify(userDetailsService, times(1)).resetPassword("test-user@mail.com");
-        verify(emailService, times(1)).sendResetPasswordEmail("test-user@mail.com", "12345");
     }
 
     @Test
@@ -367,7 +360,6 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody(String.class).isEqualTo("Body required");
 
         verify(userDetailsService, times(0)).resetPassword(any(String.class));
-        verify(emailService, times(0)).sendResetPasswordEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -382,7 +374,6 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody().isEmpty();
 
         verify(userDetailsService, times(1)).resetPassword("test-user@mail.com");
-        verify(emailService, times(0)).sendResetPasswordEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -397,23 +388,6 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody(String.class).isEqualTo("Bad");
 
         verify(userDetailsService, times(1)).resetPassword("test-user@mail.com");
-        verify(emailService, times(0)).sendResetPasswordEmail(any(String.class), any(String.class));
-    }
-
-    @Test
-    void postResetPassword_negative_SendResetPasswordEmailException() {
-
-        doReturn(Mono.just(Tuples.of("test-user@mail.com", "12345"))).when(userDetailsService).resetPassword(any(String.class));
-        doThrow(new RuntimeException("Bad")).when(emailService).sendResetPasswordEmail(any(String.class), any(String.class));
-
-        webClient.post().uri("/reset-password")
-                .body(Mono.just("test-user@mail.com"), String.class)
-                .exchange()
-                .expectStatus().is5xxServerError()
-                .expectBody().isEmpty();
-
-        verify(userDetailsService, times(1)).resetPassword("test-user@mail.com");
-        verify(emailService, times(1)).sendResetPasswordEmail("test-user@mail.com", "12345");
     }
 
     @Test
@@ -593,24 +567,28 @@ class RouterTest extends SecurityConfigSetup {
     @Test
     void getReadAllUsers_positive_User() {
 
-        doReturn(Mono.just(List.of(new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)))).when(userDetailsService).findAllUsers();
+        doReturn(Mono.just(new UserDetailsService.UsersPage(List.of(new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)), null)))
+                .when(userDetailsService).findUsers(any(GetUsersRequest.class));
 
         webClient.get().uri("/users")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(ADMIN, true))
                 .exchange()
                 .expectStatus().isOk()
                 .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().doesNotExist(HttpHeaders.LINK)
                 .expectBodyList(GetUsersResponse.class).isEqualTo(List.of(
                         new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)
                 ));
 
-        verify(userDetailsService, times(1)).findAllUsers();
+        // All users by default
+        verify(userDetailsService, times(1)).findUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, null, null));
     }
 
     @Test
     void getReadAllUsers_positive_Jwt() {
 
-        doReturn(Mono.just(List.of(new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)))).when(userDetailsService).findAllUsers();
+        doReturn(Mono.just(new UserDetailsService.UsersPage(List.of(new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)), null)))
+                .when(userDetailsService).findUsers(any(GetUsersRequest.class));
 
         webClient.get().uri("/users")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
@@ -621,13 +599,60 @@ class RouterTest extends SecurityConfigSetup {
                         new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), BigDecimal.ONE)
                 ));
 
-        verify(userDetailsService, times(1)).findAllUsers();
+        verify(userDetailsService, times(1)).findUsers(any(GetUsersRequest.class));
+    }
+
+    @Test
+    void getReadAllUsers_positive_FilteredPage() {
+
+        final GetUsersRequest.After next = new GetUsersRequest.After(new BigDecimal("-2.50"), "mail");
+
+        doReturn(Mono.just(new UserDetailsService.UsersPage(List.of(new GetUsersResponse("mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of("role"), new BigDecimal("-2.50"))), next)))
+                .when(userDetailsService).findUsers(any(GetUsersRequest.class));
+
+        final String after = new GetUsersRequest.After(new BigDecimal("-3.00"), "first@mail").encode();
+
+        webClient.get().uri("/users?email=Ma&registered=true&balance=negative&sort=balance&order=desc&limit=1&after=" + after)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.LINK,
+                        "</users?email=Ma&registered=true&balance=negative&sort=balance&order=desc&limit=1&after=" + next.encode() + ">; rel=\"next\"");
+
+        verify(userDetailsService, times(1)).findUsers(new GetUsersRequest("Ma", true, GetUsersRequest.Balance.NEGATIVE,
+                GetUsersRequest.Sort.BALANCE, true, new GetUsersRequest.After(new BigDecimal("-3.00"), "first@mail"), 1));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void getReadAllUsers_negative_QueryParameter(final String query, final String expectedErrorMessage) {
+
+        webClient.get().uri("/users?" + query)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo(expectedErrorMessage);
+
+        verify(userDetailsService, times(0)).findUsers(any(GetUsersRequest.class));
+    }
+
+    static Stream<Arguments> getReadAllUsers_negative_QueryParameter() {
+        return Stream.of(
+                Arguments.of("registered=yes", "Query parameter 'registered' must be 'true' or 'false'"),
+                Arguments.of("balance=minus", "Query parameter 'balance' must be 'negative', 'zero' or 'positive'"),
+                Arguments.of("sort=name", "Query parameter 'sort' must be 'email', 'balance' or 'registration'"),
+                Arguments.of("order=up", "Query parameter 'order' must be 'asc' or 'desc'"),
+                Arguments.of("limit=0", "Query parameter 'limit' must be 1 to 500"),
+                Arguments.of("limit=x", "Query parameter 'limit' must be 1 to 500"),
+                Arguments.of("sort=balance&after=bWFpbA", "Query parameter 'after' is not a cursor of this sort"),
+                Arguments.of("sort=registration&after=MQptYWls", "Query parameter 'after' is not a cursor of this sort")
+        );
     }
 
     @Test
     void getReadAllUsers_negative_InternalServerError() {
 
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(userDetailsService).findAllUsers();
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(userDetailsService).findUsers(any(GetUsersRequest.class));
 
         webClient.get().uri("/users")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
@@ -635,7 +660,7 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().is5xxServerError()
                 .expectBody().isEmpty();
 
-        verify(userDetailsService, times(1)).findAllUsers();
+        verify(userDetailsService, times(1)).findUsers(any(GetUsersRequest.class));
     }
 
     @Test
@@ -928,6 +953,155 @@ class RouterTest extends SecurityConfigSetup {
         verify(productService, times(1)).readProducts();
     }
 
+    @Test
+    void getSearchProducts_positive() {
+
+        doReturn(Mono.just(List.of(new GetProductsResponse(2L, "Cola", BigDecimal.ONE)))).when(productService).searchProducts(anyString(), anyInt());
+
+        webClient.get().uri("/products/search?q= col &limit=5")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(GetProductsResponse.class).isEqualTo(List.of(new GetProductsResponse(2L, "Cola", BigDecimal.ONE)));
+
+        verify(productService, times(1)).searchProducts("col", 5);
+    }
+
+    @Test
+    void getSearchProducts_positive_DefaultLimit() {
+
+        doReturn(Mono.just(List.of())).when(productService).searchProducts(anyString(), anyInt());
+
+        webClient.get().uri("/products/search?q=col")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(GetProductsResponse.class).isEqualTo(List.of());
+
+        verify(productService, times(1)).searchProducts("col", 10);
+    }
+
+    @Test
+    void getSearchProducts_negative_Query() {
+
+        webClient.get().uri("/products/search?q=")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'q' is required");
+
+        webClient.get().uri("/products/search?q=col&limit=51")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'limit' must be 1 to 50");
+
+        verify(productService, times(0)).searchProducts(anyString(), anyInt());
+    }
+
+    @Test
+    void getProductQrCode_positive() {
+
+        final QrService.Image image = new QrService.Image(new byte[]{1, 2, 3}, "\"abc\"");
+        doReturn(Mono.just(image)).when(qrService).renderProductCode(anyLong(), any(QrService.Format.class), anyInt());
+
+        webClient.get().uri("/products/1/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.IMAGE_PNG)
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"abc\"")
+                .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "no-cache, private")
+                .expectBody(byte[].class).isEqualTo(new byte[]{1, 2, 3});
+
+        webClient.get().uri("/products/2/qr?format=svg&scale=4")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("image/svg+xml");
+
+        verify(qrService, times(1)).renderProductCode(1L, QrService.Format.PNG, 8);
+        verify(qrService, times(1)).renderProductCode(2L, QrService.Format.SVG, 4);
+    }
+
+    @Test
+    void getProductQrCode_positive_NotModified() {
+
+        doReturn(Mono.just(new QrService.Image(new byte[]{1, 2, 3}, "\"abc\""))).when(qrService).renderProductCode(anyLong(), any(QrService.Format.class), anyInt());
+
+        webClient.get().uri("/products/1/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .header(HttpHeaders.IF_NONE_MATCH, "\"abc\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"abc\"")
+                .expectBody().isEmpty();
+    }
+
+    static Stream<Arguments> getProductQrCode_negative_BadRequest() {
+        return Stream.of(
+                Arguments.of("/products/x/qr", "Product ID must be a number"),
+                Arguments.of("/products/1/qr?format=gif", "Query parameter 'format' must be 'png' or 'svg'"),
+                Arguments.of("/products/1/qr?scale=0", "Query parameter 'scale' must be 1 to 32"),
+                Arguments.of("/products/1/qr?scale=x", "Query parameter 'scale' must be 1 to 32")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void getProductQrCode_negative_BadRequest(final String uri, final String message) {
+
+        webClient.get().uri(uri)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo(message);
+
+        verify(qrService, times(0)).renderProductCode(anyLong(), any(QrService.Format.class), anyInt());
+    }
+
+    @Test
+    void getProductQrCode_negative_NotFound() {
+
+        doReturn(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found")))
+                .when(qrService).renderProductCode(anyLong(), any(QrService.Format.class), anyInt());
+
+        webClient.get().uri("/products/3/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody(String.class).isEqualTo("Product not found");
+    }
+
+    @Test
+    void getProductLabels_positive() {
+
+        doReturn(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap("<!DOCTYPE html>".getBytes())))
+                .when(qrService).renderProductLabels(anyInt());
+
+        webClient.get().uri("/products/qr")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("text/html;charset=UTF-8")
+                .expectBody(String.class).isEqualTo("<!DOCTYPE html>");
+
+        verify(qrService, times(1)).renderProductLabels(4);
+    }
+
+    @Test
+    void getProductLabels_negative_Columns() {
+
+        webClient.get().uri("/products/qr?columns=11")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'columns' must be 1 to 10");
+
+        verify(qrService, times(0)).renderProductLabels(anyInt());
+    }
+
     @Test
     void getReadProducts_negative_InternalServerError() {
 
@@ -1194,7 +1368,7 @@ class RouterTest extends SecurityConfigSetup {
     @Test
     void postCreatePurchase_positive_User() {
 
-        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1203,13 +1377,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().isOk()
                 .expectBody().isEmpty();
 
-        verify(purchaseService, times(1)).createPurchase(2L, 1L);
+        verify(purchaseService, times(1)).createPurchase(2L, 1L, null);
     }
 
     @Test
     void postCreatePurchase_positive_Jwt() {
 
-        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1218,13 +1392,43 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().isOk()
                 .expectBody().isEmpty();
 
-        verify(purchaseService, times(1)).createPurchase(2L, 1L);
+        verify(purchaseService, times(1)).createPurchase(2L, 1L, null);
+    }
+
+    @Test
+    void postCreatePurchase_positive_IdempotencyKey() {
+
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
+
+        webClient.post().uri("/purchases/create-purchase")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .header(Handler.IDEMPOTENCY_KEY, "key-1")
+                .body(Mono.just(new PostCreatePurchaseRequest(1L)), PostCreatePurchaseRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(purchaseService, times(1)).createPurchase(2L, 1L, "key-1");
+    }
+
+    @Test
+    void postCreatePurchase_negative_IdempotencyKeyTooLong() {
+
+        webClient.post().uri("/purchases/create-purchase")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .header(Handler.IDEMPOTENCY_KEY, "k".repeat(256))
+                .body(Mono.just(new PostCreatePurchaseRequest(1L)), PostCreatePurchaseRequest.class)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Header 'Idempotency-Key' must have 1 to 255 characters");
+
+        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class), any());
     }
 
     @Test
     void postCreatePurchase_negative_NoBody() {
 
-        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1233,13 +1437,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectHeader().contentType(MediaType.TEXT_PLAIN)
                 .expectBody(String.class).isEqualTo("Body required");
 
-        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class));
+        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class), any());
     }
 
     @Test
     void postCreatePurchase_negative_ProductIdWrongType() {
 
-        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1251,13 +1455,13 @@ class RouterTest extends SecurityConfigSetup {
                     assertThat(s, stringContainsInOrder("Content type '", "' not supported. Supported: "));
                 });
 
-        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class));
+        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class), any());
     }
 
     @Test
     void postCreatePurchase_negative_Validator() {
 
-        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.empty()).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1268,13 +1472,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody(String.class).isEqualTo("Product ID is required");
 
 
-        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class));
+        verify(purchaseService, times(0)).createPurchase(any(Long.class), any(Long.class), any());
     }
 
     @Test
     void postCreatePurchase_negative_InternalServerError() {
 
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(purchaseService).createPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(purchaseService).createPurchase(any(Long.class), any(Long.class), any());
 
         webClient.post().uri("/purchases/create-purchase")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1283,7 +1487,81 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().is5xxServerError()
                 .expectBody().isEmpty();
 
-        verify(purchaseService, times(1)).createPurchase(any(Long.class), any(Long.class));
+        verify(purchaseService, times(1)).createPurchase(any(Long.class), any(Long.class), any());
+    }
+
+    @Test
+    void postSyncPurchases_positive() {
+
+        final List<PostSyncPurchasesRequest.Purchase> purchases = List.of(
+                new PostSyncPurchasesRequest.Purchase("client-1", 1L, Instant.parse("2024-05-01T12:54:12Z"))
+        );
+
+        doReturn(Mono.just(List.of(
+                new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.CREATED, null)
+        ))).when(purchaseService).syncPurchases(any(Long.class), any());
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .body(Mono.just(new PostSyncPurchasesRequest(purchases)), PostSyncPurchasesRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(PostSyncPurchasesResponse.class).isEqualTo(List.of(
+                        new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.CREATED, null)
+                ));
+
+        verify(purchaseService, times(1)).syncPurchases(2L, purchases);
+    }
+
+    @Test
+    void postSyncPurchases_negative_NoBody() {
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectHeader().contentType(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("Body required");
+
+        verify(purchaseService, times(0)).syncPurchases(any(Long.class), any());
+    }
+
+    @Test
+    void postSyncPurchases_negative_Validator() {
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .body(Mono.just(new PostSyncPurchasesRequest(List.of())), PostSyncPurchasesRequest.class)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("1 to 500 purchases are allowed");
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .body(Mono.just(new PostSyncPurchasesRequest(List.of(new PostSyncPurchasesRequest.Purchase(" ", 1L, Instant.now())))),
+                        PostSyncPurchasesRequest.class)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Client ID is required");
+
+        verify(purchaseService, times(0)).syncPurchases(any(Long.class), any());
+    }
+
+    @Test
+    void postSyncPurchases_negative_InternalServerError() {
+
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(purchaseService).syncPurchases(any(Long.class), any());
+
+        webClient.post().uri("/purchases/sync")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .body(Mono.just(new PostSyncPurchasesRequest(List.of(new PostSyncPurchasesRequest.Purchase("client-1", 1L, Instant.now())))),
+                        PostSyncPurchasesRequest.class)
+                .exchange()
+                .expectStatus().is5xxServerError()
+                .expectBody().isEmpty();
+
+        verify(purchaseService, times(1)).syncPurchases(any(Long.class), any());
     }
 
     @Test
@@ -1291,7 +1569,7 @@ class RouterTest extends SecurityConfigSetup {
 
         doReturn(Mono.just(List.of(
                 new GetPurchasesResponse(1L, Instant.parse("2024-05-01T12:54:12Z"), "product", BigDecimal.ONE)
-        ))).when(purchaseService).readPurchases(any(Long.class));
+        ))).when(purchaseService).readPurchases(any(Long.class), anyBoolean());
 
         webClient.get().uri("/purchases")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1302,7 +1580,7 @@ class RouterTest extends SecurityConfigSetup {
                         new GetPurchasesResponse(1L, Instant.parse("2024-05-01T12:54:12Z"), "product", BigDecimal.ONE)
                 ));
 
-        verify(purchaseService, times(1)).readPurchases(2L);
+        verify(purchaseService, times(1)).readPurchases(2L, false);
     }
 
     @Test
@@ -1310,7 +1588,7 @@ class RouterTest extends SecurityConfigSetup {
 
         doReturn(Mono.just(List.of(
                 new GetPurchasesResponse(1L, Instant.parse("2024-05-01T12:54:12Z"), "product", BigDecimal.ONE)
-        ))).when(purchaseService).readPurchases(any(Long.class));
+        ))).when(purchaseService).readPurchases(any(Long.class), anyBoolean());
 
         webClient.get().uri("/purchases")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1321,13 +1599,27 @@ class RouterTest extends SecurityConfigSetup {
                         new GetPurchasesResponse(1L, Instant.parse("2024-05-01T12:54:12Z"), "product", BigDecimal.ONE)
                 ));
 
-        verify(purchaseService, times(1)).readPurchases(2L);
+        verify(purchaseService, times(1)).readPurchases(2L, false);
+    }
+
+    @Test
+    void getReadPurchases_positive_Archive() {
+
+        doReturn(Mono.just(List.of())).when(purchaseService).readPurchases(any(Long.class), anyBoolean());
+
+        webClient.get().uri("/purchases?archive=true")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+
+        verify(purchaseService, times(1)).readPurchases(2L, true);
     }
 
     @Test
     void getReadPurchases_negative_InternalServerError() {
 
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(purchaseService).readPurchases(any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(purchaseService).readPurchases(any(Long.class), anyBoolean());
 
         webClient.get().uri("/purchases")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1335,7 +1627,7 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().is5xxServerError()
                 .expectBody().isEmpty();
 
-        verify(purchaseService, times(1)).readPurchases(any(Long.class));
+        verify(purchaseService, times(1)).readPurchases(any(Long.class), anyBoolean());
     }
 
     @Test
@@ -1436,7 +1728,7 @@ class RouterTest extends SecurityConfigSetup {
     @Test
     void postCreatePayment_positive_User() {
 
-        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1445,13 +1737,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().isOk()
                 .expectBody().isEmpty();
 
-        verify(paymentService, times(1)).createPayment(2L, new BigDecimal("123.45"));
+        verify(paymentService, times(1)).createPayment(2L, new BigDecimal("123.45"), null);
     }
 
     @Test
     void postCreatePayment_positive_Jwt() {
 
-        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1460,13 +1752,29 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().isOk()
                 .expectBody().isEmpty();
 
-        verify(paymentService, times(1)).createPayment(2L, new BigDecimal("123.45"));
+        verify(paymentService, times(1)).createPayment(2L, new BigDecimal("123.45"), null);
+    }
+
+    @Test
+    void postCreatePayment_positive_IdempotencyKey() {
+
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
+
+        webClient.post().uri("/payments/create-payment")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .header(Handler.IDEMPOTENCY_KEY, "key-1")
+                .body(Mono.just(new PostCreatePaymentRequest(new BigDecimal("123.45"))), PostCreatePaymentRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().isEmpty();
+
+        verify(paymentService, times(1)).createPayment(2L, new BigDecimal("123.45"), "key-1");
     }
 
     @Test
     void postCreatePayment_negative_NoBody() {
 
-        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1475,13 +1783,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectHeader().contentType(MediaType.TEXT_PLAIN)
                 .expectBody(String.class).isEqualTo("Body required");
 
-        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class));
+        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class), any());
     }
 
     @Test
     void postCreatePayment_negative_PaymentWrongType() {
 
-        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1493,13 +1801,13 @@ class RouterTest extends SecurityConfigSetup {
                     assertThat(s, stringContainsInOrder("Content type '", "' not supported. Supported: "));
                 });
 
-        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class));
+        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class), any());
     }
 
     @Test
     void postCreatePayment_negative_Validator() {
 
-        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.empty()).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1510,13 +1818,13 @@ class RouterTest extends SecurityConfigSetup {
                 .expectBody(String.class).isEqualTo("Payment amount is required");
 
 
-        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class));
+        verify(paymentService, times(0)).createPayment(any(Long.class), any(BigDecimal.class), any());
     }
 
     @Test
     void postCreatePayment_negative_InternalServerError() {
 
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class));
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(paymentService).createPayment(any(Long.class), any(BigDecimal.class), any());
 
         webClient.post().uri("/payments/create-payment")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1525,7 +1833,7 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().is5xxServerError()
                 .expectBody().isEmpty();
 
-        verify(paymentService, times(1)).createPayment(any(Long.class), any(BigDecimal.class));
+        verify(paymentService, times(1)).createPayment(any(Long.class), any(BigDecimal.class), any());
     }
 
     @Test
@@ -1534,7 +1842,7 @@ class RouterTest extends SecurityConfigSetup {
         doReturn(Mono.just(List.of(
                 new GetPaymentsResponse(1L, new BigDecimal("123.45"), Instant.parse("2024-01-02T03:04:05Z")),
                 new GetPaymentsResponse(2L, new BigDecimal("678.90"), Instant.parse("2024-06-07T08:09:00Z"))
-        ))).when(paymentService).readPayments(any(Long.class));
+        ))).when(paymentService).readPayments(any(Long.class), anyBoolean());
 
         webClient.get().uri("/payments")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1546,7 +1854,7 @@ class RouterTest extends SecurityConfigSetup {
                         new GetPaymentsResponse(2L, new BigDecimal("678.90"), Instant.parse("2024-06-07T08:09:00Z"))
                 ));
 
-        verify(paymentService, times(1)).readPayments(2L);
+        verify(paymentService, times(1)).readPayments(2L, false);
     }
 
     @Test
@@ -1555,7 +1863,7 @@ class RouterTest extends SecurityConfigSetup {
         doReturn(Mono.just(List.of(
                 new GetPaymentsResponse(1L, new BigDecimal("123.45"), Instant.parse("2024-01-02T03:04:05Z")),
                 new GetPaymentsResponse(2L, new BigDecimal("678.90"), Instant.parse("2024-06-07T08:09:00Z"))
-        ))).when(paymentService).readPayments(any(Long.class));
+        ))).when(paymentService).readPayments(any(Long.class), anyBoolean());
 
         webClient.get().uri("/payments")
                 .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
@@ -1567,13 +1875,27 @@ class RouterTest extends SecurityConfigSetup {
                         new GetPaymentsResponse(2L, new BigDecimal("678.90"), Instant.parse("2024-06-07T08:09:00Z"))
                 ));
 
-        verify(paymentService, times(1)).readPayments(2L);
+        verify(paymentService, times(1)).readPayments(2L, false);
+    }
+
+    @Test
+    void getReadPayments_positive_Archive() {
+
+        doReturn(Mono.just(List.of())).when(paymentService).readPayments(any(Long.class), anyBoolean());
+
+        webClient.get().uri("/payments?archive=true")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(USER))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+
+        verify(paymentService, times(1)).readPayments(2L, true);
     }
 
     @Test
     void getReadPayments_negative_InternalServerError() {
 
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(paymentService).readPayments(any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(paymentService).readPayments(any(Long.class), anyBoolean());
 
         webClient.get().uri("/payments")
                 .header(HttpHeaders.AUTHORIZATION, "Basic " + credentials(USER, true))
@@ -1581,7 +1903,7 @@ class RouterTest extends SecurityConfigSetup {
                 .expectStatus().is5xxServerError()
                 .expectBody().isEmpty();
 
-        verify(paymentService, times(1)).readPayments(any(Long.class));
+        verify(paymentService, times(1)).readPayments(any(Long.class), anyBoolean());
     }
 
     @Test
@@ -1723,4 +2045,343 @@ class RouterTest extends SecurityConfigSetup {
 
         verify(paymentService, times(1)).readAccountBalance(any(Long.class));
     }
+
+    @Test
+    void getReadProductStatistics_positive() {
+
+        doReturn(Mono.just(List.of(
+                new GetProductStatisticsResponse(1L, "Coffee", 4L, BigDecimal.TEN)
+        ))).when(statisticsService).readProductStatistics(any(LocalDate.class), any(LocalDate.class), anyInt());
+
+        webClient.get().uri("/statistics/products?from=2024-05-01&to=2024-05-31&limit=5")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(GetProductStatisticsResponse.class).isEqualTo(List.of(
+                        new GetProductStatisticsResponse(1L, "Coffee", 4L, BigDecimal.TEN)
+                ));
+
+        verify(statisticsService, times(1)).readProductStatistics(LocalDate.parse("2024-05-01"), LocalDate.parse("2024-05-31"), 5);
+    }
+
+    @Test
+    void getReadProductStatistics_positive_Defaults() {
+
+        doReturn(Mono.just(List.of())).when(statisticsService).readProductStatistics(any(LocalDate.class), any(LocalDate.class), anyInt());
+
+        webClient.get().uri("/statistics/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk();
+
+        final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        verify(statisticsService, times(1)).readProductStatistics(today.minusDays(29), today, 10);
+    }
+
+    @Test
+    void getReadProductStatistics_negative_Limit() {
+
+        webClient.get().uri("/statistics/products?limit=101")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'limit' must be 1 to 100");
+
+        webClient.get().uri("/statistics/products?limit=ten")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'limit' must be 1 to 100");
+
+        verify(statisticsService, times(0)).readProductStatistics(any(LocalDate.class), any(LocalDate.class), anyInt());
+    }
+
+    @Test
+    void getReadUserStatistics_positive() {
+
+        doReturn(Mono.just(List.of(
+                new GetUserStatisticsResponse("user@mail.com", "Coffee", 2L, BigDecimal.ONE)
+        ))).when(statisticsService).readUserStatistics(any(LocalDate.class), any(LocalDate.class));
+
+        webClient.get().uri("/statistics/users?from=2024-05-01&to=2024-05-31")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(GetUserStatisticsResponse.class).isEqualTo(List.of(
+                        new GetUserStatisticsResponse("user@mail.com", "Coffee", 2L, BigDecimal.ONE)
+                ));
+
+        verify(statisticsService, times(1)).readUserStatistics(LocalDate.parse("2024-05-01"), LocalDate.parse("2024-05-31"));
+    }
+
+    @Test
+    void getReadUserStatistics_negative_Range() {
+
+        webClient.get().uri("/statistics/users?from=2024-06-01&to=2024-05-31")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'from' must not be after 'to'");
+
+        webClient.get().uri("/statistics/users?from=yesterday")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameters 'from' and 'to' must be dates like '2024-05-01'");
+
+        verify(statisticsService, times(0)).readUserStatistics(any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    void getReadRevenueStatistics_positive() {
+
+        doReturn(Mono.just(List.of(
+                new GetRevenueStatisticsResponse(LocalDate.parse("2024-05-01"), 3L, BigDecimal.TWO)
+        ))).when(statisticsService).readRevenueStatistics(any(LocalDate.class), any(LocalDate.class));
+
+        webClient.get().uri("/statistics/revenue?from=2024-05-01&to=2024-05-01")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(GetRevenueStatisticsResponse.class).isEqualTo(List.of(
+                        new GetRevenueStatisticsResponse(LocalDate.parse("2024-05-01"), 3L, BigDecimal.TWO)
+                ));
+
+        verify(statisticsService, times(1)).readRevenueStatistics(LocalDate.parse("2024-05-01"), LocalDate.parse("2024-05-01"));
+    }
+
+    @Test
+    void getReadRevenueStatistics_negative_InternalServerError() {
+
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(statisticsService).readRevenueStatistics(any(LocalDate.class), any(LocalDate.class));
+
+        webClient.get().uri("/statistics/revenue")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().is5xxServerError()
+                .expectBody().isEmpty();
+
+        verify(statisticsService, times(1)).readRevenueStatistics(any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    void getExportPurchases_positive() {
+
+        doReturn(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap("purchase_id\r\n1\r\n".getBytes())))
+                .when(exportService).exportPurchases(any(ExportService.Format.class), anyBoolean());
+
+        webClient.get().uri("/export/purchases")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("text/csv;charset=UTF-8")
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"purchases.csv\"")
+                .expectBody(String.class).isEqualTo("purchase_id\r\n1\r\n");
+
+        verify(exportService, times(1)).exportPurchases(ExportService.Format.CSV, false);
+    }
+
+    @Test
+    void getExportPayments_positive_NdjsonGzip() {
+
+        doReturn(Flux.empty()).when(exportService).exportPayments(any(ExportService.Format.class), anyBoolean());
+
+        webClient.get().uri("/export/payments?format=ndjson&gzip=true")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("application/gzip")
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"payments.ndjson.gz\"");
+
+        verify(exportService, times(1)).exportPayments(ExportService.Format.NDJSON, true);
+    }
+
+    @Test
+    void getExportPayments_negative_Format() {
+
+        webClient.get().uri("/export/payments?format=xml")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Query parameter 'format' must be 'csv' or 'ndjson'");
+
+        verify(exportService, times(0)).exportPayments(any(ExportService.Format.class), anyBoolean());
+    }
+
+    @Test
+    void postImportProducts_positive() {
+
+        doAnswer(invocation -> DataBufferUtils.join(invocation.<Flux<DataBuffer>>getArgument(0))
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .map(csv -> new PostImportResponse(2L, 1L, List.of(new PostImportResponse.Error(3L, "Product already exists: " + csv.length()))))
+        ).when(importService).importProducts(ArgumentMatchers.any());
+
+        webClient.post().uri("/import/products")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .bodyValue("name,price\nCoffee,1.5\nTea,1.0\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody(PostImportResponse.class).isEqualTo(new PostImportResponse(2L, 1L, List.of(new PostImportResponse.Error(3L, "Product already exists: 30"))));
+
+        verify(importService, times(1)).importProducts(ArgumentMatchers.any());
+    }
+
+    @Test
+    void postImportUsers_positive() {
+
+        doReturn(Mono.just(new PostImportResponse(1L, 1L, List.of()))).when(importService).importUsers(ArgumentMatchers.any());
+
+        webClient.post().uri("/import/users")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .bodyValue("email\nalice@mail.com\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(PostImportResponse.class).isEqualTo(new PostImportResponse(1L, 1L, List.of()));
+
+        verify(importService, times(1)).importUsers(ArgumentMatchers.any());
+    }
+
+    @Test
+    void postImportPayments_negative_Header() {
+
+        doReturn(Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Header must be 'email,amount'")))
+                .when(importService).importPayments(ArgumentMatchers.any());
+
+        webClient.post().uri("/import/payments")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .bodyValue("user,amount\nalice@mail.com,5\n")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Header must be 'email,amount'");
+
+        verify(importService, times(1)).importPayments(ArgumentMatchers.any());
+    }
+
+    @Test
+    void postCreateRecording_positive() throws IOException {
+
+        final Path file = Files.createTempFile("recording-", ".jfr");
+        Files.writeString(file, "recording");
+
+        doReturn(Mono.just(file)).when(diagnosticsService).record(any(Duration.class));
+        doReturn(DataBufferUtils.read(file, DefaultDataBufferFactory.sharedInstance, 1024)).when(diagnosticsService).read(any(Path.class));
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .body(Mono.just(new PostCreateRecordingRequest(10)), PostCreateRecordingRequest.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"recording.jfr\"")
+                .expectBody(String.class).isEqualTo("recording");
+
+        verify(diagnosticsService, times(1)).record(Duration.ofSeconds(10));
+        verify(diagnosticsService, times(1)).read(file);
+
+        Files.delete(file);
+    }
+
+    @Test
+    void postCreateRecording_negative_NoBody() {
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectHeader().contentType(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("Body required");
+
+        verify(diagnosticsService, times(0)).record(any(Duration.class));
+    }
+
+    @Test
+    void postCreateRecording_negative_Validator() {
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .body(Mono.just(new PostCreateRecordingRequest(0)), PostCreateRecordingRequest.class)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectHeader().contentType(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("Recording duration must be at least 1 second");
+
+        verify(diagnosticsService, times(0)).record(any(Duration.class));
+    }
+
+    @Test
+    void postCreateRecording_negative_AlreadyRunning() {
+
+        doReturn(Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "A recording is already running"))).when(diagnosticsService).record(any(Duration.class));
+
+        webClient.post().uri("/diagnostics/recording")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .body(Mono.just(new PostCreateRecordingRequest(10)), PostCreateRecordingRequest.class)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+                .expectHeader().contentType(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("A recording is already running");
+
+        verify(diagnosticsService, times(0)).read(any(Path.class));
+    }
+
+    @Test
+    void getThreadDump_positive() {
+
+        doReturn(Mono.just("thread dump")).when(diagnosticsService).threadDump();
+
+        webClient.get().uri("/diagnostics/thread-dump")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("thread dump");
+
+        verify(diagnosticsService, times(1)).threadDump();
+    }
+
+    @Test
+    void getThreadDump_negative_InternalServerError() {
+
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(diagnosticsService).threadDump();
+
+        webClient.get().uri("/diagnostics/thread-dump")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().is5xxServerError()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void getClassHistogram_positive() {
+
+        doReturn(Mono.just("class histogram")).when(diagnosticsService).classHistogram();
+
+        webClient.get().uri("/diagnostics/class-histogram")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_PLAIN)
+                .expectBody(String.class).isEqualTo("class histogram");
+
+        verify(diagnosticsService, times(1)).classHistogram();
+    }
+
+    @Test
+    void getClassHistogram_negative_InternalServerError() {
+
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(diagnosticsService).classHistogram();
+
+        webClient.get().uri("/diagnostics/class-histogram")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + testJwt(ADMIN))
+                .exchange()
+                .expectStatus().is5xxServerError()
+                .expectBody().isEmpty();
+    }
 }
@@ -0,0 +1,95 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.test.MockQueryExecutionInfo;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static de.saschaufer.tallyapp.controller.MDCFilter.KEY_MDC;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class QueryEventsTest {
+
+    private final QueryEvents queryEvents = new QueryEvents();
+
+    @Test
+    void afterQuery_positive() throws IOException {
+
+        final QueryExecutionInfo execInfo = MockQueryExecutionInfo.builder()
+                .queryInfo(new QueryInfo("select * from users"))
+                .customValue(ContextView.class, Context.of(KEY_MDC, Map.of("requestId", "request-id")))
+                .currentResultCount(3)
+                .isSuccess(true)
+                .build();
+
+        final List<RecordedEvent> events = record(() -> {
+            queryEvents.beforeQuery(execInfo);
+            queryEvents.afterQuery(execInfo);
+        });
+
+        assertThat(events, hasSize(1));
+        assertThat(events.getFirst().getString("requestId"), is("request-id"));
+        assertThat(events.getFirst().getString("sql"), is("select * from users"));
+        assertThat(events.getFirst().getInt("rows"), is(3));
+        assertThat(events.getFirst().getBoolean("success"), is(true));
+    }
+
+    @Test
+    void afterQuery_positive_NoRequest() throws IOException {
+
+        final QueryExecutionInfo execInfo = MockQueryExecutionInfo.builder()
+                .queryInfo(new QueryInfo("select * from users"))
+                .isSuccess(false)
+                .build();
+
+        final List<RecordedEvent> events = record(() -> {
+            queryEvents.beforeQuery(execInfo);
+            queryEvents.afterQuery(execInfo);
+        });
+
+        assertThat(events, hasSize(1));
+        assertThat(events.getFirst().getString("requestId"), nullValue());
+        assertThat(events.getFirst().getBoolean("success"), is(false));
+    }
+
+    @Test
+    void afterQuery_positive_NotRecording() {
+
+        final QueryExecutionInfo execInfo = MockQueryExecutionInfo.builder().queryInfo(new QueryInfo("select * from users")).build();
+
+        queryEvents.beforeQuery(execInfo);
+        queryEvents.afterQuery(execInfo);
+
+        assertThat(execInfo.getValueStore().get(QueryEvent.class), nullValue());
+    }
+
+    private static List<RecordedEvent> record(final Runnable runnable) throws IOException {
+
+        final Path file = Files.createTempFile("test-", ".jfr");
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(QueryEvent.class).withoutThreshold();
+            recording.start();
+            runnable.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("de.saschaufer.tallyapp.Query"))
+                    .toList();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
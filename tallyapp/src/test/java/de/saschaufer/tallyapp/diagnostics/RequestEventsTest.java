@@ -0,0 +1,68 @@
+package de.saschaufer.tallyapp.diagnostics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.util.context.Context;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static de.saschaufer.tallyapp.controller.MDCFilter.KEY_MDC;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class RequestEventsTest {
+
+    private final WebTestClient webClient = WebTestClient.bindToRouterFunction(RouterFunctions
+            .route()
+            .GET("/ok", request -> ServerResponse.ok().build())
+            .filter((request, next) -> next.handle(request).contextWrite(Context.of(KEY_MDC, Map.of("requestId", "request-id"))))
+            .filter(new RequestEvents())
+            .build()
+    ).build();
+
+    @Test
+    void filter_positive() throws IOException {
+
+        final List<RecordedEvent> events = record(() -> webClient.get().uri("/ok").exchange().expectStatus().isOk());
+
+        assertThat(events, hasSize(1));
+        assertThat(events.getFirst().getString("requestId"), is("request-id"));
+        assertThat(events.getFirst().getString("method"), is("GET"));
+        assertThat(events.getFirst().getString("path"), is("/ok"));
+        assertThat(events.getFirst().getInt("status"), is(200));
+    }
+
+    @Test
+    void filter_positive_NotRecording() {
+
+        webClient.get().uri("/ok").exchange().expectStatus().isOk();
+    }
+
+    private static List<RecordedEvent> record(final Runnable runnable) throws IOException {
+
+        final Path file = Files.createTempFile("test-", ".jfr");
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(RequestEvent.class).withoutThreshold();
+            recording.start();
+            runnable.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("de.saschaufer.tallyapp.Request"))
+                    .toList();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.saschaufer.tallyapp.invalidation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class LocalInvalidationBusTest {
+
+    private LocalInvalidationBus invalidationBus;
+
+    @BeforeEach
+    void beforeEach() {
+        invalidationBus = new LocalInvalidationBus(Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void afterEach() {
+        invalidationBus.close();
+    }
+
+    @Test
+    void publish_positive() {
+
+        invalidationBus.invalidations()
+                .as(StepVerifier::create)
+                .then(() -> invalidationBus.publish(Invalidation.of(Invalidation.PRODUCTS, "bar-1")))
+                .expectNext(Invalidation.of(Invalidation.PRODUCTS, "bar-1"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void publish_positive_Coalesced() {
+
+        invalidationBus.invalidations()
+                .as(StepVerifier::create)
+                .then(() -> {
+                    invalidationBus.publish(Invalidation.of(Invalidation.PRODUCTS, "bar-1"));
+                    invalidationBus.publish(Invalidation.of(Invalidation.PRODUCTS, "bar-1"));
+                    invalidationBus.publish(Invalidation.of(Invalidation.PRODUCTS, "bar-2"));
+                })
+                .expectNext(Invalidation.of(Invalidation.PRODUCTS, "bar-1"))
+                .expectNext(Invalidation.of(Invalidation.PRODUCTS, "bar-2"))
+                .expectNoEvent(Duration.ofMillis(300))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void coalesce_positive_AllReplacesKeys() {
+
+        final List<Invalidation> invalidations = List.of(
+                Invalidation.of(Invalidation.PRODUCTS, "bar-1"),
+                Invalidation.all("other"),
+                Invalidation.all(Invalidation.PRODUCTS),
+                Invalidation.of(Invalidation.PRODUCTS, "bar-2"),
+                Invalidation.all("other")
+        );
+
+        assertThat(CoalescingInvalidationBus.coalesce(invalidations), contains(
+                Invalidation.all("other"),
+                Invalidation.all(Invalidation.PRODUCTS)
+        ));
+    }
+
+    @Test
+    void encode_positive() {
+
+        assertThat(Invalidation.all(Invalidation.PRODUCTS).encode(), is("products"));
+        assertThat(Invalidation.of(Invalidation.PRODUCTS, "bar-1").encode(), is("products:bar-1"));
+
+        assertThat(Invalidation.decode("products"), is(Invalidation.all(Invalidation.PRODUCTS)));
+        assertThat(Invalidation.decode("products:bar-1"), is(Invalidation.of(Invalidation.PRODUCTS, "bar-1")));
+    }
+}
@@ -1,25 +1,52 @@
 package de.saschaufer.tallyapp.management;
 
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.services.ArchiveService;
+import de.saschaufer.tallyapp.services.EmailService;
 import de.saschaufer.tallyapp.services.UserDetailsService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class EventHandlerTest {
 
     private UserAgent userAgent;
     private UserDetailsService userDetailsService;
+    private EmailService emailService;
+    private ArchiveService archiveService;
+    private JobRunner jobRunner;
     private EventHandler eventHandler;
 
     @BeforeEach
     void beforeEach() {
         userAgent = mock(UserAgent.class);
         userDetailsService = mock(UserDetailsService.class);
-        eventHandler = new EventHandler(userAgent, userDetailsService);
+        emailService = mock(EmailService.class);
+        archiveService = mock(ArchiveService.class);
+        jobRunner = mock(JobRunner.class);
+        final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://url-register", Duration.ofHours(1),
+                new EmailProperties.Outbox(Duration.ofHours(1), 10, 3, Duration.ofMinutes(1), Duration.ofMinutes(5)),
+                new EmailProperties.Pool(1, 10, Duration.ofMinutes(1))
+        );
+        final JobProperties jobProperties = new JobProperties(Duration.ofMinutes(5),
+                new JobProperties.DeleteUnregisteredUsers(Duration.ofHours(1), 100, Duration.ZERO),
+                new JobProperties.Archive(Duration.ofHours(24), Duration.ofDays(365), 1000, Duration.ZERO)
+        );
+        eventHandler = new EventHandler(userAgent, userDetailsService, emailService, emailProperties, jobRunner, jobProperties, archiveService);
 
         doReturn(Mono.just(0L)).when(userDetailsService).deleteUnregisteredUsers();
+        doReturn(Mono.just(0)).when(emailService).sendOutboxEmails();
+        doReturn(Mono.just(0L)).when(archiveService).archive();
+        doAnswer(invocation -> invocation.<Supplier<Mono<Long>>>getArgument(1).get()).when(jobRunner).run(anyString(), any());
     }
 
     @Test
@@ -30,7 +57,10 @@ class EventHandlerTest {
         eventHandler.handleApplicationReadyEvent(null);
 
         verify(userAgent, times(1)).getFullName();
-        verify(userDetailsService, times(1)).createInvitationCodeIfNoneExists();
+        verify(jobRunner, timeout(1000).times(1)).run(eq("delete-unregistered-users"), any());
         verify(userDetailsService, timeout(1000).times(1)).deleteUnregisteredUsers();
+        verify(jobRunner, timeout(1000).times(1)).run(eq("archive"), any());
+        verify(archiveService, timeout(1000).times(1)).archive();
+        verify(emailService, timeout(1000).times(1)).sendOutboxEmails();
     }
 }
@@ -0,0 +1,114 @@
+package de.saschaufer.tallyapp.management;
+
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class JobRunnerTest {
+
+    private Persistence persistence;
+    private JobRunner jobRunner;
+
+    @BeforeEach
+    void beforeEach() {
+        persistence = mock(Persistence.class);
+        final UserAgent userAgent = mock(UserAgent.class);
+        final JobProperties jobProperties = new JobProperties(Duration.ofMinutes(5),
+                new JobProperties.DeleteUnregisteredUsers(Duration.ofMinutes(5), 100, Duration.ZERO),
+                new JobProperties.Archive(Duration.ofHours(24), Duration.ofDays(365), 1000, Duration.ZERO)
+        );
+        jobRunner = new JobRunner(persistence, jobProperties, userAgent);
+
+        doReturn("tally").when(userAgent).getFullName();
+        doReturn(Mono.empty()).when(persistence).releaseJobLease(anyString(), anyString(), any(Instant.class));
+    }
+
+    @Test
+    void run_positive() {
+
+        doReturn(Mono.just(true)).when(persistence).acquireJobLease(anyString(), anyString(), any(Instant.class), any(Instant.class));
+
+        jobRunner.run("job", () -> Mono.just(3L))
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(3L)))
+                .verifyComplete();
+
+        final ArgumentCaptor<Instant> argumentCaptorNow = ArgumentCaptor.forClass(Instant.class);
+        final ArgumentCaptor<Instant> argumentCaptorLockedUntil = ArgumentCaptor.forClass(Instant.class);
+        verify(persistence, times(1)).acquireJobLease(eq("job"), eq("tally"), argumentCaptorNow.capture(), argumentCaptorLockedUntil.capture());
+        verify(persistence, times(1)).releaseJobLease(eq("job"), eq("tally"), any(Instant.class));
+
+        assertThat(argumentCaptorLockedUntil.getValue(), is(argumentCaptorNow.getValue().plus(Duration.ofMinutes(5))));
+    }
+
+    @Test
+    void run_positive_LeaseRenewed() {
+
+        doReturn(Mono.just(true)).when(persistence).acquireJobLease(anyString(), anyString(), any(Instant.class), any(Instant.class));
+
+        // Runs longer than the lease
+        StepVerifier.withVirtualTime(() -> jobRunner.run("job", () -> Mono.delay(Duration.ofMinutes(12)).thenReturn(3L)))
+                .thenAwait(Duration.ofMinutes(12))
+                .assertNext(count -> assertThat(count, is(3L)))
+                .verifyComplete();
+
+        // Acquired, then renewed every 100 s
+        verify(persistence, times(8)).acquireJobLease(eq("job"), eq("tally"), any(Instant.class), any(Instant.class));
+        verify(persistence, times(1)).releaseJobLease(eq("job"), eq("tally"), any(Instant.class));
+    }
+
+    @Test
+    void run_negative_LeaseLost() {
+
+        doReturn(Mono.just(true), Mono.just(true), Mono.just(false))
+                .when(persistence).acquireJobLease(anyString(), anyString(), any(Instant.class), any(Instant.class));
+
+        StepVerifier.withVirtualTime(() -> jobRunner.run("job", () -> Mono.delay(Duration.ofMinutes(12)).thenReturn(3L)))
+                .thenAwait(Duration.ofMinutes(12))
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Lease of job 'job' lost.")));
+
+        verify(persistence, times(3)).acquireJobLease(eq("job"), eq("tally"), any(Instant.class), any(Instant.class));
+    }
+
+    @Test
+    void run_positive_LeaseHeldByOtherInstance() {
+
+        doReturn(Mono.just(false)).when(persistence).acquireJobLease(anyString(), anyString(), any(Instant.class), any(Instant.class));
+
+        final AtomicInteger runs = new AtomicInteger();
+
+        jobRunner.run("job", () -> Mono.fromSupplier(() -> (long) runs.incrementAndGet()))
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        assertThat(runs.get(), is(0));
+        verify(persistence, times(0)).releaseJobLease(anyString(), anyString(), any(Instant.class));
+    }
+
+    @Test
+    void run_negative_JobFailed() {
+
+        doReturn(Mono.just(true)).when(persistence).acquireJobLease(anyString(), anyString(), any(Instant.class), any(Instant.class));
+
+        jobRunner.run("job", () -> Mono.error(new RuntimeException("Error")))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+
+        verify(persistence, times(1)).releaseJobLease(eq("job"), eq("tally"), any(Instant.class));
+    }
+}
@@ -0,0 +1,183 @@
+package de.saschaufer.tallyapp.management;
+
+import de.saschaufer.tallyapp.config.warmup.WarmUpProperties;
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostLoginResponse;
+import de.saschaufer.tallyapp.money.Money;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.services.ProductService;
+import de.saschaufer.tallyapp.services.UserDetailsService;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ValidationDepth;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.health.contributor.Status;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class WarmUpTest {
+
+    private UserDetailsService userDetailsService;
+    private ProductService productService;
+    private Tenants tenants;
+    private Persistence persistence;
+    private ConnectionFactory connectionFactory;
+    private Connection connection;
+    private ReactiveJwtDecoder jwtDecoder;
+
+    @BeforeEach
+    void beforeEach() {
+        userDetailsService = mock(UserDetailsService.class);
+        productService = mock(ProductService.class);
+        tenants = mock(Tenants.class);
+        persistence = mock(Persistence.class);
+        connectionFactory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        jwtDecoder = mock(ReactiveJwtDecoder.class);
+
+        doReturn(List.of(TenantContext.DEFAULT)).when(tenants).ids();
+        doReturn(Mono.empty()).when(userDetailsService).createInvitationCodeIfNoneExists();
+        doReturn(new PostLoginResponse("jwt", true, null)).when(userDetailsService).createJwtToken(any(User.class), anyString());
+        doReturn(Mono.just(Jwt.withTokenValue("jwt").header("alg", "HS256").claim("sub", "warm-up").build())).when(jwtDecoder).decode(anyString());
+
+        doReturn(Mono.just(connection)).when(connectionFactory).create();
+        doReturn(Mono.just(true)).when(connection).validate(any(ValidationDepth.class));
+        doReturn(Mono.empty()).when(connection).close();
+
+        doReturn(Mono.just(true)).when(persistence).existsUser(anyString());
+        doReturn(Mono.just(List.of())).when(persistence).selectUsers();
+        doReturn(Mono.just(List.of())).when(persistence).selectPurchases(anyLong());
+        doReturn(Mono.just(Money.ZERO)).when(persistence).selectPurchasesSum(anyLong());
+        doReturn(Mono.just(List.of())).when(persistence).selectPayments(anyLong());
+        doReturn(Mono.just(Money.ZERO)).when(persistence).selectPaymentsSum(anyLong());
+        doReturn(Mono.just(List.of())).when(persistence).selectOutboxEmails(any(Instant.class), anyInt());
+        doReturn(Mono.just(List.of(new GetProductsResponse(1L, "product", BigDecimal.ONE)))).when(productService).readProducts();
+    }
+
+    @Test
+    void run_positive() {
+
+        final WarmUp warmUp = warmUp(true, 3);
+
+        assertThat(warmUp.health().getStatus(), is(Status.OUT_OF_SERVICE));
+
+        warmUp.run(null);
+
+        verify(userDetailsService, times(1)).createInvitationCodeIfNoneExists();
+        verify(connectionFactory, times(2)).create();
+        verify(persistence, times(3)).selectUsers();
+        verify(persistence, times(3)).selectPaymentsSum(0L);
+        verify(productService, times(3)).readProducts();
+        verify(jwtDecoder, times(3)).decode("jwt");
+
+        assertThat(warmUp.health().getStatus(), is(Status.UP));
+        assertThat(warmUp.health().getDetails().get("state"), is("done"));
+        assertThat(warmUp.health().getDetails().get("iterations"), is(3));
+    }
+
+    @Test
+    void run_positive_Disabled() {
+
+        final WarmUp warmUp = warmUp(false, 3);
+
+        warmUp.run(null);
+
+        verify(userDetailsService, times(1)).createInvitationCodeIfNoneExists();
+        verify(connectionFactory, times(0)).create();
+        verify(persistence, times(0)).selectUsers();
+
+        assertThat(warmUp.health().getStatus(), is(Status.UP));
+        assertThat(warmUp.health().getDetails().get("state"), is("disabled"));
+    }
+
+    @Test
+    void run_positive_InvitationCodePerTenant() {
+
+        final List<String> created = new ArrayList<>();
+        doReturn(List.of(TenantContext.DEFAULT, "bar-1")).when(tenants).ids();
+        doReturn(TenantContext.current().doOnNext(created::add).then()).when(userDetailsService).createInvitationCodeIfNoneExists();
+
+        warmUp(false, 3).run(null);
+
+        assertThat(created, is(List.of(TenantContext.DEFAULT, "bar-1")));
+    }
+
+    @Test
+    void run_negative_InvitationCodeFailed() {
+
+        doReturn(List.of(TenantContext.DEFAULT, "bar-1")).when(tenants).ids();
+        doReturn(Mono.empty(), Mono.error(new RuntimeException("Error"))).when(userDetailsService).createInvitationCodeIfNoneExists();
+
+        final WarmUp warmUp = warmUp(true, 3);
+
+        // A tenant without invitation code stops the app
+        final RuntimeException error = assertThrows(RuntimeException.class, () -> warmUp.run(null));
+
+        assertThat(error.getMessage(), is("Error"));
+        assertThat(warmUp.health().getStatus(), is(Status.OUT_OF_SERVICE));
+        verify(persistence, times(0)).selectUsers();
+    }
+
+    @Test
+    void run_negative_QueryFailed() {
+
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectUsers();
+
+        final WarmUp warmUp = warmUp(true, 3);
+
+        warmUp.run(null);
+
+        verify(persistence, times(1)).selectUsers();
+        verify(jwtDecoder, times(0)).decode(anyString());
+
+        // Ready anyway
+        assertThat(warmUp.health().getStatus(), is(Status.UP));
+        assertThat(warmUp.health().getDetails().get("state"), is("failed"));
+        assertThat(warmUp.health().getDetails().get("iterations"), is(0));
+    }
+
+    @Test
+    void run_negative_TimeBudgetExceeded() {
+
+        doReturn(Mono.never()).when(persistence).selectUsers();
+
+        final WarmUp warmUp = warmUp(true, 3, Duration.ofMillis(200));
+
+        warmUp.run(null);
+
+        // Told apart from a failure
+        assertThat(warmUp.health().getStatus(), is(Status.UP));
+        assertThat(warmUp.health().getDetails().get("state"), is("time budget exceeded"));
+        assertThat(warmUp.health().getDetails().get("iterations"), is(0));
+    }
+
+    private WarmUp warmUp(final boolean enabled, final int iterations) {
+        return warmUp(enabled, iterations, Duration.ofSeconds(10));
+    }
+
+    private WarmUp warmUp(final boolean enabled, final int iterations, final Duration timeBudget) {
+        final WarmUpProperties warmUpProperties = new WarmUpProperties(enabled, timeBudget, iterations, 2);
+        return new WarmUp(warmUpProperties, userDetailsService, productService, tenants, persistence, connectionFactory, JsonMapper.builder().build(), jwtDecoder);
+    }
+}
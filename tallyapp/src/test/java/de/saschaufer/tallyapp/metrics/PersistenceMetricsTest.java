@@ -0,0 +1,83 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.money.Money;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class PersistenceMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PersistenceMetrics persistenceMetrics;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        final ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        doReturn(meterRegistry).when(meterRegistryProvider).getObject();
+
+        persistenceMetrics = new PersistenceMetrics(meterRegistryProvider);
+    }
+
+    @Test
+    void postProcessAfterInitialization_positive() {
+
+        final Persistence persistence = spy(new Persistence(mock(R2dbcEntityTemplate.class), mock(ReactiveTransactionManager.class)));
+        doReturn(Mono.just(new Money(100))).when(persistence).selectPurchasesSum(anyLong());
+
+        final Persistence proxy = (Persistence) persistenceMetrics.postProcessAfterInitialization(persistence, "persistence");
+
+        assertThat(proxy, not(sameInstance(persistence)));
+
+        final Mono<Money> sum = proxy.selectPurchasesSum(1L);
+
+        // Not recorded before the subscription
+        assertThat(meterRegistry.find(PersistenceMetrics.CALLS).timer(), nullValue());
+
+        sum.as(StepVerifier::create)
+                .assertNext(s -> assertThat(s, is(new Money(100))))
+                .verifyComplete();
+
+        assertThat(meterRegistry.get(PersistenceMetrics.CALLS).tags("method", "selectPurchasesSum", "outcome", "success").timer().count(), is(1L));
+        assertThat(meterRegistry.find(PersistenceMetrics.ERRORS).counter(), nullValue());
+    }
+
+    @Test
+    void postProcessAfterInitialization_positive_OtherBean() {
+
+        final Object bean = new Object();
+
+        assertThat(persistenceMetrics.postProcessAfterInitialization(bean, "bean"), sameInstance(bean));
+    }
+
+    @Test
+    void postProcessAfterInitialization_negative_Error() {
+
+        final Persistence persistence = spy(new Persistence(mock(R2dbcEntityTemplate.class), mock(ReactiveTransactionManager.class)));
+        doReturn(Mono.error(new IllegalStateException("Error"))).when(persistence).selectPurchasesSum(anyLong());
+
+        final Persistence proxy = (Persistence) persistenceMetrics.postProcessAfterInitialization(persistence, "persistence");
+
+        proxy.selectPurchasesSum(1L)
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+
+        assertThat(meterRegistry.get(PersistenceMetrics.CALLS).tags("method", "selectPurchasesSum", "outcome", "error").timer().count(), is(1L));
+        assertThat(meterRegistry.get(PersistenceMetrics.ERRORS).tags("method", "selectPurchasesSum", "exception", "IllegalStateException").counter().count(), is(1.0));
+    }
+}
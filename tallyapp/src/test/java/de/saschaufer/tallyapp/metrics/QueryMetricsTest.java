@@ -0,0 +1,82 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.config.db.DbProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.test.MockQueryExecutionInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static de.saschaufer.tallyapp.controller.MDCFilter.KEY_MDC;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class QueryMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private QueryMetrics queryMetrics;
+
+    @BeforeEach
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+        queryMetrics = new QueryMetrics(new DbProperties("r2dbc:h2:mem:///test", Duration.ofMillis(100)), meterRegistry);
+    }
+
+    @Test
+    void afterQuery_positive() {
+
+        queryMetrics.afterQuery(execInfo("SELECT users.* FROM users WHERE users.email = $1", Duration.ofMillis(5), true));
+        queryMetrics.afterQuery(execInfo("SELECT users.* FROM users WHERE users.email = $1", Duration.ofMillis(5), true));
+        queryMetrics.afterQuery(execInfo("SELECT users.* FROM users WHERE users.email = $1", Duration.ofMillis(500), false));
+
+        final String shape = "select users.* from users where users.email = ?";
+
+        assertThat(meterRegistry.get(QueryMetrics.QUERIES).tags("query", shape, "outcome", "success").timer().count(), is(2L));
+        assertThat(meterRegistry.get(QueryMetrics.QUERIES).tags("query", shape, "outcome", "error").timer().count(), is(1L));
+        assertThat(meterRegistry.get(QueryMetrics.QUERIES).tags("query", shape, "outcome", "error").timer().max(TimeUnit.MILLISECONDS), is(500.0));
+    }
+
+    @Test
+    void shape_positive() {
+
+        assertThat(QueryMetrics.shape("select *\n    from users\n    where id = $1"), is("select * from users where id = ?"));
+        assertThat(QueryMetrics.shape("delete from users where id in ($1, $2, $3) and registration_complete = false"), is("delete from users where id in (?) and registration_complete = false"));
+        assertThat(QueryMetrics.shape("delete from users where id in ($1) and registration_complete = false"), is("delete from users where id in (?) and registration_complete = false"));
+        assertThat(QueryMetrics.shape("select * from users where email = 'a@mail.com' and id > 10 limit 500"), is("select * from users where email = ? and id > ? limit ?"));
+        assertThat(QueryMetrics.shape("select * from users where email = :email"), is("select * from users where email = ?"));
+        assertThat(QueryMetrics.shape("select sum(amount)::numeric from payments"), is("select sum(amount)::numeric from payments"));
+        assertThat(QueryMetrics.shape("select pg_notify($1,$2)"), is("select pg_notify(?)"));
+    }
+
+    @Test
+    void requestId_positive() {
+
+        final ContextView context = Context.of(KEY_MDC, Map.of("requestId", "request-id"));
+        final QueryExecutionInfo execInfo = MockQueryExecutionInfo.builder().customValue(ContextView.class, context).build();
+
+        assertThat(QueryMetrics.requestId(execInfo), is("request-id"));
+    }
+
+    @Test
+    void requestId_negative_NoRequest() {
+
+        assertThat(QueryMetrics.requestId(MockQueryExecutionInfo.empty()), nullValue());
+        assertThat(QueryMetrics.requestId(MockQueryExecutionInfo.builder().customValue(ContextView.class, Context.empty()).build()), nullValue());
+    }
+
+    private QueryExecutionInfo execInfo(final String sql, final Duration duration, final boolean success) {
+        return MockQueryExecutionInfo.builder()
+                .queryInfo(new QueryInfo(sql))
+                .executeDuration(duration)
+                .isSuccess(success)
+                .build();
+    }
+}
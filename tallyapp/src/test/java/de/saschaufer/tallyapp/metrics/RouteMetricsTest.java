@@ -0,0 +1,100 @@
+package de.saschaufer.tallyapp.metrics;
+
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class RouteMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private WebTestClient webClient;
+
+    @BeforeEach
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        webClient = WebTestClient.bindToRouterFunction(RouterFunctions
+                .route()
+                .GET("/ok", request -> ServerResponse.ok().build())
+                .POST("/bad-request", request -> ServerResponse.badRequest().build())
+                .POST("/gone", request -> Mono.error(new ResponseStatusException(HttpStatus.GONE, "Gone")))
+                .POST("/error", request -> Mono.error(new RuntimeException("Error")))
+                .GET("/active", request -> {
+                    assertThat(meterRegistry.get(RouteMetrics.REQUESTS_ACTIVE).tag("route", "/active").longTaskTimer().activeTasks(), is(1));
+                    return ServerResponse.ok().build();
+                })
+                .filter(new RouteMetrics(meterRegistry))
+                .build()
+        ).webFilter((exchange, chain) -> {
+            // Set by the tenant filter in the app
+            final String tenant = exchange.getRequest().getHeaders().getFirst("tenant");
+            if (tenant != null) {
+                exchange.getAttributes().put(TenantContext.KEY, tenant);
+            }
+            return chain.filter(exchange);
+        }).build();
+    }
+
+    @Test
+    void filter_positive() {
+
+        webClient.get().uri("/ok").exchange().expectStatus().isOk();
+        webClient.get().uri("/ok").exchange().expectStatus().isOk();
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("method", "GET", "route", "/ok", "tenant", "default", "status", "200").timer().count(), is(2L));
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS_ACTIVE).tags("method", "GET", "route", "/ok", "tenant", "default").longTaskTimer().activeTasks(), is(0));
+    }
+
+    @Test
+    void filter_positive_Tenant() {
+
+        webClient.get().uri("/ok").header("tenant", "bar-1").exchange().expectStatus().isOk();
+        webClient.get().uri("/ok").exchange().expectStatus().isOk();
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("route", "/ok", "tenant", "bar-1").timer().count(), is(1L));
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("route", "/ok", "tenant", "default").timer().count(), is(1L));
+    }
+
+    @Test
+    void filter_positive_Active() {
+
+        webClient.get().uri("/active").exchange().expectStatus().isOk();
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("route", "/active", "status", "200").timer().count(), is(1L));
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS_ACTIVE).tags("route", "/active").longTaskTimer().activeTasks(), is(0));
+    }
+
+    @Test
+    void filter_positive_ErrorResponse() {
+
+        webClient.post().uri("/bad-request").exchange().expectStatus().isBadRequest();
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("method", "POST", "route", "/bad-request", "status", "400").timer().count(), is(1L));
+    }
+
+    @Test
+    void filter_negative_ResponseStatusException() {
+
+        webClient.post().uri("/gone").exchange().expectStatus().isEqualTo(HttpStatus.GONE);
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("route", "/gone", "status", "410").timer().count(), is(1L));
+    }
+
+    @Test
+    void filter_negative_Exception() {
+
+        webClient.post().uri("/error").exchange().expectStatus().is5xxServerError();
+
+        assertThat(meterRegistry.get(RouteMetrics.REQUESTS).tags("route", "/error", "status", "500").timer().count(), is(1L));
+    }
+}
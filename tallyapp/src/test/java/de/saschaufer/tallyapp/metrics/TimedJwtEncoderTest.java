@@ -0,0 +1,30 @@
+package de.saschaufer.tallyapp.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TimedJwtEncoderTest {
+
+    @Test
+    void encode_positive() {
+
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final JwtEncoder delegate = mock(JwtEncoder.class);
+        final Jwt jwt = Jwt.withTokenValue("jwt").header("alg", "HS256").claim("sub", "user").build();
+
+        doReturn(jwt).when(delegate).encode(any(JwtEncoderParameters.class));
+
+        final TimedJwtEncoder jwtEncoder = new TimedJwtEncoder(delegate, meterRegistry);
+
+        assertThat(jwtEncoder.encode(mock(JwtEncoderParameters.class)).getTokenValue(), is("jwt"));
+        assertThat(meterRegistry.get(TimedJwtEncoder.ENCODING).timer().count(), is(1L));
+    }
+}
@@ -0,0 +1,42 @@
+package de.saschaufer.tallyapp.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+class TimedPasswordEncoderTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TimedPasswordEncoder passwordEncoder = new TimedPasswordEncoder(PasswordEncoderFactories.createDelegatingPasswordEncoder(), meterRegistry);
+
+    @Test
+    void encode_positive() {
+
+        final String encoded = passwordEncoder.encode("password");
+
+        assertThat(encoded, startsWith("{bcrypt}"));
+        assertThat(meterRegistry.get(TimedPasswordEncoder.HASHING).tag("operation", "encode").timer().count(), is(1L));
+        assertThat(meterRegistry.get(TimedPasswordEncoder.HASHING).tag("operation", "matches").timer().count(), is(0L));
+    }
+
+    @Test
+    void matches_positive() {
+
+        final String encoded = passwordEncoder.encode("password");
+
+        assertThat(passwordEncoder.matches("password", encoded), is(true));
+        assertThat(passwordEncoder.matches("wrong", encoded), is(false));
+        assertThat(meterRegistry.get(TimedPasswordEncoder.HASHING).tag("operation", "matches").timer().count(), is(2L));
+    }
+
+    @Test
+    void upgradeEncoding_positive() {
+
+        assertThat(passwordEncoder.upgradeEncoding(passwordEncoder.encode("password")), is(false));
+        assertThat(passwordEncoder.upgradeEncoding("{noop}password"), is(true));
+    }
+}
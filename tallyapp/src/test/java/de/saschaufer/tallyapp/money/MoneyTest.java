@@ -0,0 +1,67 @@
+package de.saschaufer.tallyapp.money;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+
+    static Stream<Arguments> of_positive() {
+        return Stream.of(
+                Arguments.of(new BigDecimal("1.23"), 123L),
+                Arguments.of(new BigDecimal("-1.5"), -150L),
+                Arguments.of(new BigDecimal("7"), 700L),
+                Arguments.of(new BigDecimal("0.00"), 0L),
+                Arguments.of(new BigDecimal("1E+2"), 10000L),
+                Arguments.of(new BigDecimal("2.500"), 250L)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void of_positive(final BigDecimal amount, final long cents) {
+        assertThat(Money.of(amount), is(new Money(cents)));
+    }
+
+    @Test
+    void of_negative() {
+        assertThrows(ArithmeticException.class, () -> Money.of(new BigDecimal("1.234")));
+        assertThrows(ArithmeticException.class, () -> Money.of(new BigDecimal("1E+20")));
+    }
+
+    @Test
+    void arithmetic_positive() {
+
+        final Money payments = Money.of(new BigDecimal("123.45"));
+        final Money purchases = Money.of(new BigDecimal("678.90"));
+
+        assertThat(payments.plus(purchases), is(new Money(80235)));
+        assertThat(payments.minus(purchases), is(new Money(-55545)));
+        assertThat(payments.compareTo(purchases), lessThan(0));
+        assertThat(Money.ZERO.minus(Money.ZERO), is(Money.ZERO));
+    }
+
+    @Test
+    void arithmetic_negative_Overflow() {
+        assertThrows(ArithmeticException.class, () -> new Money(Long.MAX_VALUE).plus(new Money(1)));
+        assertThrows(ArithmeticException.class, () -> new Money(Long.MIN_VALUE).minus(new Money(1)));
+    }
+
+    @Test
+    void toBigDecimal_positive() {
+
+        // Always two decimals, as the database has them
+        assertThat(new Money(-55545).toBigDecimal(), is(new BigDecimal("-555.45")));
+        assertThat(new Money(700).toBigDecimal(), is(new BigDecimal("7.00")));
+        assertThat(Money.ZERO.toBigDecimal(), is(new BigDecimal("0.00")));
+        assertThat(new Money(5).toString(), is("0.05"));
+    }
+}
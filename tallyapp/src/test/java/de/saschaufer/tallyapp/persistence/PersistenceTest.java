@@ -2,8 +2,14 @@ package de.saschaufer.tallyapp.persistence;
 
 import de.saschaufer.tallyapp.config.db.DbConfig;
 import de.saschaufer.tallyapp.config.db.DbProperties;
-import de.saschaufer.tallyapp.controller.dto.GetPaymentsResponse;
+import de.saschaufer.tallyapp.controller.dto.*;
+import de.saschaufer.tallyapp.diagnostics.QueryEvents;
+import de.saschaufer.tallyapp.metrics.QueryMetrics;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.dto.*;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,36 +21,58 @@ import org.springframework.boot.data.r2dbc.test.autoconfigure.DataR2dbcTest;
 import org.springframework.boot.webflux.error.DefaultErrorAttributes;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.core.ReactiveSelectOperation;
+import org.springframework.data.relational.core.query.Query;
 import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.connection.init.ConnectionFactoryInitializer;
+import org.springframework.transaction.ReactiveTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.springframework.data.relational.core.query.Criteria.where;
 import static org.springframework.data.relational.core.query.Query.empty;
 import static org.springframework.data.relational.core.query.Query.query;
 
 @Slf4j
 @DataR2dbcTest
-@Import({PersistenceTest.TestDbProperties.class, DbConfig.class, Persistence.class, DefaultErrorAttributes.class})
+@Import({PersistenceTest.TestDbProperties.class, DbConfig.class, QueryMetrics.class, QueryEvents.class, Persistence.class, TenantEntityCallback.class, DefaultErrorAttributes.class})
 class PersistenceTest {
 
     public static class TestDbProperties {
 
         @Bean
         public DbProperties dbProperties() {
-            return new DbProperties("r2dbc:h2:mem:///test?options=CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1");
+            return new DbProperties("r2dbc:h2:mem:///test?options=CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1", Duration.ofSeconds(1));
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
         }
     }
 
@@ -54,9 +82,22 @@ class PersistenceTest {
     @Autowired
     private R2dbcEntityTemplate template;
 
+    @Autowired
+    private ConnectionFactoryInitializer initializer;
+
+    @Autowired
+    private ReactiveTransactionManager transactionManager;
+
     @BeforeEach
     void beforeEach() {
         Mono.just(1)
+                .flatMap(m -> template.delete(empty(), JobLease.class))
+                .flatMap(m -> template.delete(empty(), OutboxEmail.class))
+                .flatMap(m -> template.delete(empty(), MonthlyRollup.class))
+                .flatMap(m -> template.delete(empty(), BalanceSnapshot.class))
+                .flatMap(m -> template.delete(empty(), DailyConsumption.class))
+                .flatMap(m -> template.getDatabaseClient().sql("delete from payments_archive").fetch().rowsUpdated())
+                .flatMap(m -> template.getDatabaseClient().sql("delete from purchases_archive").fetch().rowsUpdated())
                 .flatMap(m -> template.delete(empty(), Payment.class))
                 .flatMap(m -> template.delete(empty(), Purchase.class))
                 .flatMap(m -> template.delete(empty(), ProductPrice.class))
@@ -92,6 +133,35 @@ class PersistenceTest {
         assertCount(User.class, 1);
     }
 
+    @Test
+    void initializer_positive_DropsGlobalUniqueConstraints() {
+
+        // As in databases from before the tenants
+        template.getDatabaseClient().sql("alter table users add unique (email)").fetch().rowsUpdated().block();
+        template.getDatabaseClient().sql("alter table products add unique (name)").fetch().rowsUpdated().block();
+
+        initializer.afterPropertiesSet();
+
+        final Instant now = Instant.parse("2024-05-19T23:54:01Z");
+
+        Flux.concat(
+                        persistence.insertUser(new User(null, "invitation-code", "", "", "", now, true)).then(),
+                        persistence.insertUser(new User(null, "invitation-code", "", "", "", now, true)).then().contextWrite(TenantContext.of("bar-1")),
+                        persistence.insertProductAndPrice("Beer", BigDecimal.ONE),
+                        persistence.insertProductAndPrice("Beer", BigDecimal.ONE).contextWrite(TenantContext.of("bar-1"))
+                )
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        assertCount(User.class, 2);
+        assertCount(Product.class, 2);
+
+        // Still unique within a tenant
+        persistence.insertUser(new User(null, "invitation-code", "", "", "", now, true))
+                .as(StepVerifier::create)
+                .verifyError(DuplicateKeyException.class);
+    }
+
     @Test
     void insertUser_negative_DuplicatePrimaryKey() {
 
@@ -155,6 +225,77 @@ class PersistenceTest {
         );
     }
 
+    @Test
+    void insertUser_WithEmail_positive() {
+
+        assertCount(User.class, 0);
+        assertCount(OutboxEmail.class, 0);
+
+        persistence.insertUser(
+                        new User(null, "test-username@mail.com", "test-password", "test-role", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), false),
+                        new OutboxEmail(null, "test-username@mail.com", "subject", "body", Instant.parse("2024-05-19T23:54:01Z"), 0, Instant.parse("2024-05-19T23:54:01Z"), null, false)
+                )
+                .as(StepVerifier::create)
+                .assertNext(user -> {
+                    assertThat(user.getId(), notNullValue());
+                    assertThat(user.getUsername(), is("test-username@mail.com"));
+                })
+                .verifyComplete();
+
+        assertCount(User.class, 1);
+        assertCount(OutboxEmail.class, 1);
+    }
+
+    @Test
+    void insertUser_WithEmail_negative_rollback() {
+
+        assertCount(User.class, 0);
+        assertCount(OutboxEmail.class, 0);
+
+        persistence.insertUser(
+                        new User(null, "test-username@mail.com", "test-password", "test-role", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), false),
+                        new OutboxEmail(null, "test-username@mail.com", null, "body", Instant.parse("2024-05-19T23:54:01Z"), 0, Instant.parse("2024-05-19T23:54:01Z"), null, false)
+                )
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error ->
+                        assertThat(error.getMessage(), containsString("NULL not allowed for column \"SUBJECT\""))
+                );
+
+        assertCount(User.class, 0);
+        assertCount(OutboxEmail.class, 0);
+    }
+
+    @Test
+    void insertUsers_positive() {
+
+        insertTestData();
+
+        final Instant now = Instant.parse("2024-05-19T23:54:01Z");
+
+        persistence.insertUsers(List.of(
+                        Tuples.of(new User(null, "Carol@mail.com", "password", "roles", "33333", now, true), new OutboxEmail(null, "Carol@mail.com", "subject", "body", now, 0, now, null, false)),
+                        Tuples.of(new User(null, "Alice@mail.com", "password", "roles", "44444", now, true), new OutboxEmail(null, "Alice@mail.com", "subject", "body", now, 0, now, null, false)),
+                        Tuples.of(new User(null, "Carol@mail.com", "password", "roles", "55555", now, true), new OutboxEmail(null, "Carol@mail.com", "subject", "body", now, 0, now, null, false))
+                ))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "Email is taken", 2, "Email is taken"))))
+                .verifyComplete();
+
+        assertCount(User.class, 3);
+        assertCount(OutboxEmail.class, 1);
+
+        // Emails are per tenant
+        persistence.insertUsers(List.of(
+                        Tuples.of(new User(null, "Alice@mail.com", "password", "roles", "44444", now, true), new OutboxEmail(null, "Alice@mail.com", "subject", "body", now, 0, now, null, false))
+                ))
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors.size(), is(0)))
+                .verifyComplete();
+
+        assertCount(User.class, 4);
+    }
+
     @Test
     void selectUser_positive_UserExists() {
 
@@ -232,6 +373,57 @@ class PersistenceTest {
                 .verifyComplete();
     }
 
+    @Test
+    void selectUsers_positive_Request() {
+
+        final TestData testData = insertTestData();
+
+        template.insert(new User(null, "carol@mail.com", "password", "roles", "33333", Instant.parse("2024-06-01T12:00:00Z"), false)).block();
+        template.insert(new User(null, "invitation-code", "password", "invitation", "44444", Instant.parse("2024-06-01T12:00:00Z"), true)).block();
+
+        // Archived purchases and payments count as well
+        template.getDatabaseClient().sql("insert into balance_snapshots (user_id, purchases_sum, payments_sum, archived_until) values (:user_id, 1.00, 0.50, :archived_until)")
+                .bind("user_id", testData.user2.getId())
+                .bind("archived_until", Instant.parse("2024-01-01T00:00:00Z"))
+                .then().block();
+
+        // Without filters all users but the invitation code, in the order of the emails
+        assertThat(selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of(
+                "Alice@mail.com 6.36", "Bob@mail.com 0.95", "carol@mail.com 0.00"
+        )));
+
+        // Filters
+        assertThat(selectUsers(new GetUsersRequest("a", null, null, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of("Alice@mail.com 6.36")));
+        assertThat(selectUsers(new GetUsersRequest("C", null, null, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of("carol@mail.com 0.00")));
+        assertThat(selectUsers(new GetUsersRequest("%", null, null, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of()));
+        assertThat(selectUsers(new GetUsersRequest(null, false, null, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of("carol@mail.com 0.00")));
+        assertThat(selectUsers(new GetUsersRequest(null, null, GetUsersRequest.Balance.ZERO, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of("carol@mail.com 0.00")));
+        assertThat(selectUsers(new GetUsersRequest(null, null, GetUsersRequest.Balance.NEGATIVE, GetUsersRequest.Sort.EMAIL, false, null, null)), is(List.of()));
+
+        // Pages of one user, one more is selected to tell whether there is a next page
+        assertThat(selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.BALANCE, true, null, 1)), is(List.of(
+                "Alice@mail.com 6.36", "Bob@mail.com 0.95"
+        )));
+        assertThat(selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.BALANCE, true, new GetUsersRequest.After(new BigDecimal("6.36"), "Alice@mail.com"), 1)), is(List.of(
+                "Bob@mail.com 0.95", "carol@mail.com 0.00"
+        )));
+        assertThat(selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, new GetUsersRequest.After(null, "Bob@mail.com"), 1)), is(List.of(
+                "carol@mail.com 0.00"
+        )));
+
+        // Equal registrations are ordered by email
+        assertThat(selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.REGISTRATION, false, new GetUsersRequest.After(testData.user1.getRegistrationOn(), "Alice@mail.com"), 5)), is(List.of(
+                "Bob@mail.com 0.95", "carol@mail.com 0.00"
+        )));
+
+        // Users of other tenants are not listed
+        persistence.selectUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, null, null))
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(users -> assertThat(users, hasSize(0)))
+                .verifyComplete();
+    }
+
     @Test
     void existsUser_positive_UserExists() {
 
@@ -281,14 +473,33 @@ class PersistenceTest {
                 .verifyComplete();
     }
 
+    @Test
+    void deleteUser_positive_WithArchive() {
+
+        final TestData testData = insertTestData();
+
+        persistence.archivePurchases(Instant.parse("2024-05-24T00:00:00Z"), 10).block();
+        persistence.archivePayments(Instant.parse("2024-05-24T00:00:00Z"), 10).block();
+
+        persistence.deleteUser(testData.user2.getId())
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        assertCount(User.class, testData.numOfUsers - 1);
+        assertArchived("purchases_archive", testData.numOfPurchases - 3);
+        assertArchived("payments_archive", testData.numOfPayments - 1);
+        assertCount(MonthlyRollup.class, 1);
+        assertCount(BalanceSnapshot.class, 1);
+    }
+
     @Test
     void deleteUser_negative_rollback_DeleteUserFailed() {
 
         template.getDatabaseClient().sql("set referential_integrity false").then().block();
 
         Mono.just(1)
-                .flatMap(i -> template.insert(new Purchase(null, 2L, 3L, Instant.now())))
-                .flatMap(i -> template.insert(new Payment(null, 2L, BigDecimal.ONE, Instant.now())))
+                .flatMap(i -> template.insert(new Purchase(null, 2L, 3L, Instant.now(), null)))
+                .flatMap(i -> template.insert(new Payment(null, 2L, BigDecimal.ONE, Instant.now(), null)))
                 .flatMap(i -> template.insert(new User(1L, "1@mail", "pwd", "role", "123", Instant.now(), true)))
                 .block();
 
@@ -423,6 +634,52 @@ class PersistenceTest {
                 );
     }
 
+    @Test
+    void updateUserPassword_WithEmail_positive() {
+
+        final Long userId = Objects.requireNonNull(persistence.insertUser(
+                new User(null, "test-username@mail.com", "test-password", "test-role", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), true)
+        ).block()).getId();
+
+        persistence.updateUserPassword(userId, "test-password-changed",
+                        new OutboxEmail(null, "test-username@mail.com", "subject", "body", Instant.parse("2024-05-19T23:54:01Z"), 0, Instant.parse("2024-05-19T23:54:01Z"), null, false)
+                )
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        Mono.just("test-username@mail.com")
+                .flatMap(persistence::selectUser)
+                .as(StepVerifier::create)
+                .assertNext(user -> assertThat(user.getPassword(), is("test-password-changed")))
+                .verifyComplete();
+
+        assertCount(OutboxEmail.class, 1);
+    }
+
+    @Test
+    void updateUserPassword_WithEmail_negative_rollback() {
+
+        final Long userId = Objects.requireNonNull(persistence.insertUser(
+                new User(null, "test-username@mail.com", "test-password", "test-role", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), true)
+        ).block()).getId();
+
+        persistence.updateUserPassword(userId, "test-password-changed",
+                        new OutboxEmail(null, null, "subject", "body", Instant.parse("2024-05-19T23:54:01Z"), 0, Instant.parse("2024-05-19T23:54:01Z"), null, false)
+                )
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error ->
+                        assertThat(error.getMessage(), containsString("NULL not allowed for column \"RECIPIENT\""))
+                );
+
+        Mono.just("test-username@mail.com")
+                .flatMap(persistence::selectUser)
+                .as(StepVerifier::create)
+                .assertNext(user -> assertThat(user.getPassword(), is("test-password")))
+                .verifyComplete();
+
+        assertCount(OutboxEmail.class, 0);
+    }
+
     @Test
     void deleteUnregisteredUsers_positive_NoUserToDelete() {
 
@@ -431,7 +688,7 @@ class PersistenceTest {
         assertCount(User.class, 2);
 
         Mono.just(1L)
-                .flatMap(id -> persistence.deleteUnregisteredUsers(Instant.parse("2024-05-20T00:00:00Z")))
+                .flatMap(id -> persistence.deleteUnregisteredUsers(Instant.parse("2024-05-20T00:00:00Z"), 10))
                 .as(StepVerifier::create)
                 .expectNext().expectNext(0L)
                 .verifyComplete();
@@ -453,7 +710,7 @@ class PersistenceTest {
         assertCount(User.class, 5);
 
         Mono.just(1L)
-                .flatMap(id -> persistence.deleteUnregisteredUsers(Instant.parse("2024-05-20T00:00:00Z")))
+                .flatMap(id -> persistence.deleteUnregisteredUsers(Instant.parse("2024-05-20T00:00:00Z"), 10))
                 .as(StepVerifier::create)
                 .expectNext().expectNext(2L)
                 .verifyComplete();
@@ -469,6 +726,246 @@ class PersistenceTest {
                 .verifyComplete();
     }
 
+    @Test
+    void deleteUnregisteredUsers_positive_Limit() {
+
+        insertTestData();
+
+        Mono.just(1L)
+                .flatMap(n -> persistence.insertUser(new User(null, "a", "", "", "", Instant.parse("2024-05-19T23:54:03Z"), false)))
+                .flatMap(n -> persistence.insertUser(new User(null, "b", "", "", "", Instant.parse("2024-05-19T23:54:01Z"), false)))
+                .flatMap(n -> persistence.insertUser(new User(null, "c", "", "", "", Instant.parse("2024-05-19T23:54:02Z"), false)))
+                .block();
+
+        assertCount(User.class, 5);
+
+        Mono.just(1L)
+                .flatMap(id -> persistence.deleteUnregisteredUsers(Instant.parse("2024-05-20T00:00:00Z"), 2))
+                .as(StepVerifier::create)
+                .expectNext(2L)
+                .verifyComplete();
+
+        assertCount(User.class, 3);
+
+        // The oldest registrations are deleted first
+        persistence.existsUser("a")
+                .as(StepVerifier::create)
+                .assertNext(exists -> assertThat(exists, is(true)))
+                .verifyComplete();
+    }
+
+    @Test
+    void acquireJobLease_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        // No lease exists yet
+        persistence.acquireJobLease("job", "node-1", now, now.plusSeconds(60))
+                .as(StepVerifier::create)
+                .expectNext(true)
+                .verifyComplete();
+
+        // Lease held by another owner
+        persistence.acquireJobLease("job", "node-2", now.plusSeconds(30), now.plusSeconds(90))
+                .as(StepVerifier::create)
+                .expectNext(false)
+                .verifyComplete();
+
+        // Lease held by the same owner
+        persistence.acquireJobLease("job", "node-1", now.plusSeconds(30), now.plusSeconds(90))
+                .as(StepVerifier::create)
+                .expectNext(true)
+                .verifyComplete();
+
+        // Lease expired
+        persistence.acquireJobLease("job", "node-2", now.plusSeconds(100), now.plusSeconds(160))
+                .as(StepVerifier::create)
+                .expectNext(true)
+                .verifyComplete();
+
+        assertCount(JobLease.class, 1);
+
+        template.select(JobLease.class).first()
+                .as(StepVerifier::create)
+                .assertNext(lease -> {
+                    assertThat(lease.getName(), is("job"));
+                    assertThat(lease.getLockedBy(), is("node-2"));
+                    assertThat(lease.getLockedUntil(), is(now.plusSeconds(160)));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void releaseJobLease_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        persistence.acquireJobLease("job", "node-1", now, now.plusSeconds(60))
+                .then(persistence.releaseJobLease("job", "node-2", now.plusSeconds(10)))
+                .then(persistence.acquireJobLease("job", "node-2", now.plusSeconds(20), now.plusSeconds(80)))
+                .as(StepVerifier::create)
+                .expectNext(false)
+                .verifyComplete();
+
+        persistence.releaseJobLease("job", "node-1", now.plusSeconds(30))
+                .then(persistence.acquireJobLease("job", "node-2", now.plusSeconds(40), now.plusSeconds(100)))
+                .as(StepVerifier::create)
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void selectOutboxEmails_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        Flux.just(
+                        new OutboxEmail(null, "1@mail.com", "subject", "body", now, 0, now.minusSeconds(10), null, false),
+                        new OutboxEmail(null, "2@mail.com", "subject", "body", now, 0, now.minusSeconds(20), null, false),
+                        new OutboxEmail(null, "3@mail.com", "subject", "body", now, 0, now.minusSeconds(30), null, false),
+                        new OutboxEmail(null, "4@mail.com", "subject", "body", now, 8, now.minusSeconds(40), "error", true),
+                        new OutboxEmail(null, "5@mail.com", "subject", "body", now, 1, now.plusSeconds(10), "error", false)
+                )
+                .concatMap(template::insert)
+                .blockLast();
+
+        persistence.selectOutboxEmails(now, 2)
+                .as(StepVerifier::create)
+                .assertNext(emails -> {
+                    assertThat(emails.size(), is(2));
+                    assertThat(emails.getFirst().getRecipient(), is("3@mail.com"));
+                    assertThat(emails.getLast().getRecipient(), is("2@mail.com"));
+                })
+                .verifyComplete();
+
+        persistence.selectOutboxEmails(now, 10)
+                .as(StepVerifier::create)
+                .assertNext(emails -> assertThat(emails.stream().map(OutboxEmail::getRecipient).toList(),
+                        contains("3@mail.com", "2@mail.com", "1@mail.com"))
+                )
+                .verifyComplete();
+    }
+
+    @Test
+    void claimOutboxEmails_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+        final Instant claimedUntil = now.plusSeconds(300);
+
+        Flux.just(
+                        new OutboxEmail(null, "1@mail.com", "subject", "body", now, 0, now.minusSeconds(10), null, false),
+                        new OutboxEmail(null, "2@mail.com", "subject", "body", now, 0, now.minusSeconds(20), null, false),
+                        new OutboxEmail(null, "3@mail.com", "subject", "body", now, 0, now.minusSeconds(30), null, false),
+                        new OutboxEmail(null, "4@mail.com", "subject", "body", now, 8, now.minusSeconds(40), "error", true)
+                )
+                .concatMap(template::insert)
+                .blockLast();
+
+        persistence.claimOutboxEmails(now, claimedUntil, 2)
+                .as(StepVerifier::create)
+                .assertNext(emails -> {
+                    assertThat(emails.stream().map(OutboxEmail::getRecipient).toList(), contains("3@mail.com", "2@mail.com"));
+                    assertThat(emails.getFirst().getNextAttemptOn(), is(claimedUntil));
+                })
+                .verifyComplete();
+
+        // Claimed emails are not due anymore
+        persistence.claimOutboxEmails(now, claimedUntil, 10)
+                .as(StepVerifier::create)
+                .assertNext(emails -> assertThat(emails.stream().map(OutboxEmail::getRecipient).toList(), contains("1@mail.com")))
+                .verifyComplete();
+
+        persistence.claimOutboxEmails(now, claimedUntil, 10)
+                .as(StepVerifier::create)
+                .assertNext(emails -> assertThat(emails, hasSize(0)))
+                .verifyComplete();
+
+        // Due again when the claim expired, e.g. because the instance died
+        persistence.claimOutboxEmails(claimedUntil, claimedUntil.plusSeconds(300), 10)
+                .as(StepVerifier::create)
+                .assertNext(emails -> assertThat(emails, hasSize(3)))
+                .verifyComplete();
+    }
+
+    @Test
+    void claimOutboxEmails_positive_Concurrent() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        Flux.range(1, 20)
+                .map(i -> new OutboxEmail(null, i + "@mail.com", "subject", "body", now, 0, now.minusSeconds(i), null, false))
+                .concatMap(template::insert)
+                .blockLast();
+
+        // Several instances look into the outbox at the same time, each email is sent by one of them only
+        final List<OutboxEmail> claimed = Flux.range(0, 4)
+                .flatMap(i -> persistence.claimOutboxEmails(now, now.plusSeconds(300), 10).subscribeOn(Schedulers.parallel()))
+                .flatMapIterable(emails -> emails)
+                .collectList()
+                .block();
+
+        assertThat(Objects.requireNonNull(claimed).stream().map(OutboxEmail::getId).distinct().count(), is((long) claimed.size()));
+        assertThat(claimed.size(), is(greaterThanOrEqualTo(10)));
+    }
+
+    @Test
+    void updateOutboxEmails_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        final OutboxEmail email = template.insert(new OutboxEmail(null, "1@mail.com", "subject", "body", now, 0, now, null, false)).block();
+
+        Objects.requireNonNull(email).setAttempts(1);
+        email.setLastError("error");
+        email.setNextAttemptOn(now.plusSeconds(30));
+        email.setDeadLettered(true);
+
+        persistence.updateOutboxEmails(List.of(email))
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        template.selectOne(query(where("id").is(email.getId())), OutboxEmail.class)
+                .as(StepVerifier::create)
+                .assertNext(e -> {
+                    assertThat(e.getAttempts(), is(1));
+                    assertThat(e.getLastError(), is("error"));
+                    assertThat(e.getNextAttemptOn(), is(now.plusSeconds(30)));
+                    assertThat(e.getDeadLettered(), is(true));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void deleteOutboxEmails_positive() {
+
+        final Instant now = Instant.parse("2024-05-20T00:00:00Z");
+
+        final List<OutboxEmail> emails = Flux.just(
+                        new OutboxEmail(null, "1@mail.com", "subject", "body", now, 0, now, null, false),
+                        new OutboxEmail(null, "2@mail.com", "subject", "body", now, 0, now, null, false),
+                        new OutboxEmail(null, "3@mail.com", "subject", "body", now, 0, now, null, false)
+                )
+                .concatMap(template::insert)
+                .collectList()
+                .block();
+
+        assertCount(OutboxEmail.class, 3);
+
+        persistence.deleteOutboxEmails(List.of(Objects.requireNonNull(emails).getFirst().getId(), emails.getLast().getId()))
+                .as(StepVerifier::create)
+                .expectNext(2L)
+                .verifyComplete();
+
+        assertCount(OutboxEmail.class, 1);
+
+        persistence.deleteOutboxEmails(List.of())
+                .as(StepVerifier::create)
+                .expectNext(0L)
+                .verifyComplete();
+
+        assertCount(OutboxEmail.class, 1);
+    }
+
     @Test
     void insertProductAndPrice_positive() {
 
@@ -502,7 +999,7 @@ class PersistenceTest {
 
     static Stream<Arguments> insertProductAndPrice_negative_rollback() {
         return Stream.of(
-                Arguments.of(null, new BigDecimal("123.45"), "executeMany; bad SQL grammar [INSERT INTO \"products\" VALUES (DEFAULT)]"),
+                Arguments.of(null, new BigDecimal("123.45"), "NULL not allowed for column \"NAME\""),
                 Arguments.of("test-name", null, "NULL not allowed for column \"PRICE\"")
         );
     }
@@ -525,24 +1022,65 @@ class PersistenceTest {
     }
 
     @Test
-    void selectProduct_ByName_positive_ProductExists() {
+    void insertProducts_positive() {
 
-        final TestData testData = insertTestData();
+        insertTestData();
 
-        Mono.just(testData.product1.getName())
-                .flatMap(persistence::selectProduct)
+        persistence.insertProducts(List.of(
+                        new PostCreateProductRequest("Water", new BigDecimal("1.10")),
+                        new PostCreateProductRequest("Coffee", new BigDecimal("1.20")),
+                        new PostCreateProductRequest("Juice", new BigDecimal("1.30")),
+                        new PostCreateProductRequest("Water", new BigDecimal("1.40"))
+                ))
                 .as(StepVerifier::create)
-                .assertNext(product -> {
-                    assertThat(product.getId(), is(testData.product1.getId()));
-                    assertThat(product.getName(), is(testData.product1.getName()));
-                })
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "Product already exists", 3, "Product already exists"))))
+                .verifyComplete();
+
+        assertCount(Product.class, 5);
+        assertCount(ProductPrice.class, 9);
+
+        persistence.selectProduct("Water")
+                .flatMap(product -> persistence.selectProduct(product.getId()))
+                .as(StepVerifier::create)
+                .assertNext(product -> assertThat(product.getT2().getPrice(), is(new BigDecimal("1.10"))))
                 .verifyComplete();
     }
 
     @Test
-    void selectProduct_ByName_negative_ProductNotExists() {
-
-        final TestData testData = insertTestData();
+    void insertProducts_negative_rollback() {
+
+        persistence.insertProducts(List.of(
+                        new PostCreateProductRequest("Water", new BigDecimal("1.10")),
+                        new PostCreateProductRequest("Juice", null)
+                ))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error ->
+                        assertThat(error.getMessage(), containsString("NULL not allowed for column \"PRICE\""))
+                );
+
+        assertCount(Product.class, 0);
+        assertCount(ProductPrice.class, 0);
+    }
+
+    @Test
+    void selectProduct_ByName_positive_ProductExists() {
+
+        final TestData testData = insertTestData();
+
+        Mono.just(testData.product1.getName())
+                .flatMap(persistence::selectProduct)
+                .as(StepVerifier::create)
+                .assertNext(product -> {
+                    assertThat(product.getId(), is(testData.product1.getId()));
+                    assertThat(product.getName(), is(testData.product1.getName()));
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void selectProduct_ByName_negative_ProductNotExists() {
+
+        final TestData testData = insertTestData();
 
         Mono.just(testData.product1.getName() + "Not")
                 .flatMap(persistence::selectProduct)
@@ -925,6 +1463,153 @@ class PersistenceTest {
         assertCount(Purchase.class, testData.numOfPurchases + 1);
     }
 
+    @Test
+    void insertPurchase_positive_IdempotencyKey() {
+
+        final TestData testData = insertTestData();
+
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId(), "key-1")
+                .as(StepVerifier::create)
+                .assertNext(inserted -> assertThat(inserted, is(true)))
+                .verifyComplete();
+
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId(), "key-1")
+                .as(StepVerifier::create)
+                .assertNext(inserted -> assertThat(inserted, is(false)))
+                .verifyComplete();
+
+        // The key is unique per user
+        persistence.insertPurchase(testData.user2.getId(), testData.product1.getId(), "key-1")
+                .as(StepVerifier::create)
+                .assertNext(inserted -> assertThat(inserted, is(true)))
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases + 2);
+    }
+
+    @Test
+    void insertPurchases_positive() {
+
+        final TestData testData = insertTestData();
+
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId(), "client-0").block();
+
+        final List<PostSyncPurchasesRequest.Purchase> purchases = List.of(
+                new PostSyncPurchasesRequest.Purchase("client-1", testData.product1.getId(), Instant.parse("2024-05-19T12:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-2", testData.product1.getId(), Instant.parse("2024-05-20T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-3", testData.product1.getId(), Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-0", testData.product1.getId(), Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-1", testData.product2.getId(), Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-4", testData.product3.getId(), Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-5", testData.product1.getId(), Instant.now().plus(Duration.ofHours(1)))
+        );
+
+        persistence.insertPurchases(testData.user1.getId(), purchases)
+                .as(StepVerifier::create)
+                .assertNext(results -> assertThat(results, is(List.of(
+                        new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.CREATED, null),
+                        new PostSyncPurchasesResponse("client-2", PostSyncPurchasesResponse.Status.CREATED, null),
+                        new PostSyncPurchasesResponse("client-3", PostSyncPurchasesResponse.Status.CREATED, null),
+                        new PostSyncPurchasesResponse("client-0", PostSyncPurchasesResponse.Status.DUPLICATE, null),
+                        new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.DUPLICATE, null),
+                        new PostSyncPurchasesResponse("client-4", PostSyncPurchasesResponse.Status.REJECTED, "Product price not found"),
+                        new PostSyncPurchasesResponse("client-5", PostSyncPurchasesResponse.Status.REJECTED, "Timestamp in the future")
+                ))))
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases + 4);
+
+        // Priced at the time of the purchase
+        assertThat(selectPurchase("client-1").getProductPriceId(), is(testData.productPrice2.getId()));
+        assertThat(selectPurchase("client-2").getProductPriceId(), is(testData.productPrice3.getId()));
+        assertThat(selectPurchase("client-3").getProductPriceId(), is(testData.productPrice1.getId()));
+        assertThat(selectPurchase("client-1").getTimestamp(), is(Instant.parse("2024-05-19T12:00:00Z")));
+
+        // A retried flush books nothing
+        persistence.insertPurchases(testData.user1.getId(), purchases.subList(0, 3))
+                .as(StepVerifier::create)
+                .assertNext(results -> assertThat(results.stream().map(PostSyncPurchasesResponse::status).toList(),
+                        everyItem(is(PostSyncPurchasesResponse.Status.DUPLICATE))))
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases + 4);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void insertPurchases_positive_InsertedConcurrently() {
+
+        final TestData testData = insertTestData();
+
+        // The same flush sent twice at once: the first commits 'client-0' after the second looked for it
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId(), "client-0").block();
+
+        final R2dbcEntityTemplate racingTemplate = spy(template);
+        final ReactiveSelectOperation.ReactiveSelect<Purchase> lookupBeforeCommit = mock(ReactiveSelectOperation.ReactiveSelect.class);
+        final ReactiveSelectOperation.TerminatingSelect<Purchase> nothingFound = mock(ReactiveSelectOperation.TerminatingSelect.class);
+        doReturn(nothingFound).when(lookupBeforeCommit).matching(any(Query.class));
+        doReturn(Flux.empty()).when(nothingFound).all();
+        doReturn(lookupBeforeCommit).doCallRealMethod().when(racingTemplate).select(Purchase.class);
+
+        new Persistence(racingTemplate, transactionManager).insertPurchases(testData.user1.getId(), List.of(
+                        new PostSyncPurchasesRequest.Purchase("client-1", testData.product1.getId(), Instant.parse("2024-05-21T00:00:00Z")),
+                        new PostSyncPurchasesRequest.Purchase("client-0", testData.product1.getId(), Instant.parse("2024-05-21T00:00:00Z"))
+                ))
+                .as(StepVerifier::create)
+                .assertNext(results -> assertThat(results, is(List.of(
+                        new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.CREATED, null),
+                        new PostSyncPurchasesResponse("client-0", PostSyncPurchasesResponse.Status.DUPLICATE, null)
+                ))))
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases + 2);
+    }
+
+    @Test
+    void insertPurchases_negative_UserNotExist() {
+
+        final TestData testData = insertTestData();
+
+        persistence.insertPurchases(testData.user1.getId() + 100, List.of(
+                        new PostSyncPurchasesRequest.Purchase("client-1", testData.product1.getId(), Instant.parse("2024-05-21T00:00:00Z"))
+                ))
+                .as(StepVerifier::create)
+                .verifyError();
+
+        assertCount(Purchase.class, testData.numOfPurchases);
+    }
+
+    @Test
+    void insertPurchase_positive_FirstOfDayConcurrently() {
+
+        final TestData testData = insertTestData();
+
+        // Two first purchases of the day at once, e.g. a double tap on the kiosk: the other one commits the row of the
+        // day after this one found none
+        final R2dbcEntityTemplate racingTemplate = spy(template);
+        doAnswer(invocation -> {
+            final DailyConsumption day = invocation.getArgument(0);
+            template.insert(new DailyConsumption(null, day.getDayStart(), day.getProductId(), day.getUserId(), 1L, day.getRevenue())).block();
+            return invocation.callRealMethod();
+        }).when(racingTemplate).insert(any(DailyConsumption.class));
+
+        new Persistence(racingTemplate, transactionManager).insertPurchase(testData.user2.getId(), testData.product2.getId())
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases + 1);
+
+        template.select(query(where("product_id").is(testData.product2.getId()).and("user_id").is(testData.user2.getId())
+                        .and("day_start").is(LocalDate.now(ZoneOffset.UTC))), DailyConsumption.class)
+                .collectList()
+                .as(StepVerifier::create)
+                .assertNext(days -> {
+                    assertThat(days, hasSize(1));
+                    assertThat(days.getFirst().getPurchasesCount(), is(2L));
+                })
+                .verifyComplete();
+    }
+
     @Test
     void insertPurchase_negative_ProductPriceNotExist() {
 
@@ -976,7 +1661,7 @@ class PersistenceTest {
 
         persistence.selectPurchasesSum(testData.user1.getId())
                 .as(StepVerifier::create)
-                .assertNext(sum -> assertThat(sum, is(testData.productPrice1.getPrice().multiply(BigDecimal.TWO).add(testData.productPrice5.getPrice()))))
+                .assertNext(sum -> assertThat(sum, is(Money.of(testData.productPrice1.getPrice().multiply(BigDecimal.TWO).add(testData.productPrice5.getPrice())))))
                 .verifyComplete();
     }
 
@@ -987,62 +1672,181 @@ class PersistenceTest {
 
         persistence.selectPurchasesSum(testData.user1.getId() - 1)
                 .as(StepVerifier::create)
-                .assertNext(sum -> assertThat(sum, is(BigDecimal.ZERO)))
+                .assertNext(sum -> assertThat(sum, is(Money.ZERO)))
                 .verifyComplete();
     }
 
     @Test
-    void selectPurchasesSumAllUsers_positive() {
+    void deletePurchase_positive() {
 
         final TestData testData = insertTestData();
 
-        persistence.selectPurchasesSumAllUsers()
+        assertCount(Purchase.class, testData.numOfPurchases);
+
+        persistence.deletePurchase(testData.purchase1.getId())
                 .as(StepVerifier::create)
-                .assertNext(sums -> {
-                    assertThat(sums.size(), is(testData.numOfUsers));
-                    assertThat(sums.get(testData.user1.getId()), is(testData.productPrice1.getPrice().multiply(BigDecimal.TWO).add(testData.productPrice5.getPrice())));
-                    assertThat(sums.get(testData.user2.getId()), is(testData.productPrice1.getPrice().add(testData.productPrice2.getPrice()).add(testData.productPrice4.getPrice())));
-                })
                 .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases - 1);
     }
 
     @Test
-    void selectPurchasesSumAllUsers_positive_NoPurchases() {
+    void deletePurchase_negative_PurchaseIdNotExist() {
+
+        final TestData testData = insertTestData();
 
-        persistence.selectPurchasesSumAllUsers()
+        assertCount(Purchase.class, testData.numOfPurchases);
+
+        persistence.deletePurchase(testData.purchase1.getId() - 1)
                 .as(StepVerifier::create)
-                .assertNext(sums -> assertThat(sums.size(), is(0)))
+                .verifyErrorSatisfies(error ->
+                        assertThat(error.getMessage(), containsString("Purchase not deleted"))
+                );
+
+        assertCount(Purchase.class, testData.numOfPurchases);
+    }
+
+    @Test
+    void dailyConsumption_positive() {
+
+        final TestData testData = insertTestData();
+        final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        final LocalDate day = LocalDate.parse("2024-05-19");
+
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId()).block();
+        persistence.insertPurchase(testData.user1.getId(), testData.product1.getId()).block();
+        persistence.insertPurchase(testData.user2.getId(), testData.product2.getId()).block();
+        persistence.insertPurchases(testData.user1.getId(), List.of(
+                new PostSyncPurchasesRequest.Purchase("client-1", testData.product1.getId(), Instant.parse("2024-05-19T12:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-2", testData.product1.getId(), Instant.parse("2024-05-19T13:00:00Z"))
+        )).block();
+
+        // The purchases from the test data were not made through the persistence and are not in the rollup
+        persistence.selectRevenueStatistics(day, today)
+                .as(StepVerifier::create)
+                .assertNext(days -> assertThat(days, is(List.of(
+                        new GetRevenueStatisticsResponse(day, 2L, new BigDecimal("0.40")),
+                        new GetRevenueStatisticsResponse(today, 3L, new BigDecimal("1.10"))
+                ))))
+                .verifyComplete();
+
+        persistence.selectProductStatistics(day, today, 10)
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products, is(List.of(
+                        new GetProductStatisticsResponse(testData.product1.getId(), "Coffee", 4L, new BigDecimal("1.00")),
+                        new GetProductStatisticsResponse(testData.product2.getId(), "Tea", 1L, new BigDecimal("0.50"))
+                ))))
+                .verifyComplete();
+
+        persistence.selectProductStatistics(day, today, 1)
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products, hasSize(1)))
+                .verifyComplete();
+
+        persistence.selectUserStatistics(today, today)
+                .as(StepVerifier::create)
+                .assertNext(users -> assertThat(users, is(List.of(
+                        new GetUserStatisticsResponse("Alice@mail.com", "Coffee", 2L, new BigDecimal("0.60")),
+                        new GetUserStatisticsResponse("Bob@mail.com", "Tea", 1L, new BigDecimal("0.50"))
+                ))))
+                .verifyComplete();
+
+        persistence.selectRevenueStatistics(day.plusDays(1), day.plusDays(1))
+                .as(StepVerifier::create)
+                .assertNext(days -> assertThat(days, hasSize(0)))
+                .verifyComplete();
+
+        // Deleted purchases and users are removed from the rollup
+        persistence.deletePurchase(selectPurchase("client-1").getId()).block();
+        persistence.deleteUser(testData.user2.getId()).block();
+
+        persistence.selectRevenueStatistics(day, today)
+                .as(StepVerifier::create)
+                .assertNext(days -> assertThat(days, is(List.of(
+                        new GetRevenueStatisticsResponse(day, 1L, new BigDecimal("0.20")),
+                        new GetRevenueStatisticsResponse(today, 2L, new BigDecimal("0.60"))
+                ))))
+                .verifyComplete();
+
+        // Other tenants see nothing
+        persistence.selectRevenueStatistics(day, today)
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(days -> assertThat(days, hasSize(0)))
                 .verifyComplete();
     }
 
     @Test
-    void deletePurchase_positive() {
+    void dailyConsumption_positive_Backfill() {
+
+        insertTestData();
+
+        final LocalDate day = LocalDate.parse("2024-05-23");
+
+        // An empty rollup is filled on startup, a filled one is left alone
+        initializer.afterPropertiesSet();
+        initializer.afterPropertiesSet();
+
+        persistence.selectRevenueStatistics(day, day)
+                .as(StepVerifier::create)
+                .assertNext(days -> assertThat(days, is(List.of(
+                        new GetRevenueStatisticsResponse(day, 6L, new BigDecimal("2.05"))
+                ))))
+                .verifyComplete();
+    }
+
+    @Test
+    void streamPurchases_positive() {
 
         final TestData testData = insertTestData();
 
-        assertCount(Purchase.class, testData.numOfPurchases);
+        persistence.archivePurchases(Instant.parse("2024-05-23T15:00:00Z"), 10).block();
 
-        persistence.deletePurchase(testData.purchase1.getId())
+        // Archived ones included, oldest first
+        persistence.streamPurchases()
+                .map(GetExportPurchasesResponse::purchaseId)
+                .collectList()
                 .as(StepVerifier::create)
+                .assertNext(ids -> assertThat(ids, is(List.of(
+                        testData.purchase6.getId(), testData.purchase1.getId(), testData.purchase2.getId(),
+                        testData.purchase5.getId(), testData.purchase4.getId(), testData.purchase3.getId()
+                ))))
                 .verifyComplete();
 
-        assertCount(Purchase.class, testData.numOfPurchases - 1);
+        persistence.streamPurchases()
+                .take(1)
+                .as(StepVerifier::create)
+                .assertNext(purchase -> assertThat(purchase, is(new GetExportPurchasesResponse(testData.purchase6.getId(),
+                        Instant.parse("2024-05-23T12:36:24Z"), "Bob@mail.com", "Coffee", new BigDecimal("0.20")))))
+                .verifyComplete();
+
+        persistence.streamPurchases()
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .verifyComplete();
     }
 
     @Test
-    void deletePurchase_negative_PurchaseIdNotExist() {
+    void streamPayments_positive() {
 
         final TestData testData = insertTestData();
 
-        assertCount(Purchase.class, testData.numOfPurchases);
+        persistence.archivePayments(Instant.parse("2024-05-23T12:40:00Z"), 10).block();
 
-        persistence.deletePurchase(testData.purchase1.getId() - 1)
+        persistence.streamPayments()
+                .collectList()
                 .as(StepVerifier::create)
-                .verifyErrorSatisfies(error ->
-                        assertThat(error.getMessage(), containsString("Purchase not deleted"))
-                );
+                .assertNext(payments -> assertThat(payments, is(List.of(
+                        new GetExportPaymentsResponse(testData.payment2.getId(), Instant.parse("2024-05-23T12:36:24Z"), "Alice@mail.com", new BigDecimal("5.54")),
+                        new GetExportPaymentsResponse(testData.payment1.getId(), Instant.parse("2024-05-23T12:45:31Z"), "Alice@mail.com", new BigDecimal("1.87")),
+                        new GetExportPaymentsResponse(testData.payment3.getId(), Instant.parse("2024-05-23T17:24:17Z"), "Bob@mail.com", new BigDecimal("2.45"))
+                ))))
+                .verifyComplete();
 
-        assertCount(Purchase.class, testData.numOfPurchases);
+        persistence.streamPayments()
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .verifyComplete();
     }
 
     @Test
@@ -1054,7 +1858,7 @@ class PersistenceTest {
 
         assertCount(Payment.class, 0);
 
-        Mono.just(new Payment(null, userId, new BigDecimal("123.45"), Instant.parse("2024-02-20T14:59:02Z")))
+        Mono.just(new Payment(null, userId, new BigDecimal("123.45"), Instant.parse("2024-02-20T14:59:02Z"), null))
                 .flatMap(persistence::insertPayment)
                 .then(Mono.fromCallable(() -> userId))
                 .flatMap(persistence::selectPayments)
@@ -1084,10 +1888,10 @@ class PersistenceTest {
 
         assertCount(Payment.class, 0);
 
-        Mono.just(new Payment(null, userId, BigDecimal.ONE, Instant.now()))
+        Mono.just(new Payment(null, userId, BigDecimal.ONE, Instant.now(), null))
                 .flatMap(persistence::insertPayment)
                 .then(Mono.defer(() -> persistence.selectPayments(userId).map(List::getFirst)))
-                .map(p -> new Payment(p.id(), userId, p.amount(), p.timestamp()))
+                .map(p -> new Payment(p.id(), userId, p.amount(), p.timestamp(), null))
                 .flatMap(persistence::insertPayment)
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error ->
@@ -1098,12 +1902,84 @@ class PersistenceTest {
         assertCount(Payment.class, 1);
     }
 
+    @Test
+    void insertPayment_positive_IdempotencyKey() {
+
+        final TestData testData = insertTestData();
+
+        Mono.just(new Payment(null, testData.user1.getId(), BigDecimal.ONE, Instant.now(), "key-1"))
+                .flatMap(persistence::insertPayment)
+                .as(StepVerifier::create)
+                .assertNext(inserted -> assertThat(inserted, is(true)))
+                .verifyComplete();
+
+        Mono.just(new Payment(null, testData.user1.getId(), BigDecimal.TEN, Instant.now(), "key-1"))
+                .flatMap(persistence::insertPayment)
+                .as(StepVerifier::create)
+                .assertNext(inserted -> assertThat(inserted, is(false)))
+                .verifyComplete();
+
+        assertCount(Payment.class, testData.numOfPayments + 1);
+    }
+
+    @Test
+    void insertPayments_positive() {
+
+        final TestData testData = insertTestData();
+
+        persistence.insertPayments(List.of(
+                        new PostImportPaymentRequest("Alice@mail.com", new BigDecimal("10.00")),
+                        new PostImportPaymentRequest("Eve@mail.com", new BigDecimal("5.00")),
+                        new PostImportPaymentRequest("Alice@mail.com", new BigDecimal("2.50"))
+                ))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "User not found"))))
+                .verifyComplete();
+
+        assertCount(Payment.class, testData.numOfPayments + 2);
+
+        persistence.selectPaymentsSum(testData.user1.getId())
+                .as(StepVerifier::create)
+                .assertNext(sum -> assertThat(sum, is(Money.of(new BigDecimal("19.91")))))
+                .verifyComplete();
+
+        // Users of other tenants are not found
+        persistence.insertPayments(List.of(new PostImportPaymentRequest("Alice@mail.com", BigDecimal.ONE)))
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(0, "User not found"))))
+                .verifyComplete();
+    }
+
+    @Test
+    void insertPayments_positive_MoreRowsThanOneStatement() {
+
+        final TestData testData = insertTestData();
+
+        // More rows than fit into one multi-row insert
+        final List<PostImportPaymentRequest> payments = IntStream.range(0, 2500)
+                .mapToObj(i -> new PostImportPaymentRequest("Alice@mail.com", new BigDecimal("0.01")))
+                .toList();
+
+        persistence.insertPayments(payments)
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of())))
+                .verifyComplete();
+
+        assertCount(Payment.class, testData.numOfPayments + 2500);
+
+        persistence.selectPaymentsSum(testData.user1.getId())
+                .as(StepVerifier::create)
+                .assertNext(sum -> assertThat(sum, is(Money.of(new BigDecimal("32.41")))))
+                .verifyComplete();
+    }
+
     @Test
     void insertPayment_negative_UserIdNull() {
 
         assertCount(Payment.class, 0);
 
-        Mono.just(new Payment(null, null, BigDecimal.ONE, Instant.now()))
+        Mono.just(new Payment(null, null, BigDecimal.ONE, Instant.now(), null))
                 .flatMap(persistence::insertPayment)
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error ->
@@ -1140,11 +2016,11 @@ class PersistenceTest {
     static Stream<Arguments> insertPayment_negative_NullNotAllowed() {
         return Stream.of(
                 Arguments.of(
-                        new Payment(null, null, null, Instant.now()),
+                        new Payment(null, null, null, Instant.now(), null),
                         "NULL not allowed for column \"AMOUNT\""
                 ),
                 Arguments.of(
-                        new Payment(null, null, BigDecimal.ONE, null),
+                        new Payment(null, null, BigDecimal.ONE, null, null),
                         "NULL not allowed for column \"TIMESTAMP\""
                 )
         );
@@ -1191,7 +2067,7 @@ class PersistenceTest {
 
         persistence.selectPaymentsSum(testData.user1.getId())
                 .as(StepVerifier::create)
-                .assertNext(sum -> assertThat(sum, is(testData.payment1.getAmount().add(testData.payment2.getAmount()))))
+                .assertNext(sum -> assertThat(sum, is(Money.of(testData.payment1.getAmount().add(testData.payment2.getAmount())))))
                 .verifyComplete();
     }
 
@@ -1202,62 +2078,206 @@ class PersistenceTest {
 
         persistence.selectPaymentsSum(testData.user1.getId() - 1)
                 .as(StepVerifier::create)
-                .assertNext(sum -> assertThat(sum, is(BigDecimal.ZERO)))
+                .assertNext(sum -> assertThat(sum, is(Money.ZERO)))
                 .verifyComplete();
     }
 
     @Test
-    void selectPaymentsSumAllUsers_positive() {
+    void deletePayment_positive() {
 
         final TestData testData = insertTestData();
 
-        persistence.selectPaymentsSumAllUsers()
+        assertCount(Payment.class, testData.numOfPayments);
+
+        persistence.deletePayment(testData.payment1.getId())
                 .as(StepVerifier::create)
-                .assertNext(sums -> {
-                    assertThat(sums.size(), is(testData.numOfUsers));
-                    assertThat(sums.get(testData.user1.getId()), is(testData.payment1.getAmount().add(testData.payment2.getAmount())));
-                    assertThat(sums.get(testData.user2.getId()), is(testData.payment3.getAmount()));
-                })
                 .verifyComplete();
+
+        assertCount(Payment.class, testData.numOfPayments - 1);
     }
 
     @Test
-    void selectPaymentsSumAllUsers_positive_NoPayments() {
+    void deletePayment_negative_PaymentIdNotExist() {
+
+        final TestData testData = insertTestData();
+
+        assertCount(Payment.class, testData.numOfPayments);
 
-        persistence.selectPaymentsSumAllUsers()
+        persistence.deletePayment(testData.payment1.getId() - 1)
                 .as(StepVerifier::create)
-                .assertNext(sums -> assertThat(sums.size(), is(0)))
+                .verifyErrorSatisfies(error ->
+                        assertThat(error.getMessage(), containsString("Payment not deleted"))
+                );
+
+        assertCount(Payment.class, testData.numOfPayments);
+    }
+
+    @Test
+    void archivePurchases_positive() {
+
+        final TestData testData = insertTestData();
+
+        persistence.archivePurchases(Instant.parse("2024-05-23T16:00:00Z"), 10)
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(2L)))
+                .verifyComplete();
+
+        assertCount(Purchase.class, testData.numOfPurchases - 2);
+        assertArchived("purchases_archive", 2);
+
+        template.select(MonthlyRollup.class).matching(query(where("user_id").is(testData.user1.getId()))).one()
+                .as(StepVerifier::create)
+                .assertNext(rollup -> {
+                    assertThat(rollup.getMonthStart(), is(LocalDate.parse("2024-05-01")));
+                    assertThat(rollup.getPurchasesCount(), is(1L));
+                    assertThat(rollup.getPurchasesSum(), is(testData.productPrice1.getPrice()));
+                    assertThat(rollup.getPaymentsCount(), is(0L));
+                    assertThat(rollup.getPaymentsSum(), is(new BigDecimal("0.00")));
+                })
+                .verifyComplete();
+
+        template.select(BalanceSnapshot.class).matching(query(where("user_id").is(testData.user2.getId()))).one()
+                .as(StepVerifier::create)
+                .assertNext(snapshot -> {
+                    assertThat(snapshot.getPurchasesSum(), is(testData.productPrice2.getPrice()));
+                    assertThat(snapshot.getPaymentsSum(), is(new BigDecimal("0.00")));
+                    assertThat(snapshot.getArchivedUntil(), is(Instant.parse("2024-05-23T16:00:00Z")));
+                })
+                .verifyComplete();
+
+        // The sums include the archived purchases
+        persistence.selectPurchasesSum(testData.user1.getId())
+                .as(StepVerifier::create)
+                .assertNext(sum -> assertThat(sum, is(Money.of(testData.productPrice1.getPrice().multiply(BigDecimal.TWO).add(testData.productPrice5.getPrice())))))
+                .verifyComplete();
+
+        // The history only on request
+        persistence.selectPurchases(testData.user1.getId(), false)
+                .as(StepVerifier::create)
+                .assertNext(purchases -> assertThat(purchases.size(), is(2)))
+                .verifyComplete();
+
+        persistence.selectPurchases(testData.user1.getId(), true)
+                .as(StepVerifier::create)
+                .assertNext(purchases -> {
+                    assertThat(purchases.size(), is(3));
+                    assertThat(purchases.stream().map(GetPurchasesResponse::purchaseId).toList(), hasItem(testData.purchase1.getId()));
+                })
                 .verifyComplete();
     }
 
     @Test
-    void deletePayment_positive() {
+    void archivePurchases_positive_Chunks() {
 
         final TestData testData = insertTestData();
 
-        assertCount(Payment.class, testData.numOfPayments);
+        persistence.archivePurchases(Instant.parse("2024-05-24T00:00:00Z"), 4)
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(4L)))
+                .verifyComplete();
 
-        persistence.deletePayment(testData.payment1.getId())
+        persistence.archivePurchases(Instant.parse("2024-05-24T00:00:00Z"), 4)
                 .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(2L)))
                 .verifyComplete();
 
-        assertCount(Payment.class, testData.numOfPayments - 1);
+        assertCount(Purchase.class, 0);
+        assertArchived("purchases_archive", testData.numOfPurchases);
+        assertCount(MonthlyRollup.class, testData.numOfUsers);
+
+        // Added up over both chunks
+        template.select(MonthlyRollup.class).matching(query(where("user_id").is(testData.user2.getId()))).one()
+                .as(StepVerifier::create)
+                .assertNext(rollup -> {
+                    assertThat(rollup.getPurchasesCount(), is(3L));
+                    assertThat(rollup.getPurchasesSum(), is(testData.productPrice1.getPrice().add(testData.productPrice2.getPrice()).add(testData.productPrice4.getPrice())));
+                })
+                .verifyComplete();
+
+        persistence.selectPurchasesSum(testData.user2.getId())
+                .as(StepVerifier::create)
+                .assertNext(sum -> assertThat(sum, is(Money.of(testData.productPrice1.getPrice().add(testData.productPrice2.getPrice()).add(testData.productPrice4.getPrice())))))
+                .verifyComplete();
     }
 
     @Test
-    void deletePayment_negative_PaymentIdNotExist() {
+    void archivePurchases_positive_NothingToArchive() {
 
         final TestData testData = insertTestData();
 
-        assertCount(Payment.class, testData.numOfPayments);
+        persistence.archivePurchases(Instant.parse("2024-05-01T00:00:00Z"), 10)
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(0L)))
+                .verifyComplete();
 
-        persistence.deletePayment(testData.payment1.getId() - 1)
+        assertCount(Purchase.class, testData.numOfPurchases);
+        assertCount(MonthlyRollup.class, 0);
+        assertCount(BalanceSnapshot.class, 0);
+    }
+
+    @Test
+    void archivePayments_positive() {
+
+        final TestData testData = insertTestData();
+
+        persistence.archivePurchases(Instant.parse("2024-05-24T00:00:00Z"), 10).block();
+
+        persistence.archivePayments(Instant.parse("2024-05-24T00:00:00Z"), 10)
                 .as(StepVerifier::create)
-                .verifyErrorSatisfies(error ->
-                        assertThat(error.getMessage(), containsString("Payment not deleted"))
-                );
+                .assertNext(count -> assertThat(count, is(3L)))
+                .verifyComplete();
 
-        assertCount(Payment.class, testData.numOfPayments);
+        assertCount(Payment.class, 0);
+        assertArchived("payments_archive", testData.numOfPayments);
+
+        // Same rollup and snapshot as the purchases
+        template.select(MonthlyRollup.class).matching(query(where("user_id").is(testData.user1.getId()))).one()
+                .as(StepVerifier::create)
+                .assertNext(rollup -> {
+                    assertThat(rollup.getPurchasesCount(), is(3L));
+                    assertThat(rollup.getPaymentsCount(), is(2L));
+                    assertThat(rollup.getPaymentsSum(), is(testData.payment1.getAmount().add(testData.payment2.getAmount())));
+                })
+                .verifyComplete();
+
+        assertCount(BalanceSnapshot.class, testData.numOfUsers);
+
+        persistence.selectPaymentsSum(testData.user1.getId())
+                .as(StepVerifier::create)
+                .assertNext(sum -> assertThat(sum, is(Money.of(testData.payment1.getAmount().add(testData.payment2.getAmount())))))
+                .verifyComplete();
+
+        persistence.selectPayments(testData.user1.getId(), false)
+                .as(StepVerifier::create)
+                .assertNext(payments -> assertThat(payments.size(), is(0)))
+                .verifyComplete();
+
+        persistence.selectPayments(testData.user1.getId(), true)
+                .as(StepVerifier::create)
+                .assertNext(payments -> {
+                    assertThat(payments.size(), is(2));
+                    assertThat(payments.stream().map(GetPaymentsResponse::id).toList(), containsInAnyOrder(testData.payment1.getId(), testData.payment2.getId()));
+                })
+                .verifyComplete();
+    }
+
+    void assertArchived(final String table, final long count) {
+        template.getDatabaseClient().sql("select count(*) as count from %s".formatted(table))
+                .map(row -> Objects.requireNonNull(row.get("count", Long.class)))
+                .one()
+                .as(StepVerifier::create)
+                .expectNext(count)
+                .verifyComplete();
+    }
+
+    Purchase selectPurchase(final String idempotencyKey) {
+        return template.selectOne(query(where("idempotency_key").is(idempotencyKey)), Purchase.class).block();
+    }
+
+    private List<String> selectUsers(final GetUsersRequest request) {
+        return Objects.requireNonNull(persistence.selectUsers(request).block()).stream()
+                .map(user -> user.getT1().getEmail() + " " + user.getT2())
+                .toList();
     }
 
     void assertCount(Class<?> clazz, final long count) {
@@ -1268,6 +2288,75 @@ class PersistenceTest {
         ;
     }
 
+    @Test
+    void tenants_positive_DataSeparated() {
+
+        final TestData testData = insertTestData();
+
+        persistence.selectUser(testData.user1.getEmail())
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), containsString("User does not exist")));
+
+        persistence.selectUsers()
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(users -> assertThat(users.size(), is(0)))
+                .verifyComplete();
+
+        persistence.selectProducts()
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products.size(), is(0)))
+                .verifyComplete();
+
+        persistence.deletePurchase(testData.purchase1.getId())
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .verifyError();
+
+        // The same email and product name may be used by another tenant
+        Mono.just(new User(null, testData.user1.getEmail(), "", "", "", Instant.now(), true))
+                .flatMap(persistence::insertUser)
+                .then(persistence.insertProductAndPrice(testData.product1.getName(), BigDecimal.ONE))
+                .then(persistence.selectUsers())
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(users -> assertThat(users.size(), is(1)))
+                .verifyComplete();
+
+        persistence.selectProducts()
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .assertNext(products -> {
+                    assertThat(products.size(), is(1));
+                    assertThat(products.getFirst().getT2().getPrice(), is(new BigDecimal("1.00")));
+                })
+                .verifyComplete();
+
+        assertCount(User.class, testData.numOfUsers + 1);
+        assertCount(Product.class, 4);
+
+        // The default tenant is unchanged
+        persistence.selectUsers()
+                .as(StepVerifier::create)
+                .assertNext(users -> assertThat(users.size(), is(testData.numOfUsers)))
+                .verifyComplete();
+    }
+
+    @Test
+    void updateProductPrice_negative_ProductOfOtherTenant() {
+
+        final TestData testData = insertTestData();
+
+        persistence.updateProductPrice(testData.product1.getId(), BigDecimal.TEN)
+                .contextWrite(TenantContext.of("bar-1"))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Product not found")));
+
+        assertCount(ProductPrice.class, testData.numOfProductPrices);
+    }
+
     private TestData insertTestData() {
 
         final TestData testData = new TestData();
@@ -1293,19 +2382,19 @@ class PersistenceTest {
         testData.productPrice7 = template.insert(new ProductPrice(null, testData.product3.getId(), new BigDecimal("0.60"), Instant.parse("2024-05-20T15:10:56Z"))).block();
 
         testData.numOfPurchases = 6;
-        testData.purchase1 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T12:45:31Z"))).block();
-        testData.purchase2 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice5.getId(), Instant.parse("2024-05-23T16:32:53Z"))).block();
-        testData.purchase3 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T21:51:13Z"))).block();
+        testData.purchase1 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T12:45:31Z"), null)).block();
+        testData.purchase2 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice5.getId(), Instant.parse("2024-05-23T16:32:53Z"), null)).block();
+        testData.purchase3 = template.insert(new Purchase(null, testData.user1.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T21:51:13Z"), null)).block();
 
-        testData.purchase4 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice4.getId(), Instant.parse("2024-05-23T18:13:53Z"))).block();
-        testData.purchase5 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T17:24:17Z"))).block();
-        testData.purchase6 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice2.getId(), Instant.parse("2024-05-23T12:36:24Z"))).block();
+        testData.purchase4 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice4.getId(), Instant.parse("2024-05-23T18:13:53Z"), null)).block();
+        testData.purchase5 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice1.getId(), Instant.parse("2024-05-23T17:24:17Z"), null)).block();
+        testData.purchase6 = template.insert(new Purchase(null, testData.user2.getId(), testData.productPrice2.getId(), Instant.parse("2024-05-23T12:36:24Z"), null)).block();
 
         testData.numOfPayments = 3;
-        testData.payment1 = template.insert(new Payment(null, testData.user1.getId(), new BigDecimal("1.87"), Instant.parse("2024-05-23T12:45:31Z"))).block();
-        testData.payment2 = template.insert(new Payment(null, testData.user1.getId(), new BigDecimal("5.54"), Instant.parse("2024-05-23T12:36:24Z"))).block();
+        testData.payment1 = template.insert(new Payment(null, testData.user1.getId(), new BigDecimal("1.87"), Instant.parse("2024-05-23T12:45:31Z"), null)).block();
+        testData.payment2 = template.insert(new Payment(null, testData.user1.getId(), new BigDecimal("5.54"), Instant.parse("2024-05-23T12:36:24Z"), null)).block();
 
-        testData.payment3 = template.insert(new Payment(null, testData.user2.getId(), new BigDecimal("2.45"), Instant.parse("2024-05-23T17:24:17Z"))).block();
+        testData.payment3 = template.insert(new Payment(null, testData.user2.getId(), new BigDecimal("2.45"), Instant.parse("2024-05-23T17:24:17Z"), null)).block();
 
         return testData;
     }
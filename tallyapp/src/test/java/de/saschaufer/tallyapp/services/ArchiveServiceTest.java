@@ -0,0 +1,86 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ArchiveServiceTest {
+
+    private Persistence persistence;
+    private ArchiveService archiveService;
+
+    @BeforeEach
+    void beforeEach() {
+        persistence = mock(Persistence.class);
+        final JobProperties jobProperties = new JobProperties(Duration.ofMinutes(5),
+                new JobProperties.DeleteUnregisteredUsers(Duration.ofMinutes(5), 100, Duration.ZERO),
+                new JobProperties.Archive(Duration.ofHours(24), Duration.ofDays(365), 2, Duration.ZERO)
+        );
+        archiveService = new ArchiveService(persistence, jobProperties);
+    }
+
+    @Test
+    void archive_positive() {
+
+        doReturn(Mono.just(1L)).when(persistence).archivePurchases(any(Instant.class), anyInt());
+        doReturn(Mono.just(0L)).when(persistence).archivePayments(any(Instant.class), anyInt());
+
+        archiveService.archive()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(1L)))
+                .verifyComplete();
+
+        final ArgumentCaptor<Instant> argumentCaptorPurchases = ArgumentCaptor.forClass(Instant.class);
+        final ArgumentCaptor<Instant> argumentCaptorPayments = ArgumentCaptor.forClass(Instant.class);
+        verify(persistence, times(1)).archivePurchases(argumentCaptorPurchases.capture(), eq(2));
+        verify(persistence, times(1)).archivePayments(argumentCaptorPayments.capture(), eq(2));
+
+        // Same horizon for both
+        assertThat(argumentCaptorPurchases.getValue(), is(argumentCaptorPayments.getValue()));
+        assertThat(argumentCaptorPurchases.getValue().isAfter(Instant.now().minus(Duration.ofDays(365)).minusSeconds(60)), is(true));
+        assertThat(argumentCaptorPurchases.getValue().isBefore(Instant.now().minus(Duration.ofDays(365))), is(true));
+    }
+
+    @Test
+    void archive_positive_Chunks() {
+
+        doReturn(Mono.just(2L), Mono.just(2L), Mono.just(1L)).when(persistence).archivePurchases(any(Instant.class), anyInt());
+        doReturn(Mono.just(2L), Mono.just(0L)).when(persistence).archivePayments(any(Instant.class), anyInt());
+
+        archiveService.archive()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(7L)))
+                .verifyComplete();
+
+        verify(persistence, times(3)).archivePurchases(any(Instant.class), eq(2));
+        verify(persistence, times(2)).archivePayments(any(Instant.class), eq(2));
+    }
+
+    @Test
+    void archive_negative_ChunkFailed() {
+
+        doReturn(Mono.just(2L), Mono.error(new RuntimeException("Error"))).when(persistence).archivePurchases(any(Instant.class), anyInt());
+        doReturn(Mono.just(0L)).when(persistence).archivePayments(any(Instant.class), anyInt());
+
+        archiveService.archive()
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+
+        verify(persistence, times(2)).archivePurchases(any(Instant.class), anyInt());
+        verify(persistence, times(0)).archivePayments(any(Instant.class), anyInt());
+    }
+}
@@ -0,0 +1,103 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.diagnostics.DiagnosticsProperties;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class DiagnosticsServiceTest {
+
+    private DiagnosticsService diagnosticsService;
+
+    @BeforeEach
+    void beforeEach() {
+        diagnosticsService = new DiagnosticsService(new DiagnosticsProperties(Duration.ofSeconds(10), "default"));
+    }
+
+    @Test
+    void record_positive() throws IOException {
+
+        final Path file = diagnosticsService.record(Duration.ofMillis(200)).block();
+
+        assertThat(file, notNullValue());
+        assertThat(RecordingFile.readAllEvents(file), not(empty()));
+
+        // Reading deletes the file
+        final long size = Files.size(file);
+        final long read = diagnosticsService.read(file)
+                .map(buffer -> {
+                    final long readable = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return readable;
+                })
+                .reduce(0L, Long::sum)
+                .block();
+
+        assertThat(read, is(size));
+        assertThat(Files.exists(file), is(false));
+    }
+
+    @Test
+    void record_positive_AfterPreviousRecording() {
+
+        diagnosticsService.record(Duration.ofMillis(100)).flatMapMany(diagnosticsService::read).blockLast();
+        diagnosticsService.record(Duration.ofMillis(100)).flatMapMany(diagnosticsService::read).blockLast();
+    }
+
+    @Test
+    void record_negative_TooLong() {
+
+        diagnosticsService.record(Duration.ofSeconds(11))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> {
+                    assertThat(error, instanceOf(ResponseStatusException.class));
+                    assertThat(((ResponseStatusException) error).getStatusCode(), is(HttpStatus.BAD_REQUEST));
+                    assertThat(((ResponseStatusException) error).getReason(), is("Recording duration must not exceed 10 seconds"));
+                });
+    }
+
+    @Test
+    void record_negative_AlreadyRunning() {
+
+        final Mono<Path> first = diagnosticsService.record(Duration.ofMillis(500));
+        final Mono<Path> second = diagnosticsService.record(Duration.ofMillis(500)).delaySubscription(Duration.ofMillis(100));
+
+        Mono.zipDelayError(first, second)
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> {
+                    assertThat(error, instanceOf(ResponseStatusException.class));
+                    assertThat(((ResponseStatusException) error).getStatusCode(), is(HttpStatus.CONFLICT));
+                });
+    }
+
+    @Test
+    void threadDump_positive() {
+
+        diagnosticsService.threadDump()
+                .as(StepVerifier::create)
+                .assertNext(dump -> assertThat(dump, containsString("Full thread dump")))
+                .verifyComplete();
+    }
+
+    @Test
+    void classHistogram_positive() {
+
+        diagnosticsService.classHistogram()
+                .as(StepVerifier::create)
+                .assertNext(histogram -> assertThat(histogram, containsString("java.lang.String")))
+                .verifyComplete();
+    }
+}
@@ -1,106 +1,200 @@
 package de.saschaufer.tallyapp.services;
 
 import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.OutboxEmail;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
-import org.springframework.http.HttpStatus;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
-import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class EmailServiceTest {
 
-    private JavaMailSender emailSenderMock;
+    private MailTransportPool mailTransportPool;
+    private Persistence persistence;
     private EmailService emailService;
 
     @BeforeEach
     void beforeEach() {
-        emailSenderMock = mock(JavaMailSender.class);
-        final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://url-register", Duration.ofSeconds(1));
-        emailService = new EmailService(emailProperties, emailSenderMock);
+        mailTransportPool = mock(MailTransportPool.class);
+        persistence = mock(Persistence.class);
+        final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://url-register", Duration.ofSeconds(1),
+                new EmailProperties.Outbox(Duration.ofSeconds(1), 10, 3, Duration.ofMinutes(1), Duration.ofMinutes(5)),
+                new EmailProperties.Pool(1, 10, Duration.ofMinutes(1))
+        );
+        emailService = new EmailService(emailProperties, mailTransportPool, persistence);
+
+        doReturn(Mono.just(0L)).when(persistence).deleteOutboxEmails(anyList());
+        doReturn(Mono.empty()).when(persistence).updateOutboxEmails(anyList());
     }
 
     @Test
-    void sendRegistrationEmail_positive() {
+    void createRegistrationEmail_positive() {
 
-        assertDoesNotThrow(() -> emailService.sendRegistrationEmail("to@mail.com", "secret"));
+        final OutboxEmail email = emailService.createRegistrationEmail("to@mail.com", "secret", "http://url-register/bar-1");
 
-        final ArgumentCaptor<SimpleMailMessage> argumentCaptorEmail = ArgumentCaptor.forClass(SimpleMailMessage.class);
-        verify(emailSenderMock, times(1)).send(argumentCaptorEmail.capture());
+        assertThat(email.getId(), nullValue());
+        assertThat(email.getRecipient(), is("to@mail.com"));
+        assertThat(email.getSubject(), is("Tally App registration"));
+        assertThat(email.getBody(), containsString("http://url-register/bar-1/#/register/confirm?e=dG9AbWFpbC5jb20%3D&s=c2VjcmV0"));
+        assertThat(email.getAttempts(), is(0));
+        assertThat(email.getNextAttemptOn(), is(email.getCreatedOn()));
+        assertThat(email.getDeadLettered(), is(false));
+    }
+
+    @Test
+    void createResetPasswordEmail_positive() {
 
-        assertThat(argumentCaptorEmail.getValue().getFrom(), is("from@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getTo(), notNullValue());
-        assertThat(argumentCaptorEmail.getValue().getTo().length, is(1));
-        assertThat(argumentCaptorEmail.getValue().getTo()[0], is("to@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getSubject(), is("Tally App registration"));
-        assertThat(argumentCaptorEmail.getValue().getText(), containsString("http://url-register/#/register/confirm?e=dG9AbWFpbC5jb20%3D&s=c2VjcmV0"));
+        final OutboxEmail email = emailService.createResetPasswordEmail("to@mail.com", "abc123");
+
+        assertThat(email.getId(), nullValue());
+        assertThat(email.getRecipient(), is("to@mail.com"));
+        assertThat(email.getSubject(), is("Tally App reset password"));
+        assertThat(email.getBody(), containsString("abc123"));
+        assertThat(email.getAttempts(), is(0));
+        assertThat(email.getNextAttemptOn(), is(email.getCreatedOn()));
+        assertThat(email.getDeadLettered(), is(false));
     }
 
     @Test
-    void sendRegistrationEmail_negative() {
+    void createImportedUserEmail_positive() {
 
-        doThrow(new RuntimeException("Bad")).when(emailSenderMock).send(any(SimpleMailMessage.class));
+        final OutboxEmail email = emailService.createImportedUserEmail("to@mail.com", "abc123");
 
-        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> emailService.sendRegistrationEmail("to@mail.com", "secret"));
+        assertThat(email.getId(), nullValue());
+        assertThat(email.getRecipient(), is("to@mail.com"));
+        assertThat(email.getSubject(), is("Tally App account"));
+        assertThat(email.getBody(), containsString("abc123"));
+        assertThat(email.getDeadLettered(), is(false));
+    }
 
-        assertThat(e.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
-        assertThat(e.getMessage(), containsString("Error sending registration email"));
+    @Test
+    void sendOutboxEmails_positive() {
+
+        doReturn(Mono.just(List.of(outboxEmail(1L, "to-1@mail.com", 0), outboxEmail(2L, "to-2@mail.com", 0))))
+                .when(persistence).claimOutboxEmails(any(Instant.class), any(Instant.class), anyInt());
+        doReturn(Mono.just(Map.of())).when(mailTransportPool).send(anyList());
+
+        emailService.sendOutboxEmails()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(2)))
+                .verifyComplete();
+
+        @SuppressWarnings("unchecked") final ArgumentCaptor<List<SimpleMailMessage>> argumentCaptorEmail = ArgumentCaptor.forClass(List.class);
+        verify(mailTransportPool, times(1)).send(argumentCaptorEmail.capture());
+
+        final List<SimpleMailMessage> messages = argumentCaptorEmail.getValue();
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0).getFrom(), is("from@mail.com"));
+        assertThat(messages.get(0).getTo(), is(new String[]{"to-1@mail.com"}));
+        assertThat(messages.get(0).getSubject(), is("subject"));
+        assertThat(messages.get(0).getText(), is("body"));
+        assertThat(messages.get(1).getTo(), is(new String[]{"to-2@mail.com"}));
+
+        verify(persistence, times(1)).claimOutboxEmails(any(Instant.class), any(Instant.class), eq(10));
+        verify(persistence, times(1)).deleteOutboxEmails(List.of(1L, 2L));
+        verify(persistence, times(1)).updateOutboxEmails(List.of());
+    }
+
+    @Test
+    void sendOutboxEmails_positive_NoEmails() {
 
-        final ArgumentCaptor<SimpleMailMessage> argumentCaptorEmail = ArgumentCaptor.forClass(SimpleMailMessage.class);
-        verify(emailSenderMock, times(1)).send(argumentCaptorEmail.capture());
+        doReturn(Mono.just(List.of())).when(persistence).claimOutboxEmails(any(Instant.class), any(Instant.class), anyInt());
 
-        assertThat(argumentCaptorEmail.getValue().getFrom(), is("from@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getTo(), notNullValue());
-        assertThat(argumentCaptorEmail.getValue().getTo().length, is(1));
-        assertThat(argumentCaptorEmail.getValue().getTo()[0], is("to@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getSubject(), is("Tally App registration"));
-        assertThat(argumentCaptorEmail.getValue().getText(), containsString("http://url-register/#/register/confirm?e=dG9AbWFpbC5jb20%3D&s=c2VjcmV0"));
+        emailService.sendOutboxEmails()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(0)))
+                .verifyComplete();
+
+        verify(mailTransportPool, times(0)).send(anyList());
+        verify(persistence, times(0)).deleteOutboxEmails(anyList());
+        verify(persistence, times(0)).updateOutboxEmails(anyList());
     }
 
     @Test
-    void sendResetPasswordEmail_positive() {
+    void sendOutboxEmails_negative_OneEmailFailed() {
+
+        final OutboxEmail email1 = outboxEmail(1L, "to-1@mail.com", 0);
+        final OutboxEmail email2 = outboxEmail(2L, "to-2@mail.com", 0);
 
-        assertDoesNotThrow(() -> emailService.sendResetPasswordEmail("to@mail.com", "abc123"));
+        doReturn(Mono.just(List.of(email1, email2))).when(persistence).claimOutboxEmails(any(Instant.class), any(Instant.class), anyInt());
 
-        final ArgumentCaptor<SimpleMailMessage> argumentCaptorEmail = ArgumentCaptor.forClass(SimpleMailMessage.class);
-        verify(emailSenderMock, times(1)).send(argumentCaptorEmail.capture());
+        doReturn(Mono.just(Map.of(1, new RuntimeException("Bad")))).when(mailTransportPool).send(anyList());
 
-        assertThat(argumentCaptorEmail.getValue().getFrom(), is("from@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getTo(), notNullValue());
-        assertThat(argumentCaptorEmail.getValue().getTo().length, is(1));
-        assertThat(argumentCaptorEmail.getValue().getTo()[0], is("to@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getSubject(), is("Tally App reset password"));
-        assertThat(argumentCaptorEmail.getValue().getText(), containsString("abc123"));
+        emailService.sendOutboxEmails()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(1)))
+                .verifyComplete();
+
+        verify(persistence, times(1)).deleteOutboxEmails(List.of(1L));
+        verify(persistence, times(1)).updateOutboxEmails(List.of(email2));
+
+        assertThat(email2.getAttempts(), is(1));
+        assertThat(email2.getLastError(), is("Bad"));
+        assertThat(email2.getNextAttemptOn(), is(greaterThan(Instant.now().plusSeconds(50))));
+        assertThat(email2.getNextAttemptOn(), is(lessThan(Instant.now().plusSeconds(70))));
+        assertThat(email2.getDeadLettered(), is(false));
     }
 
     @Test
-    void sendResetPasswordEmail_negative() {
+    void sendOutboxEmails_negative_ConnectionFailed() {
+
+        final OutboxEmail email1 = outboxEmail(1L, "to-1@mail.com", 1);
+        final OutboxEmail email2 = outboxEmail(2L, "to-2@mail.com", 2);
 
-        doThrow(new RuntimeException("Bad")).when(emailSenderMock).send(any(SimpleMailMessage.class));
+        doReturn(Mono.just(List.of(email1, email2))).when(persistence).claimOutboxEmails(any(Instant.class), any(Instant.class), anyInt());
+        doReturn(Mono.just(Map.of(0, new RuntimeException("Bad"), 1, new RuntimeException("Bad")))).when(mailTransportPool).send(anyList());
 
-        final ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> emailService.sendResetPasswordEmail("to@mail.com", "abc123"));
+        emailService.sendOutboxEmails()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(0)))
+                .verifyComplete();
 
-        assertThat(e.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
-        assertThat(e.getMessage(), containsString("Error sending reset password email"));
+        verify(persistence, times(1)).deleteOutboxEmails(List.of());
+        verify(persistence, times(1)).updateOutboxEmails(List.of(email1, email2));
+
+        // Backoff doubles with each attempt
+        assertThat(email1.getAttempts(), is(2));
+        assertThat(email1.getNextAttemptOn(), is(greaterThan(Instant.now().plusSeconds(110))));
+        assertThat(email1.getNextAttemptOn(), is(lessThan(Instant.now().plusSeconds(130))));
+        assertThat(email1.getDeadLettered(), is(false));
+
+        // Max attempts reached, without the password in the outbox
+        assertThat(email2.getAttempts(), is(3));
+        assertThat(email2.getDeadLettered(), is(true));
+        assertThat(email2.getBody(), is(""));
+        assertThat(email1.getBody(), is("body"));
+    }
 
-        final ArgumentCaptor<SimpleMailMessage> argumentCaptorEmail = ArgumentCaptor.forClass(SimpleMailMessage.class);
-        verify(emailSenderMock, times(1)).send(argumentCaptorEmail.capture());
+    @Test
+    void sendOutboxEmails_negative_ClaimFailed() {
+
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).claimOutboxEmails(any(Instant.class), any(Instant.class), anyInt());
+
+        emailService.sendOutboxEmails()
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+
+        verify(mailTransportPool, times(0)).send(anyList());
+    }
 
-        assertThat(argumentCaptorEmail.getValue().getFrom(), is("from@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getTo(), notNullValue());
-        assertThat(argumentCaptorEmail.getValue().getTo().length, is(1));
-        assertThat(argumentCaptorEmail.getValue().getTo()[0], is("to@mail.com"));
-        assertThat(argumentCaptorEmail.getValue().getSubject(), is("Tally App reset password"));
-        assertThat(argumentCaptorEmail.getValue().getText(), containsString("abc123"));
+    private OutboxEmail outboxEmail(final Long id, final String recipient, final int attempts) {
+        final Instant now = Instant.now();
+        return new OutboxEmail(id, recipient, "subject", "body", now, attempts, now, null, false);
     }
 }
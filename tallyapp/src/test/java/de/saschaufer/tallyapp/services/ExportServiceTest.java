@@ -0,0 +1,117 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.controller.dto.GetExportPaymentsResponse;
+import de.saschaufer.tallyapp.controller.dto.GetExportPurchasesResponse;
+import de.saschaufer.tallyapp.persistence.Persistence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class ExportServiceTest {
+
+    private Persistence persistence;
+    private ExportService exportService;
+
+    @BeforeEach
+    void beforeEach() {
+        persistence = mock(Persistence.class);
+        exportService = new ExportService(persistence, JsonMapper.builder().build());
+    }
+
+    @Test
+    void csvLine_positive() {
+        assertThat(ExportService.csvLine(List.of("a", 1, BigDecimal.ONE)), is("a,1,1\r\n"));
+        assertThat(ExportService.csvLine(List.of("a,b", "say \"hi\"", "line\nbreak")), is("\"a,b\",\"say \"\"hi\"\"\",\"line\nbreak\"\r\n"));
+        assertThat(ExportService.csvLine(Arrays.asList("a", null)), is("a,\r\n"));
+    }
+
+    @Test
+    void exportPurchases_positive_Csv() {
+
+        doReturn(Flux.just(
+                new GetExportPurchasesResponse(1L, Instant.parse("2024-05-23T12:36:24Z"), "user@mail.com", "Coffee, black", new BigDecimal("0.20"))
+        )).when(persistence).streamPurchases();
+
+        assertThat(read(exportService.exportPurchases(ExportService.Format.CSV, false)), is("""
+                purchase_id,timestamp,email,product,price\r
+                1,2024-05-23T12:36:24Z,user@mail.com,"Coffee, black",0.20\r
+                """));
+    }
+
+    @Test
+    void exportPayments_positive_Ndjson() {
+
+        doReturn(Flux.just(
+                new GetExportPaymentsResponse(1L, Instant.parse("2024-05-23T12:36:24Z"), "user@mail.com", new BigDecimal("5.54")),
+                new GetExportPaymentsResponse(2L, Instant.parse("2024-05-23T12:45:31Z"), "user@mail.com", new BigDecimal("1.87"))
+        )).when(persistence).streamPayments();
+
+        assertThat(read(exportService.exportPayments(ExportService.Format.NDJSON, false)), is("""
+                {"paymentId":1,"paymentTimestamp":"2024-05-23T12:36:24Z","email":"user@mail.com","amount":5.54}
+                {"paymentId":2,"paymentTimestamp":"2024-05-23T12:45:31Z","email":"user@mail.com","amount":1.87}
+                """));
+    }
+
+    @Test
+    void exportPayments_positive_Gzip() throws IOException {
+
+        doReturn(Flux.range(1, 1000).map(i -> new GetExportPaymentsResponse((long) i, Instant.EPOCH, "user@mail.com", BigDecimal.ONE)))
+                .when(persistence).streamPayments();
+
+        final byte[] gzip = DataBufferUtils.join(exportService.exportPayments(ExportService.Format.CSV, true))
+                .map(buffer -> {
+                    final byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    return bytes;
+                })
+                .block();
+
+        try (final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            final List<String> lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+            assertThat(lines.size(), is(1001));
+            assertThat(lines.getLast(), is("1000,1970-01-01T00:00:00Z,user@mail.com,1"));
+        }
+    }
+
+    @Test
+    void export_positive_Backpressure() {
+
+        final AtomicLong emitted = new AtomicLong();
+
+        final Flux<Integer> rows = Flux.range(1, 1_000_000).doOnNext(i -> emitted.incrementAndGet());
+
+        // Only as many rows are read as the client takes
+        StepVerifier.create(exportService.export(rows, List.of("id"), List::of, ExportService.Format.CSV, false), 1)
+                .expectNextCount(1)
+                .then(() -> assertThat(emitted.get(), lessThanOrEqualTo(2L * ExportService.CHUNK_ROWS)))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .then(() -> assertThat(emitted.get(), lessThanOrEqualTo(3L * ExportService.CHUNK_ROWS)))
+                .thenCancel()
+                .verify();
+    }
+
+    private static String read(final Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers).map(buffer -> buffer.toString(StandardCharsets.UTF_8)).block();
+    }
+}
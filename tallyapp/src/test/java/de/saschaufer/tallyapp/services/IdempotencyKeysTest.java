@@ -0,0 +1,51 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.idempotency.IdempotencyProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class IdempotencyKeysTest {
+
+    @Test
+    void contains_positive() {
+
+        final IdempotencyKeys idempotencyKeys = new IdempotencyKeys(new IdempotencyProperties(10, Duration.ofHours(1)));
+
+        idempotencyKeys.add(IdempotencyKeys.key("purchase", 1L, "key-1"));
+
+        assertThat(idempotencyKeys.contains(IdempotencyKeys.key("purchase", 1L, "key-1")), is(true));
+        assertThat(idempotencyKeys.contains(IdempotencyKeys.key("purchase", 2L, "key-1")), is(false));
+        assertThat(idempotencyKeys.contains(IdempotencyKeys.key("payment", 1L, "key-1")), is(false));
+    }
+
+    @Test
+    void contains_negative_Evicted() {
+
+        final IdempotencyKeys idempotencyKeys = new IdempotencyKeys(new IdempotencyProperties(2, Duration.ofHours(1)));
+
+        idempotencyKeys.add("key-1");
+        idempotencyKeys.add("key-2");
+        idempotencyKeys.add("key-3");
+
+        // The oldest key makes room
+        assertThat(idempotencyKeys.size(), is(2));
+        assertThat(idempotencyKeys.contains("key-1"), is(false));
+        assertThat(idempotencyKeys.contains("key-2"), is(true));
+        assertThat(idempotencyKeys.contains("key-3"), is(true));
+    }
+
+    @Test
+    void contains_negative_Expired() {
+
+        final IdempotencyKeys idempotencyKeys = new IdempotencyKeys(new IdempotencyProperties(10, Duration.ZERO));
+
+        idempotencyKeys.add("key-1");
+
+        assertThat(idempotencyKeys.contains("key-1"), is(false));
+        assertThat(idempotencyKeys.size(), is(0));
+    }
+}
@@ -0,0 +1,162 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.imports.ImportProperties;
+import de.saschaufer.tallyapp.controller.dto.PostCreateProductRequest;
+import de.saschaufer.tallyapp.controller.dto.PostImportPaymentRequest;
+import de.saschaufer.tallyapp.controller.dto.PostImportResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ImportServiceTest {
+
+    private ProductService productService;
+    private UserDetailsService userDetailsService;
+    private PaymentService paymentService;
+    private ImportService importService;
+
+    @BeforeEach
+    void beforeEach() {
+        productService = mock(ProductService.class);
+        userDetailsService = mock(UserDetailsService.class);
+        paymentService = mock(PaymentService.class);
+        importService = new ImportService(new ImportProperties(2, 5), productService, userDetailsService, paymentService);
+    }
+
+    @Test
+    void importProducts_positive() {
+
+        doReturn(Mono.just(Map.of()), Mono.just(Map.of(0, "Product already exists"))).when(productService).createProducts(any());
+
+        // The lines are split across buffers
+        importService.importProducts(csv("\uFEFFName,Price\r\nCoffee,1.", "50\r\n\"Tea, green\",1\r\n", "\r\nSoda,2\r\n"))
+                .as(StepVerifier::create)
+                .assertNext(response -> assertThat(response, is(new PostImportResponse(3L, 2L, List.of(
+                        new PostImportResponse.Error(5L, "Product already exists")
+                )))))
+                .verifyComplete();
+
+        // In batches of two
+        verify(productService, times(1)).createProducts(List.of(
+                new PostCreateProductRequest("Coffee", new BigDecimal("1.50")),
+                new PostCreateProductRequest("Tea, green", BigDecimal.ONE)
+        ));
+        verify(productService, times(1)).createProducts(List.of(new PostCreateProductRequest("Soda", new BigDecimal("2"))));
+    }
+
+    @Test
+    void importProducts_negative_InvalidRows() {
+
+        doReturn(Mono.just(Map.of())).when(productService).createProducts(any());
+
+        importService.importProducts(csv("name,price\nCoffee\nTea,abc\n,1\nSoda,\nWater,1\n"))
+                .as(StepVerifier::create)
+                .assertNext(response -> assertThat(response, is(new PostImportResponse(5L, 1L, List.of(
+                        new PostImportResponse.Error(2L, "Expected 2 fields, found 1"),
+                        new PostImportResponse.Error(3L, "Product price must be a number"),
+                        new PostImportResponse.Error(4L, "Product name is required"),
+                        new PostImportResponse.Error(5L, "Product price is required")
+                )))))
+                .verifyComplete();
+
+        // Only the valid rows are written
+        verify(productService, times(1)).createProducts(List.of(new PostCreateProductRequest("Water", BigDecimal.ONE)));
+    }
+
+    @Test
+    void importProducts_negative_Header() {
+
+        importService.importProducts(csv("product,price\nCoffee,1\n"))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> {
+                    assertThat(error, instanceOf(ResponseStatusException.class));
+
+                    final ResponseStatusException e = (ResponseStatusException) error;
+                    assertThat(e.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+                    assertThat(e.getReason(), is("Header must be 'name,price'"));
+                });
+
+        verify(productService, times(0)).createProducts(any());
+    }
+
+    @Test
+    void importProducts_negative_NoBody() {
+
+        importService.importProducts(Flux.empty())
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(((ResponseStatusException) error).getReason(), is("Body required")));
+    }
+
+    @Test
+    void importUsers_positive_MaxRows() {
+
+        doReturn(Mono.just(Map.of())).when(userDetailsService).createImportedUsers(any());
+
+        importService.importUsers(csv("email\na@mail.com\nb@mail.com\n\nc@mail.com\nd@mail.com\ne@mail.com\nf@mail.com\ng@mail.com\n"))
+                .as(StepVerifier::create)
+                .assertNext(response -> assertThat(response, is(new PostImportResponse(6L, 5L, List.of(
+                        new PostImportResponse.Error(8L, "Only the first 5 rows are imported")
+                )))))
+                .verifyComplete();
+
+        verify(userDetailsService, times(1)).createImportedUsers(List.of("a@mail.com", "b@mail.com"));
+        verify(userDetailsService, times(1)).createImportedUsers(List.of("c@mail.com", "d@mail.com"));
+        verify(userDetailsService, times(1)).createImportedUsers(List.of("e@mail.com"));
+    }
+
+    @Test
+    void importPayments_positive() {
+
+        doReturn(Mono.just(Map.of()), Mono.just(Map.of(0, "User not found"))).when(paymentService).createPayments(any());
+
+        importService.importPayments(csv("email,amount\nalice@mail.com,10\nno-email,5\neve@mail.com,5\n"))
+                .as(StepVerifier::create)
+                .assertNext(response -> assertThat(response, is(new PostImportResponse(3L, 1L, List.of(
+                        new PostImportResponse.Error(3L, "Must be a valid email address"),
+                        new PostImportResponse.Error(4L, "User not found")
+                )))))
+                .verifyComplete();
+
+        verify(paymentService, times(1)).createPayments(List.of(new PostImportPaymentRequest("alice@mail.com", BigDecimal.TEN)));
+        verify(paymentService, times(1)).createPayments(List.of(new PostImportPaymentRequest("eve@mail.com", new BigDecimal("5"))));
+    }
+
+    @Test
+    void importPayments_negative_WriteFailed() {
+
+        doReturn(Mono.error(new RuntimeException("Error"))).when(paymentService).createPayments(any());
+
+        importService.importPayments(csv("email,amount\nalice@mail.com,10\n"))
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+    }
+
+    @Test
+    void csvFields_positive() {
+
+        assertThat(ImportService.csvFields("a, b ,c"), is(List.of("a", "b", "c")));
+        assertThat(ImportService.csvFields("\"a,b\",\"say \"\"hi\"\"\","), is(List.of("a,b", "say \"hi\"", "")));
+        assertThat(ImportService.csvFields(""), is(List.of("")));
+    }
+
+    private static Flux<DataBuffer> csv(final String... parts) {
+        return Flux.fromArray(parts).map(part -> DefaultDataBufferFactory.sharedInstance.wrap(part.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,199 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@Slf4j
+class MailTransportPoolTest {
+
+    private SmtpStandIn smtpStandIn;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        smtpStandIn = new SmtpStandIn(Duration.ZERO);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        smtpStandIn.close();
+    }
+
+    @Test
+    void send_positive() {
+
+        final MailTransportPool pool = mailTransportPool(smtpStandIn.getPort(), 2, 100);
+
+        pool.send(messages(10))
+                .as(StepVerifier::create)
+                .assertNext(failures -> assertThat(failures.size(), is(0)))
+                .verifyComplete();
+
+        assertThat(smtpStandIn.getMessages(), is(10));
+        assertThat(smtpStandIn.getConnections(), is(2));
+
+        // Connections are reused for the next batch
+        pool.send(messages(10))
+                .as(StepVerifier::create)
+                .assertNext(failures -> assertThat(failures.size(), is(0)))
+                .verifyComplete();
+
+        assertThat(smtpStandIn.getMessages(), is(20));
+        assertThat(smtpStandIn.getConnections(), is(2));
+
+        assertThat(meterRegistry.get(MailTransportPool.SENDING).tag("outcome", "success").timer().count(), is(20L));
+        assertThat(meterRegistry.get(MailTransportPool.SENDING).tag("outcome", "failure").timer().count(), is(0L));
+
+        pool.close();
+    }
+
+    @Test
+    void send_positive_NoMessages() {
+
+        final MailTransportPool pool = mailTransportPool(smtpStandIn.getPort(), 2, 100);
+
+        pool.send(List.of())
+                .as(StepVerifier::create)
+                .assertNext(failures -> assertThat(failures.size(), is(0)))
+                .verifyComplete();
+
+        assertThat(smtpStandIn.getConnections(), is(0));
+    }
+
+    @Test
+    void send_positive_MaxMessagesPerSession() {
+
+        final MailTransportPool pool = mailTransportPool(smtpStandIn.getPort(), 1, 3);
+
+        pool.send(messages(7))
+                .as(StepVerifier::create)
+                .assertNext(failures -> assertThat(failures.size(), is(0)))
+                .verifyComplete();
+
+        assertThat(smtpStandIn.getMessages(), is(7));
+        assertThat(smtpStandIn.getConnections(), is(3));
+
+        pool.close();
+    }
+
+    @Test
+    void send_negative_InvalidMessage() {
+
+        final MailTransportPool pool = mailTransportPool(smtpStandIn.getPort(), 1, 100);
+
+        final List<SimpleMailMessage> messages = messages(3);
+        messages.get(1).setTo("no address");
+
+        pool.send(messages)
+                .as(StepVerifier::create)
+                .assertNext(failures -> {
+                    assertThat(failures.size(), is(1));
+                    assertThat(failures.keySet(), contains(1));
+                })
+                .verifyComplete();
+
+        assertThat(smtpStandIn.getMessages(), is(2));
+
+        assertThat(meterRegistry.get(MailTransportPool.SENDING).tag("outcome", "success").timer().count(), is(2L));
+        assertThat(meterRegistry.get(MailTransportPool.SENDING).tag("outcome", "failure").timer().count(), is(1L));
+
+        pool.close();
+    }
+
+    @Test
+    void send_negative_NoServer() throws IOException {
+
+        final int port = smtpStandIn.getPort();
+        smtpStandIn.close();
+
+        final MailTransportPool pool = mailTransportPool(port, 2, 100);
+
+        pool.send(messages(5))
+                .as(StepVerifier::create)
+                .assertNext(failures -> assertThat(failures.keySet(), containsInAnyOrder(0, 1, 2, 3, 4)))
+                .verifyComplete();
+
+        // One failed connection attempt per session, the other messages were not attempted
+        assertThat(meterRegistry.get(MailTransportPool.SENDING).tag("outcome", "failure").timer().count(), is(2L));
+    }
+
+    /**
+     * Compares sending one email per connection, as {@link JavaMailSenderImpl#send(SimpleMailMessage)} does, with
+     * the pool. Run with {@code mvn test -Dtest=MailTransportPoolTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmark() throws IOException {
+
+        final int count = 500;
+
+        try (final SmtpStandIn server = new SmtpStandIn(Duration.ofMillis(20))) {
+
+            final JavaMailSenderImpl emailSender = javaMailSender(server.getPort());
+            final List<SimpleMailMessage> messages = messages(count);
+
+            long start = System.nanoTime();
+            messages.forEach(emailSender::send);
+            final double perMessage = count / ((System.nanoTime() - start) / 1e9);
+
+            final MailTransportPool pool = mailTransportPool(server.getPort(), 4, 100);
+
+            start = System.nanoTime();
+            pool.send(messages).block();
+            final double pooled = count / ((System.nanoTime() - start) / 1e9);
+
+            pool.close();
+
+            log.atInfo().setMessage("Connection per email: {} emails/s. Pooled: {} emails/s.")
+                    .addArgument(Math.round(perMessage)).addArgument(Math.round(pooled)).log();
+
+            assertThat(server.getMessages(), is(2 * count));
+            assertThat(pooled, greaterThan(perMessage));
+        }
+    }
+
+    private MailTransportPool mailTransportPool(final int port, final int sessions, final int maxMessagesPerSession) {
+        final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://url-register", Duration.ofHours(1),
+                new EmailProperties.Outbox(Duration.ofSeconds(1), 10, 3, Duration.ofMinutes(1), Duration.ofMinutes(5)),
+                new EmailProperties.Pool(sessions, maxMessagesPerSession, Duration.ofMinutes(1))
+        );
+        return new MailTransportPool(emailProperties, javaMailSender(port), meterRegistry);
+    }
+
+    private JavaMailSenderImpl javaMailSender(final int port) {
+        final JavaMailSenderImpl emailSender = new JavaMailSenderImpl();
+        emailSender.setHost("localhost");
+        emailSender.setPort(port);
+        emailSender.getJavaMailProperties().put("mail.smtp.connectiontimeout", "2000");
+        emailSender.getJavaMailProperties().put("mail.smtp.timeout", "2000");
+        return emailSender;
+    }
+
+    private List<SimpleMailMessage> messages(final int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            final SimpleMailMessage message = new SimpleMailMessage();
+            message.setFrom("from@mail.com");
+            message.setTo("to-%d@mail.com".formatted(i));
+            message.setSubject("subject");
+            message.setText("body");
+            return message;
+        }).toList();
+    }
+}
@@ -1,6 +1,9 @@
 package de.saschaufer.tallyapp.services;
 
+import de.saschaufer.tallyapp.config.idempotency.IdempotencyProperties;
 import de.saschaufer.tallyapp.controller.dto.GetPaymentsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostImportPaymentRequest;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.Persistence;
 import de.saschaufer.tallyapp.persistence.dto.Payment;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,12 +13,15 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.*;
 
 class PaymentServiceTest {
@@ -26,15 +32,15 @@ class PaymentServiceTest {
     @BeforeEach
     void beforeEach() {
         persistence = mock(Persistence.class);
-        paymentService = new PaymentService(persistence);
+        paymentService = new PaymentService(persistence, new IdempotencyKeys(new IdempotencyProperties(100, Duration.ofHours(1))));
     }
 
     @Test
     void createPayment_positive() {
 
-        doReturn(Mono.empty()).when(persistence).insertPayment(any(Payment.class));
+        doReturn(Mono.just(true)).when(persistence).insertPayment(any(Payment.class));
 
-        paymentService.createPayment(1L, new BigDecimal("123.45"))
+        paymentService.createPayment(1L, new BigDecimal("123.45"), "key-1")
                 .as(StepVerifier::create)
                 .verifyComplete();
 
@@ -49,6 +55,41 @@ class PaymentServiceTest {
         assertThat(payment.getAmount(), is(new BigDecimal("123.45")));
         assertThat(payment.getTimestamp().isAfter(Instant.now().minusSeconds(60)), is(true));
         assertThat(payment.getTimestamp().isBefore(Instant.now()), is(true));
+        assertThat(payment.getIdempotencyKey(), is("key-1"));
+
+    }
+
+    @Test
+    void createPayment_positive_IdempotencyKey() {
+
+        doReturn(Mono.just(true)).when(persistence).insertPayment(any(Payment.class));
+
+        paymentService.createPayment(1L, BigDecimal.ONE, "key-1").block();
+
+        // The retry is answered from memory
+        paymentService.createPayment(1L, BigDecimal.ONE, "key-1")
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertPayment(any(Payment.class));
+
+        // Without key, every request is a payment
+        paymentService.createPayment(1L, BigDecimal.ONE, null).block();
+        paymentService.createPayment(1L, BigDecimal.ONE, null).block();
+
+        verify(persistence, times(3)).insertPayment(any(Payment.class));
+    }
+
+    @Test
+    void createPayment_positive_IdempotencyKeyInDatabase() {
+
+        // E.g. after a restart
+        doReturn(Mono.just(false)).when(persistence).insertPayment(any(Payment.class));
+
+        paymentService.createPayment(1L, BigDecimal.ONE, "key-1")
+                .as(StepVerifier::create)
+                .verifyComplete();
+
     }
 
     @Test
@@ -56,7 +97,7 @@ class PaymentServiceTest {
 
         doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).insertPayment(any(Payment.class));
 
-        paymentService.createPayment(1L, new BigDecimal("123.45"))
+        paymentService.createPayment(1L, new BigDecimal("123.45"), null)
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error -> {
                     assertThat(error, instanceOf(RuntimeException.class));
@@ -66,16 +107,31 @@ class PaymentServiceTest {
         verify(persistence, times(1)).insertPayment(any(Payment.class));
     }
 
+    @Test
+    void createPayments_positive() {
+
+        final List<PostImportPaymentRequest> payments = List.of(new PostImportPaymentRequest("alice@mail.com", BigDecimal.TEN), new PostImportPaymentRequest("eve@mail.com", BigDecimal.ONE));
+
+        doReturn(Mono.just(Map.of(1, "User not found"))).when(persistence).insertPayments(any());
+
+        paymentService.createPayments(payments)
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "User not found"))))
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertPayments(payments);
+    }
+
     @Test
     void readPayments_positive() {
 
         doReturn(Mono.just(List.of(
                 new GetPaymentsResponse(1L, new BigDecimal("123.45"), Instant.parse("2024-01-02T03:04:05Z")),
                 new GetPaymentsResponse(2L, new BigDecimal("678.90"), Instant.parse("2024-06-07T08:09:00Z"))
-        ))).when(persistence).selectPayments(any(Long.class));
+        ))).when(persistence).selectPayments(any(Long.class), anyBoolean());
 
 
-        paymentService.readPayments(1L)
+        paymentService.readPayments(1L, true)
                 .as(StepVerifier::create)
                 .assertNext(payments -> {
 
@@ -92,23 +148,23 @@ class PaymentServiceTest {
                 })
                 .verifyComplete();
 
-        verify(persistence, times(1)).selectPayments(1L);
+        verify(persistence, times(1)).selectPayments(1L, true);
     }
 
     @Test
     void readPayments_negative() {
 
-        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPayments(any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPayments(any(Long.class), anyBoolean());
 
 
-        paymentService.readPayments(1L)
+        paymentService.readPayments(1L, true)
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error -> {
                     assertThat(error, instanceOf(RuntimeException.class));
                     assertThat(error.getMessage(), containsString("Error"));
                 });
 
-        verify(persistence, times(1)).selectPayments(any(Long.class));
+        verify(persistence, times(1)).selectPayments(any(Long.class), anyBoolean());
     }
 
     @Test
@@ -141,8 +197,8 @@ class PaymentServiceTest {
     @Test
     void readAccountBalance_positive() {
 
-        doReturn(Mono.just(new BigDecimal("123.45"))).when(persistence).selectPaymentsSum(any(Long.class));
-        doReturn(Mono.just(new BigDecimal("678.90"))).when(persistence).selectPurchasesSum(any(Long.class));
+        doReturn(Mono.just(new Money(12345))).when(persistence).selectPaymentsSum(any(Long.class));
+        doReturn(Mono.just(new Money(67890))).when(persistence).selectPurchasesSum(any(Long.class));
 
         paymentService.readAccountBalance(1L)
                 .as(StepVerifier::create)
@@ -161,7 +217,7 @@ class PaymentServiceTest {
     void readAccountBalance_negative_ErrorOnSelectPaymentsSum() {
 
         doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPaymentsSum(any(Long.class));
-        doReturn(Mono.just(new BigDecimal("678.90"))).when(persistence).selectPurchasesSum(any(Long.class));
+        doReturn(Mono.just(new Money(67890))).when(persistence).selectPurchasesSum(any(Long.class));
 
         paymentService.readAccountBalance(1L)
                 .as(StepVerifier::create)
@@ -177,7 +233,7 @@ class PaymentServiceTest {
     @Test
     void readAccountBalance_negative_ErrorOnSelectPurchasesSum() {
 
-        doReturn(Mono.just(new BigDecimal("123.45"))).when(persistence).selectPaymentsSum(any(Long.class));
+        doReturn(Mono.just(new Money(12345))).when(persistence).selectPaymentsSum(any(Long.class));
         doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPurchasesSum(any(Long.class));
 
         paymentService.readAccountBalance(1L)
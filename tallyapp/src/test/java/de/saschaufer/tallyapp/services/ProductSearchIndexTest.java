@@ -0,0 +1,88 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ProductSearchIndexTest {
+
+    private final List<GetProductsResponse> products = List.of(
+            new GetProductsResponse(1L, "Café Crème", BigDecimal.ONE),
+            new GetProductsResponse(2L, "Coca-Cola", BigDecimal.ONE),
+            new GetProductsResponse(3L, "Cola", BigDecimal.ONE),
+            new GetProductsResponse(4L, "Cola Zero", BigDecimal.ONE),
+            new GetProductsResponse(5L, "Weißbier", BigDecimal.ONE),
+            new GetProductsResponse(6L, "Tea, green", BigDecimal.ONE)
+    );
+
+    @Test
+    void search_positive() {
+
+        final ProductSearchIndex index = ProductSearchIndex.of(products);
+
+        // Exact match, then names starting with the query, then shorter names
+        assertThat(ids(index.search("cola", 10)), is(List.of(3L, 4L, 2L)));
+        assertThat(ids(index.search("co", 10)), is(List.of(3L, 2L, 4L)));
+        assertThat(ids(index.search("co", 2)), is(List.of(3L, 2L)));
+
+        // Without case and diacritics
+        assertThat(ids(index.search("CAFE", 10)), is(List.of(1L)));
+        assertThat(ids(index.search("crème", 10)), is(List.of(1L)));
+        assertThat(ids(index.search("weissb", 10)), is(List.of(5L)));
+
+        // Every word must match
+        assertThat(ids(index.search("green te", 10)), is(List.of(6L)));
+        assertThat(ids(index.search("cola ze", 10)), is(List.of(4L)));
+        assertThat(ids(index.search("cola tea", 10)), is(List.of()));
+    }
+
+    @Test
+    void search_negative_NoMatch() {
+
+        final ProductSearchIndex index = ProductSearchIndex.of(products);
+
+        assertThat(index.search("ola", 10), is(List.of()));
+        assertThat(index.search("-", 10), is(List.of()));
+        assertThat(ProductSearchIndex.of(List.of()).search("cola", 10), is(List.of()));
+    }
+
+    @Test
+    void of_positive_Incremental() {
+
+        final ProductSearchIndex index = ProductSearchIndex.of(products);
+
+        assertThat(index.isOf(products), is(true));
+        assertThat(index.size(), is(6));
+        assertThat(index.estimatedBytes(), greaterThan(0L));
+
+        // Renamed, deleted and new products
+        final List<GetProductsResponse> changed = List.of(
+                new GetProductsResponse(1L, "Café Crème", BigDecimal.TWO),
+                new GetProductsResponse(2L, "Mate", BigDecimal.ONE),
+                new GetProductsResponse(7L, "Cola Light", BigDecimal.ONE)
+        );
+
+        final ProductSearchIndex updated = ProductSearchIndex.of(index, changed);
+
+        assertThat(updated.isOf(changed), is(true));
+        assertThat(updated.isOf(products), is(false));
+        assertThat(updated.size(), is(3));
+        assertThat(updated.estimatedBytes(), lessThan(index.estimatedBytes()));
+
+        assertThat(updated.search("cafe", 10), is(List.of(new GetProductsResponse(1L, "Café Crème", BigDecimal.TWO))));
+        assertThat(ids(updated.search("co", 10)), is(List.of(7L)));
+        assertThat(ids(updated.search("mat", 10)), is(List.of(2L)));
+
+        // The previous index is left as it was
+        assertThat(ids(index.search("co", 10)), is(List.of(3L, 2L, 4L)));
+    }
+
+    private static List<Long> ids(final List<GetProductsResponse> products) {
+        return products.stream().map(GetProductsResponse::id).toList();
+    }
+}
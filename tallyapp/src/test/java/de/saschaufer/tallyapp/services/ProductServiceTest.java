@@ -1,18 +1,26 @@
 package de.saschaufer.tallyapp.services;
 
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.controller.dto.PostCreateProductRequest;
+import de.saschaufer.tallyapp.invalidation.Invalidation;
+import de.saschaufer.tallyapp.invalidation.InvalidationBus;
 import de.saschaufer.tallyapp.persistence.Persistence;
 import de.saschaufer.tallyapp.persistence.dto.Product;
 import de.saschaufer.tallyapp.persistence.dto.ProductPrice;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -22,12 +30,21 @@ import static org.mockito.Mockito.*;
 class ProductServiceTest {
 
     private Persistence persistence;
+    private InvalidationBus invalidationBus;
+    private Sinks.Many<Invalidation> invalidations;
+    private SimpleMeterRegistry meterRegistry;
     private ProductService productService;
 
     @BeforeEach
     void beforeEach() {
         persistence = mock(Persistence.class);
-        productService = new ProductService(persistence);
+        invalidationBus = mock(InvalidationBus.class);
+        invalidations = Sinks.many().multicast().directBestEffort();
+        meterRegistry = new SimpleMeterRegistry();
+        productService = new ProductService(persistence, invalidationBus, meterRegistry);
+
+        doReturn(invalidations.asFlux()).when(invalidationBus).invalidations();
+        productService.subscribeToInvalidations();
     }
 
     @Test
@@ -291,6 +308,160 @@ class ProductServiceTest {
         verify(persistence, times(1)).selectProducts();
     }
 
+    @Test
+    void readProducts_positive_Cached() {
+
+        doReturn(Mono.just(List.of(Tuples.of(new Product(1L, "test-name"), new ProductPrice(1L, null, BigDecimal.ONE, null)))))
+                .when(persistence).selectProducts();
+
+        productService.readProducts().block();
+
+        productService.readProducts()
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products.size(), is(1)))
+                .verifyComplete();
+
+        verify(persistence, times(1)).selectProducts();
+    }
+
+    @Test
+    void readProducts_positive_Invalidated() {
+
+        doReturn(Mono.just(List.of(Tuples.of(new Product(1L, "test-name"), new ProductPrice(1L, null, BigDecimal.ONE, null)))))
+                .when(persistence).selectProducts();
+
+        productService.readProducts().block();
+
+        // Invalidated by another instance
+        invalidations.tryEmitNext(Invalidation.all(Invalidation.PRODUCTS));
+        productService.readProducts().block();
+
+        // Invalidations of other caches are ignored
+        invalidations.tryEmitNext(Invalidation.all("users"));
+        productService.readProducts().block();
+
+        verify(persistence, times(2)).selectProducts();
+
+        // Invalidated by this instance
+        doReturn(Mono.empty()).when(persistence).deleteProduct(any(Long.class));
+        productService.deleteProduct(1L).block();
+        productService.readProducts().block();
+
+        verify(persistence, times(3)).selectProducts();
+    }
+
+    @Test
+    void searchProducts_positive() {
+
+        doReturn(Mono.just(List.of(
+                Tuples.of(new Product(1L, "Cola Zero"), new ProductPrice(1L, null, BigDecimal.ONE, null)),
+                Tuples.of(new Product(2L, "Cola"), new ProductPrice(2L, null, BigDecimal.TWO, null)),
+                Tuples.of(new Product(3L, "Tea"), new ProductPrice(3L, null, BigDecimal.TEN, null))
+        ))).when(persistence).selectProducts();
+
+        productService.searchProducts("col", 10)
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products, is(List.of(
+                        new GetProductsResponse(2L, "Cola", BigDecimal.TWO),
+                        new GetProductsResponse(1L, "Cola Zero", BigDecimal.ONE)
+                ))))
+                .verifyComplete();
+
+        final double bytes = meterRegistry.get(ProductService.SEARCH_INDEX_BYTES).tag("tenant", TenantContext.DEFAULT).gauge().value();
+        assertThat(bytes, greaterThan(0.0));
+
+        // Searches share the cached products
+        productService.searchProducts("tea", 10).block();
+        verify(persistence, times(1)).selectProducts();
+
+        // A changed catalog is indexed anew
+        doReturn(Mono.just(List.of(
+                Tuples.of(new Product(2L, "Cola"), new ProductPrice(2L, null, BigDecimal.TWO, null))
+        ))).when(persistence).selectProducts();
+        doReturn(Mono.empty()).when(persistence).deleteProduct(any(Long.class));
+        productService.deleteProduct(1L).block();
+
+        productService.searchProducts("col", 10)
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products, is(List.of(new GetProductsResponse(2L, "Cola", BigDecimal.TWO)))))
+                .verifyComplete();
+
+        assertThat(meterRegistry.get(ProductService.SEARCH_INDEX_BYTES).tag("tenant", TenantContext.DEFAULT).gauge().value(), lessThan(bytes));
+    }
+
+    @Test
+    void readProducts_positive_PerTenant() {
+
+        doReturn(Mono.just(List.of(Tuples.of(new Product(1L, "test-name"), new ProductPrice(1L, null, BigDecimal.ONE, null)))))
+                .when(persistence).selectProducts();
+
+        productService.readProducts().block();
+        productService.readProducts().contextWrite(TenantContext.of("bar-1")).block();
+        productService.readProducts().contextWrite(TenantContext.of("bar-1")).block();
+
+        verify(persistence, times(2)).selectProducts();
+
+        // Invalidated for one tenant only
+        invalidations.tryEmitNext(Invalidation.of(Invalidation.PRODUCTS, "bar-1"));
+        productService.readProducts().block();
+        productService.readProducts().contextWrite(TenantContext.of("bar-1")).block();
+
+        verify(persistence, times(3)).selectProducts();
+
+        // Invalidated for all tenants
+        invalidations.tryEmitNext(Invalidation.all(Invalidation.PRODUCTS));
+        productService.readProducts().block();
+        productService.readProducts().contextWrite(TenantContext.of("bar-1")).block();
+
+        verify(persistence, times(5)).selectProducts();
+    }
+
+    @Test
+    void readProducts_negative_ErrorNotCached() {
+
+        doReturn(Mono.error(new RuntimeException("Error")), Mono.just(List.of())).when(persistence).selectProducts();
+
+        productService.readProducts()
+                .as(StepVerifier::create)
+                .verifyError();
+
+        productService.readProducts()
+                .as(StepVerifier::create)
+                .assertNext(products -> assertThat(products.size(), is(0)))
+                .verifyComplete();
+
+        verify(persistence, times(2)).selectProducts();
+    }
+
+    @Test
+    void createProducts_positive() {
+
+        final List<PostCreateProductRequest> products = List.of(new PostCreateProductRequest("Coffee", BigDecimal.ONE), new PostCreateProductRequest("Tea", BigDecimal.TEN));
+
+        doReturn(Mono.just(Map.of(1, "Product already exists"))).when(persistence).insertProducts(any());
+
+        productService.createProducts(products)
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "Product already exists"))))
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertProducts(products);
+        verify(invalidationBus, times(1)).publish(Invalidation.of(Invalidation.PRODUCTS, TenantContext.DEFAULT));
+    }
+
+    @Test
+    void createProducts_positive_NoneInserted() {
+
+        doReturn(Mono.just(Map.of(0, "Product already exists"))).when(persistence).insertProducts(any());
+
+        productService.createProducts(List.of(new PostCreateProductRequest("Coffee", BigDecimal.ONE)))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(0, "Product already exists"))))
+                .verifyComplete();
+
+        verify(invalidationBus, times(0)).publish(any(Invalidation.class));
+    }
+
     @Test
     void updateProduct_positive() {
 
@@ -301,6 +472,7 @@ class ProductServiceTest {
                 .verifyComplete();
 
         verify(persistence, times(1)).updateProduct(1L, "test-new-name");
+        verify(invalidationBus, times(1)).publish(Invalidation.of(Invalidation.PRODUCTS, TenantContext.DEFAULT));
     }
 
     @Test
@@ -1,15 +1,24 @@
 package de.saschaufer.tallyapp.services;
 
+import de.saschaufer.tallyapp.config.idempotency.IdempotencyProperties;
+import de.saschaufer.tallyapp.controller.dto.PostSyncPurchasesRequest;
+import de.saschaufer.tallyapp.controller.dto.PostSyncPurchasesResponse;
 import de.saschaufer.tallyapp.persistence.Persistence;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.*;
 
 class PurchaseServiceTest {
@@ -20,61 +29,131 @@ class PurchaseServiceTest {
     @BeforeEach
     void beforeEach() {
         persistence = mock(Persistence.class);
-        purchaseService = new PurchaseService(persistence);
+        purchaseService = new PurchaseService(persistence, new IdempotencyKeys(new IdempotencyProperties(100, Duration.ofHours(1))));
     }
 
     @Test
     void createPurchase_positive() {
 
-        doReturn(Mono.empty()).when(persistence).insertPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.just(true)).when(persistence).insertPurchase(any(Long.class), any(Long.class), any());
+
+        purchaseService.createPurchase(1L, 4L, null)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertPurchase(1L, 4L, null);
+    }
+
+    @Test
+    void createPurchase_positive_IdempotencyKey() {
+
+        doReturn(Mono.just(true)).when(persistence).insertPurchase(any(Long.class), any(Long.class), any());
+
+        purchaseService.createPurchase(1L, 4L, "key-1").block();
+
+        // The retry is answered from memory
+        purchaseService.createPurchase(1L, 4L, "key-1")
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertPurchase(1L, 4L, "key-1");
+
+        // The same key of another user is another purchase
+        purchaseService.createPurchase(2L, 4L, "key-1").block();
+        verify(persistence, times(1)).insertPurchase(2L, 4L, "key-1");
+    }
+
+    @Test
+    void createPurchase_positive_IdempotencyKeyInDatabase() {
+
+        // E.g. after a restart
+        doReturn(Mono.just(false)).when(persistence).insertPurchase(any(Long.class), any(Long.class), any());
 
-        purchaseService.createPurchase(1L, 4L)
+        purchaseService.createPurchase(1L, 4L, "key-1")
                 .as(StepVerifier::create)
                 .verifyComplete();
 
-        verify(persistence, times(1)).insertPurchase(1L, 4L);
+        purchaseService.createPurchase(1L, 4L, "key-1").block();
+
+        verify(persistence, times(1)).insertPurchase(1L, 4L, "key-1");
     }
 
     @Test
     void createPurchase_negative() {
 
-        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).insertPurchase(any(Long.class), any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).insertPurchase(any(Long.class), any(Long.class), any());
 
-        purchaseService.createPurchase(1L, 4L)
+        purchaseService.createPurchase(1L, 4L, "key-1")
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error -> {
                     assertThat(error, instanceOf(RuntimeException.class));
                     assertThat(error.getMessage(), containsString("Error"));
                 });
 
-        verify(persistence, times(1)).insertPurchase(1L, 4L);
+        verify(persistence, times(1)).insertPurchase(1L, 4L, "key-1");
+
+        // A failed request may be retried
+        purchaseService.createPurchase(1L, 4L, "key-1").onErrorComplete().block();
+        verify(persistence, times(2)).insertPurchase(1L, 4L, "key-1");
+    }
+
+    @Test
+    void syncPurchases_positive() {
+
+        final List<PostSyncPurchasesRequest.Purchase> purchases = List.of(
+                new PostSyncPurchasesRequest.Purchase("client-1", 4L, Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-2", 4L, Instant.parse("2024-05-21T00:00:00Z")),
+                new PostSyncPurchasesRequest.Purchase("client-3", 5L, Instant.parse("2024-05-21T00:00:00Z"))
+        );
+
+        doReturn(Mono.just(List.of(
+                new PostSyncPurchasesResponse("client-1", PostSyncPurchasesResponse.Status.CREATED, null),
+                new PostSyncPurchasesResponse("client-2", PostSyncPurchasesResponse.Status.DUPLICATE, null),
+                new PostSyncPurchasesResponse("client-3", PostSyncPurchasesResponse.Status.REJECTED, "Product price not found")
+        ))).when(persistence).insertPurchases(any(Long.class), any());
+
+        purchaseService.syncPurchases(1L, purchases)
+                .as(StepVerifier::create)
+                .assertNext(results -> assertThat(results, hasSize(3)))
+                .verifyComplete();
+
+        verify(persistence, times(1)).insertPurchases(1L, purchases);
+
+        // The booked client IDs are known to single purchases, the rejected one may be retried
+        purchaseService.createPurchase(1L, 4L, "client-1").block();
+        purchaseService.createPurchase(1L, 4L, "client-2").block();
+        verify(persistence, times(0)).insertPurchase(any(Long.class), any(Long.class), any());
+
+        doReturn(Mono.just(true)).when(persistence).insertPurchase(any(Long.class), any(Long.class), any());
+        purchaseService.createPurchase(1L, 5L, "client-3").block();
+        verify(persistence, times(1)).insertPurchase(1L, 5L, "client-3");
     }
 
     @Test
     void readPurchases_positive() {
 
-        doReturn(Mono.empty()).when(persistence).selectPurchases(any(Long.class));
+        doReturn(Mono.empty()).when(persistence).selectPurchases(any(Long.class), anyBoolean());
 
-        purchaseService.readPurchases(1L)
+        purchaseService.readPurchases(1L, true)
                 .as(StepVerifier::create)
                 .verifyComplete();
 
-        verify(persistence, times(1)).selectPurchases(1L);
+        verify(persistence, times(1)).selectPurchases(1L, true);
     }
 
     @Test
     void readPurchases_negative() {
 
-        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPurchases(any(Long.class));
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).selectPurchases(any(Long.class), anyBoolean());
 
-        purchaseService.readPurchases(1L)
+        purchaseService.readPurchases(1L, true)
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error -> {
                     assertThat(error, instanceOf(RuntimeException.class));
                     assertThat(error.getMessage(), containsString("Error"));
                 });
 
-        verify(persistence, times(1)).selectPurchases(1L);
+        verify(persistence, times(1)).selectPurchases(1L, true);
     }
 
     @Test
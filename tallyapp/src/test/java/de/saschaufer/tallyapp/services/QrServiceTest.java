@@ -0,0 +1,155 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.qr.QrProperties;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
+import de.saschaufer.tallyapp.controller.dto.GetProductsResponse;
+import de.saschaufer.tallyapp.tenancy.Tenants;
+import io.nayuki.qrcodegen.QrCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class QrServiceTest {
+
+    private ProductService productService;
+    private Tenants tenants;
+
+    @BeforeEach
+    void beforeEach() {
+
+        productService = mock(ProductService.class);
+
+        final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://tally.com", Duration.ofHours(1), null, null);
+        tenants = new Tenants(new TenancyProperties(false, TenancyProperties.Resolution.HOST, 64, List.of()), new AdminProperties(List.of()), emailProperties);
+
+        doReturn(Mono.just(List.of(
+                new GetProductsResponse(1L, "Coffee", BigDecimal.ONE),
+                new GetProductsResponse(2L, "Tom & Jerry", BigDecimal.TWO)
+        ))).when(productService).readProducts();
+    }
+
+    @Test
+    void renderProductCode_positive_Png() throws IOException {
+
+        final QrService qrService = qrService(DataSize.ofMegabytes(1));
+
+        final QrService.Image image = qrService.renderProductCode(1L, QrService.Format.PNG, 2).block();
+
+        // 'http://tally.com/#/qr/1' fits version 2 with 25 modules, plus the quiet zone
+        final BufferedImage png = ImageIO.read(new ByteArrayInputStream(image.bytes()));
+        assertThat(png.getWidth(), is((25 + 2 * QrService.QUIET_ZONE) * 2));
+        assertThat(png.getHeight(), is((25 + 2 * QrService.QUIET_ZONE) * 2));
+        assertThat(png.getRGB(0, 0) & 0xFFFFFF, is(0xFFFFFF));
+        assertThat(png.getRGB(QrService.QUIET_ZONE * 2, QrService.QUIET_ZONE * 2) & 0xFFFFFF, is(0x000000));
+
+        assertThat(image.eTag(), matchesPattern("\"[0-9a-f]{32}\""));
+    }
+
+    @Test
+    void renderProductCode_positive_Cached() {
+
+        final QrService qrService = qrService(DataSize.ofMegabytes(1));
+
+        final QrService.Image svg = qrService.renderProductCode(1L, QrService.Format.SVG, 4).block();
+
+        assertThat(new String(svg.bytes(), StandardCharsets.UTF_8), startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"132\" height=\"132\" viewBox=\"0 0 33 33\""));
+        assertThat(qrService.cachedBytes(), is((long) svg.bytes().length));
+
+        // Same code, same image
+        assertThat(qrService.renderProductCode(1L, QrService.Format.SVG, 4).block(), sameInstance(svg));
+        assertThat(qrService.cachedBytes(), is((long) svg.bytes().length));
+
+        // Other format, scale or product, other image
+        final QrService.Image png = qrService.renderProductCode(1L, QrService.Format.PNG, 4).block();
+        final QrService.Image scaled = qrService.renderProductCode(1L, QrService.Format.SVG, 8).block();
+        final QrService.Image other = qrService.renderProductCode(2L, QrService.Format.SVG, 4).block();
+
+        assertThat(List.of(svg.eTag(), png.eTag(), scaled.eTag(), other.eTag()).stream().distinct().count(), is(4L));
+        assertThat(qrService.cachedBytes(), is((long) svg.bytes().length + png.bytes().length + scaled.bytes().length + other.bytes().length));
+    }
+
+    @Test
+    void renderProductCode_positive_Evicted() {
+
+        final int size = QrService.svg(QrCode.encodeText("http://tally.com/#/qr/1", QrCode.Ecc.MEDIUM), 4).length;
+
+        // Room for one image only
+        final QrService qrService = qrService(DataSize.ofBytes(size + size / 2));
+
+        final QrService.Image first = qrService.renderProductCode(1L, QrService.Format.SVG, 4).block();
+        qrService.renderProductCode(2L, QrService.Format.SVG, 4).block();
+
+        assertThat(qrService.cachedBytes(), lessThanOrEqualTo((long) size + size / 2));
+
+        final QrService.Image again = qrService.renderProductCode(1L, QrService.Format.SVG, 4).block();
+        assertThat(again, not(sameInstance(first)));
+        assertThat(again.eTag(), is(first.eTag()));
+    }
+
+    @Test
+    void renderProductCode_negative_NotFound() {
+
+        qrService(DataSize.ofMegabytes(1)).renderProductCode(3L, QrService.Format.PNG, 8)
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> {
+                    assertThat(error, instanceOf(ResponseStatusException.class));
+                    assertThat(((ResponseStatusException) error).getStatusCode(), is(HttpStatus.NOT_FOUND));
+                    assertThat(((ResponseStatusException) error).getReason(), is("Product not found"));
+                });
+    }
+
+    @Test
+    void renderProductLabels_positive() {
+
+        final QrService qrService = qrService(DataSize.ofMegabytes(1));
+
+        final String html = qrService.renderProductLabels(3)
+                .map(QrServiceTest::string)
+                .collect(Collectors.joining())
+                .block();
+
+        assertThat(html, startsWith("<!DOCTYPE html>"));
+        assertThat(html, containsString("grid-template-columns: repeat(3, 1fr);"));
+        assertThat(html, containsString("<figcaption>Coffee</figcaption>"));
+        assertThat(html, containsString("<figcaption>Tom &amp; Jerry</figcaption>"));
+        assertThat(html.split("<figure><svg ").length, is(3));
+        assertThat(html, endsWith("</html>\n"));
+
+        // The codes of the labels are cached like the others
+        final long cachedBytes = qrService.cachedBytes();
+        final QrService.Image image = qrService.renderProductCode(1L, QrService.Format.SVG, QrService.LABEL_SCALE).block();
+
+        assertThat(html, containsString(new String(image.bytes(), StandardCharsets.UTF_8)));
+        assertThat(qrService.cachedBytes(), is(cachedBytes));
+    }
+
+    private QrService qrService(final DataSize cacheSize) {
+        return new QrService(productService, tenants, new QrProperties(cacheSize));
+    }
+
+    private static String string(final DataBuffer buffer) {
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+}
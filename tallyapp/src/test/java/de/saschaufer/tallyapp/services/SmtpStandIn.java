@@ -0,0 +1,102 @@
+package de.saschaufer.tallyapp.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server, which accepts every email. The handshake delay simulates the cost of opening a
+ * connection to a real server (TCP, TLS, EHLO).
+ */
+class SmtpStandIn implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Duration handshakeDelay;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger messages = new AtomicInteger();
+
+    SmtpStandIn(final Duration handshakeDelay) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.handshakeDelay = handshakeDelay;
+        Thread.ofPlatform().daemon().start(this::accept);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getConnections() {
+        return connections.get();
+    }
+
+    int getMessages() {
+        return messages.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                Thread.ofPlatform().daemon().start(() -> handle(socket));
+            } catch (final IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(final Socket socket) {
+
+        try (socket;
+             final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             final Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+
+            Thread.sleep(handshakeDelay);
+            reply(writer, "220 localhost SMTP stand-in");
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                final String command = line.length() > 4 ? line.substring(0, 4).toUpperCase(Locale.ROOT) : line.toUpperCase(Locale.ROOT);
+
+                switch (command) {
+                    case "EHLO" -> reply(writer, "250-localhost\r\n250 8BITMIME");
+                    case "DATA" -> {
+                        reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = reader.readLine()) != null && !line.equals(".")) {
+                            // Discard content
+                        }
+                        messages.incrementAndGet();
+                        reply(writer, "250 OK");
+                    }
+                    case "QUIT" -> {
+                        reply(writer, "221 Bye");
+                        return;
+                    }
+                    default -> reply(writer, "250 OK");
+                }
+            }
+        } catch (final IOException | InterruptedException e) {
+            // Connection closed by client
+        }
+    }
+
+    private void reply(final Writer writer, final String reply) throws IOException {
+        writer.write(reply + "\r\n");
+        writer.flush();
+    }
+}
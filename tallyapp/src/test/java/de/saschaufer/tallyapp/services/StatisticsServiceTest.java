@@ -0,0 +1,64 @@
+package de.saschaufer.tallyapp.services;
+
+import de.saschaufer.tallyapp.persistence.Persistence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class StatisticsServiceTest {
+
+    private final LocalDate from = LocalDate.parse("2024-05-01");
+    private final LocalDate to = LocalDate.parse("2024-05-31");
+
+    private Persistence persistence;
+    private StatisticsService statisticsService;
+
+    @BeforeEach
+    void beforeEach() {
+        persistence = mock(Persistence.class);
+        statisticsService = new StatisticsService(persistence);
+    }
+
+    @Test
+    void readProductStatistics_positive() {
+
+        doReturn(Mono.empty()).when(persistence).selectProductStatistics(any(LocalDate.class), any(LocalDate.class), anyInt());
+
+        statisticsService.readProductStatistics(from, to, 10)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).selectProductStatistics(from, to, 10);
+    }
+
+    @Test
+    void readUserStatistics_positive() {
+
+        doReturn(Mono.empty()).when(persistence).selectUserStatistics(any(LocalDate.class), any(LocalDate.class));
+
+        statisticsService.readUserStatistics(from, to)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).selectUserStatistics(from, to);
+    }
+
+    @Test
+    void readRevenueStatistics_positive() {
+
+        doReturn(Mono.empty()).when(persistence).selectRevenueStatistics(any(LocalDate.class), any(LocalDate.class));
+
+        statisticsService.readRevenueStatistics(from, to)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        verify(persistence, times(1)).selectRevenueStatistics(from, to);
+    }
+}
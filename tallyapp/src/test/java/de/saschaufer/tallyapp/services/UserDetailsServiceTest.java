@@ -1,16 +1,22 @@
 package de.saschaufer.tallyapp.services;
 
-import de.saschaufer.tallyapp.config.admin.AdminProperties;
 import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.jobs.JobProperties;
 import de.saschaufer.tallyapp.config.security.JwtProperties;
+import de.saschaufer.tallyapp.controller.dto.GetUsersRequest;
 import de.saschaufer.tallyapp.controller.dto.GetUsersResponse;
 import de.saschaufer.tallyapp.controller.dto.PostLoginResponse;
 import de.saschaufer.tallyapp.management.UserAgent;
+import de.saschaufer.tallyapp.money.Money;
 import de.saschaufer.tallyapp.persistence.Persistence;
+import de.saschaufer.tallyapp.persistence.dto.OutboxEmail;
 import de.saschaufer.tallyapp.persistence.dto.User;
+import de.saschaufer.tallyapp.tenancy.TenantContext;
+import de.saschaufer.tallyapp.tenancy.Tenants;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.util.Pair;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -23,6 +29,8 @@ import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
 import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
@@ -36,27 +44,36 @@ import java.util.Map;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class UserDetailsServiceTest {
 
     private Persistence persistence;
     private JwtProperties jwtProperties;
-    private AdminProperties adminProperties;
+    private Tenants tenants;
     private JwtEncoder jwtEncoder;
     private UserAgent userAgent;
     private PasswordEncoder passwordEncoder;
+    private EmailService emailService;
     private UserDetailsService userDetailsService;
 
     @BeforeEach
     void beforeEach() {
         persistence = mock(Persistence.class);
         jwtProperties = mock(JwtProperties.class);
-        adminProperties = mock(AdminProperties.class);
+        tenants = mock(Tenants.class);
         jwtEncoder = mock(JwtEncoder.class);
         userAgent = mock(UserAgent.class);
         passwordEncoder = mock(PasswordEncoder.class);
-        userDetailsService = new UserDetailsService(persistence, jwtProperties, adminProperties, mock(EmailProperties.class), jwtEncoder, userAgent, passwordEncoder);
+        emailService = mock(EmailService.class);
+        final EmailProperties emailProperties = mock(EmailProperties.class);
+        final JobProperties jobProperties = new JobProperties(Duration.ofMinutes(5),
+                new JobProperties.DeleteUnregisteredUsers(Duration.ofMinutes(5), 2, Duration.ZERO),
+                new JobProperties.Archive(Duration.ofHours(24), Duration.ofDays(365), 1000, Duration.ZERO)
+        );
+        userDetailsService = new UserDetailsService(persistence, jwtProperties, tenants, emailProperties, jwtEncoder, userAgent, passwordEncoder, emailService, jobProperties);
     }
 
     @Test
@@ -95,113 +112,92 @@ class UserDetailsServiceTest {
     }
 
     @Test
-    void findAllUsers_positive() {
+    void findUsers_positive() {
 
-        doReturn(List.of("2@mail", "5@mail")).when(adminProperties).emails();
+        final GetUsersRequest request = new GetUsersRequest("m", true, null, GetUsersRequest.Sort.EMAIL, false, null, null);
+
+        doReturn(List.of("2@mail", "5@mail")).when(tenants).adminEmails(TenantContext.DEFAULT);
 
         doReturn(Mono.just(List.of(
-                new User(1L, "1@mail", null, "role1,role2", null, Instant.parse("2024-01-02T03:04:01Z"), true),
-                new User(2L, "2@mail", null, "role3", null, Instant.parse("2024-01-02T03:04:02Z"), false),
-                new User(3L, "invitation-code", null, "invitation", null, Instant.parse("2024-01-02T03:04:03Z"), false),
-                new User(4L, "3@mail", null, "role2,role1,role3", null, Instant.parse("2024-01-02T03:04:04Z"), true),
-                new User(5L, "4@mail", null, null, null, Instant.parse("2024-01-02T03:04:05Z"), true),
-                new User(6L, "5@mail", null, ",", null, Instant.parse("2024-01-02T03:04:06Z"), true)
-        ))).when(persistence).selectUsers();
-        doReturn(Mono.just(Map.of(
-                2L, BigDecimal.TEN,
-                1L, BigDecimal.TWO,
-                5L, BigDecimal.ONE
-        ))).when(persistence).selectPaymentsSumAllUsers();
-        doReturn(Mono.just(Map.of(
-                1L, BigDecimal.ZERO,
-                2L, BigDecimal.ONE,
-                6L, BigDecimal.ONE
-        ))).when(persistence).selectPurchasesSumAllUsers();
-
-        userDetailsService.findAllUsers()
-                .as(StepVerifier::create)
-                .assertNext(getUsersResponses -> {
+                Tuples.of(new User(1L, "1@mail", null, "role1,role2", null, Instant.parse("2024-01-02T03:04:01Z"), true), new Money(200)),
+                Tuples.of(new User(2L, "2@mail", null, "role3", null, Instant.parse("2024-01-02T03:04:02Z"), false), new Money(900)),
+                Tuples.of(new User(4L, "3@mail", null, "role2,role1,role3", null, Instant.parse("2024-01-02T03:04:04Z"), true), Money.ZERO),
+                Tuples.of(new User(5L, "4@mail", null, null, null, Instant.parse("2024-01-02T03:04:05Z"), true), new Money(100)),
+                Tuples.of(new User(6L, "5@mail", null, ",", null, Instant.parse("2024-01-02T03:04:06Z"), true), new Money(-100))
+        ))).when(persistence).selectUsers(any(GetUsersRequest.class));
+
+        userDetailsService.findUsers(request)
+                .as(StepVerifier::create)
+                .assertNext(page -> {
+                    final List<GetUsersResponse> getUsersResponses = page.users();
+
                     assertThat(getUsersResponses.size(), is(5));
 
-                    assertThat(getUsersResponses.getFirst(), is(new GetUsersResponse("1@mail", Instant.parse("2024-01-02T03:04:01Z"), true, List.of("role1", "role2"), BigDecimal.TWO)));
-                    assertThat(getUsersResponses.get(1), is(new GetUsersResponse("2@mail", Instant.parse("2024-01-02T03:04:02Z"), false, List.of("role3", "admin"), new BigDecimal("9"))));
-                    assertThat(getUsersResponses.get(2), is(new GetUsersResponse("3@mail", Instant.parse("2024-01-02T03:04:04Z"), true, List.of("role2", "role1", "role3"), BigDecimal.ZERO)));
-                    assertThat(getUsersResponses.get(3), is(new GetUsersResponse("4@mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of(), BigDecimal.ONE)));
-                    assertThat(getUsersResponses.getLast(), is(new GetUsersResponse("5@mail", Instant.parse("2024-01-02T03:04:06Z"), true, List.of("admin"), new BigDecimal("-1"))));
+                    assertThat(getUsersResponses.getFirst(), is(new GetUsersResponse("1@mail", Instant.parse("2024-01-02T03:04:01Z"), true, List.of("role1", "role2"), new BigDecimal("2.00"))));
+                    assertThat(getUsersResponses.get(1), is(new GetUsersResponse("2@mail", Instant.parse("2024-01-02T03:04:02Z"), false, List.of("role3", "admin"), new BigDecimal("9.00"))));
+                    assertThat(getUsersResponses.get(2), is(new GetUsersResponse("3@mail", Instant.parse("2024-01-02T03:04:04Z"), true, List.of("role2", "role1", "role3"), new BigDecimal("0.00"))));
+                    assertThat(getUsersResponses.get(3), is(new GetUsersResponse("4@mail", Instant.parse("2024-01-02T03:04:05Z"), true, List.of(), new BigDecimal("1.00"))));
+                    assertThat(getUsersResponses.getLast(), is(new GetUsersResponse("5@mail", Instant.parse("2024-01-02T03:04:06Z"), true, List.of("admin"), new BigDecimal("-1.00"))));
+
+                    assertThat(page.next(), nullValue());
                 })
                 .verifyComplete();
 
-        verify(persistence, times(1)).selectUsers();
-        verify(persistence, times(1)).selectPaymentsSumAllUsers();
-        verify(persistence, times(1)).selectPurchasesSumAllUsers();
+        verify(persistence, times(1)).selectUsers(request);
     }
 
     @Test
-    void findAllUsers_positive_NoUsers() {
+    void findUsers_positive_NextPage() {
 
-        doReturn(Mono.just(List.of())).when(persistence).selectUsers();
-        doReturn(Mono.just(Map.of(2L, BigDecimal.TEN))).when(persistence).selectPaymentsSumAllUsers();
-        doReturn(Mono.just(Map.of(1L, BigDecimal.ZERO))).when(persistence).selectPurchasesSumAllUsers();
+        final GetUsersRequest request = new GetUsersRequest(null, null, null, GetUsersRequest.Sort.BALANCE, false, null, 2);
 
-        userDetailsService.findAllUsers()
+        doReturn(Mono.just(List.of(
+                Tuples.of(new User(1L, "1@mail", null, "user", null, Instant.parse("2024-01-02T03:04:01Z"), true), new Money(-500)),
+                Tuples.of(new User(2L, "2@mail", null, "user", null, Instant.parse("2024-01-02T03:04:02Z"), true), new Money(-200)),
+                Tuples.of(new User(3L, "3@mail", null, "user", null, Instant.parse("2024-01-02T03:04:03Z"), true), new Money(100))
+        ))).when(persistence).selectUsers(any(GetUsersRequest.class));
+
+        // The extra user only tells that there is a next page
+        userDetailsService.findUsers(request)
                 .as(StepVerifier::create)
-                .assertNext(getUsersResponses -> assertThat(getUsersResponses.size(), is(0)))
+                .assertNext(page -> {
+                    assertThat(page.users().stream().map(GetUsersResponse::email).toList(), is(List.of("1@mail", "2@mail")));
+                    assertThat(page.next(), is(new GetUsersRequest.After(new BigDecimal("-2.00"), "2@mail")));
+                })
                 .verifyComplete();
-
-        verify(persistence, times(1)).selectUsers();
-        verify(persistence, times(1)).selectPaymentsSumAllUsers();
-        verify(persistence, times(1)).selectPurchasesSumAllUsers();
     }
 
     @Test
-    void findAllUsers_negative_SelectUsersThrowsException() {
-
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(persistence).selectUsers();
+    void findUsers_positive_LastPage() {
 
-        userDetailsService.findAllUsers()
-                .as(StepVerifier::create)
-                .verifyErrorSatisfies(error -> {
-                    assertThat(error.getMessage(), containsString("Bad"));
-                });
+        final GetUsersRequest request = new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, null, 2);
 
-        verify(persistence, times(1)).selectUsers();
-        verify(persistence, times(0)).selectPaymentsSumAllUsers();
-        verify(persistence, times(0)).selectPurchasesSumAllUsers();
-    }
-
-    @Test
-    void findAllUsers_negative_SelectPaymentsSumAllUsersThrowsException() {
-
-        doReturn(Mono.just(List.of())).when(persistence).selectUsers();
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(persistence).selectPaymentsSumAllUsers();
+        doReturn(Mono.just(List.of(
+                Tuples.of(new User(1L, "1@mail", null, "user", null, Instant.parse("2024-01-02T03:04:01Z"), true), Money.ZERO),
+                Tuples.of(new User(2L, "2@mail", null, "user", null, Instant.parse("2024-01-02T03:04:02Z"), true), Money.ZERO)
+        ))).when(persistence).selectUsers(any(GetUsersRequest.class));
 
-        userDetailsService.findAllUsers()
+        userDetailsService.findUsers(request)
                 .as(StepVerifier::create)
-                .verifyErrorSatisfies(error -> {
-                    assertThat(error.getMessage(), containsString("Bad"));
-                });
-
-        verify(persistence, times(1)).selectUsers();
-        verify(persistence, times(1)).selectPaymentsSumAllUsers();
-        verify(persistence, times(0)).selectPurchasesSumAllUsers();
+                .assertNext(page -> {
+                    assertThat(page.users().size(), is(2));
+                    assertThat(page.next(), nullValue());
+                })
+                .verifyComplete();
     }
 
     @Test
-    void findAllUsers_negative_SelectPurchasesSumAllUsersThrowsException() {
+    void findUsers_negative_SelectUsersThrowsException() {
 
-        doReturn(Mono.just(List.of())).when(persistence).selectUsers();
-        doReturn(Mono.just(Map.of())).when(persistence).selectPaymentsSumAllUsers();
-        doReturn(Mono.error(new RuntimeException("Bad"))).when(persistence).selectPurchasesSumAllUsers();
+        doReturn(Mono.error(new RuntimeException("Bad"))).when(persistence).selectUsers(any(GetUsersRequest.class));
 
-        userDetailsService.findAllUsers()
+        userDetailsService.findUsers(new GetUsersRequest(null, null, null, GetUsersRequest.Sort.EMAIL, false, null, null))
                 .as(StepVerifier::create)
                 .verifyErrorSatisfies(error -> {
                     assertThat(error.getMessage(), containsString("Bad"));
                 });
 
-        verify(persistence, times(1)).selectUsers();
-        verify(persistence, times(1)).selectPaymentsSumAllUsers();
-        verify(persistence, times(1)).selectPurchasesSumAllUsers();
+        verify(persistence, times(1)).selectUsers(any(GetUsersRequest.class));
     }
 
     @Test
@@ -327,23 +323,26 @@ class UserDetailsServiceTest {
     void resetPassword_positive() {
 
         final UserDetails userDetails = new User(1L, "username@mail.com", "password", "roles", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), true);
+        final OutboxEmail email = new OutboxEmail();
 
         doReturn(Mono.just(userDetails)).when(persistence).selectUser(any(String.class));
-        doReturn(Mono.empty()).when(persistence).updateUserPassword(any(Long.class), any(String.class));
+        doReturn(Mono.empty()).when(persistence).updateUserPassword(any(Long.class), any(String.class), any(OutboxEmail.class));
         doReturn("pwd").when(passwordEncoder).encode(any(String.class));
+        doReturn(email).when(emailService).createResetPasswordEmail(any(String.class), any(String.class));
 
         Mono.just("username@mail.com")
                 .flatMap(userDetailsService::resetPassword)
                 .as(StepVerifier::create)
-                .assertNext(t -> {
-                    assertThat(t.getT1(), is("username@mail.com"));
-                    assertThat(t.getT2(), notNullValue());
-                    assertThat(t.getT2(), not(is("pwd")));
-                })
                 .verifyComplete();
 
-        verify(persistence, times(2)).selectUser("username@mail.com");
-        verify(persistence, times(1)).updateUserPassword(1L, "pwd");
+        verify(persistence, times(1)).selectUser("username@mail.com");
+        verify(persistence, times(1)).updateUserPassword(1L, "pwd", email);
+
+        final ArgumentCaptor<String> argumentCaptorPassword = ArgumentCaptor.forClass(String.class);
+        verify(emailService).createResetPasswordEmail(eq("username@mail.com"), argumentCaptorPassword.capture());
+        verify(passwordEncoder).encode(argumentCaptorPassword.getValue());
+
+        assertThat(argumentCaptorPassword.getValue().length(), is(6));
     }
 
     @Test
@@ -359,7 +358,8 @@ class UserDetailsServiceTest {
                 );
 
         verify(persistence, times(1)).selectUser(any(String.class));
-        verify(persistence, times(0)).updateUserPassword(any(Long.class), any(String.class));
+        verify(persistence, times(0)).updateUserPassword(any(Long.class), any(String.class), any(OutboxEmail.class));
+        verify(emailService, times(0)).createResetPasswordEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -381,7 +381,8 @@ class UserDetailsServiceTest {
                 });
 
         verify(persistence, times(1)).selectUser(any(String.class));
-        verify(persistence, times(0)).updateUserPassword(any(Long.class), any(String.class));
+        verify(persistence, times(0)).updateUserPassword(any(Long.class), any(String.class), any(OutboxEmail.class));
+        verify(emailService, times(0)).createResetPasswordEmail(any(String.class), any(String.class));
     }
 
     @Test
@@ -390,8 +391,9 @@ class UserDetailsServiceTest {
         final UserDetails userDetails = new User(1L, "username@mail.com", "password", "roles", "registration-secret", Instant.parse("2024-05-19T23:54:01Z"), true);
 
         doReturn(Mono.just(userDetails)).when(persistence).selectUser(any(String.class));
-        doReturn(Mono.error(new RuntimeException("User not updated"))).when(persistence).updateUserPassword(any(Long.class), any(String.class));
+        doReturn(Mono.error(new RuntimeException("User not updated"))).when(persistence).updateUserPassword(any(Long.class), any(String.class), any(OutboxEmail.class));
         doReturn("pwd").when(passwordEncoder).encode(any(String.class));
+        doReturn(new OutboxEmail()).when(emailService).createResetPasswordEmail(any(String.class), any(String.class));
 
         Mono.just("username@mail.com")
                 .flatMap(userDetailsService::resetPassword)
@@ -400,8 +402,8 @@ class UserDetailsServiceTest {
                         assertThat(error.getMessage(), containsString("User not updated"))
                 );
 
-        verify(persistence, times(2)).selectUser(any(String.class));
-        verify(persistence, times(1)).updateUserPassword(any(Long.class), any(String.class));
+        verify(persistence, times(1)).selectUser(any(String.class));
+        verify(persistence, times(1)).updateUserPassword(any(Long.class), any(String.class), any(OutboxEmail.class));
     }
 
     @Test
@@ -453,7 +455,7 @@ class UserDetailsServiceTest {
 
         final User user = new User(1L, "username@mail.com", "password", User.Role.USER, null, null, null);
 
-        doReturn(List.of("username@mail.com")).when(adminProperties).emails();
+        doReturn(List.of("username@mail.com")).when(tenants).adminEmails("bar-1");
 
         doReturn("https://issuer.com").when(jwtProperties).issuer();
         doReturn("audience").when(jwtProperties).audience();
@@ -461,11 +463,11 @@ class UserDetailsServiceTest {
 
         doReturn(new Jwt("ecoded-jwt", Instant.MIN, Instant.MAX, Map.of("header", "h"), Map.of("claim", "m"))).when(jwtEncoder).encode(any());
 
-        final PostLoginResponse response = userDetailsService.createJwtToken(user);
+        final PostLoginResponse response = userDetailsService.createJwtToken(user, "bar-1");
 
         final ArgumentCaptor<JwtEncoderParameters> captor = ArgumentCaptor.forClass(JwtEncoderParameters.class);
         verify(jwtEncoder, times(1)).encode(captor.capture());
-        verify(adminProperties, times(1)).emails();
+        verify(tenants, times(1)).adminEmails("bar-1");
 
         assertThat(response.jwt(), is("ecoded-jwt"));
         assertThat(response.secure(), is(jwtProperties.secure()));
@@ -481,6 +483,7 @@ class UserDetailsServiceTest {
         assertThat(parameters.getClaims().getExpiresAt(), is(lessThan(Instant.now().plus(Duration.ofHours(1).plusSeconds(10)))));
         assertThat(parameters.getClaims().getSubject(), is("username@mail.com"));
         assertThat(parameters.getClaims().getClaims().get("authorities"), is(List.of(User.Role.USER, User.Role.ADMIN)));
+        assertThat(parameters.getClaims().getClaims().get("tenant"), is("bar-1"));
     }
 
     @Test
@@ -495,11 +498,11 @@ class UserDetailsServiceTest {
 
         doReturn(new Jwt("ecoded-jwt", Instant.MIN, Instant.MAX, Map.of("header", "h"), Map.of("claim", "m"))).when(jwtEncoder).encode(any());
 
-        final PostLoginResponse response = userDetailsService.createJwtToken(user);
+        final PostLoginResponse response = userDetailsService.createJwtToken(user, TenantContext.DEFAULT);
 
         final ArgumentCaptor<JwtEncoderParameters> captor = ArgumentCaptor.forClass(JwtEncoderParameters.class);
         verify(jwtEncoder, times(1)).encode(captor.capture());
-        verify(adminProperties, times(1)).emails();
+        verify(tenants, times(1)).adminEmails(TenantContext.DEFAULT);
 
         assertThat(response.jwt(), is("ecoded-jwt"));
         assertThat(response.secure(), is(jwtProperties.secure()));
@@ -515,6 +518,7 @@ class UserDetailsServiceTest {
         assertThat(parameters.getClaims().getExpiresAt(), is(lessThan(Instant.now().plus(Duration.ofHours(1).plusSeconds(10)))));
         assertThat(parameters.getClaims().getSubject(), is("username@mail.com"));
         assertThat(parameters.getClaims().getClaims().get("authorities"), is(List.of(User.Role.USER)));
+        assertThat(parameters.getClaims().getClaims().get("tenant"), is(TenantContext.DEFAULT));
     }
 
     @Test
@@ -523,10 +527,14 @@ class UserDetailsServiceTest {
         doReturn(Mono.just(false)).when(persistence).existsUser(any(String.class));
         doReturn(Mono.just(new User() {{
             setId(1L);
-        }})).when(persistence).insertUser(any(User.class));
+        }})).when(persistence).insertUser(any(User.class), any(OutboxEmail.class));
 
         doReturn("encoded-password").when(passwordEncoder).encode(any(String.class));
 
+        final OutboxEmail email = new OutboxEmail();
+        doReturn("http://url-register").when(tenants).registrationUrl(TenantContext.DEFAULT);
+        doReturn(email).when(emailService).createRegistrationEmail(any(String.class), any(String.class), any(String.class));
+
         userDetailsService.createUser("new-user@mail.com", "test-password", List.of("a", "b", "c"))
                 .as(StepVerifier::create)
                 .assertNext(user -> {
@@ -536,13 +544,13 @@ class UserDetailsServiceTest {
                 .verifyComplete();
 
         verify(persistence, times(1)).existsUser(any(String.class));
-        verify(persistence, times(1)).insertUser(any(User.class));
+        verify(persistence, times(1)).insertUser(any(User.class), any(OutboxEmail.class));
 
         final ArgumentCaptor<String> argumentCaptorExists = ArgumentCaptor.forClass(String.class);
         verify(persistence).existsUser(argumentCaptorExists.capture());
 
         final ArgumentCaptor<User> argumentCaptorInsert = ArgumentCaptor.forClass(User.class);
-        verify(persistence).insertUser(argumentCaptorInsert.capture());
+        verify(persistence).insertUser(argumentCaptorInsert.capture(), eq(email));
 
         assertThat(argumentCaptorExists.getValue(), is("new-user@mail.com"));
 
@@ -557,6 +565,8 @@ class UserDetailsServiceTest {
         assertThat(user.getRegistrationOn().isAfter(Instant.now().minusSeconds(60)), is(true));
         assertThat(user.getRegistrationOn().isBefore(Instant.now()), is(true));
         assertThat(user.getRegistrationComplete(), is(false));
+
+        verify(emailService, times(1)).createRegistrationEmail("new-user@mail.com", user.getRegistrationSecret(), "http://url-register");
     }
 
     @Test
@@ -575,7 +585,8 @@ class UserDetailsServiceTest {
                 });
 
         verify(persistence, times(1)).existsUser(any(String.class));
-        verify(persistence, times(0)).insertUser(any(User.class));
+        verify(persistence, times(0)).insertUser(any(User.class), any(OutboxEmail.class));
+        verify(emailService, times(0)).createRegistrationEmail(any(String.class), any(String.class), any(String.class));
 
         final ArgumentCaptor<String> argumentCaptorExists = ArgumentCaptor.forClass(String.class);
         verify(persistence).existsUser(argumentCaptorExists.capture());
@@ -583,6 +594,42 @@ class UserDetailsServiceTest {
         assertThat(argumentCaptorExists.getValue(), is("new-user@mail.com"));
     }
 
+    @Test
+    void createImportedUsers_positive() {
+
+        doReturn(Mono.just(Map.of(1, "Email is taken"))).when(persistence).insertUsers(any());
+        doReturn("encoded-password").when(passwordEncoder).encode(any(String.class));
+        doAnswer(invocation -> new OutboxEmail() {{
+            setRecipient(invocation.getArgument(0));
+        }}).when(emailService).createImportedUserEmail(any(String.class), any(String.class));
+
+        userDetailsService.createImportedUsers(List.of("alice@mail.com", "bob@mail.com"))
+                .as(StepVerifier::create)
+                .assertNext(errors -> assertThat(errors, is(Map.of(1, "Email is taken"))))
+                .verifyComplete();
+
+
+        @SuppressWarnings("unchecked") final ArgumentCaptor<List<Tuple2<User, OutboxEmail>>> argumentCaptor = ArgumentCaptor.forClass(List.class);
+        verify(persistence, times(1)).insertUsers(argumentCaptor.capture());
+
+        // In the order of the emails, although hashed in parallel
+        final List<Tuple2<User, OutboxEmail>> users = argumentCaptor.getValue();
+        assertThat(users.stream().map(u -> u.getT1().getEmail()).toList(), is(List.of("alice@mail.com", "bob@mail.com")));
+        assertThat(users.stream().map(u -> u.getT2().getRecipient()).toList(), is(List.of("alice@mail.com", "bob@mail.com")));
+
+        final User user = users.getFirst().getT1();
+        assertThat(user.getId(), nullValue());
+        assertThat(user.getPassword(), is("encoded-password"));
+        assertThat(user.getRoles(), is(User.Role.USER));
+        assertThat(user.getRegistrationComplete(), is(true));
+
+        // The emailed password is the hashed one
+        final ArgumentCaptor<String> argumentCaptorPassword = ArgumentCaptor.forClass(String.class);
+        verify(emailService, times(2)).createImportedUserEmail(any(String.class), argumentCaptorPassword.capture());
+        verify(passwordEncoder, times(1)).encode(argumentCaptorPassword.getAllValues().getFirst());
+        assertThat(argumentCaptorPassword.getAllValues().getFirst().length(), is(6));
+    }
+
     @Test
     void checkRegistrationSecret_positive() {
 
@@ -652,22 +699,47 @@ class UserDetailsServiceTest {
     @Test
     void deleteUnregisteredUsers_positive() {
 
-        doReturn(Mono.just(2L)).when(persistence).deleteUnregisteredUsers(any(Instant.class));
+        doReturn(Mono.just(1L)).when(persistence).deleteUnregisteredUsers(any(Instant.class), anyInt());
 
         userDetailsService.deleteUnregisteredUsers()
                 .as(StepVerifier::create)
-                .assertNext(count -> assertThat(count, is(2L)))
+                .assertNext(count -> assertThat(count, is(1L)))
                 .verifyComplete();
 
-        verify(persistence, times(1)).deleteUnregisteredUsers(any(Instant.class));
+        verify(persistence, times(1)).deleteUnregisteredUsers(any(Instant.class), eq(2));
 
         final ArgumentCaptor<Instant> argumentCaptorExists = ArgumentCaptor.forClass(Instant.class);
-        verify(persistence).deleteUnregisteredUsers(argumentCaptorExists.capture());
+        verify(persistence).deleteUnregisteredUsers(argumentCaptorExists.capture(), anyInt());
 
         assertThat(argumentCaptorExists.getValue().isAfter(Instant.now().minusSeconds(60)), is(true));
         assertThat(argumentCaptorExists.getValue().isBefore(Instant.now()), is(true));
     }
 
+    @Test
+    void deleteUnregisteredUsers_positive_Chunks() {
+
+        doReturn(Mono.just(2L), Mono.just(2L), Mono.just(1L)).when(persistence).deleteUnregisteredUsers(any(Instant.class), anyInt());
+
+        userDetailsService.deleteUnregisteredUsers()
+                .as(StepVerifier::create)
+                .assertNext(count -> assertThat(count, is(5L)))
+                .verifyComplete();
+
+        verify(persistence, times(3)).deleteUnregisteredUsers(any(Instant.class), eq(2));
+    }
+
+    @Test
+    void deleteUnregisteredUsers_negative_ChunkFailed() {
+
+        doReturn(Mono.just(2L), Mono.error(new RuntimeException("Error"))).when(persistence).deleteUnregisteredUsers(any(Instant.class), anyInt());
+
+        userDetailsService.deleteUnregisteredUsers()
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+
+        verify(persistence, times(2)).deleteUnregisteredUsers(any(Instant.class), eq(2));
+    }
+
     @Test
     void createInvitationCodeIfNotExists_positive_InvitationNotExists() {
 
@@ -676,7 +748,9 @@ class UserDetailsServiceTest {
 
         doReturn("encoded-invitation-code").when(passwordEncoder).encode(any(String.class));
 
-        userDetailsService.createInvitationCodeIfNoneExists();
+        userDetailsService.createInvitationCodeIfNoneExists()
+                .as(StepVerifier::create)
+                .verifyComplete();
 
         verify(persistence, times(1)).existsUser(any(String.class));
         verify(persistence, times(1)).insertUser(any(User.class));
@@ -702,7 +776,9 @@ class UserDetailsServiceTest {
 
         doReturn(Mono.just(true)).when(persistence).existsUser(any(String.class));
 
-        userDetailsService.createInvitationCodeIfNoneExists();
+        userDetailsService.createInvitationCodeIfNoneExists()
+                .as(StepVerifier::create)
+                .verifyComplete();
 
         verify(persistence, times(1)).existsUser(any(String.class));
         verify(persistence, times(0)).insertUser(any(User.class));
@@ -712,4 +788,40 @@ class UserDetailsServiceTest {
 
         assertThat(argumentCaptorExists.getValue(), is("invitation-code"));
     }
+
+    @Test
+    void createInvitationCodeIfNotExists_negative_InsertFails() {
+
+        doReturn(Mono.just(false)).when(persistence).existsUser(any(String.class));
+        doReturn(Mono.error(new RuntimeException("Error"))).when(persistence).insertUser(any(User.class));
+        doReturn("encoded-invitation-code").when(passwordEncoder).encode(any(String.class));
+
+        userDetailsService.createInvitationCodeIfNoneExists()
+                .as(StepVerifier::create)
+                .verifyErrorSatisfies(error -> assertThat(error.getMessage(), is("Error")));
+    }
+
+    @Test
+    void createInvitationCodeIfNotExists_positive_CreatedByOtherInstance() {
+
+        doReturn(Mono.just(false)).when(persistence).existsUser(any(String.class));
+        doReturn(Mono.error(new DuplicateKeyException("Unique index violation: \"PUBLIC.UQ_USERS_TENANT_EMAIL_INDEX_4\""))).when(persistence).insertUser(any(User.class));
+        doReturn("encoded-invitation-code").when(passwordEncoder).encode(any(String.class));
+
+        userDetailsService.createInvitationCodeIfNoneExists()
+                .as(StepVerifier::create)
+                .verifyComplete();
+    }
+
+    @Test
+    void createInvitationCodeIfNotExists_negative_OtherDuplicateKey() {
+
+        doReturn(Mono.just(false)).when(persistence).existsUser(any(String.class));
+        doReturn(Mono.error(new DuplicateKeyException("Unique index violation: \"PUBLIC.CONSTRAINT_4D\""))).when(persistence).insertUser(any(User.class));
+        doReturn("encoded-invitation-code").when(passwordEncoder).encode(any(String.class));
+
+        userDetailsService.createInvitationCodeIfNoneExists()
+                .as(StepVerifier::create)
+                .verifyError(DuplicateKeyException.class);
+    }
 }
@@ -0,0 +1,160 @@
+package de.saschaufer.tallyapp.tenancy;
+
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class TenantFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    // The tenant in the context and the exchange the chain was called with
+    private List<String> tenants;
+    private List<ServerWebExchange> exchanges;
+
+    private final WebFilterChain chain = exchange -> TenantContext.current()
+            .doOnNext(tenant -> {
+                tenants.add(tenant);
+                exchanges.add(exchange);
+            })
+            .then();
+
+    @BeforeEach
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+        tenants = new ArrayList<>();
+        exchanges = new ArrayList<>();
+    }
+
+    @Test
+    void filter_positive_Disabled() {
+
+        final MockServerWebExchange exchange = exchange("http://bar-1.com/products");
+
+        filter(false, TenancyProperties.Resolution.HOST, true).filter(exchange, chain)
+                .as(StepVerifier::create)
+                .verifyComplete();
+
+        assertThat(tenants, is(List.of(TenantContext.DEFAULT)));
+        assertThat(exchange.getAttributes().get(TenantContext.KEY), is(TenantContext.DEFAULT));
+    }
+
+    @Test
+    void filter_positive_Host() {
+
+        final TenantFilter filter = filter(true, TenancyProperties.Resolution.HOST, true);
+
+        filter.filter(exchange("http://bar-1.com/products"), chain).block();
+        filter.filter(exchange("http://unknown.com/products"), chain).block();
+
+        // Unknown hosts go to the default tenant
+        assertThat(tenants, is(List.of("bar-1", TenantContext.DEFAULT)));
+        assertThat(exchanges.getFirst().getAttributes().get(TenantContext.KEY), is("bar-1"));
+        assertThat(exchanges.getFirst().getRequest().getPath().pathWithinApplication().value(), is("/products"));
+    }
+
+    @Test
+    void filter_positive_Path() {
+
+        final TenantFilter filter = filter(true, TenancyProperties.Resolution.PATH, true);
+
+        filter.filter(exchange("http://tally.com/bar-1/products"), chain).block();
+        filter.filter(exchange("http://tally.com/products"), chain).block();
+
+        assertThat(tenants, is(List.of("bar-1", TenantContext.DEFAULT)));
+
+        // The routes see the path without the tenant
+        assertThat(exchanges.get(0).getRequest().getPath().contextPath().value(), is("/bar-1"));
+        assertThat(exchanges.get(0).getRequest().getPath().pathWithinApplication().value(), is("/products"));
+        assertThat(exchanges.get(1).getRequest().getPath().pathWithinApplication().value(), is("/products"));
+    }
+
+    @Test
+    void filter_positive_Actuator() {
+
+        final MockServerWebExchange exchange = exchange("http://unknown.com/actuator/health");
+
+        filter(true, TenancyProperties.Resolution.HOST, false).filter(exchange, chain).block();
+
+        assertThat(exchanges, hasSize(1));
+        assertThat(exchange.getResponse().getStatusCode(), nullValue());
+    }
+
+    @Test
+    void filter_negative_UnknownTenant() {
+
+        final MockServerWebExchange exchange = exchange("http://unknown.com/products");
+
+        filter(true, TenancyProperties.Resolution.HOST, false).filter(exchange, chain).block();
+
+        assertThat(exchanges, empty());
+        assertThat(exchange.getResponse().getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void filter_negative_TooManyRequests() {
+
+        final TenantFilter filter = filter(true, TenancyProperties.Resolution.HOST, true);
+
+        // Two requests of 'bar-1' in flight
+        final Disposable first = filter.filter(exchange("http://bar-1.com/products"), exchange -> Mono.never()).subscribe();
+        final Disposable second = filter.filter(exchange("http://bar-1.com/products"), exchange -> Mono.never()).subscribe();
+
+        assertThat(meterRegistry.get(TenantFilter.REQUESTS_ACTIVE).tag("tenant", "bar-1").gauge().value(), is(2.0));
+
+        final MockServerWebExchange rejected = exchange("http://bar-1.com/products");
+        filter.filter(rejected, chain).block();
+
+        assertThat(rejected.getResponse().getStatusCode(), is(HttpStatus.TOO_MANY_REQUESTS));
+        assertThat(rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER), is("1"));
+        assertThat(meterRegistry.get(TenantFilter.REQUESTS_REJECTED).tag("tenant", "bar-1").counter().count(), is(1.0));
+
+        // Other tenants are not affected
+        filter.filter(exchange("http://tally.com/products"), chain).block();
+        assertThat(tenants, is(List.of(TenantContext.DEFAULT)));
+
+        // Finished requests free their slot
+        first.dispose();
+        filter.filter(exchange("http://bar-1.com/products"), chain).block();
+        assertThat(tenants, is(List.of(TenantContext.DEFAULT, "bar-1")));
+
+        second.dispose();
+        assertThat(meterRegistry.get(TenantFilter.REQUESTS_ACTIVE).tag("tenant", "bar-1").gauge().value(), is(0.0));
+    }
+
+    private TenantFilter filter(final boolean enabled, final TenancyProperties.Resolution resolution, final boolean withDefault) {
+
+        final List<TenancyProperties.Tenant> tenantList = new ArrayList<>();
+
+        if (withDefault) {
+            tenantList.add(new TenancyProperties.Tenant(TenantContext.DEFAULT, List.of("tally.com"), null, null, null));
+        }
+
+        tenantList.add(new TenancyProperties.Tenant("bar-1", List.of("bar-1.com"), null, null, 2));
+
+        final Tenants tenants = new Tenants(new TenancyProperties(enabled, resolution, 64, tenantList), new AdminProperties(List.of()), null);
+
+        return new TenantFilter(tenants, meterRegistry);
+    }
+
+    private static MockServerWebExchange exchange(final String url) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(url));
+    }
+}
@@ -0,0 +1,78 @@
+package de.saschaufer.tallyapp.tenancy;
+
+import de.saschaufer.tallyapp.config.admin.AdminProperties;
+import de.saschaufer.tallyapp.config.email.EmailProperties;
+import de.saschaufer.tallyapp.config.tenancy.TenancyProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class TenantsTest {
+
+    private final AdminProperties adminProperties = new AdminProperties(List.of("admin@mail.com"));
+    private final EmailProperties emailProperties = new EmailProperties("from@mail.com", "http://url-register", Duration.ofHours(1), null, null);
+
+    private final List<TenancyProperties.Tenant> tenants = List.of(
+            new TenancyProperties.Tenant(TenantContext.DEFAULT, List.of("tally.com"), null, null, null),
+            new TenancyProperties.Tenant("bar-1", List.of("Bar-1.com", "www.bar-1.com"), List.of("admin@bar-1.com"), "http://bar-1.com", 2)
+    );
+
+    @Test
+    void tenants_positive_Disabled() {
+
+        final Tenants disabled = tenants(false, TenancyProperties.Resolution.HOST);
+
+        assertThat(disabled.isEnabled(), is(false));
+        assertThat(disabled.ids(), is(List.of(TenantContext.DEFAULT)));
+        assertThat(disabled.exists(TenantContext.DEFAULT), is(true));
+        assertThat(disabled.exists("bar-1"), is(false));
+        assertThat(disabled.byHost("bar-1.com"), nullValue());
+        assertThat(disabled.adminEmails(TenantContext.DEFAULT), is(List.of("admin@mail.com")));
+        assertThat(disabled.registrationUrl(TenantContext.DEFAULT), is("http://url-register"));
+        assertThat(disabled.maxConcurrentRequests(TenantContext.DEFAULT), is(64));
+    }
+
+    @Test
+    void tenants_positive_Host() {
+
+        final Tenants enabled = tenants(true, TenancyProperties.Resolution.HOST);
+
+        assertThat(enabled.ids(), is(List.of(TenantContext.DEFAULT, "bar-1")));
+        assertThat(enabled.exists("bar-1"), is(true));
+        assertThat(enabled.exists("bar-2"), is(false));
+
+        assertThat(enabled.byHost("tally.com"), is(TenantContext.DEFAULT));
+        assertThat(enabled.byHost("bar-1.com"), is("bar-1"));
+        assertThat(enabled.byHost("WWW.BAR-1.COM"), is("bar-1"));
+        assertThat(enabled.byHost("bar-2.com"), nullValue());
+        assertThat(enabled.byHost(null), nullValue());
+
+        // The admins of the app are admins of the default tenant only
+        assertThat(enabled.adminEmails(TenantContext.DEFAULT), is(List.of("admin@mail.com")));
+        assertThat(enabled.adminEmails("bar-1"), is(List.of("admin@bar-1.com")));
+        assertThat(enabled.adminEmails("bar-2"), empty());
+
+        assertThat(enabled.registrationUrl(TenantContext.DEFAULT), is("http://url-register"));
+        assertThat(enabled.registrationUrl("bar-1"), is("http://bar-1.com"));
+
+        assertThat(enabled.maxConcurrentRequests(TenantContext.DEFAULT), is(64));
+        assertThat(enabled.maxConcurrentRequests("bar-1"), is(2));
+    }
+
+    @Test
+    void tenants_positive_Path() {
+
+        final Tenants enabled = tenants(true, TenancyProperties.Resolution.PATH);
+
+        assertThat(enabled.registrationUrl(TenantContext.DEFAULT), is("http://url-register/default"));
+        assertThat(enabled.registrationUrl("bar-1"), is("http://bar-1.com"));
+    }
+
+    private Tenants tenants(final boolean enabled, final TenancyProperties.Resolution resolution) {
+        return new Tenants(new TenancyProperties(enabled, resolution, 64, tenants), adminProperties, emailProperties);
+    }
+}
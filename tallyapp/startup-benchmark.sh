@@ -0,0 +1,98 @@
+#!/bin/bash
+
+# Compares the startup time of the app in different modes.
+# Build the app with the profile aot-cds beforehand (mvn clean verify -P aot-cds).
+#
+#   jar      The executable JAR
+#   extract  The extracted JAR
+#   aot      The extracted JAR with the bean definitions generated at build time
+#   aot-cds  The extracted JAR with the bean definitions generated at build time and the CDS archive
+#
+# The startup time is the time the JVM is running when the app logs 'Started Application' (before the warm-up).
+
+# Get the arguments passed to the script.
+runs=5
+while getopts r: flag
+do
+    case "${flag}" in
+        r) runs=${OPTARG};;
+        *) # nothing
+    esac
+done
+
+jar=$(ls target/tallyapp*.jar 2>/dev/null | head -n 1)
+cds="target/cds"
+
+if [ -z "$jar" ] || [ ! -f "$cds/tallyapp.jar" ] || [ ! -f "$cds/tallyapp.jsa" ]; then
+    echo "Build the app with the profile aot-cds first (mvn clean verify -P aot-cds)."
+    exit 2
+fi
+
+args=(
+  --spring.config.additional-location=file:target/archive-pack/application-default.yml
+  --server.port=0
+  --email.from=benchmark@tally.app
+  --spring.mail.host=localhost
+  --admin.emails=benchmark@tally.app
+  --warm-up.enabled=false
+)
+
+declare -A modes=(
+  [jar]="-jar $jar"
+  [extract]="-jar $cds/tallyapp.jar"
+  [aot]="-Dspring.aot.enabled=true -jar $cds/tallyapp.jar"
+  [aot-cds]="-XX:SharedArchiveFile=$cds/tallyapp.jsa -Dspring.aot.enabled=true -jar $cds/tallyapp.jar"
+)
+
+log=$(mktemp)
+trap 'rm -f "$log"' EXIT
+
+# Starts the app, waits until it is started and prints the JVM uptime in seconds.
+start() {
+
+  # shellcheck disable=SC2086
+  java $1 "${args[@]}" > "$log" 2>&1 &
+  local pid=$!
+
+  local seconds=""
+  for _ in $(seq 1 600); do
+    seconds=$(grep -o "process running for [0-9.]*" "$log" | grep -o "[0-9.]*$")
+    if [ -n "$seconds" ] || ! kill -0 "$pid" 2>/dev/null; then
+      break
+    fi
+    sleep 0.1
+  done
+
+  kill "$pid" 2>/dev/null
+  wait "$pid" 2>/dev/null
+
+  if [ -z "$seconds" ]; then
+    echo "App did not start:" >&2
+    cat "$log" >&2
+    exit 1
+  fi
+
+  echo "$seconds"
+}
+
+printf "%-10s %10s %10s %10s\n" "Mode" "Min (s)" "Avg (s)" "Max (s)"
+
+for mode in jar extract aot aot-cds; do
+
+  # Discard the first run, which fills the file system cache
+  start "${modes[$mode]}" > /dev/null
+
+  times=()
+  for _ in $(seq 1 "$runs"); do
+    times+=("$(start "${modes[$mode]}")")
+  done
+
+  printf "%s\n" "${times[@]}" | awk -v mode="$mode" '
+    NR == 1 { min = $1; max = $1 }
+    { sum += $1; if ($1 < min) min = $1; if ($1 > max) max = $1 }
+    END { printf "%-10s %10.3f %10.3f %10.3f\n", mode, min, sum / NR, max }
+  '
+
+done
+
+exit 0